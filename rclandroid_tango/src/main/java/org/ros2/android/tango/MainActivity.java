@@ -23,10 +23,20 @@ import android.widget.TextView;
 //import org.rajawali3d.view.SurfaceView; // 1.1
 import org.rajawali3d.surface.RajawaliSurfaceView; // 1.0
 import org.ros2.android.core.BaseRosActivity;
+import org.ros2.android.tango.pointcloud.ConfidenceFilter;
+import org.ros2.android.tango.pointcloud.DepthFilter;
+import org.ros2.android.tango.pointcloud.PointCloudFilter;
+import org.ros2.android.tango.pointcloud.PointCloudFilters;
 import org.ros2.android.tango.ux.rajawali.TangoPointCloudRajawaliRenderer;
 import org.ros2.android.tango.ux.TangoPointCloudRenderer;
 
 public class MainActivity extends BaseRosActivity {
+    // Point cloud filtering, shared by the published and the rendered clouds.
+    private static final float MIN_CONFIDENCE = 0.5f;
+    private static final float MIN_DEPTH = 0.2f;
+    private static final float MAX_DEPTH = 5f;
+    // Color the rendered cloud on the GPU, only the point buffer is uploaded.
+    private static final boolean SHADER_COLORS = true;
 
     private TangoNode node;
     private TangoPointCloudRenderer renderer;
@@ -46,10 +56,16 @@ public class MainActivity extends BaseRosActivity {
         RajawaliSurfaceView surfaceView = this.findViewById(R.id.gl_surface_view); // For Rajawali engine
 
         //this.renderer = new TangoPointCloudOpenGLRenderer(this, this.surfaceView);
-        this.renderer = new TangoPointCloudRajawaliRenderer(this, surfaceView);
+        this.renderer = new TangoPointCloudRajawaliRenderer(this, surfaceView, SHADER_COLORS);
         this.renderer.setupRenderer();
 
+        PointCloudFilter filter = new PointCloudFilters()
+                .add(new ConfidenceFilter(MIN_CONFIDENCE))
+                .add(new DepthFilter(MIN_DEPTH, MAX_DEPTH));
+        this.renderer.setPointCloudFilter(filter);
+
         this.node = new TangoNode(this, "tango", this.renderer);
+        this.node.setPointCloudFilter(filter);
     }
 
     @Override
@@ -16,9 +16,11 @@ package org.ros2.android.tango;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
 import com.google.atap.tangoservice.TangoConfig;
 import com.google.atap.tangoservice.TangoCoordinateFramePair;
 import com.google.atap.tangoservice.TangoErrorException;
@@ -37,32 +39,97 @@ import com.google.tango.ux.UxExceptionEventListener;
 import org.ros2.android.core.RosConfig;
 import org.ros2.android.core.RosManager;
 import org.ros2.android.core.node.AndroidNativeNode;
+import org.ros2.android.tango.camera.CameraFrameReader;
+import org.ros2.android.tango.camera.CameraImageEncoder;
+import org.ros2.android.tango.imu.ImuPublisher;
+import org.ros2.android.tango.metrics.DiagnosticsPublisher;
+import org.ros2.android.tango.metrics.LatencyHistogram;
+import org.ros2.android.tango.metrics.MetricsRegistry;
+import org.ros2.android.tango.map.OccupancyGridMapper;
+import org.ros2.android.tango.map.OccupancyGridPublisher;
+import org.ros2.android.tango.map.PointChunk;
+import org.ros2.android.tango.map.PointMap;
+import org.ros2.android.tango.map.PointMapChunker;
+import org.ros2.android.tango.plane.PlanePublisher;
+import org.ros2.android.tango.plane.PlaneSegmenter;
+import org.ros2.android.tango.pointcloud.PointCloudFilter;
+import org.ros2.android.tango.pointcloud.PointCloudPipeline;
+import org.ros2.android.tango.pointcloud.PointCloudProcessor;
+import org.ros2.android.tango.pointcloud.PointCloudStatistics;
+import org.ros2.android.tango.pose.PoseHistory;
+import org.ros2.android.tango.pose.PoseMath;
+import org.ros2.android.tango.pose.PosePublisher;
+import org.ros2.android.tango.recording.SessionRecorder;
+import org.ros2.android.tango.scan.LaserScanProjector;
+import org.ros2.android.tango.scan.LaserScanPublisher;
+import org.ros2.android.tango.util.ClockMapper;
+import org.ros2.android.tango.sensor.SensorSource;
 import org.ros2.android.tango.ux.TangoPointCloudRenderer;
 import org.ros2.rcljava.node.topic.Publisher;
 import org.ros2.rcljava.qos.QoSProfile;
 import org.ros2.rcljava.time.WallTimer;
 import org.ros2.rcljava.time.WallTimerCallback;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
-import geometry_msgs.msg.Point32;
+import diagnostic_msgs.msg.DiagnosticArray;
+import map_msgs.msg.OccupancyGridUpdate;
+import nav_msgs.msg.OccupancyGrid;
+import nav_msgs.msg.Odometry;
+import sensor_msgs.msg.CameraInfo;
+import sensor_msgs.msg.CompressedImage;
+import sensor_msgs.msg.Image;
 import sensor_msgs.msg.Imu;
+import sensor_msgs.msg.LaserScan;
 import sensor_msgs.msg.PointCloud;
+import sensor_msgs.msg.PointCloud2;
+import tf2_msgs.msg.TFMessage;
+import visualization_msgs.msg.MarkerArray;
 
-public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
+public class TangoNode extends AndroidNativeNode implements SensorSource.Listener {
     private static final String TAG = "TangoNode";
 
+    /**
+     * Message type used to publish the depth point cloud on /cloud.
+     */
+    public enum CloudFormat {
+        /** Legacy sensor_msgs/PointCloud, one Point32 per point. */
+        POINT_CLOUD,
+        /** Packed sensor_msgs/PointCloud2 with x, y, z and confidence fields. */
+        POINT_CLOUD2
+    }
+
+    public static final String FRAME_START_OF_SERVICE = "start_of_service";
+    public static final String FRAME_DEVICE = "device";
+    public static final String FRAME_CAMERA_DEPTH = "camera_depth";
+    public static final String FRAME_CAMERA_COLOR = "camera_color";
+    public static final String FRAME_SCAN = "scan";
+
     private static final String UX_EXCEPTION_EVENT_DETECTED = "Exception Detected: ";
     private static final String UX_EXCEPTION_EVENT_RESOLVED = "Exception Resolved: ";
 
     private static final int SECS_TO_MILLISECS = 1000;
+    private static final double NANOSECS_TO_SECS = 1e-9;
+    private static final int MAX_NUMBER_OF_POINTS = 60000;
     private static final double UPDATE_INTERVAL_MS = 100.0;
+    // Rendered in chunks of 8 leaves a side (1.6 m), with 4 levels of detail.
+    private static final int MAP_CHUNK_LEVELS = 3;
+    private static final int MAP_LOD_LEVELS = 4;
+    // Color camera images, downscaled from the 1920 x 1080 camera.
+    private static final int DEFAULT_CAMERA_WIDTH = 640;
+    private static final int DEFAULT_CAMERA_HEIGHT = 360;
+    private static final double DEFAULT_CAMERA_RATE = 0;
+    private static final int CAMERA_ENCODER_THREADS = 2;
+    private static final long DIAGNOSTICS_PERIOD_MS = 1000;
 
     private Tango tango;
     private TangoConfig tangoConfig;
+    // Replaces the Tango service when set, e.g. a synthetic source to run without a device.
+    private SensorSource sensorSource;
     private TangoUx tangoUx = null;
 
     private TangoPointCloudRenderer renderer;
@@ -73,55 +140,337 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
 
     private RosConfig rosConfig;
     private RosManager rosManager;
-    private WallTimer timer;
+    private final PointCloudPipeline pointCloudPipeline;
+    private final CloudFormat cloudFormat;
     private Publisher<PointCloud> pcPublisher;
+    private Publisher<PointCloud2> pc2Publisher;
+    private Publisher<CompressedImage> compressedCloudPublisher;
+    private Publisher<Image> depthImagePublisher;
+    private Publisher<PointCloud2> worldCloudPublisher;
+    private Publisher<PointCloud2> normalCloudPublisher;
+    private Publisher<MarkerArray> planeMarkerPublisher;
+    private Publisher<LaserScan> scanPublisher;
+    private Publisher<DiagnosticArray> diagnosticsPublisher;
+    private final PlanePublisher planePublisher;
+    private Publisher<CompressedImage> cameraImagePublisher;
+    private Publisher<CameraInfo> depthCameraInfoPublisher;
     private Publisher<Imu> imuPublisher;
+    private final ImuPublisher imu;
+    private Publisher<TFMessage> tfPublisher;
+    private Publisher<TFMessage> tfStaticPublisher;
+    private Publisher<Odometry> odomPublisher;
+    private Publisher<PointCloud2> mapPublisher;
+    private Publisher<OccupancyGrid> gridPublisher;
+    private Publisher<OccupancyGridUpdate> gridUpdatePublisher;
+    private final OccupancyGridPublisher occupancyGridPublisher;
+    private final PosePublisher posePublisher;
+
+    // Offset between the elapsed realtime clock and the Tango clock, used to stamp sensor data.
+    private final ClockMapper tangoClock = new ClockMapper();
+
+    // Color camera images, applied on resume. Reader and encoder live while Tango is connected.
+    private int cameraWidth = DEFAULT_CAMERA_WIDTH;
+    private int cameraHeight = DEFAULT_CAMERA_HEIGHT;
+    private double cameraRate = DEFAULT_CAMERA_RATE;
+    private int cameraQuality = CameraImageEncoder.DEFAULT_QUALITY;
+    private CameraImageEncoder cameraImageEncoder;
+    private volatile CameraFrameReader cameraFrameReader;
+
+    // Filters, messages and maps of the depth clouds, on the pipeline thread.
+    private final PointCloudProcessor pointCloudProcessor;
+    private final LaserScanPublisher laserScanPublisher;
+
+    // Where the time goes from the Tango callback to the publish calls, reported on /diagnostics.
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LatencyHistogram tangoCallbackLatency = this.metrics.histogram("stage/tango_callback");
+    private final LatencyHistogram cloudManagerLatency = this.metrics.histogram("stage/cloud_manager");
+    private final DiagnosticsPublisher diagnostics;
+    private final WallTimer diagnosticsTimer;
+
+    // Records what Tango delivers, null when not recording.
+    private volatile SessionRecorder sessionRecorder;
+
+    // Owned by the pipeline thread.
+    private final PointMapChunker mapChunker =
+            new PointMapChunker(PointCloudProcessor.MAP_LEAF_SIZE, MAP_CHUNK_LEVELS,
+                    MAP_LOD_LEVELS);
+    private final ArrayList<PointChunk> mapChunks = new ArrayList<>();
 
     public TangoNode (Context context, String name) {
         this(context, name,null);
     }
 
+    /**
+     * Publishes /cloud as the legacy sensor_msgs/PointCloud, for existing subscribers.
+     */
     public TangoNode (Context context, String name, TangoPointCloudRenderer renderer) {
+        this(context, name, renderer, CloudFormat.POINT_CLOUD);
+    }
+
+    /**
+     * @param cloudFormat Message type of /cloud, {@link CloudFormat#POINT_CLOUD2} to opt in to
+     *                    the packed format.
+     */
+    public TangoNode (Context context, String name, TangoPointCloudRenderer renderer,
+            CloudFormat cloudFormat) {
         super(name, context);
+        this.cloudFormat = cloudFormat;
+        this.pointCloudProcessor = new PointCloudProcessor(MAX_NUMBER_OF_POINTS,
+                cloudFormat == CloudFormat.POINT_CLOUD2, FRAME_CAMERA_DEPTH,
+                FRAME_START_OF_SERVICE, this.metrics, this.processorOutput);
         if (renderer != null) {
             this.renderer = renderer;
             this.tangoUx = this.setupTangoUxAndLayout(context);
             this.pointCloudManager = this.renderer.getPointCloudManager();
+            this.renderer.setPoseHistory(this.pointCloudProcessor.getPoseHistory());
         }
 
-        this.pcPublisher = this.createPublisher(PointCloud.class, "/cloud", QoSProfile.SENSOR_DATA);
+        if (this.cloudFormat == CloudFormat.POINT_CLOUD) {
+            this.pcPublisher = this.createPublisher(PointCloud.class, "/cloud", QoSProfile.SENSOR_DATA);
+        } else {
+            this.pc2Publisher = this.createPublisher(PointCloud2.class, "/cloud", QoSProfile.SENSOR_DATA);
+        }
+        this.compressedCloudPublisher = this.createPublisher(CompressedImage.class,
+                "/cloud/compressed", QoSProfile.SENSOR_DATA);
+        this.depthImagePublisher = this.createPublisher(Image.class, "/depth/image_raw",
+                QoSProfile.SENSOR_DATA);
+        this.depthCameraInfoPublisher = this.createPublisher(CameraInfo.class, "/depth/camera_info",
+                QoSProfile.SENSOR_DATA);
+        this.worldCloudPublisher = this.createPublisher(PointCloud2.class, "/cloud_world",
+                QoSProfile.SENSOR_DATA);
+        this.normalCloudPublisher = this.createPublisher(PointCloud2.class, "/cloud_normals",
+                QoSProfile.SENSOR_DATA);
+        this.planeMarkerPublisher = this.createPublisher(MarkerArray.class, "/planes");
+        this.planePublisher = new PlanePublisher(this.planeMarkerPublisher, FRAME_START_OF_SERVICE);
+        this.scanPublisher = this.createPublisher(LaserScan.class, "/scan", QoSProfile.SENSOR_DATA);
+        this.cameraImagePublisher = this.createPublisher(CompressedImage.class,
+                "/camera/image_raw/compressed", QoSProfile.SENSOR_DATA);
         this.imuPublisher = this.createPublisher(Imu.class, "/imu", QoSProfile.SENSOR_DATA);
+        this.imu = new ImuPublisher(context, this.imuPublisher, this.tangoClock, FRAME_DEVICE);
+
+        this.tfPublisher = this.createPublisher(TFMessage.class, "/tf");
+        this.tfStaticPublisher = this.createPublisher(TFMessage.class, "/tf_static");
+        this.odomPublisher = this.createPublisher(Odometry.class, "/odom", QoSProfile.SENSOR_DATA);
+        this.mapPublisher = this.createPublisher(PointCloud2.class, "/map_cloud");
+        this.gridPublisher = this.createPublisher(OccupancyGrid.class, "/map");
+        this.gridUpdatePublisher = this.createPublisher(OccupancyGridUpdate.class, "/map_updates");
+        this.occupancyGridPublisher = new OccupancyGridPublisher(this.gridPublisher,
+                this.gridUpdatePublisher, FRAME_START_OF_SERVICE);
+        this.laserScanPublisher = new LaserScanPublisher(this.scanPublisher, this.tfPublisher,
+                FRAME_START_OF_SERVICE, FRAME_SCAN);
+        this.posePublisher = new PosePublisher(this.tfPublisher, this.tfStaticPublisher,
+                this.odomPublisher, FRAME_START_OF_SERVICE, FRAME_DEVICE, FRAME_CAMERA_DEPTH);
+
+        this.pointCloudPipeline = new PointCloudPipeline(MAX_NUMBER_OF_POINTS,
+                this.pointCloudProcessor);
+        this.pointCloudPipeline.registerMetrics(this.metrics);
+
+        this.diagnosticsPublisher = this.createPublisher(DiagnosticArray.class, "/diagnostics");
+        this.diagnostics = new DiagnosticsPublisher(this.diagnosticsPublisher, this.metrics, name,
+                FRAME_DEVICE);
+        this.diagnosticsTimer = this.createWallTimer(DIAGNOSTICS_PERIOD_MS, TimeUnit.MILLISECONDS,
+                new WallTimerCallback() {
+                    @Override
+                    public void tick() {
+                        publishDiagnostics();
+                    }
+                });
+    }
+
+    /**
+     * Latency histograms and counters reported on /diagnostics. Other stages may add theirs, at
+     * setup.
+     */
+    public MetricsRegistry getMetrics() {
+        return this.metrics;
+    }
+
+    private void publishDiagnostics() {
+        // Stamped in the Tango clock like the sensor data, once it is known.
+        double now = SystemClock.elapsedRealtimeNanos() * NANOSECS_TO_SECS;
+        this.diagnostics.publish(this.tangoClock.isValid() ? this.tangoClock.toSource(now) : now);
+    }
+
+    public PointCloudPipeline getPointCloudPipeline() {
+        return this.pointCloudPipeline;
+    }
+
+    /**
+     * Recent START_OF_SERVICE to DEVICE poses, to look up the device pose at a sensor timestamp.
+     */
+    public PoseHistory getPoseHistory() {
+        return this.pointCloudProcessor.getPoseHistory();
+    }
 
-        this.timer = this.createWallTimer(500, TimeUnit.MILLISECONDS, this);
+    /**
+     * Stages run on the depth clouds, to switch them and set their parameters.
+     */
+    public PointCloudProcessor getPointCloudProcessor() {
+        return this.pointCloudProcessor;
     }
 
-    private void publishPointCloud() {
-        PointCloud pc = new PointCloud();
-        Collection<Point32> points = new ArrayList<>();
+    /**
+     * Filter published clouds, see {@link PointCloudProcessor#setPointCloudFilter}.
+     */
+    public void setPointCloudFilter(PointCloudFilter filter) {
+        this.pointCloudProcessor.setPointCloudFilter(filter);
+    }
 
-        TangoPointCloudData pointsBuffer = this.pointCloudManager.getLatestPointCloud();
-        for (int i = 0; i < pointsBuffer.points.capacity() - 3; i = i + 3) {
-            Point32 point = new Point32();
-            point.setX(pointsBuffer.points.get(i));
-            point.setY(pointsBuffer.points.get(i+1));
-            point.setZ(pointsBuffer.points.get(i+2));
-            points.add(point);
+    /**
+     * Downsample published clouds, see {@link PointCloudProcessor#setVoxelLeafSize}.
+     */
+    public void setVoxelLeafSize(float leafSize) {
+        this.pointCloudProcessor.setVoxelLeafSize(leafSize);
+    }
+
+    /**
+     * Also publish the clouds in START_OF_SERVICE on /cloud_world, see
+     * {@link PointCloudProcessor#setWorldCloudEnabled}.
+     */
+    public void setWorldCloudEnabled(boolean enabled) {
+        this.pointCloudProcessor.setWorldCloudEnabled(enabled);
+    }
+
+    /**
+     * Also publish the clouds with their surface normals on /cloud_normals, see
+     * {@link PointCloudProcessor#setNormalRadius}.
+     */
+    public void setNormalRadius(float radius) {
+        this.pointCloudProcessor.setNormalRadius(radius);
+    }
+
+    /**
+     * Find the floor, walls and ceiling in the clouds, publish them on /planes and place the
+     * renderer grid on the floor.
+     */
+    public void setPlaneSegmentation(boolean enabled) {
+        this.pointCloudProcessor.setPlaneSegmentation(enabled);
+    }
+
+    /**
+     * Record the depth clouds, poses and events delivered by Tango into a directory, replacing the
+     * current recording. See {@link SessionRecorder}.
+     */
+    public synchronized void startRecording(File directory) throws IOException {
+        this.stopRecording();
+        this.sessionRecorder = new SessionRecorder(directory);
+    }
+
+    public synchronized void stopRecording() {
+        SessionRecorder recorder = this.sessionRecorder;
+        if (recorder == null) {
+            return;
+        }
+        this.sessionRecorder = null;
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the recording", e);
         }
-        pc.setPoints(points);
+        Log.i(TAG, String.format("Recorded %d clouds, %d poses, %d events, dropped %d records",
+                recorder.getRecordedClouds(), recorder.getRecordedPoses(),
+                recorder.getRecordedEvents(), recorder.getDroppedRecords()));
+    }
 
-        this.pcPublisher.publish(pc);
+    /**
+     * Quantization step of the clouds published on /cloud/compressed, see
+     * {@link PointCloudProcessor#setCompressedCloudPrecision}. Off by default.
+     */
+    public void setCompressedCloudPrecision(float precision) {
+        this.pointCloudProcessor.setCompressedCloudPrecision(precision);
     }
 
-    private void publishImu() {
-        Imu imu = new Imu();
+    /**
+     * Size, rate and JPEG quality of the color camera images published on
+     * /camera/image_raw/compressed. A rate of zero or less leaves the color camera off, the
+     * default. Applied on the next onResume().
+     */
+    public void setCameraImageSettings(int width, int height, double rate, int quality) {
+        this.cameraWidth = width;
+        this.cameraHeight = height;
+        this.cameraRate = rate;
+        this.cameraQuality = quality;
+    }
 
-        // TODO
+    /**
+     * Memory of the point map published on /map_cloud, see
+     * {@link PointCloudProcessor#setPointMapMemoryBudget}.
+     */
+    public void setPointMapMemoryBudget(long bytes) {
+        this.pointCloudProcessor.setPointMapMemoryBudget(bytes);
+    }
 
-        this.imuPublisher.publish(imu);
+    /**
+     * Publish the point map on /map_cloud, or stop. Off by default.
+     */
+    public void setPointMapEnabled(boolean enabled) {
+        this.pointCloudProcessor.setPointMapEnabled(enabled);
+    }
+
+    /**
+     * Heights of the obstacles marked in the occupancy grid published on /map, see
+     * {@link PointCloudProcessor#setObstacleHeightBand}. Enables the grid.
+     */
+    public void setObstacleHeightBand(float minHeight, float maxHeight) {
+        this.pointCloudProcessor.setObstacleHeightBand(minHeight, maxHeight);
+    }
+
+    /**
+     * Publish the occupancy grid on /map, or stop. Off by default.
+     */
+    public void setOccupancyGridEnabled(boolean enabled) {
+        this.pointCloudProcessor.setOccupancyGridEnabled(enabled);
+    }
 
+    /**
+     * Heights of the points seen by the virtual laser scan published on /scan, see
+     * {@link PointCloudProcessor#setLaserScanHeightBand}. Enables the scan.
+     */
+    public void setLaserScanHeightBand(float minHeight, float maxHeight) {
+        this.pointCloudProcessor.setLaserScanHeightBand(minHeight, maxHeight);
+    }
+
+    /**
+     * Publish the virtual laser scan on /scan, or stop. Off by default.
+     */
+    public void setLaserScanEnabled(boolean enabled) {
+        this.pointCloudProcessor.setLaserScanEnabled(enabled);
+    }
+
+    /**
+     * Take poses and depth from another source than the Tango service. Call before onResume().
+     */
+    public void setSensorSource(SensorSource sensorSource) {
+        this.sensorSource = sensorSource;
     }
 
     public void onResume(final Activity activity) {
+        this.imu.start();
+
+        if (this.sensorSource != null) {
+            this.pointCloudPipeline.start();
+            this.sensorSource.start(this);
+        } else {
+            this.connectTango(activity);
+        }
+
+        this.rosManager = new RosManager(activity, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (activity) {
+                    try {
+                        rosConfig = setupRosConfig(rosManager);
+                        rosManager.connect(rosConfig);
+                        startupRos(activity);
+                    } catch (Exception e) {
+                        Log.e(TAG, activity.getString(R.string.exception_ros_error), e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void connectTango(final Activity activity) {
 
         // Initialize the Tango Service as a normal Android Service.
         // Since we call mTango.disconnect() in onPause, this will unbind the
@@ -140,6 +489,9 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
                         tango.connect(tangoConfig);
                         startupTango(activity);
                         TangoSupport.initialize(tango);
+                        setupExtrinsics(tango);
+                        setupIntrinsics(tango);
+                        startCamera();
                         if (renderer != null) {
                             renderer.setConnected(true);
 //                        renderer.setDisplayRotation();
@@ -154,30 +506,24 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
                 }
             }
         });
-
-        this.rosManager = new RosManager(activity, new Runnable() {
-            @Override
-            public void run() {
-                synchronized (activity) {
-                    try {
-                        rosConfig = setupRosConfig(rosManager);
-                        rosManager.connect(rosConfig);
-                        startupRos(activity);
-                    } catch (Exception e) {
-                        Log.e(TAG, activity.getString(R.string.exception_ros_error), e);
-                    }
-                }
-            }
-        });
     }
 
     public void onPause(final Activity activity) {
+        this.imu.stop();
+        if (this.sensorSource != null) {
+            this.sensorSource.stop();
+            this.pointCloudPipeline.stop();
+            return;
+        }
         synchronized (this) {
             try {
                 // Unbind the Tango Service. If you don't, you'll get a
                 // service leak exception.
                 this.tangoUx.stop();
+                this.stopCamera();
                 this.tango.disconnect();
+                // No more clouds once disconnected, started again with the Tango listeners.
+                this.pointCloudPipeline.stop();
                 if (renderer != null) {
                     this.renderer.setConnected(false);
                 }
@@ -187,6 +533,31 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
         }
     }
 
+    private void startCamera() {
+        if (!(this.cameraRate > 0)) {
+            return;
+        }
+        this.cameraImageEncoder = new CameraImageEncoder(this.cameraImagePublisher,
+                FRAME_CAMERA_COLOR, this.cameraWidth, this.cameraHeight, this.cameraQuality,
+                CAMERA_ENCODER_THREADS);
+        this.cameraImageEncoder.start();
+        CameraFrameReader reader = new CameraFrameReader(this.tango, this.cameraImageEncoder,
+                this.cameraRate);
+        reader.start();
+        this.cameraFrameReader = reader;
+    }
+
+    private void stopCamera() {
+        CameraFrameReader reader = this.cameraFrameReader;
+        if (reader == null) {
+            return;
+        }
+        this.cameraFrameReader = null;
+        reader.stop();
+        this.cameraImageEncoder.stop();
+        this.cameraImageEncoder = null;
+    }
+
     private void startupRos(final Activity activity) {
         this.rosManager.addNode(this);
     }
@@ -202,10 +573,21 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
         framePairs.add(new TangoCoordinateFramePair(TangoPoseData.COORDINATE_FRAME_START_OF_SERVICE,
                 TangoPoseData.COORDINATE_FRAME_DEVICE));
 
+        this.pointCloudPipeline.start();
         this.tango.connectListener(framePairs, new Tango.TangoUpdateCallback() {
 
             @Override
             public void onPoseAvailable(TangoPoseData pose) {
+                SessionRecorder recorder = sessionRecorder;
+                if (recorder != null) {
+                    recorder.recordPose(pose.timestamp, pose.baseFrame, pose.targetFrame,
+                            pose.statusCode, pose.confidence, pose.accuracy, pose.translation,
+                            pose.rotation);
+                }
+                TangoNode.this.onPoseAvailable(pose.timestamp,
+                        pose.statusCode == TangoPoseData.POSE_VALID, pose.translation,
+                        pose.rotation);
+
                 // Passing in the pose data to UX library produce exceptions.
                 if (tangoUx != null) {
                     tangoUx.updatePoseStatus(pose.statusCode);
@@ -214,10 +596,23 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
 
             @Override
             public void onPointCloudAvailable(TangoPointCloudData pointCloud) {
+                long start = System.nanoTime();
+                SessionRecorder recorder = sessionRecorder;
+                if (recorder != null) {
+                    recorder.recordPointCloud(pointCloud.timestamp, pointCloud.points,
+                            pointCloud.numPoints);
+                }
                 if (tangoUx != null) {
                     tangoUx.updatePointCloud(pointCloud);
                 }
-                pointCloudManager.updatePointCloud(pointCloud);
+                if (pointCloudManager != null) {
+                    long managerStart = System.nanoTime();
+                    pointCloudManager.updatePointCloud(pointCloud);
+                    cloudManagerLatency.recordSince(managerStart);
+                }
+                TangoNode.this.onPointCloudAvailable(pointCloud.timestamp, pointCloud.points,
+                        pointCloud.numPoints);
+                tangoCallbackLatency.recordSince(start);
 
                 final double currentTimeStamp = pointCloud.timestamp;
                 final double pointCloudFrameDelta =
@@ -229,7 +624,7 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
                 if (mPointCloudTimeToNextUpdate < 0.0) {
                     mPointCloudTimeToNextUpdate = UPDATE_INTERVAL_MS;
                     final String pointCountString = Integer.toString(pointCloud.numPoints);
-                    final double averageDepth = getAveragedDepth(pointCloud.points,
+                    final double averageDepth = PointCloudStatistics.getAveragedDepth(pointCloud.points,
                             pointCloud.numPoints);
 
 //                    activity.runOnUiThread(new Runnable() {
@@ -242,8 +637,21 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
                 }
             }
 
+            @Override
+            public void onFrameAvailable(int cameraId) {
+                CameraFrameReader reader = cameraFrameReader;
+                if (cameraId == TangoCameraIntrinsics.TANGO_CAMERA_COLOR && reader != null) {
+                    reader.onFrameAvailable();
+                }
+            }
+
             @Override
             public void onTangoEvent(TangoEvent event) {
+                SessionRecorder recorder = sessionRecorder;
+                if (recorder != null) {
+                    recorder.recordEvent(event.timestamp, event.eventType, event.eventKey,
+                            event.eventValue);
+                }
                 if (tangoUx != null) {
                     tangoUx.updateTangoEvent(event);
                 }
@@ -262,9 +670,68 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
 
         config.putBoolean(TangoConfig.KEY_BOOLEAN_DEPTH, true);
         config.putInt(TangoConfig.KEY_INT_DEPTH_MODE, TangoConfig.TANGO_DEPTH_MODE_POINT_CLOUD);
+        config.putBoolean(TangoConfig.KEY_BOOLEAN_COLORCAMERA, this.cameraRate > 0);
         return config;
     }
 
+    /**
+     * Read the depth camera position on the device, published as a static transform and used by
+     * the renderer to place clouds from the pose history.
+     */
+    private void setupExtrinsics(Tango tango) {
+        TangoPoseData imuTdevice = tango.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_IMU, TangoPoseData.COORDINATE_FRAME_DEVICE));
+        TangoPoseData imuTdepth = tango.getPoseAtTime(0.0, new TangoCoordinateFramePair(
+                TangoPoseData.COORDINATE_FRAME_IMU, TangoPoseData.COORDINATE_FRAME_CAMERA_DEPTH));
+
+        // deviceTdepth = inverse(imuTdevice) * imuTdepth
+        double[] translation = new double[3];
+        double[] rotation = new double[4];
+        PoseMath.invert(imuTdevice.translation, imuTdevice.rotation, translation, rotation);
+        PoseMath.compose(translation, rotation, imuTdepth.translation, imuTdepth.rotation,
+                translation, rotation);
+        PoseMath.normalize(rotation);
+        this.onDepthCameraExtrinsics(translation, rotation);
+    }
+
+    /**
+     * Read the depth camera intrinsics, to project clouds into depth images.
+     */
+    private void setupIntrinsics(Tango tango) {
+        TangoCameraIntrinsics intrinsics =
+                tango.getCameraIntrinsics(TangoCameraIntrinsics.TANGO_CAMERA_DEPTH);
+        this.onDepthCameraIntrinsics(intrinsics.width, intrinsics.height, intrinsics.fx,
+                intrinsics.fy, intrinsics.cx, intrinsics.cy);
+    }
+
+    @Override
+    public void onDepthCameraIntrinsics(int width, int height, double fx, double fy, double cx,
+            double cy) {
+        this.pointCloudProcessor.setDepthCameraIntrinsics(width, height, fx, fy, cx, cy);
+    }
+
+    @Override
+    public void onDepthCameraExtrinsics(double[] translation, double[] rotation) {
+        this.pointCloudProcessor.setDepthCameraExtrinsics(translation, rotation);
+        this.posePublisher.setDepthCameraExtrinsics(translation, rotation);
+        if (this.renderer != null) {
+            this.renderer.setDepthCameraExtrinsics(translation, rotation);
+        }
+    }
+
+    @Override
+    public void onPoseAvailable(double timestamp, boolean valid, double[] translation,
+            double[] rotation) {
+        this.tangoClock.update(timestamp, SystemClock.elapsedRealtimeNanos() * NANOSECS_TO_SECS);
+        this.pointCloudProcessor.onPoseAvailable(timestamp, valid, translation, rotation);
+        this.posePublisher.onPoseAvailable(timestamp, valid, translation, rotation);
+    }
+
+    @Override
+    public void onPointCloudAvailable(double timestamp, FloatBuffer points, int numPoints) {
+        this.pointCloudPipeline.offer(timestamp, points, numPoints);
+    }
+
     private RosConfig setupRosConfig(RosManager rosManager) {
         RosConfig config = rosManager.getConfig(TangoConfig.CONFIG_TYPE_DEFAULT);
 
@@ -280,26 +747,6 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
         return tangoUx;
     }
 
-    /**
-     * Calculates the average depth from a point cloud buffer.
-     *
-     * @param pointCloudBuffer
-     * @param numPoints
-     * @return Average depth.
-     */
-    private float getAveragedDepth(FloatBuffer pointCloudBuffer, int numPoints) {
-        float totalZ = 0;
-        float averageZ = 0;
-        if (numPoints != 0) {
-            int numFloats = 4 * numPoints;
-            for (int i = 2; i < numFloats; i = i + 4) {
-                totalZ = totalZ + pointCloudBuffer.get(i);
-            }
-            averageZ = totalZ / numPoints;
-        }
-        return averageZ;
-    }
-
     /*
     * Set a UxExceptionEventListener to be notified of any UX exceptions.
     * In this example we are just logging all the exceptions to logcat, but in a real app,
@@ -341,17 +788,102 @@ public class TangoNode extends AndroidNativeNode implements WallTimerCallback {
         }
     };
 
-    @Override
-    public void tick() {
-        //this.publishImu();
-        this.publishPointCloud();
-    }
+    /**
+     * Publishes the results of the processor, on the pipeline thread.
+     */
+    private final PointCloudProcessor.Output processorOutput = new PointCloudProcessor.Output() {
+        @Override
+        public void publishCloud(PointCloud cloud) {
+            pcPublisher.publish(cloud);
+        }
+
+        @Override
+        public void publishCloud2(PointCloud2 cloud) {
+            pc2Publisher.publish(cloud);
+        }
+
+        @Override
+        public void publishCompressedCloud(CompressedImage cloud) {
+            compressedCloudPublisher.publish(cloud);
+        }
+
+        @Override
+        public void publishDepthImage(Image image, CameraInfo cameraInfo) {
+            depthImagePublisher.publish(image);
+            depthCameraInfoPublisher.publish(cameraInfo);
+        }
+
+        @Override
+        public void publishNormalCloud(PointCloud2 cloud) {
+            normalCloudPublisher.publish(cloud);
+        }
+
+        @Override
+        public void publishWorldCloud(PointCloud2 cloud) {
+            worldCloudPublisher.publish(cloud);
+        }
+
+        @Override
+        public void publishLaserScan(LaserScanProjector projector, double timestamp,
+                double[] translation) {
+            laserScanPublisher.publish(projector, timestamp, translation);
+        }
+
+        @Override
+        public void publishPlanes(PlaneSegmenter segmenter, double timestamp) {
+            planePublisher.publish(segmenter, timestamp);
+            double floorHeight = segmenter.getFloorHeight();
+            if (renderer != null && !Double.isNaN(floorHeight)) {
+                renderer.setFloorHeight(floorHeight);
+            }
+        }
+
+        @Override
+        public void publishOccupancyGrid(OccupancyGridMapper grid, double timestamp) {
+            occupancyGridPublisher.publish(grid, timestamp);
+        }
+
+        @Override
+        public void publishPointMap(PointCloud2 cloud, PointMap pointMap) {
+            mapPublisher.publish(cloud);
+            if (renderer != null) {
+                // Only changed chunks, the renderer keeps the others on the GPU.
+                mapChunks.clear();
+                mapChunker.update(pointMap, mapChunks);
+                renderer.updateMapChunks(mapChunks);
+            }
+        }
+    };
 
     @Override
     public void dispose() {
-        this.timer.dispose();
-        this.pcPublisher.dispose();
+        this.stopRecording();
+        this.pointCloudPipeline.stop();
+        this.imu.stop();
+        if (this.pcPublisher != null) {
+            this.pcPublisher.dispose();
+        }
+        if (this.pc2Publisher != null) {
+            this.pc2Publisher.dispose();
+        }
+        this.compressedCloudPublisher.dispose();
+        this.depthImagePublisher.dispose();
+        this.worldCloudPublisher.dispose();
+        this.normalCloudPublisher.dispose();
+        this.planeMarkerPublisher.dispose();
+        this.scanPublisher.dispose();
+        this.diagnosticsTimer.dispose();
+        this.diagnosticsPublisher.dispose();
+        this.depthCameraInfoPublisher.dispose();
+        this.cameraImagePublisher.dispose();
         this.imuPublisher.dispose();
+        this.tfPublisher.dispose();
+        this.tfStaticPublisher.dispose();
+        this.odomPublisher.dispose();
+        this.mapPublisher.dispose();
+        this.gridPublisher.dispose();
+        this.gridUpdatePublisher.dispose();
+        this.pointCloudProcessor.release();
         super.dispose();
     }
 }
@@ -0,0 +1,392 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.camera;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.google.atap.tangoservice.Tango;
+import com.google.atap.tangoservice.TangoCameraIntrinsics;
+
+import org.ros2.android.tango.ux.opengl.OpenGlCameraPreview;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the Tango color camera frames back from the GPU, for {@link CameraImageEncoder}.
+ * <p>
+ * Runs on its own thread and offscreen EGL context, independent of the renderer. The color camera
+ * is bound to an external OES texture, drawn at the output size into a framebuffer object, then
+ * read back asynchronously through two pixel buffer objects: glReadPixels into a PBO returns at
+ * once, a fence tells when the copy is done, and the PBO is only mapped then. The thread never
+ * waits on the GPU, a capture finding both PBOs busy is dropped. OpenGL ES 2 devices have no
+ * PBO, frames are then read synchronously.
+ */
+public class CameraFrameReader {
+    private static final String TAG = "CameraFrameReader";
+
+    private static final int EGL_OPENGL_ES3_BIT_KHR = 0x40;
+    private static final int NUM_PIXEL_BUFFERS = 2;
+    private static final long POLL_DELAY_MILLIS = 2;
+    private static final double SECS_TO_NANOSECS = 1e9;
+    // Quad corners to texture, flipped vertically: rows are read bottom up, the image top first.
+    private static final float[] TEXTURE_COORDS = { 1, 0, 0, 0, 1, 1, 0, 1 };
+
+    private final Tango tango;
+    private final CameraImageEncoder encoder;
+    private final int width;
+    private final int height;
+    private final long periodNanos;
+
+    private HandlerThread thread;
+    private volatile Handler handler;
+    private final AtomicBoolean captureQueued = new AtomicBoolean();
+    private volatile long nextCaptureNanos;
+
+    // Owned by the reader thread.
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface surface = EGL14.EGL_NO_SURFACE;
+    private boolean hasPixelBuffers;
+    private OpenGlCameraPreview cameraTexture;
+    private final int[] framebuffer = new int[1];
+    private final int[] colorTexture = new int[1];
+    private final int[] pixelBuffers = new int[NUM_PIXEL_BUFFERS];
+    private final long[] fences = new long[NUM_PIXEL_BUFFERS];
+    private final double[] timestamps = new double[NUM_PIXEL_BUFFERS];
+    private final long[] captureNanos = new long[NUM_PIXEL_BUFFERS];
+    private boolean pollScheduled;
+
+    private final AtomicLong capturedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private final Runnable captureTask = new Runnable() {
+        @Override
+        public void run() {
+            CameraFrameReader.this.capture();
+        }
+    };
+    private final Runnable pollTask = new Runnable() {
+        @Override
+        public void run() {
+            CameraFrameReader.this.pollScheduled = false;
+            CameraFrameReader.this.poll();
+        }
+    };
+
+    /**
+     * @param rate Frames per second read back, at most the camera rate.
+     */
+    public CameraFrameReader(Tango tango, CameraImageEncoder encoder, double rate) {
+        this.tango = tango;
+        this.encoder = encoder;
+        this.width = encoder.getWidth();
+        this.height = encoder.getHeight();
+        this.periodNanos = (long) (SECS_TO_NANOSECS / rate);
+    }
+
+    /**
+     * Create the context and connect the color camera texture, call after Tango is connected.
+     */
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+        this.thread = new HandlerThread(TAG);
+        this.thread.start();
+        this.handler = new Handler(this.thread.getLooper());
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                CameraFrameReader.this.setUp();
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (this.thread == null) {
+            return;
+        }
+        this.handler.removeCallbacks(this.captureTask);
+        this.handler.removeCallbacks(this.pollTask);
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                CameraFrameReader.this.tearDown();
+            }
+        });
+        this.thread.quitSafely();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+        this.handler = null;
+        Log.i(TAG, String.format("Captured %d frames, dropped %d", this.capturedFrames.get(),
+                this.droppedFrames.get()));
+    }
+
+    /**
+     * Called from the Tango callback thread for each new color camera frame.
+     */
+    public void onFrameAvailable() {
+        if (System.nanoTime() - this.nextCaptureNanos < 0
+                || !this.captureQueued.compareAndSet(false, true)) {
+            return;
+        }
+        Handler handler = this.handler;
+        if (handler != null) {
+            handler.post(this.captureTask);
+        }
+    }
+
+    public long getCapturedFrames() {
+        return this.capturedFrames.get();
+    }
+
+    /** Frames skipped because both pixel buffers were still being read. */
+    public long getDroppedFrames() {
+        return this.droppedFrames.get();
+    }
+
+    private void setUp() {
+        this.display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        EGL14.eglInitialize(this.display, version, 0, version, 1);
+
+        EGLConfig config = this.chooseConfig(EGL_OPENGL_ES3_BIT_KHR);
+        this.hasPixelBuffers = config != null;
+        if (config == null) {
+            Log.w(TAG, "No OpenGL ES 3 context, camera frames are read synchronously");
+            config = this.chooseConfig(EGL14.EGL_OPENGL_ES2_BIT);
+        }
+        if (config == null) {
+            Log.e(TAG, "No OpenGL ES 2 pbuffer config, camera frames are not published");
+            this.disable();
+            return;
+        }
+        int[] contextAttributes = { EGL14.EGL_CONTEXT_CLIENT_VERSION,
+                this.hasPixelBuffers ? 3 : 2, EGL14.EGL_NONE };
+        this.context = EGL14.eglCreateContext(this.display, config, EGL14.EGL_NO_CONTEXT,
+                contextAttributes, 0);
+        if (this.context == EGL14.EGL_NO_CONTEXT) {
+            Log.e(TAG, String.format("Could not create the camera context, EGL error 0x%x",
+                    EGL14.eglGetError()));
+            this.disable();
+            return;
+        }
+        // Rendering goes to the framebuffer object, the surface is only there to be current.
+        int[] surfaceAttributes = { EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE };
+        this.surface = EGL14.eglCreatePbufferSurface(this.display, config, surfaceAttributes, 0);
+        EGL14.eglMakeCurrent(this.display, this.surface, this.surface, this.context);
+
+        this.cameraTexture = new OpenGlCameraPreview();
+        this.cameraTexture.setTextureCoords(TEXTURE_COORDS);
+        this.cameraTexture.setUpProgramAndBuffers();
+        this.tango.connectTextureId(TangoCameraIntrinsics.TANGO_CAMERA_COLOR,
+                this.cameraTexture.getTextureId());
+
+        GLES20.glGenTextures(1, this.colorTexture, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, this.colorTexture[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, this.width, this.height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glGenFramebuffers(1, this.framebuffer, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.framebuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, this.colorTexture[0], 0);
+        if (GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER)
+                != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Incomplete camera framebuffer");
+        }
+        GLES20.glViewport(0, 0, this.width, this.height);
+
+        if (this.hasPixelBuffers) {
+            int size = this.width * this.height * CameraImageEncoder.BYTES_PER_PIXEL;
+            GLES30.glGenBuffers(NUM_PIXEL_BUFFERS, this.pixelBuffers, 0);
+            for (int buffer : this.pixelBuffers) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        this.nextCaptureNanos = System.nanoTime();
+    }
+
+    // Without a context, capture() ignores the frames.
+    private void disable() {
+        EGL14.eglTerminate(this.display);
+        this.display = EGL14.EGL_NO_DISPLAY;
+        this.context = EGL14.EGL_NO_CONTEXT;
+    }
+
+    private EGLConfig chooseConfig(int renderableType) {
+        int[] attributes = {
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_NONE };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(this.display, attributes, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            return null;
+        }
+        return configs[0];
+    }
+
+    private void tearDown() {
+        if (this.display == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        for (int i = 0; i < NUM_PIXEL_BUFFERS; i++) {
+            if (this.fences[i] != 0) {
+                GLES30.glDeleteSync(this.fences[i]);
+                this.fences[i] = 0;
+            }
+        }
+        if (this.hasPixelBuffers) {
+            GLES30.glDeleteBuffers(NUM_PIXEL_BUFFERS, this.pixelBuffers, 0);
+        }
+        GLES20.glDeleteFramebuffers(1, this.framebuffer, 0);
+        GLES20.glDeleteTextures(1, this.colorTexture, 0);
+
+        EGL14.eglMakeCurrent(this.display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(this.display, this.surface);
+        EGL14.eglDestroyContext(this.display, this.context);
+        EGL14.eglTerminate(this.display);
+        this.display = EGL14.EGL_NO_DISPLAY;
+        this.context = EGL14.EGL_NO_CONTEXT;
+        this.surface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private void capture() {
+        this.captureQueued.set(false);
+        if (this.display == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        double timestamp = this.tango.updateTexture(TangoCameraIntrinsics.TANGO_CAMERA_COLOR);
+        long now = System.nanoTime();
+        if (now - this.nextCaptureNanos > this.periodNanos) {
+            // Late by more than a period, restart the schedule.
+            this.nextCaptureNanos = now;
+        }
+        this.nextCaptureNanos += this.periodNanos;
+
+        // Free the pixel buffers read since the last time.
+        this.poll();
+
+        if (!this.hasPixelBuffers) {
+            this.captureSynchronously(timestamp, now);
+            return;
+        }
+        int slot = this.fences[0] == 0 ? 0 : this.fences[1] == 0 ? 1 : -1;
+        if (slot < 0) {
+            this.droppedFrames.incrementAndGet();
+            return;
+        }
+
+        this.cameraTexture.drawAsBackground();
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, this.pixelBuffers[slot]);
+        GLES30.glReadPixels(0, 0, this.width, this.height, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        this.fences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLES20.glFlush();
+        this.timestamps[slot] = timestamp;
+        this.captureNanos[slot] = now;
+        this.capturedFrames.incrementAndGet();
+        this.schedulePoll();
+    }
+
+    private void captureSynchronously(double timestamp, long now) {
+        CameraImageEncoder.Frame frame = this.encoder.acquireFrame();
+        if (frame == null) {
+            return;
+        }
+        this.cameraTexture.drawAsBackground();
+        frame.pixels.clear();
+        GLES20.glReadPixels(0, 0, this.width, this.height, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, frame.pixels);
+        this.capturedFrames.incrementAndGet();
+        this.encoder.submitFrame(frame, timestamp, now);
+    }
+
+    /**
+     * Hand the pixel buffers whose read is complete to the encoder, oldest first.
+     */
+    private void poll() {
+        int first = this.captureNanos[0] - this.captureNanos[1] <= 0 ? 0 : 1;
+        for (int i = 0; i < NUM_PIXEL_BUFFERS; i++) {
+            int slot = (first + i) % NUM_PIXEL_BUFFERS;
+            long fence = this.fences[slot];
+            if (fence == 0) {
+                continue;
+            }
+            int status = GLES30.glClientWaitSync(fence, 0, 0);
+            if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+                this.schedulePoll();
+                return;
+            }
+            GLES30.glDeleteSync(fence);
+            this.fences[slot] = 0;
+            this.encode(slot);
+        }
+    }
+
+    private void encode(int slot) {
+        CameraImageEncoder.Frame frame = this.encoder.acquireFrame();
+        if (frame == null) {
+            return;
+        }
+        int size = this.width * this.height * CameraImageEncoder.BYTES_PER_PIXEL;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, this.pixelBuffers[slot]);
+        ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0,
+                size, GLES30.GL_MAP_READ_BIT);
+        if (pixels == null) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            this.encoder.releaseFrame(frame);
+            return;
+        }
+        frame.pixels.clear();
+        frame.pixels.put(pixels);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        this.encoder.submitFrame(frame, this.timestamps[slot], this.captureNanos[slot]);
+    }
+
+    private void schedulePoll() {
+        if (!this.pollScheduled) {
+            this.pollScheduled = true;
+            this.handler.postDelayed(this.pollTask, POLL_DELAY_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.camera;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.ros2.android.tango.util.ByteArrayList;
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sensor_msgs.msg.CompressedImage;
+
+/**
+ * Encodes camera frames to JPEG and publishes them as sensor_msgs/CompressedImage, on a small
+ * pool of worker threads.
+ * <p>
+ * Frames live in a fixed set of slots, each with its RGBA pixel buffer, bitmap, JPEG buffer and
+ * message, so nothing is allocated per frame. The producer takes a free slot without waiting, or
+ * drops the frame when every slot is busy. Workers publish in timestamp order: a frame finished
+ * after a newer one is dropped. Encode time and capture to publish latency are logged every
+ * STATS_PERIOD.
+ */
+public class CameraImageEncoder {
+    private static final String TAG = "CameraImageEncoder";
+
+    /** image_transport format of the color images. */
+    public static final String FORMAT = "rgb8; jpeg compressed bgr8";
+    public static final int BYTES_PER_PIXEL = 4;
+    public static final int DEFAULT_QUALITY = 80;
+
+    private static final long STATS_PERIOD_NANOS = 5000000000L;
+    private static final double NANOSECS_TO_MILLISECS = 1e-6;
+
+    /**
+     * A frame to encode, filled by the producer between {@link #acquireFrame()} and
+     * {@link #submitFrame(Frame, double, long)}.
+     */
+    public static final class Frame {
+        /** RGBA rows, top row first. */
+        public final ByteBuffer pixels;
+
+        private final Bitmap bitmap;
+        private final JpegStream jpeg = new JpegStream();
+        private final CompressedImage message = new CompressedImage();
+        private double timestamp;
+        private long captureNanos;
+
+        Frame(int width, int height, String frameId) {
+            this.pixels = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL)
+                    .order(ByteOrder.nativeOrder());
+            this.bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            this.message.getHeader().setFrameId(frameId);
+            this.message.setFormat(FORMAT);
+        }
+    }
+
+    private final Publisher<CompressedImage> publisher;
+    private final int width;
+    private final int height;
+    private final int quality;
+
+    private final ArrayBlockingQueue<Frame> freeFrames;
+    private final ArrayBlockingQueue<Frame> readyFrames;
+    private final Thread[] workers;
+    private volatile boolean running;
+    // Guards lastPublishedTimestamp and publishing, never held with the monitor of this, which
+    // stop() holds while joining the workers.
+    private final Object publishLock = new Object();
+    private double lastPublishedTimestamp = Double.NEGATIVE_INFINITY;
+
+    private final AtomicLong encodedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong lateFrames = new AtomicLong();
+    // Since the last stats log.
+    private final AtomicLong statsFrames = new AtomicLong();
+    private final AtomicLong statsEncodeNanos = new AtomicLong();
+    private final AtomicLong statsLatencyNanos = new AtomicLong();
+    private final AtomicLong statsMaxLatencyNanos = new AtomicLong();
+    private final AtomicLong statsStartNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param threads Encoding threads, frames get one more slot for the producer.
+     * @param quality JPEG quality, 0 to 100.
+     */
+    public CameraImageEncoder(Publisher<CompressedImage> publisher, String frameId,
+            int width, int height, int quality, int threads) {
+        this.publisher = publisher;
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+
+        int numFrames = threads + 1;
+        this.freeFrames = new ArrayBlockingQueue<>(numFrames);
+        this.readyFrames = new ArrayBlockingQueue<>(numFrames);
+        for (int i = 0; i < numFrames; i++) {
+            this.freeFrames.add(new Frame(width, height, frameId));
+        }
+        this.workers = new Thread[threads];
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    CameraImageEncoder.this.encodeLoop();
+                }
+            }, TAG + i);
+            this.workers[i].start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        for (Thread worker : this.workers) {
+            worker.interrupt();
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.freeFrames.addAll(this.readyFrames);
+        this.readyFrames.clear();
+        Log.i(TAG, String.format("Encoded %d frames, dropped %d busy and %d late",
+                this.encodedFrames.get(), this.droppedFrames.get(), this.lateFrames.get()));
+    }
+
+    /**
+     * Take a free frame to fill, never blocks.
+     *
+     * @return Null when every frame is being encoded, the frame is then counted as dropped.
+     */
+    public Frame acquireFrame() {
+        Frame frame = this.freeFrames.poll();
+        if (frame == null) {
+            this.droppedFrames.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Queue a filled frame for encoding.
+     *
+     * @param captureNanos {@link System#nanoTime()} when the frame was captured, for the latency.
+     */
+    public void submitFrame(Frame frame, double timestamp, long captureNanos) {
+        frame.timestamp = timestamp;
+        frame.captureNanos = captureNanos;
+        this.readyFrames.add(frame);
+    }
+
+    /**
+     * Give back a frame taken but not filled.
+     */
+    public void releaseFrame(Frame frame) {
+        this.freeFrames.add(frame);
+    }
+
+    public long getEncodedFrames() {
+        return this.encodedFrames.get();
+    }
+
+    /** Frames not encoded because every worker was busy. */
+    public long getDroppedFrames() {
+        return this.droppedFrames.get();
+    }
+
+    /** Frames encoded after a newer one and not published. */
+    public long getLateFrames() {
+        return this.lateFrames.get();
+    }
+
+    private void encodeLoop() {
+        while (this.running) {
+            Frame frame;
+            try {
+                frame = this.readyFrames.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                this.encode(frame);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not encode camera frame", e);
+            } finally {
+                this.freeFrames.add(frame);
+            }
+        }
+    }
+
+    private void encode(Frame frame) {
+        long start = System.nanoTime();
+        frame.pixels.rewind();
+        frame.bitmap.copyPixelsFromBuffer(frame.pixels);
+        frame.jpeg.reset();
+        frame.bitmap.compress(Bitmap.CompressFormat.JPEG, this.quality, frame.jpeg);
+        long encodeNanos = System.nanoTime() - start;
+
+        RosTime.setStamp(frame.message.getHeader().getStamp(), frame.timestamp);
+        frame.message.setData(frame.jpeg.data);
+        synchronized (this.publishLock) {
+            if (frame.timestamp <= this.lastPublishedTimestamp) {
+                this.lateFrames.incrementAndGet();
+                return;
+            }
+            this.lastPublishedTimestamp = frame.timestamp;
+            this.publisher.publish(frame.message);
+        }
+        this.encodedFrames.incrementAndGet();
+        this.updateStats(encodeNanos, System.nanoTime() - frame.captureNanos);
+    }
+
+    private void updateStats(long encodeNanos, long latencyNanos) {
+        long frames = this.statsFrames.incrementAndGet();
+        this.statsEncodeNanos.addAndGet(encodeNanos);
+        this.statsLatencyNanos.addAndGet(latencyNanos);
+        long max = this.statsMaxLatencyNanos.get();
+        while (latencyNanos > max && !this.statsMaxLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = this.statsMaxLatencyNanos.get();
+        }
+
+        long now = System.nanoTime();
+        long statsStart = this.statsStartNanos.get();
+        if (now - statsStart < STATS_PERIOD_NANOS
+                || !this.statsStartNanos.compareAndSet(statsStart, now)) {
+            return;
+        }
+        frames = this.statsFrames.getAndSet(0);
+        double encodeMillis = this.statsEncodeNanos.getAndSet(0) * NANOSECS_TO_MILLISECS / frames;
+        double latencyMillis = this.statsLatencyNanos.getAndSet(0) * NANOSECS_TO_MILLISECS / frames;
+        double maxLatencyMillis = this.statsMaxLatencyNanos.getAndSet(0) * NANOSECS_TO_MILLISECS;
+        Log.i(TAG, String.format("%dx%d at %.1f fps, encode %.1f ms, latency %.1f ms (max %.1f ms), "
+                        + "dropped %d busy and %d late",
+                this.width, this.height, frames * 1e9 / (now - statsStart), encodeMillis,
+                latencyMillis, maxLatencyMillis, this.droppedFrames.get(), this.lateFrames.get()));
+    }
+
+    /**
+     * Output stream into a reused byte array, handed to the message as is.
+     */
+    private static final class JpegStream extends OutputStream {
+        private final ByteArrayList data = new ByteArrayList(64 * 1024);
+        private int size;
+
+        void reset() {
+            this.size = 0;
+            this.data.setSize(0);
+        }
+
+        @Override
+        public void write(int b) {
+            byte[] array = this.data.growCapacity(this.size + 1);
+            array[this.size++] = (byte) b;
+            this.data.setSize(this.size);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            byte[] array = this.data.growCapacity(this.size + len);
+            System.arraycopy(b, off, array, this.size, len);
+            this.size += len;
+            this.data.setSize(this.size);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.imu;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.ros2.android.tango.util.ClockMapper;
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import sensor_msgs.msg.Imu;
+
+/**
+ * Publishes sensor_msgs/Imu from the Android gyroscope and accelerometer at their fastest rate.
+ * <p>
+ * Sensors are read on a dedicated thread, using the hardware FIFO to batch events when the device
+ * has one. Gyroscope and accelerometer samples are aligned by {@link ImuSynchronizer}, stamped on
+ * the Tango clock, and written into a ring of preallocated messages. A second thread publishes
+ * them, so the sensor thread never waits on ROS and no message is allocated per sample.
+ */
+public class ImuPublisher implements SensorEventListener, ImuSynchronizer.Callback {
+    private static final String TAG = "ImuPublisher";
+
+    // Power of two, indexes wrap with a mask.
+    private static final int RING_CAPACITY = 128;
+    private static final double NANOSECS_TO_SECS = 1e-9;
+    // Batch up to 20 ms of events in the sensor FIFO, enough to keep the CPU asleep between reads.
+    private static final int DEFAULT_MAX_REPORT_LATENCY_US = 20000;
+
+    private final SensorManager sensorManager;
+    private final Publisher<Imu> publisher;
+    private final ClockMapper tangoClock;
+    private final ClockMapper sensorClock = new ClockMapper();
+    private final ImuSynchronizer synchronizer = new ImuSynchronizer(this);
+    private final String frameId;
+    private int maxReportLatencyUs = DEFAULT_MAX_REPORT_LATENCY_US;
+
+    // Single producer (sensor thread), single consumer (publish thread) ring of messages.
+    private final Imu[] ring = new Imu[RING_CAPACITY];
+    private final AtomicInteger head = new AtomicInteger();
+    private final AtomicInteger tail = new AtomicInteger();
+
+    private HandlerThread sensorThread;
+    private Thread publishThread;
+    private volatile boolean running;
+
+    private final AtomicLong publishedSamples = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    /**
+     * @param tangoClock Offset from the elapsed realtime clock to the Tango clock, fed by the
+     *                   pose callback. Samples keep the sensor time base while it is not valid.
+     */
+    public ImuPublisher(Context context, Publisher<Imu> publisher, ClockMapper tangoClock,
+            String frameId) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.publisher = publisher;
+        this.tangoClock = tangoClock;
+        this.frameId = frameId;
+        for (int i = 0; i < RING_CAPACITY; i++) {
+            this.ring[i] = this.createImu();
+        }
+    }
+
+    /**
+     * Maximum time events may wait in the sensor hardware FIFO, 0 to disable batching.
+     * Applied on the next {@link #start()}.
+     */
+    public void setMaxReportLatencyUs(int maxReportLatencyUs) {
+        this.maxReportLatencyUs = maxReportLatencyUs;
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        Sensor gyroscope = this.sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        Sensor accelerometer = this.sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (gyroscope == null || accelerometer == null) {
+            Log.w(TAG, "No gyroscope or accelerometer, IMU is not published");
+            return;
+        }
+
+        this.running = true;
+        this.synchronizer.reset();
+        this.publishThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ImuPublisher.this.publishLoop();
+            }
+        }, TAG);
+        this.publishThread.start();
+
+        // An absolute level, above the default and the display: samples are timestamped on arrival.
+        this.sensorThread = new HandlerThread(TAG + "Sensors",
+                Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        this.sensorThread.start();
+        Handler handler = new Handler(this.sensorThread.getLooper());
+        this.register(gyroscope, handler);
+        this.register(accelerometer, handler);
+    }
+
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.sensorManager.unregisterListener(this);
+        this.sensorThread.quit();
+        this.sensorThread = null;
+
+        this.running = false;
+        LockSupport.unpark(this.publishThread);
+        try {
+            this.publishThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.publishThread = null;
+    }
+
+    private void register(Sensor sensor, Handler handler) {
+        int latency = sensor.getFifoMaxEventCount() > 0 ? this.maxReportLatencyUs : 0;
+        this.sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST,
+                latency, handler);
+        Log.i(TAG, String.format("%s: min delay %d us, FIFO %d events, report latency %d us",
+                sensor.getName(), sensor.getMinDelay(), sensor.getFifoMaxEventCount(), latency));
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        this.sensorClock.update(event.timestamp * NANOSECS_TO_SECS,
+                SystemClock.elapsedRealtimeNanos() * NANOSECS_TO_SECS);
+
+        float[] values = event.values;
+        if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            this.synchronizer.addGyroscope(event.timestamp, values[0], values[1], values[2]);
+        } else {
+            this.synchronizer.addAccelerometer(event.timestamp, values[0], values[1], values[2]);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    /**
+     * Called on the sensor thread with a synchronized sample.
+     */
+    @Override
+    public void onImuSample(long timestamp, float wx, float wy, float wz, float ax, float ay, float az) {
+        int head = this.head.get();
+        if (head - this.tail.get() >= RING_CAPACITY) {
+            this.droppedSamples.incrementAndGet();
+            return;
+        }
+
+        // Sensor clock -> elapsed realtime -> Tango clock.
+        double elapsed = this.sensorClock.toReference(timestamp * NANOSECS_TO_SECS);
+        double time = this.tangoClock.isValid() ? this.tangoClock.toSource(elapsed) : elapsed;
+
+        Imu imu = this.ring[head & (RING_CAPACITY - 1)];
+        RosTime.setStamp(imu.getHeader().getStamp(), time);
+        imu.getAngularVelocity().setX(wx);
+        imu.getAngularVelocity().setY(wy);
+        imu.getAngularVelocity().setZ(wz);
+        imu.getLinearAcceleration().setX(ax);
+        imu.getLinearAcceleration().setY(ay);
+        imu.getLinearAcceleration().setZ(az);
+        this.head.lazySet(head + 1);
+
+        LockSupport.unpark(this.publishThread);
+    }
+
+    private void publishLoop() {
+        while (this.running) {
+            int tail = this.tail.get();
+            if (tail == this.head.get()) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                this.publisher.publish(this.ring[tail & (RING_CAPACITY - 1)]);
+                this.publishedSamples.incrementAndGet();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not publish IMU", e);
+            }
+            this.tail.lazySet(tail + 1);
+        }
+    }
+
+    private Imu createImu() {
+        Imu imu = new Imu();
+        imu.getHeader().setFrameId(this.frameId);
+        // Orientation is not estimated, flagged by -1 on the first covariance element (REP 145).
+        List<Double> unknown = new ArrayList<>(Arrays.asList(-1d, 0d, 0d, 0d, 0d, 0d, 0d, 0d, 0d));
+        imu.setOrientationCovariance(unknown);
+        // Covariances are unknown.
+        List<Double> zeros = new ArrayList<>(Arrays.asList(0d, 0d, 0d, 0d, 0d, 0d, 0d, 0d, 0d));
+        imu.setAngularVelocityCovariance(zeros);
+        imu.setLinearAccelerationCovariance(zeros);
+        return imu;
+    }
+
+    public long getPublishedSamples() {
+        return this.publishedSamples.get();
+    }
+
+    /** Samples lost because the publish thread fell behind. */
+    public long getDroppedSamples() {
+        return this.droppedSamples.get();
+    }
+}
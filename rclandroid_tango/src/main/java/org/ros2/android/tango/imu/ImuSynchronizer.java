@@ -0,0 +1,159 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.imu;
+
+/**
+ * Merges the gyroscope and accelerometer streams into IMU samples stamped at the gyroscope
+ * times. The acceleration is linearly interpolated between the two accelerometer samples
+ * surrounding each gyroscope sample, so a gyroscope sample waits until an accelerometer sample
+ * at least as recent has arrived.
+ * <p>
+ * Samples are kept in primitive rings, nothing is allocated after construction.
+ * Not thread safe, feed it from the sensor thread.
+ */
+public class ImuSynchronizer {
+    private static final int ACCEL_CAPACITY = 32;
+    private static final int GYRO_CAPACITY = 64;
+
+    public interface Callback {
+        /**
+         * A synchronized sample, timestamp in nanoseconds of the sensor clock, angular velocity in
+         * rad/s and linear acceleration in m/s^2.
+         */
+        void onImuSample(long timestamp, float wx, float wy, float wz, float ax, float ay, float az);
+    }
+
+    private final Callback callback;
+
+    // Accelerometer ring, oldest at accelHead.
+    private final long[] accelTime = new long[ACCEL_CAPACITY];
+    private final float[] accel = new float[ACCEL_CAPACITY * 3];
+    private int accelHead;
+    private int accelSize;
+
+    // Gyroscope samples waiting for a newer accelerometer sample, oldest at gyroHead.
+    private final long[] gyroTime = new long[GYRO_CAPACITY];
+    private final float[] gyro = new float[GYRO_CAPACITY * 3];
+    private int gyroHead;
+    private int gyroSize;
+
+    public ImuSynchronizer(Callback callback) {
+        this.callback = callback;
+    }
+
+    public void addAccelerometer(long timestamp, float x, float y, float z) {
+        if (this.accelSize > 0 && timestamp <= this.accelTime[this.lastAccel()]) {
+            return;
+        }
+        if (this.accelSize == ACCEL_CAPACITY) {
+            this.accelHead = (this.accelHead + 1) % ACCEL_CAPACITY;
+            this.accelSize--;
+        }
+        int slot = (this.accelHead + this.accelSize) % ACCEL_CAPACITY;
+        this.accelTime[slot] = timestamp;
+        this.accel[slot * 3] = x;
+        this.accel[slot * 3 + 1] = y;
+        this.accel[slot * 3 + 2] = z;
+        this.accelSize++;
+
+        this.drain(false);
+    }
+
+    public void addGyroscope(long timestamp, float x, float y, float z) {
+        if (this.gyroSize == GYRO_CAPACITY) {
+            // Accelerometer stalled, do not hold the gyroscope back forever.
+            this.drain(true);
+        }
+        int slot = (this.gyroHead + this.gyroSize) % GYRO_CAPACITY;
+        this.gyroTime[slot] = timestamp;
+        this.gyro[slot * 3] = x;
+        this.gyro[slot * 3 + 1] = y;
+        this.gyro[slot * 3 + 2] = z;
+        this.gyroSize++;
+
+        this.drain(false);
+    }
+
+    public void reset() {
+        this.accelHead = this.accelSize = 0;
+        this.gyroHead = this.gyroSize = 0;
+    }
+
+    /**
+     * Emit the waiting gyroscope samples covered by the accelerometer ring. When force is set,
+     * the oldest one is emitted anyway with the closest acceleration.
+     */
+    private void drain(boolean force) {
+        if (this.accelSize == 0) {
+            if (force) {
+                this.gyroHead = (this.gyroHead + 1) % GYRO_CAPACITY;
+                this.gyroSize--;
+            }
+            return;
+        }
+
+        long latest = this.accelTime[this.lastAccel()];
+        while (this.gyroSize > 0) {
+            int g = this.gyroHead;
+            long t = this.gyroTime[g];
+            if (t > latest && !force) {
+                break;
+            }
+            force = false;
+            this.emit(g, t);
+            this.gyroHead = (this.gyroHead + 1) % GYRO_CAPACITY;
+            this.gyroSize--;
+        }
+    }
+
+    private void emit(int g, long t) {
+        // Find the accelerometer samples around t, newest first since gyroscope samples are recent.
+        int after = this.lastAccel();
+        int before = after;
+        for (int i = this.accelSize - 1; i >= 0; i--) {
+            int slot = (this.accelHead + i) % ACCEL_CAPACITY;
+            before = slot;
+            if (this.accelTime[slot] <= t) {
+                break;
+            }
+            after = slot;
+        }
+
+        float ax, ay, az;
+        long t0 = this.accelTime[before];
+        long t1 = this.accelTime[after];
+        if (t1 <= t0 || t <= t0) {
+            ax = this.accel[before * 3];
+            ay = this.accel[before * 3 + 1];
+            az = this.accel[before * 3 + 2];
+        } else if (t >= t1) {
+            ax = this.accel[after * 3];
+            ay = this.accel[after * 3 + 1];
+            az = this.accel[after * 3 + 2];
+        } else {
+            float ratio = (float) ((double) (t - t0) / (t1 - t0));
+            ax = this.accel[before * 3] + ratio * (this.accel[after * 3] - this.accel[before * 3]);
+            ay = this.accel[before * 3 + 1] + ratio * (this.accel[after * 3 + 1] - this.accel[before * 3 + 1]);
+            az = this.accel[before * 3 + 2] + ratio * (this.accel[after * 3 + 2] - this.accel[before * 3 + 2]);
+        }
+
+        this.callback.onImuSample(t, this.gyro[g * 3], this.gyro[g * 3 + 1], this.gyro[g * 3 + 2],
+                ax, ay, az);
+    }
+
+    private int lastAccel() {
+        return (this.accelHead + this.accelSize - 1) % ACCEL_CAPACITY;
+    }
+}
@@ -0,0 +1,395 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.map;
+
+import org.ros2.android.tango.pointcloud.LongIntHashMap;
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * 2D occupancy grid built from depth clouds, for navigation.
+ * <p>
+ * Every cloud point clears the cells on the horizontal ray from the sensor to it, and marks its
+ * own cell occupied when it lies in the obstacle height band. The cells hit by a cloud are first
+ * collected in a primitive hash map, so each cell is updated once per cloud and a ray is cast
+ * once per end cell instead of once per point. Cells keep their occupancy in log-odds, clamped so
+ * the map keeps adapting to changes.
+ * <p>
+ * The grid is a square window of tiles which rolls with the sensor: when it gets close to an edge,
+ * the window is recentered by whole tiles and the tiles left behind are dropped. Tiles are
+ * {@code byte[]} arrays allocated on first observation and flagged when their occupancy changes,
+ * so only those need to be sent again. Not thread safe. No Android dependency.
+ */
+public class OccupancyGridMapper {
+    /** Occupancy of a cell never observed, in the nav_msgs/OccupancyGrid convention. */
+    public static final byte UNKNOWN = -1;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private static final int TILE_BITS = 6;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    // Log-odds are stored in 1/32 units: +0.85 on hit, -0.4 on miss, clamped to [-2, 3.5].
+    private static final float LOG_ODDS_SCALE = 32f;
+    private static final int HIT = 27;
+    private static final int MISS = -13;
+    private static final int MIN_LOG_ODDS = -64;
+    private static final int MAX_LOG_ODDS = 112;
+    private static final byte UNOBSERVED = Byte.MIN_VALUE;
+    // Occupancy in [0, 100] of every log-odds byte.
+    private static final byte[] OCCUPANCY = createOccupancyTable();
+
+    private static final int OCCUPIED = 1;
+    // Keeps cell keys positive.
+    private static final long CELL_OFFSET = 1L << 30;
+
+    private final float resolution;
+    private final float inverseResolution;
+    private final float maxRange;
+    private float minHeight;
+    private float maxHeight;
+
+    // Window of tilesPerSide tiles, its first tile in world tile coordinates. A world tile is
+    // stored in the slot of its coordinates modulo tilesPerSide.
+    private final int tilesPerSide;
+    private int originTileX;
+    private int originTileY;
+    private int originVersion;
+    private final byte[][] tiles;
+    private final boolean[] dirtyTiles;
+
+    // Cells hit by the current cloud.
+    private final LongIntHashMap cells;
+    private final int[] cellX;
+    private final int[] cellY;
+    private final byte[] cellFlags;
+    private int numCells;
+
+    /**
+     * @param resolution Cell size, in meters.
+     * @param size       Minimum width of the window, in meters.
+     * @param maxRange   Points further from the sensor are ignored, in meters.
+     */
+    public OccupancyGridMapper(float resolution, float size, float maxRange) {
+        if (!(resolution > 0) || !(size > 0) || !(maxRange > 0)) {
+            throw new IllegalArgumentException(String.format(
+                    "resolution, size and maxRange must be positive: %f, %f, %f",
+                    resolution, size, maxRange));
+        }
+        this.resolution = resolution;
+        this.inverseResolution = 1f / resolution;
+        this.maxRange = maxRange;
+        this.minHeight = Float.NEGATIVE_INFINITY;
+        this.maxHeight = Float.POSITIVE_INFINITY;
+
+        this.tilesPerSide = (int) Math.ceil(size / (resolution * TILE_SIZE));
+        this.tiles = new byte[this.tilesPerSide * this.tilesPerSide][];
+        this.dirtyTiles = new boolean[this.tiles.length];
+        this.originTileX = -this.tilesPerSide / 2;
+        this.originTileY = -this.tilesPerSide / 2;
+
+        // Points and rays stay in the square of maxRange around the sensor.
+        int side = 2 * (int) Math.ceil(maxRange * this.inverseResolution) + 3;
+        int maxCells = side * side;
+        this.cells = new LongIntHashMap(maxCells);
+        this.cellX = new int[maxCells];
+        this.cellY = new int[maxCells];
+        this.cellFlags = new byte[maxCells];
+    }
+
+    /**
+     * Heights, in the map frame, between which points are obstacles. Other points only clear the
+     * space in front of them.
+     */
+    public void setHeightBand(float minHeight, float maxHeight) {
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+    }
+
+    public float getResolution() {
+        return this.resolution;
+    }
+
+    /** Cells per tile side. */
+    public int getTileSize() {
+        return TILE_SIZE;
+    }
+
+    public int getTilesPerSide() {
+        return this.tilesPerSide;
+    }
+
+    /** Cells per window side. */
+    public int getWidth() {
+        return this.tilesPerSide * TILE_SIZE;
+    }
+
+    /** Position of the window corner in the map frame, in meters. */
+    public double getOriginX() {
+        return (double) this.originTileX * TILE_SIZE * this.resolution;
+    }
+
+    public double getOriginY() {
+        return (double) this.originTileY * TILE_SIZE * this.resolution;
+    }
+
+    /**
+     * Changes every time the window moves or is cleared, the whole grid must then be sent again.
+     */
+    public int getOriginVersion() {
+        return this.originVersion;
+    }
+
+    public void clear() {
+        Arrays.fill(this.tiles, null);
+        Arrays.fill(this.dirtyTiles, false);
+        this.originVersion++;
+    }
+
+    /**
+     * @param column Tile column in the window, from the origin.
+     * @param row    Tile row in the window, from the origin.
+     * @return True if the tile occupancy changed since the last {@link #clearDirtyTile(int, int)}.
+     */
+    public boolean isTileDirty(int column, int row) {
+        return this.dirtyTiles[this.slot(this.originTileX + column, this.originTileY + row)];
+    }
+
+    public void clearDirtyTile(int column, int row) {
+        this.dirtyTiles[this.slot(this.originTileX + column, this.originTileY + row)] = false;
+    }
+
+    public void clearDirtyTiles() {
+        Arrays.fill(this.dirtyTiles, false);
+    }
+
+    /**
+     * Copy the occupancy of a tile, rows along X, in [0, 100] or {@link #UNKNOWN}.
+     *
+     * @param stride Distance between two rows in out.
+     */
+    public void copyTile(int column, int row, byte[] out, int offset, int stride) {
+        byte[] tile = this.tiles[this.slot(this.originTileX + column, this.originTileY + row)];
+        for (int y = 0; y < TILE_SIZE; y++) {
+            int start = offset + y * stride;
+            if (tile == null) {
+                Arrays.fill(out, start, start + TILE_SIZE, UNKNOWN);
+                continue;
+            }
+            for (int x = 0; x < TILE_SIZE; x++) {
+                out[start + x] = OCCUPANCY[tile[(y << TILE_BITS) + x] & 0xff];
+            }
+        }
+    }
+
+    /**
+     * Copy the occupancy of the whole window, rows along X, getWidth() cells per row.
+     */
+    public void copyGrid(byte[] out) {
+        int width = this.getWidth();
+        for (int row = 0; row < this.tilesPerSide; row++) {
+            for (int column = 0; column < this.tilesPerSide; column++) {
+                this.copyTile(column, row, out, row * TILE_SIZE * width + column * TILE_SIZE, width);
+            }
+        }
+    }
+
+    /**
+     * Update the grid with a cloud.
+     *
+     * @param cloud       Points in the XYZC layout, read with absolute gets.
+     * @param translation Position {x, y, z} of the sensor in the map frame, Z up.
+     * @param rotation    Orientation {x, y, z, w} of the sensor in the map frame.
+     */
+    public void insert(FloatBuffer cloud, int numPoints, double[] translation, double[] rotation) {
+        double qx = rotation[0];
+        double qy = rotation[1];
+        double qz = rotation[2];
+        double qw = rotation[3];
+        float r00 = (float) (1 - 2 * (qy * qy + qz * qz));
+        float r01 = (float) (2 * (qx * qy - qz * qw));
+        float r02 = (float) (2 * (qx * qz + qy * qw));
+        float r10 = (float) (2 * (qx * qy + qz * qw));
+        float r11 = (float) (1 - 2 * (qx * qx + qz * qz));
+        float r12 = (float) (2 * (qy * qz - qx * qw));
+        float r20 = (float) (2 * (qx * qz - qy * qw));
+        float r21 = (float) (2 * (qy * qz + qx * qw));
+        float r22 = (float) (1 - 2 * (qx * qx + qy * qy));
+        float tx = (float) translation[0];
+        float ty = (float) translation[1];
+        float tz = (float) translation[2];
+        float maxRangeSquared = this.maxRange * this.maxRange;
+
+        int sensorX = this.cell(tx);
+        int sensorY = this.cell(ty);
+        this.recenter(sensorX, sensorY);
+        this.cells.clear();
+        this.numCells = 0;
+
+        // End cells, occupied if any of their points is in the height band.
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = cloud.get(i);
+            float y = cloud.get(i + 1);
+            float z = cloud.get(i + 2);
+            float dx = r00 * x + r01 * y + r02 * z;
+            float dy = r10 * x + r11 * y + r12 * z;
+            float height = r20 * x + r21 * y + r22 * z + tz;
+            // Also skips NaN.
+            if (!(dx * dx + dy * dy <= maxRangeSquared)) {
+                continue;
+            }
+            int cell = this.addCell(this.cell(tx + dx), this.cell(ty + dy));
+            if (height >= this.minHeight && height <= this.maxHeight) {
+                this.cellFlags[cell] = OCCUPIED;
+            }
+        }
+
+        // Free space up to every end cell.
+        int numEndCells = this.numCells;
+        for (int cell = 0; cell < numEndCells; cell++) {
+            this.castRay(sensorX, sensorY, this.cellX[cell], this.cellY[cell]);
+        }
+
+        for (int cell = 0; cell < this.numCells; cell++) {
+            this.update(this.cellX[cell], this.cellY[cell],
+                    this.cellFlags[cell] == OCCUPIED ? HIT : MISS);
+        }
+    }
+
+    // Cells from (x0, y0) to (x1, y1) excluded, Bresenham.
+    private void castRay(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1;
+        int stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        int x = x0;
+        int y = y0;
+        while (x != x1 || y != y1) {
+            this.addCell(x, y);
+            int error2 = 2 * error;
+            if (error2 >= dy) {
+                error += dy;
+                x += stepX;
+            }
+            if (error2 <= dx) {
+                error += dx;
+                y += stepY;
+            }
+        }
+    }
+
+    private int addCell(int x, int y) {
+        long key = ((x + CELL_OFFSET) << 32) | (y + CELL_OFFSET);
+        int cell = this.cells.putIfAbsent(key, this.numCells);
+        if (cell == LongIntHashMap.NO_VALUE) {
+            cell = this.numCells++;
+            this.cellX[cell] = x;
+            this.cellY[cell] = y;
+            this.cellFlags[cell] = 0;
+        }
+        return cell;
+    }
+
+    private void update(int x, int y, int delta) {
+        int tileX = x >> TILE_BITS;
+        int tileY = y >> TILE_BITS;
+        if (tileX - this.originTileX < 0 || tileX - this.originTileX >= this.tilesPerSide
+                || tileY - this.originTileY < 0 || tileY - this.originTileY >= this.tilesPerSide) {
+            return;
+        }
+
+        int slot = this.slot(tileX, tileY);
+        byte[] tile = this.tiles[slot];
+        if (tile == null) {
+            tile = new byte[TILE_SIZE * TILE_SIZE];
+            Arrays.fill(tile, UNOBSERVED);
+            this.tiles[slot] = tile;
+        }
+        int index = ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK);
+        byte previous = tile[index];
+        int logOdds = previous == UNOBSERVED ? delta : previous + delta;
+        byte current = (byte) Math.min(Math.max(logOdds, MIN_LOG_ODDS), MAX_LOG_ODDS);
+        tile[index] = current;
+        if (OCCUPANCY[previous & 0xff] != OCCUPANCY[current & 0xff]) {
+            this.dirtyTiles[slot] = true;
+        }
+    }
+
+    // Move the window by whole tiles when the sensor gets in its outer quarters.
+    private void recenter(int sensorX, int sensorY) {
+        int tileX = sensorX >> TILE_BITS;
+        int tileY = sensorY >> TILE_BITS;
+        int margin = this.tilesPerSide / 4;
+        int originTileX = this.originTileX;
+        int originTileY = this.originTileY;
+        if (tileX - originTileX < margin || tileX - originTileX >= this.tilesPerSide - margin) {
+            originTileX = tileX - this.tilesPerSide / 2;
+        }
+        if (tileY - originTileY < margin || tileY - originTileY >= this.tilesPerSide - margin) {
+            originTileY = tileY - this.tilesPerSide / 2;
+        }
+        if (originTileX == this.originTileX && originTileY == this.originTileY) {
+            return;
+        }
+
+        // Drop the slots which now hold another tile.
+        for (int row = 0; row < this.tilesPerSide; row++) {
+            boolean rowMoved = this.tileInWindow(row, this.originTileY) != this.tileInWindow(row, originTileY);
+            for (int column = 0; column < this.tilesPerSide; column++) {
+                if (rowMoved || this.tileInWindow(column, this.originTileX)
+                        != this.tileInWindow(column, originTileX)) {
+                    this.tiles[row * this.tilesPerSide + column] = null;
+                }
+            }
+        }
+        this.originTileX = originTileX;
+        this.originTileY = originTileY;
+        this.originVersion++;
+    }
+
+    // Tile stored at a slot index on one axis, for a window starting at origin.
+    private int tileInWindow(int index, int origin) {
+        return origin + floorMod(index - origin, this.tilesPerSide);
+    }
+
+    private int slot(int tileX, int tileY) {
+        return floorMod(tileY, this.tilesPerSide) * this.tilesPerSide
+                + floorMod(tileX, this.tilesPerSide);
+    }
+
+    private int cell(float value) {
+        return (int) Math.floor(value * this.inverseResolution);
+    }
+
+    // Math.floorMod is API 24.
+    private static int floorMod(int value, int modulus) {
+        int result = value % modulus;
+        return result < 0 ? result + modulus : result;
+    }
+
+    private static byte[] createOccupancyTable() {
+        byte[] table = new byte[256];
+        for (int value = Byte.MIN_VALUE; value <= Byte.MAX_VALUE; value++) {
+            double probability = 1 - 1 / (1 + Math.exp(value / LOG_ODDS_SCALE));
+            table[value & 0xff] = (byte) Math.round(100 * probability);
+        }
+        table[UNOBSERVED & 0xff] = UNKNOWN;
+        return table;
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.map;
+
+import org.ros2.android.tango.util.ByteArrayList;
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import map_msgs.msg.OccupancyGridUpdate;
+import nav_msgs.msg.OccupancyGrid;
+
+/**
+ * Publishes an {@link OccupancyGridMapper} as nav_msgs/OccupancyGrid, then only its changed tiles
+ * as map_msgs/OccupancyGridUpdate, the map updates the nav2 costmap static layer subscribes to.
+ * <p>
+ * The whole grid is sent again when the window moves, and every FULL_PERIOD for late subscribers.
+ * Messages and payloads are allocated once and reused.
+ */
+public class OccupancyGridPublisher {
+    // No transient local durability, the full grid is repeated for late subscribers.
+    private static final double FULL_PERIOD = 10.0;
+
+    private final Publisher<OccupancyGrid> gridPublisher;
+    private final Publisher<OccupancyGridUpdate> updatePublisher;
+
+    private final OccupancyGrid grid;
+    private final ByteArrayList gridData = new ByteArrayList();
+    private final OccupancyGridUpdate update;
+    private final ByteArrayList updateData = new ByteArrayList();
+
+    // Grid state sent last.
+    private OccupancyGridMapper mapper;
+    private int originVersion;
+    private double lastFullTimestamp = Double.NEGATIVE_INFINITY;
+
+    private long publishedTiles;
+
+    public OccupancyGridPublisher(Publisher<OccupancyGrid> gridPublisher,
+            Publisher<OccupancyGridUpdate> updatePublisher, String frameId) {
+        this.gridPublisher = gridPublisher;
+        this.updatePublisher = updatePublisher;
+
+        this.grid = new OccupancyGrid();
+        this.grid.getHeader().setFrameId(frameId);
+        this.grid.getInfo().getOrigin().getOrientation().setW(1);
+        this.update = new OccupancyGridUpdate();
+        this.update.getHeader().setFrameId(frameId);
+    }
+
+    /**
+     * Send the grid changes since the previous call.
+     */
+    public void publish(OccupancyGridMapper mapper, double timestamp) {
+        if (mapper != this.mapper || mapper.getOriginVersion() != this.originVersion
+                || Math.abs(timestamp - this.lastFullTimestamp) >= FULL_PERIOD) {
+            this.publishGrid(mapper, timestamp);
+            return;
+        }
+
+        int tileSize = mapper.getTileSize();
+        byte[] data = this.updateData.ensureCapacity(tileSize * tileSize);
+        this.updateData.setSize(tileSize * tileSize);
+        RosTime.setStamp(this.update.getHeader().getStamp(), timestamp);
+        this.update.setWidth(tileSize);
+        this.update.setHeight(tileSize);
+        for (int row = 0; row < mapper.getTilesPerSide(); row++) {
+            for (int column = 0; column < mapper.getTilesPerSide(); column++) {
+                if (!mapper.isTileDirty(column, row)) {
+                    continue;
+                }
+                mapper.clearDirtyTile(column, row);
+                mapper.copyTile(column, row, data, 0, tileSize);
+                this.update.setX(column * tileSize);
+                this.update.setY(row * tileSize);
+                this.update.setData(this.updateData);
+                this.updatePublisher.publish(this.update);
+                this.publishedTiles++;
+            }
+        }
+    }
+
+    private void publishGrid(OccupancyGridMapper mapper, double timestamp) {
+        int width = mapper.getWidth();
+        mapper.copyGrid(this.gridData.ensureCapacity(width * width));
+        this.gridData.setSize(width * width);
+        mapper.clearDirtyTiles();
+
+        RosTime.setStamp(this.grid.getHeader().getStamp(), timestamp);
+        if (mapper != this.mapper || mapper.getOriginVersion() != this.originVersion) {
+            RosTime.setStamp(this.grid.getInfo().getMapLoadTime(), timestamp);
+        }
+        this.grid.getInfo().setResolution(mapper.getResolution());
+        this.grid.getInfo().setWidth(width);
+        this.grid.getInfo().setHeight(width);
+        this.grid.getInfo().getOrigin().getPosition().setX(mapper.getOriginX());
+        this.grid.getInfo().getOrigin().getPosition().setY(mapper.getOriginY());
+        this.grid.setData(this.gridData);
+        this.gridPublisher.publish(this.grid);
+
+        this.mapper = mapper;
+        this.originVersion = mapper.getOriginVersion();
+        this.lastFullTimestamp = timestamp;
+    }
+
+    /** Tiles sent as map updates. */
+    public long getPublishedTiles() {
+        return this.publishedTiles;
+    }
+}
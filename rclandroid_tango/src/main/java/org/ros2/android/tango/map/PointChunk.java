@@ -0,0 +1,47 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.map;
+
+/**
+ * Points of the map in one cubic chunk, handed over from the mapping thread to the renderer.
+ * <p>
+ * Points are sorted by level of detail: the first levelEnds[0] points cover the chunk with one
+ * point per coarse voxel, each next level adds one point per voxel of half the size, and the last
+ * level holds the rest. Any prefix up to a level end is an evenly spread subset of the chunk.
+ * A chunk without points was removed from the map.
+ */
+public class PointChunk {
+    /** Octree key of the chunk, see {@link PointMap#getLeafKey(int)}. */
+    public final long key;
+    public final int numPoints;
+    /** XYZC layout, null when removed. */
+    public final float[] points;
+    /** Bounding box of the points: minimum X, Y, Z, then maximum X, Y, Z. */
+    public final float[] bounds;
+    /** Number of points up to the end of each level. */
+    public final int[] levelEnds;
+
+    public PointChunk(long key, int numPoints, float[] points, float[] bounds, int[] levelEnds) {
+        this.key = key;
+        this.numPoints = numPoints;
+        this.points = points;
+        this.bounds = bounds;
+        this.levelEnds = levelEnds;
+    }
+
+    public static PointChunk removed(long key) {
+        return new PointChunk(key, 0, null, null, null);
+    }
+}
@@ -0,0 +1,422 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.map;
+
+import org.ros2.android.tango.pointcloud.LongIntHashMap;
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Point map accumulated from successive clouds, bounded in memory.
+ * <p>
+ * Space is split in the leaves of a sparse octree: cubes of the leaf size, keyed by the Morton
+ * code of their coordinates (21 bits per axis) so the parent of a leaf is its key shifted by
+ * three bits. Only observed leaves exist, indexed in a primitive hash map. Each leaf holds up to
+ * a fixed number of points, at most one per cell of a finer grid: a point falling in an occupied
+ * cell is averaged into it, otherwise it is added, or replaces the leaf points in turn when the
+ * leaf is full.
+ * <p>
+ * Leaves are kept in least recently observed order. Once the memory budget is used, the leaf
+ * observed the longest time ago is recycled for the new one. Leaf data lives in flat primitive
+ * arrays grown up to the budget, inserting allocates nothing once they have reached their size.
+ * Not thread safe. No Android dependency.
+ */
+public class PointMap {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private static final int BITS_PER_AXIS = 21;
+    private static final int AXIS_OFFSET = 1 << (BITS_PER_AXIS - 1);
+    private static final int AXIS_MAX = (1 << BITS_PER_AXIS) - 1;
+    // Cell codes are stored in shorts.
+    private static final int MAX_RESOLUTION = 16;
+    // Past this number of observations, a point keeps following new ones instead of freezing.
+    private static final int MAX_WEIGHT = 32;
+    private static final int INITIAL_LEAVES = 1024;
+    // Estimated hash map cost per leaf, at its load factor.
+    private static final int INDEX_BYTES_PER_LEAF = 48;
+    private static final int NONE = -1;
+
+    private final float leafSize;
+    private final float inverseLeafSize;
+    private final int resolution;
+    private final int pointsPerLeaf;
+    private final int maxLeaves;
+
+    private final LongIntHashMap index;
+    private long[] keys;
+    private int[] counts;
+    // Next point overwritten once the leaf is full.
+    private int[] replaced;
+    // Insertion during which the leaf was last observed.
+    private int[] stamps;
+    private int stamp;
+    // Observation order, a doubly linked list from the oldest to the newest leaf.
+    private int[] older;
+    private int[] newer;
+    private int oldest = NONE;
+    private int newest = NONE;
+    // Per point.
+    private float[] points;
+    private short[] cells;
+    private short[] weights;
+
+    private int numLeaves;
+    private int numPoints;
+    private long evictedLeaves;
+
+    // Leaf of the previous point, consecutive points mostly fall in the same leaf.
+    private long cachedKey = NONE;
+    private int cachedLeaf = NONE;
+
+    /**
+     * @param leafSize      Edge of the octree leaves, in meters.
+     * @param resolution    Cells per leaf edge, a leaf keeps at most one point per cell.
+     * @param pointsPerLeaf Maximum number of points in a leaf.
+     * @param memoryBudget  Bytes the map may use, see {@link #getBytesPerLeaf(int)}.
+     */
+    public PointMap(float leafSize, int resolution, int pointsPerLeaf, long memoryBudget) {
+        if (!(leafSize > 0)) {
+            throw new IllegalArgumentException("leafSize must be positive: " + leafSize);
+        }
+        if (resolution < 1 || resolution > MAX_RESOLUTION) {
+            throw new IllegalArgumentException("resolution must be in [1, " + MAX_RESOLUTION
+                    + "]: " + resolution);
+        }
+        if (pointsPerLeaf < 1) {
+            throw new IllegalArgumentException("pointsPerLeaf must be positive: " + pointsPerLeaf);
+        }
+        long leaves = memoryBudget / getBytesPerLeaf(pointsPerLeaf);
+        if (leaves < 1) {
+            throw new IllegalArgumentException("memoryBudget is too small: " + memoryBudget);
+        }
+
+        this.leafSize = leafSize;
+        this.inverseLeafSize = 1f / leafSize;
+        this.resolution = resolution;
+        this.pointsPerLeaf = pointsPerLeaf;
+        this.maxLeaves = (int) Math.min(leaves,
+                Integer.MAX_VALUE / (pointsPerLeaf * FLOATS_PER_POINT));
+        this.index = new LongIntHashMap(this.maxLeaves);
+        this.allocate(Math.min(INITIAL_LEAVES, this.maxLeaves));
+    }
+
+    /**
+     * Memory used by a leaf, including its index entry.
+     */
+    public static int getBytesPerLeaf(int pointsPerLeaf) {
+        int perPoint = FLOATS_PER_POINT * Float.SIZE / 8 + 2 * Short.SIZE / 8;
+        return pointsPerLeaf * perPoint + Long.SIZE / 8 + 4 * Integer.SIZE / 8 + INDEX_BYTES_PER_LEAF;
+    }
+
+    public float getLeafSize() {
+        return this.leafSize;
+    }
+
+    public int getMaxLeaves() {
+        return this.maxLeaves;
+    }
+
+    public int getNumLeaves() {
+        return this.numLeaves;
+    }
+
+    public int getNumPoints() {
+        return this.numPoints;
+    }
+
+    /**
+     * Most recently observed leaf, or -1 when empty. With {@link #getOlderLeaf(int)}, walks the
+     * leaves from the most to the least recently observed.
+     */
+    public int getNewestLeaf() {
+        return this.newest;
+    }
+
+    /**
+     * @return Leaf observed before the given one, or -1.
+     */
+    public int getOlderLeaf(int leaf) {
+        return this.older[leaf];
+    }
+
+    /**
+     * Morton code of the leaf coordinates, the key of its ancestor n levels up is key >>> 3n.
+     */
+    public long getLeafKey(int leaf) {
+        return this.keys[leaf];
+    }
+
+    public int getLeafPointCount(int leaf) {
+        return this.counts[leaf];
+    }
+
+    /**
+     * Changes whenever points of the leaf are updated.
+     */
+    public int getLeafStamp(int leaf) {
+        return this.stamps[leaf];
+    }
+
+    /**
+     * Copy the points of a leaf in the XYZC layout.
+     *
+     * @return Number of points copied.
+     */
+    public int copyLeafPoints(int leaf, float[] out, int offset) {
+        int count = this.counts[leaf];
+        System.arraycopy(this.points, leaf * this.pointsPerLeaf * FLOATS_PER_POINT, out, offset,
+                count * FLOATS_PER_POINT);
+        return count;
+    }
+
+    /** Leaves dropped to stay in the memory budget. */
+    public long getEvictedLeaves() {
+        return this.evictedLeaves;
+    }
+
+    public void clear() {
+        this.index.clear();
+        this.numLeaves = 0;
+        this.numPoints = 0;
+        this.oldest = NONE;
+        this.newest = NONE;
+        this.cachedKey = NONE;
+        this.cachedLeaf = NONE;
+    }
+
+    /**
+     * Fuse a cloud in the map.
+     *
+     * @param cloud       Points in the XYZC layout, read with absolute gets.
+     * @param translation Position {x, y, z} of the cloud frame in the map frame.
+     * @param rotation    Orientation {x, y, z, w} of the cloud frame in the map frame.
+     */
+    public void insert(FloatBuffer cloud, int numPoints, double[] translation, double[] rotation) {
+        double qx = rotation[0];
+        double qy = rotation[1];
+        double qz = rotation[2];
+        double qw = rotation[3];
+        float r00 = (float) (1 - 2 * (qy * qy + qz * qz));
+        float r01 = (float) (2 * (qx * qy - qz * qw));
+        float r02 = (float) (2 * (qx * qz + qy * qw));
+        float r10 = (float) (2 * (qx * qy + qz * qw));
+        float r11 = (float) (1 - 2 * (qx * qx + qz * qz));
+        float r12 = (float) (2 * (qy * qz - qx * qw));
+        float r20 = (float) (2 * (qx * qz - qy * qw));
+        float r21 = (float) (2 * (qy * qz + qx * qw));
+        float r22 = (float) (1 - 2 * (qx * qx + qy * qy));
+        float tx = (float) translation[0];
+        float ty = (float) translation[1];
+        float tz = (float) translation[2];
+        // Leaves are stamped when observed, the cached one too.
+        this.stamp++;
+        this.cachedKey = NONE;
+
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = cloud.get(i);
+            float y = cloud.get(i + 1);
+            float z = cloud.get(i + 2);
+            this.add(r00 * x + r01 * y + r02 * z + tx,
+                    r10 * x + r11 * y + r12 * z + ty,
+                    r20 * x + r21 * y + r22 * z + tz,
+                    cloud.get(i + 3));
+        }
+    }
+
+    /**
+     * Copy the map points in the XYZC layout, most recently observed leaves first.
+     *
+     * @return Number of points copied, at most maxPoints and what fits in the buffer.
+     */
+    public int copyPoints(FloatBuffer out, int maxPoints) {
+        int max = Math.min(maxPoints, out.capacity() / FLOATS_PER_POINT);
+        int copied = 0;
+        for (int leaf = this.newest; leaf != NONE && copied < max; leaf = this.older[leaf]) {
+            int count = Math.min(this.counts[leaf], max - copied);
+            out.position(copied * FLOATS_PER_POINT);
+            out.put(this.points, leaf * this.pointsPerLeaf * FLOATS_PER_POINT,
+                    count * FLOATS_PER_POINT);
+            copied += count;
+        }
+        out.position(0);
+        return copied;
+    }
+
+    private void add(float x, float y, float z, float c) {
+        float fx = x * this.inverseLeafSize;
+        float fy = y * this.inverseLeafSize;
+        float fz = z * this.inverseLeafSize;
+        float floorX = (float) Math.floor(fx);
+        float floorY = (float) Math.floor(fy);
+        float floorZ = (float) Math.floor(fz);
+        int ix = (int) floorX + AXIS_OFFSET;
+        int iy = (int) floorY + AXIS_OFFSET;
+        int iz = (int) floorZ + AXIS_OFFSET;
+        // Out of range, or NaN.
+        if (((ix | iy | iz) & ~AXIS_MAX) != 0 || fx != fx || fy != fy || fz != fz) {
+            return;
+        }
+
+        long key = spread(ix) | (spread(iy) << 1) | (spread(iz) << 2);
+        int leaf = key == this.cachedKey ? this.cachedLeaf : this.observe(key);
+        int cell = (this.cell(fx - floorX) * this.resolution + this.cell(fy - floorY))
+                * this.resolution + this.cell(fz - floorZ);
+
+        int first = leaf * this.pointsPerLeaf;
+        int count = this.counts[leaf];
+        for (int point = first; point < first + count; point++) {
+            if (this.cells[point] == cell) {
+                // Running average, with a capped weight.
+                int weight = this.weights[point];
+                float ratio = 1f / (weight + 1);
+                int offset = point * FLOATS_PER_POINT;
+                this.points[offset] += (x - this.points[offset]) * ratio;
+                this.points[offset + 1] += (y - this.points[offset + 1]) * ratio;
+                this.points[offset + 2] += (z - this.points[offset + 2]) * ratio;
+                this.points[offset + 3] += (c - this.points[offset + 3]) * ratio;
+                if (weight < MAX_WEIGHT) {
+                    this.weights[point] = (short) (weight + 1);
+                }
+                return;
+            }
+        }
+
+        int point;
+        if (count < this.pointsPerLeaf) {
+            point = first + count;
+            this.counts[leaf] = count + 1;
+            this.numPoints++;
+        } else {
+            point = first + this.replaced[leaf];
+            this.replaced[leaf] = (this.replaced[leaf] + 1) % this.pointsPerLeaf;
+        }
+        int offset = point * FLOATS_PER_POINT;
+        this.points[offset] = x;
+        this.points[offset + 1] = y;
+        this.points[offset + 2] = z;
+        this.points[offset + 3] = c;
+        this.cells[point] = (short) cell;
+        this.weights[point] = 1;
+    }
+
+    // Cell index on one axis, from the position in the leaf in [0, 1].
+    private int cell(float fraction) {
+        return Math.min((int) (fraction * this.resolution), this.resolution - 1);
+    }
+
+    // Leaf of the key, created if needed, and marked as the most recently observed.
+    private int observe(long key) {
+        int leaf = this.index.get(key);
+        if (leaf == LongIntHashMap.NO_VALUE) {
+            leaf = this.createLeaf(key);
+        } else if (leaf != this.newest) {
+            this.unlink(leaf);
+            this.link(leaf);
+        }
+        this.stamps[leaf] = this.stamp;
+        this.cachedKey = key;
+        this.cachedLeaf = leaf;
+        return leaf;
+    }
+
+    private int createLeaf(long key) {
+        int leaf;
+        if (this.numLeaves < this.maxLeaves) {
+            if (this.numLeaves == this.keys.length) {
+                this.allocate(Math.min(2 * this.keys.length, this.maxLeaves));
+            }
+            leaf = this.numLeaves++;
+        } else {
+            // Recycle the leaf observed the longest time ago.
+            leaf = this.oldest;
+            this.index.remove(this.keys[leaf]);
+            this.unlink(leaf);
+            this.numPoints -= this.counts[leaf];
+            this.evictedLeaves++;
+        }
+
+        this.keys[leaf] = key;
+        this.counts[leaf] = 0;
+        this.replaced[leaf] = 0;
+        this.index.putIfAbsent(key, leaf);
+        this.link(leaf);
+        return leaf;
+    }
+
+    // Append as the newest leaf.
+    private void link(int leaf) {
+        this.older[leaf] = this.newest;
+        this.newer[leaf] = NONE;
+        if (this.newest != NONE) {
+            this.newer[this.newest] = leaf;
+        } else {
+            this.oldest = leaf;
+        }
+        this.newest = leaf;
+    }
+
+    private void unlink(int leaf) {
+        int older = this.older[leaf];
+        int newer = this.newer[leaf];
+        if (older != NONE) {
+            this.newer[older] = newer;
+        } else {
+            this.oldest = newer;
+        }
+        if (newer != NONE) {
+            this.older[newer] = older;
+        } else {
+            this.newest = older;
+        }
+    }
+
+    private void allocate(int leaves) {
+        if (this.keys == null) {
+            this.keys = new long[leaves];
+            this.counts = new int[leaves];
+            this.replaced = new int[leaves];
+            this.stamps = new int[leaves];
+            this.older = new int[leaves];
+            this.newer = new int[leaves];
+            this.points = new float[leaves * this.pointsPerLeaf * FLOATS_PER_POINT];
+            this.cells = new short[leaves * this.pointsPerLeaf];
+            this.weights = new short[leaves * this.pointsPerLeaf];
+            return;
+        }
+        this.keys = Arrays.copyOf(this.keys, leaves);
+        this.counts = Arrays.copyOf(this.counts, leaves);
+        this.replaced = Arrays.copyOf(this.replaced, leaves);
+        this.stamps = Arrays.copyOf(this.stamps, leaves);
+        this.older = Arrays.copyOf(this.older, leaves);
+        this.newer = Arrays.copyOf(this.newer, leaves);
+        this.points = Arrays.copyOf(this.points, leaves * this.pointsPerLeaf * FLOATS_PER_POINT);
+        this.cells = Arrays.copyOf(this.cells, leaves * this.pointsPerLeaf);
+        this.weights = Arrays.copyOf(this.weights, leaves * this.pointsPerLeaf);
+    }
+
+    // Insert two zero bits between the 21 low bits of the value, for the Morton code.
+    private static long spread(long value) {
+        value &= AXIS_MAX;
+        value = (value | (value << 32)) & 0x001f00000000ffffL;
+        value = (value | (value << 16)) & 0x001f0000ff0000ffL;
+        value = (value | (value << 8)) & 0x100f00f00f00f00fL;
+        value = (value | (value << 4)) & 0x10c30c30c30c30c3L;
+        value = (value | (value << 2)) & 0x1249249249249249L;
+        return value;
+    }
+}
@@ -0,0 +1,219 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.map;
+
+import org.ros2.android.tango.pointcloud.LongIntHashMap;
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cuts a {@link PointMap} into chunks of 2^n leaves per edge, for rendering.
+ * <p>
+ * A chunk is an octree node n levels above the leaves. Each update walks the leaves only, and
+ * rebuilds the chunks whose leaves were observed, created or dropped since the previous update:
+ * their points are gathered and sorted by level of detail, see {@link PointChunk}. Chunks which
+ * no longer have leaves are reported as removed. Not thread safe. No Android dependency.
+ */
+public class PointMapChunker {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private static final int BITS_PER_AXIS = 21;
+    private static final long AXIS_MASK = (1L << BITS_PER_AXIS) - 1;
+    private static final int NONE = -1;
+
+    private final int chunkLevels;
+    // Voxel sizes of the detail levels, from the coarsest.
+    private final float[] inverseVoxelSizes;
+
+    // Map of the previous update, stamps only compare within the same map.
+    private PointMap map;
+    // Chunks of the current and previous updates, swapped every update.
+    private ChunkTable chunks = new ChunkTable();
+    private ChunkTable previousChunks = new ChunkTable();
+    // Leaves of a chunk, linked from ChunkTable.firstLeaves.
+    private int[] nextLeaves = new int[0];
+
+    // Scratch for the chunk being built.
+    private final LongIntHashMap[] voxels;
+    private float[] points = new float[0];
+    private byte[] levels = new byte[0];
+
+    /**
+     * @param leafSize    Leaf size of the map, in meters.
+     * @param chunkLevels Octree levels between the leaves and the chunks.
+     * @param lodLevels   Number of coarse levels of detail, the first one with a voxel of a
+     *                    quarter of the chunk.
+     */
+    public PointMapChunker(float leafSize, int chunkLevels, int lodLevels) {
+        this.chunkLevels = chunkLevels;
+        float chunkSize = leafSize * (1 << chunkLevels);
+        this.inverseVoxelSizes = new float[lodLevels];
+        this.voxels = new LongIntHashMap[lodLevels];
+        for (int level = 0; level < lodLevels; level++) {
+            this.inverseVoxelSizes[level] = (4 << level) / chunkSize;
+            this.voxels[level] = new LongIntHashMap(0);
+        }
+    }
+
+    /**
+     * Add to out the chunks which changed since the previous call, then forget them.
+     */
+    public void update(PointMap map, List<PointChunk> out) {
+        ChunkTable swap = this.previousChunks;
+        this.previousChunks = this.chunks;
+        this.chunks = swap;
+
+        boolean sameMap = map == this.map;
+        this.map = map;
+        ChunkTable chunks = this.chunks;
+        chunks.clear(map.getMaxLeaves());
+        if (this.nextLeaves.length < map.getMaxLeaves()) {
+            this.nextLeaves = new int[map.getMaxLeaves()];
+        }
+
+        // Group the leaves by chunk, and sign each chunk with its leaves and their stamps.
+        for (int leaf = map.getNewestLeaf(); leaf != NONE; leaf = map.getOlderLeaf(leaf)) {
+            long leafKey = map.getLeafKey(leaf);
+            int chunk = chunks.add(leafKey >>> (3 * this.chunkLevels));
+            chunks.signatures[chunk] += mix(leafKey * 31 + map.getLeafStamp(leaf));
+            chunks.numPoints[chunk] += map.getLeafPointCount(leaf);
+            this.nextLeaves[leaf] = chunks.firstLeaves[chunk];
+            chunks.firstLeaves[chunk] = leaf;
+        }
+
+        for (int chunk = 0; chunk < chunks.size; chunk++) {
+            int previous = this.previousChunks.index.get(chunks.keys[chunk]);
+            if (!sameMap || previous == LongIntHashMap.NO_VALUE
+                    || this.previousChunks.signatures[previous] != chunks.signatures[chunk]) {
+                out.add(this.build(map, chunks, chunk));
+            }
+        }
+        for (int previous = 0; previous < this.previousChunks.size; previous++) {
+            long key = this.previousChunks.keys[previous];
+            if (chunks.index.get(key) == LongIntHashMap.NO_VALUE) {
+                out.add(PointChunk.removed(key));
+            }
+        }
+    }
+
+    private PointChunk build(PointMap map, ChunkTable chunks, int chunk) {
+        int numPoints = chunks.numPoints[chunk];
+        if (this.levels.length < numPoints) {
+            this.points = new float[numPoints * FLOATS_PER_POINT];
+            this.levels = new byte[numPoints];
+        }
+        int gathered = 0;
+        for (int leaf = chunks.firstLeaves[chunk]; leaf != NONE; leaf = this.nextLeaves[leaf]) {
+            gathered += map.copyLeafPoints(leaf, this.points, gathered * FLOATS_PER_POINT);
+        }
+
+        // A point goes to the coarsest level where its voxel has no point yet, and fills the
+        // finer voxels around it.
+        int lodLevels = this.voxels.length;
+        int[] levelEnds = new int[lodLevels + 1];
+        for (int level = 0; level < lodLevels; level++) {
+            this.voxels[level].ensureCapacity(numPoints);
+            this.voxels[level].clear();
+        }
+        float[] bounds = {
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        for (int point = 0; point < numPoints; point++) {
+            int offset = point * FLOATS_PER_POINT;
+            float x = this.points[offset];
+            float y = this.points[offset + 1];
+            float z = this.points[offset + 2];
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.min(bounds[2], z);
+            bounds[3] = Math.max(bounds[3], x);
+            bounds[4] = Math.max(bounds[4], y);
+            bounds[5] = Math.max(bounds[5], z);
+
+            int pointLevel = lodLevels;
+            for (int level = 0; level < lodLevels; level++) {
+                float scale = this.inverseVoxelSizes[level];
+                long voxel = (((long) Math.floor(x * scale) & AXIS_MASK) << (2 * BITS_PER_AXIS))
+                        | (((long) Math.floor(y * scale) & AXIS_MASK) << BITS_PER_AXIS)
+                        | ((long) Math.floor(z * scale) & AXIS_MASK);
+                boolean empty = this.voxels[level].putIfAbsent(voxel, 0) == LongIntHashMap.NO_VALUE;
+                if (empty && pointLevel == lodLevels) {
+                    pointLevel = level;
+                }
+            }
+            this.levels[point] = (byte) pointLevel;
+            levelEnds[pointLevel]++;
+        }
+
+        // Counting sort by level.
+        int[] next = new int[lodLevels + 1];
+        for (int level = 1; level <= lodLevels; level++) {
+            next[level] = next[level - 1] + levelEnds[level - 1];
+            levelEnds[level - 1] = next[level];
+        }
+        levelEnds[lodLevels] = numPoints;
+        float[] sorted = new float[numPoints * FLOATS_PER_POINT];
+        for (int point = 0; point < numPoints; point++) {
+            System.arraycopy(this.points, point * FLOATS_PER_POINT, sorted,
+                    next[this.levels[point]]++ * FLOATS_PER_POINT, FLOATS_PER_POINT);
+        }
+        return new PointChunk(chunks.keys[chunk], numPoints, sorted, bounds, levelEnds);
+    }
+
+    // Murmur3 finalizer, spreads the leaf signatures before they are summed.
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static class ChunkTable {
+        final LongIntHashMap index = new LongIntHashMap(0);
+        long[] keys = new long[0];
+        long[] signatures = new long[0];
+        int[] numPoints = new int[0];
+        int[] firstLeaves = new int[0];
+        int size;
+
+        void clear(int maxChunks) {
+            this.index.ensureCapacity(maxChunks);
+            this.index.clear();
+            if (this.keys.length < maxChunks) {
+                this.keys = new long[maxChunks];
+                this.signatures = new long[maxChunks];
+                this.numPoints = new int[maxChunks];
+                this.firstLeaves = new int[maxChunks];
+            }
+            this.size = 0;
+        }
+
+        int add(long key) {
+            int chunk = this.index.putIfAbsent(key, this.size);
+            if (chunk == LongIntHashMap.NO_VALUE) {
+                chunk = this.size++;
+                this.keys[chunk] = key;
+                this.signatures[chunk] = 0;
+                this.numPoints[chunk] = 0;
+                this.firstLeaves[chunk] = NONE;
+            }
+            return chunk;
+        }
+    }
+}
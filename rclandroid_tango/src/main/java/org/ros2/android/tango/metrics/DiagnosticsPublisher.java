@@ -0,0 +1,159 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.metrics;
+
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import diagnostic_msgs.msg.DiagnosticArray;
+import diagnostic_msgs.msg.DiagnosticStatus;
+import diagnostic_msgs.msg.KeyValue;
+
+/**
+ * Publishes the metrics of a {@link MetricsRegistry} as diagnostic_msgs/DiagnosticArray.
+ * <p>
+ * Each histogram is a status with the count, rate, mean, 50th, 90th and 99th percentiles and
+ * maximum of the durations recorded since the previous report, in milliseconds. The counters
+ * share one status, with their totals and rates per second. Statuses are created once per metric
+ * and updated in place; only the value strings are new at each report.
+ */
+public class DiagnosticsPublisher {
+    private static final String[] HISTOGRAM_KEYS =
+            { "count", "rate_hz", "mean_ms", "p50_ms", "p90_ms", "p99_ms", "max_ms" };
+    private static final double NANOS_TO_MILLIS = 1e-6;
+    private static final String RATE_SUFFIX = "/rate";
+
+    private final Publisher<DiagnosticArray> publisher;
+    private final MetricsRegistry registry;
+    private final String prefix;
+    private final String hardwareId;
+    private final DiagnosticArray array = new DiagnosticArray();
+    private final List<DiagnosticStatus> statuses = new ArrayList<>();
+
+    private final List<DiagnosticStatus> histogramStatuses = new ArrayList<>();
+    private final List<List<KeyValue>> histogramValues = new ArrayList<>();
+    private final List<HistogramSnapshot> snapshots = new ArrayList<>();
+    private final DiagnosticStatus counterStatus;
+    private final List<KeyValue> counterValues = new ArrayList<>();
+    private final List<Long> previousCounts = new ArrayList<>();
+    private double previousTimestamp = Double.NaN;
+
+    /**
+     * @param prefix Start of the status names, e.g. the node name.
+     */
+    public DiagnosticsPublisher(Publisher<DiagnosticArray> publisher, MetricsRegistry registry,
+            String prefix, String hardwareId) {
+        this.publisher = publisher;
+        this.registry = registry;
+        this.prefix = prefix;
+        this.hardwareId = hardwareId;
+        this.counterStatus = this.createStatus("counters");
+        this.counterStatus.setValues(this.counterValues);
+        this.array.setStatus(this.statuses);
+    }
+
+    /**
+     * Send the metrics recorded since the previous call.
+     */
+    public synchronized void publish(double timestamp) {
+        double interval = timestamp - this.previousTimestamp;
+        this.previousTimestamp = timestamp;
+
+        this.statuses.clear();
+        for (int i = 0; i < this.registry.getNumHistograms(); i++) {
+            if (i == this.snapshots.size()) {
+                this.addHistogram(this.registry.getHistogramName(i));
+            }
+            this.updateHistogram(this.histogramStatuses.get(i), this.histogramValues.get(i),
+                    this.snapshots.get(i), this.registry.getHistogram(i), interval);
+            this.statuses.add(this.histogramStatuses.get(i));
+        }
+        this.updateCounters(interval);
+        this.statuses.add(this.counterStatus);
+
+        RosTime.setStamp(this.array.getHeader().getStamp(), timestamp);
+        this.publisher.publish(this.array);
+    }
+
+    private void addHistogram(String name) {
+        DiagnosticStatus status = this.createStatus(name);
+        List<KeyValue> values = new ArrayList<>();
+        for (String key : HISTOGRAM_KEYS) {
+            values.add(createValue(key));
+        }
+        status.setValues(values);
+        this.histogramStatuses.add(status);
+        this.histogramValues.add(values);
+        this.snapshots.add(new HistogramSnapshot());
+    }
+
+    private void updateHistogram(DiagnosticStatus status, List<KeyValue> values,
+            HistogramSnapshot snapshot, LatencyHistogram histogram, double interval) {
+        snapshot.update(histogram);
+        double p50 = snapshot.getPercentile(0.5) * NANOS_TO_MILLIS;
+        double p99 = snapshot.getPercentile(0.99) * NANOS_TO_MILLIS;
+        values.get(0).setValue(Long.toString(snapshot.getCount()));
+        values.get(1).setValue(format(interval > 0 ? snapshot.getCount() / interval : 0));
+        values.get(2).setValue(format(snapshot.getMean() * NANOS_TO_MILLIS));
+        values.get(3).setValue(format(p50));
+        values.get(4).setValue(format(snapshot.getPercentile(0.9) * NANOS_TO_MILLIS));
+        values.get(5).setValue(format(p99));
+        values.get(6).setValue(format(snapshot.getMax() * NANOS_TO_MILLIS));
+        status.setMessage(snapshot.getCount() == 0 ? "no samples"
+                : "p50 " + format(p50) + " ms, p99 " + format(p99) + " ms");
+    }
+
+    private void updateCounters(double interval) {
+        int numCounters = this.registry.getNumCounters();
+        for (int i = this.previousCounts.size(); i < numCounters; i++) {
+            String name = this.registry.getCounterName(i);
+            this.counterValues.add(createValue(name));
+            this.counterValues.add(createValue(name + RATE_SUFFIX));
+            this.previousCounts.add(0L);
+        }
+        for (int i = 0; i < numCounters; i++) {
+            long count = this.registry.getCounter(i).get();
+            long delta = count - this.previousCounts.get(i);
+            this.previousCounts.set(i, count);
+            this.counterValues.get(2 * i).setValue(Long.toString(count));
+            this.counterValues.get(2 * i + 1).setValue(format(interval > 0 ? delta / interval : 0));
+        }
+    }
+
+    private DiagnosticStatus createStatus(String name) {
+        DiagnosticStatus status = new DiagnosticStatus();
+        status.setLevel(DiagnosticStatus.OK);
+        status.setName(this.prefix + ": " + name);
+        status.setHardwareId(this.hardwareId);
+        status.setMessage("");
+        return status;
+    }
+
+    private static KeyValue createValue(String key) {
+        KeyValue value = new KeyValue();
+        value.setKey(key);
+        value.setValue("");
+        return value;
+    }
+
+    // Dot decimal separator whatever the device locale.
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+}
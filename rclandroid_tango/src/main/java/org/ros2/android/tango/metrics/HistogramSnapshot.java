@@ -0,0 +1,84 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.metrics;
+
+/**
+ * Durations recorded by a {@link LatencyHistogram} between two updates, so percentiles describe
+ * recent behavior rather than the whole session. Only used by the reporting thread; allocates
+ * its arrays once.
+ */
+public class HistogramSnapshot {
+    private final long[] counts = new long[LatencyHistogram.NUM_BUCKETS];
+    private final long[] previousCounts = new long[LatencyHistogram.NUM_BUCKETS];
+    private long previousSum;
+
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Take the durations recorded since the previous update.
+     */
+    public void update(LatencyHistogram histogram) {
+        this.max = histogram.getAndResetMax();
+        long totalSum = histogram.getSum();
+        this.sum = totalSum - this.previousSum;
+        this.previousSum = totalSum;
+
+        histogram.copyCounts(this.counts);
+        this.count = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            long total = this.counts[i];
+            this.counts[i] = total - this.previousCounts[i];
+            this.previousCounts[i] = total;
+            this.count += this.counts[i];
+        }
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /** Mean duration, in nanoseconds, zero without samples. */
+    public double getMean() {
+        return this.count > 0 ? (double) this.sum / this.count : 0;
+    }
+
+    /** Longest duration, in nanoseconds. */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Duration under which the given fraction of the samples lies, in nanoseconds, the middle of
+     * its bucket. Zero without samples.
+     *
+     * @param fraction In [0, 1], e.g. 0.99 for the 99th percentile.
+     */
+    public long getPercentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * this.count);
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank && seen > 0) {
+                long lower = LatencyHistogram.lowerBound(i);
+                long upper = i + 1 < this.counts.length ? LatencyHistogram.lowerBound(i + 1) : lower;
+                // Never above the actual maximum.
+                return Math.min((lower + upper) / 2, Math.max(this.max, lower));
+            }
+        }
+        return 0;
+    }
+}
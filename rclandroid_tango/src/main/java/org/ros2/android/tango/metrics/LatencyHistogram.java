@@ -0,0 +1,101 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed, HDR style buckets: 8 linear sub-buckets per power of
+ * two, so any duration from 1 ns to 18 minutes is kept within 12.5%. Recording is a few atomic
+ * adds and never allocates, so it can run on the Tango callback and pipeline threads from any
+ * number of threads. Counts only grow, intervals are read with a {@link HistogramSnapshot}.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Largest power of two with its own buckets, 2^40 ns, larger values go in the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    public static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Add a duration, in nanoseconds. Negative durations count as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.counts.incrementAndGet(bucket(nanos));
+        this.sum.addAndGet(nanos);
+        long max = this.max.get();
+        while (nanos > max && !this.max.compareAndSet(max, nanos)) {
+            max = this.max.get();
+        }
+    }
+
+    /**
+     * Add the time elapsed since a {@link System#nanoTime()} value.
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /** Smallest duration of a bucket, in nanoseconds. */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long subBucket = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+        return subBucket << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Copy the counts of every bucket since creation.
+     */
+    public void copyCounts(long[] out) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            out[i] = this.counts.get(i);
+        }
+    }
+
+    /** Sum of all durations since creation, in nanoseconds. */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * Longest duration since the previous call, in nanoseconds.
+     */
+    public long getAndResetMax() {
+        return this.max.getAndSet(0);
+    }
+}
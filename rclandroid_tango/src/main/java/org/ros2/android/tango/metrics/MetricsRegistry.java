@@ -0,0 +1,86 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters and latency histograms of the node, read periodically by a
+ * {@link DiagnosticsPublisher}.
+ * <p>
+ * Metrics are created or registered once, at setup, and the returned objects are kept by the
+ * code that updates them: the hot path only touches atomics, never the registry lock. Counters
+ * are plain {@link AtomicLong}s, so existing ones, like the pipeline frame counts, are registered
+ * as they are.
+ */
+public class MetricsRegistry {
+    private final List<String> counterNames = new ArrayList<>();
+    private final List<AtomicLong> counters = new ArrayList<>();
+    private final List<String> histogramNames = new ArrayList<>();
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+
+    /**
+     * New counter, listed under the given name.
+     */
+    public AtomicLong counter(String name) {
+        AtomicLong counter = new AtomicLong();
+        this.register(name, counter);
+        return counter;
+    }
+
+    /**
+     * List an existing counter under the given name.
+     */
+    public synchronized void register(String name, AtomicLong counter) {
+        this.counterNames.add(name);
+        this.counters.add(counter);
+    }
+
+    /**
+     * New latency histogram, listed under the given name.
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        this.histogramNames.add(name);
+        this.histograms.add(histogram);
+        return histogram;
+    }
+
+    public synchronized int getNumCounters() {
+        return this.counters.size();
+    }
+
+    public synchronized String getCounterName(int index) {
+        return this.counterNames.get(index);
+    }
+
+    public synchronized AtomicLong getCounter(int index) {
+        return this.counters.get(index);
+    }
+
+    public synchronized int getNumHistograms() {
+        return this.histograms.size();
+    }
+
+    public synchronized String getHistogramName(int index) {
+        return this.histogramNames.get(index);
+    }
+
+    public synchronized LatencyHistogram getHistogram(int index) {
+        return this.histograms.get(index);
+    }
+}
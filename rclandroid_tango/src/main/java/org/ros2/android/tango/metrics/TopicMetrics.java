@@ -0,0 +1,44 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish call latency, messages and payload bytes of a topic, registered as
+ * {@code topic/publish}, {@code topic/messages} and {@code topic/bytes}.
+ */
+public class TopicMetrics {
+    private final LatencyHistogram publishLatency;
+    private final AtomicLong messages;
+    private final AtomicLong bytes;
+
+    public TopicMetrics(MetricsRegistry registry, String topic) {
+        this.publishLatency = registry.histogram(topic + "/publish");
+        this.messages = registry.counter(topic + "/messages");
+        this.bytes = registry.counter(topic + "/bytes");
+    }
+
+    /**
+     * Count a message whose publish call started at a {@link System#nanoTime()} value.
+     *
+     * @param payloadBytes Size of the message payload, e.g. the data of a PointCloud2.
+     */
+    public void onPublished(long startNanos, long payloadBytes) {
+        this.publishLatency.recordSince(startNanos);
+        this.messages.incrementAndGet();
+        this.bytes.addAndGet(payloadBytes);
+    }
+}
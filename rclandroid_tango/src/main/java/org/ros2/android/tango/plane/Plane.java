@@ -0,0 +1,49 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.plane;
+
+/**
+ * A planar surface found by {@link PlaneSegmenter}, in START_OF_SERVICE, z up. Points p of the
+ * plane satisfy dot(normal, p) + offset = 0, the normal faces the side the sensor saw it from.
+ * Instances are reused by the segmenter, copy what must outlive the next frame.
+ */
+public class Plane {
+    public enum Type { FLOOR, CEILING, WALL, OTHER }
+
+    /** Kept while the plane is tracked across frames. */
+    public int id;
+    public Type type = Type.OTHER;
+    public final double[] normal = new double[3];
+    public double offset;
+
+    /** Rectangle bounding the inliers: center, orientation {x, y, z, w} with z along the normal. */
+    public final double[] center = new double[3];
+    public final double[] orientation = new double[4];
+    /** Sizes along x and y of the orientation, in meters. */
+    public double width;
+    public double length;
+
+    /** Inliers among the sampled points of the last frame it was found in. */
+    public int numInliers;
+    public int framesSeen;
+    public int framesMissed;
+
+    /**
+     * Signed distance of a point to the plane, positive on the normal side.
+     */
+    public double distance(double x, double y, double z) {
+        return this.normal[0] * x + this.normal[1] * y + this.normal[2] * z + this.offset;
+    }
+}
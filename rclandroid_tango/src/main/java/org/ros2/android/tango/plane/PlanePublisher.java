@@ -0,0 +1,121 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.plane;
+
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import visualization_msgs.msg.Marker;
+import visualization_msgs.msg.MarkerArray;
+
+/**
+ * Publishes the planes found by a {@link PlaneSegmenter} as visualization_msgs/MarkerArray, one
+ * thin box per plane over its inliers, colored by type. Marker ids are the plane ids, the
+ * previous markers are deleted first so dropped planes disappear.
+ * Messages are allocated once and reused.
+ */
+public class PlanePublisher {
+    private static final String NAMESPACE = "planes";
+    private static final double THICKNESS = 0.01;
+    private static final float ALPHA = 0.5f;
+
+    private final Publisher<MarkerArray> publisher;
+    private final MarkerArray markerArray = new MarkerArray();
+    private final List<Marker> markers = new ArrayList<>();
+    private final Marker deleteAll;
+    private final List<Marker> planeMarkers = new ArrayList<>();
+    private final String frameId;
+
+    public PlanePublisher(Publisher<MarkerArray> publisher, String frameId) {
+        this.publisher = publisher;
+        this.frameId = frameId;
+        this.deleteAll = new Marker();
+        this.deleteAll.getHeader().setFrameId(frameId);
+        this.deleteAll.setNs(NAMESPACE);
+        this.deleteAll.setAction(Marker.DELETEALL);
+    }
+
+    /**
+     * Send the planes found in the last frame.
+     */
+    public void publish(PlaneSegmenter segmenter, double timestamp) {
+        this.markers.clear();
+        RosTime.setStamp(this.deleteAll.getHeader().getStamp(), timestamp);
+        this.markers.add(this.deleteAll);
+        int numMarkers = 0;
+        for (int i = 0; i < segmenter.getNumPlanes(); i++) {
+            Plane plane = segmenter.getPlane(i);
+            if (plane.framesMissed > 0) {
+                continue;
+            }
+            if (numMarkers == this.planeMarkers.size()) {
+                this.planeMarkers.add(this.createMarker());
+            }
+            Marker marker = this.planeMarkers.get(numMarkers++);
+            this.fillMarker(marker, plane, timestamp);
+            this.markers.add(marker);
+        }
+        this.markerArray.setMarkers(this.markers);
+        this.publisher.publish(this.markerArray);
+    }
+
+    private Marker createMarker() {
+        Marker marker = new Marker();
+        marker.getHeader().setFrameId(this.frameId);
+        marker.setNs(NAMESPACE);
+        marker.setType(Marker.CUBE);
+        marker.setAction(Marker.ADD);
+        marker.getScale().setZ(THICKNESS);
+        marker.getColor().setA(ALPHA);
+        return marker;
+    }
+
+    private void fillMarker(Marker marker, Plane plane, double timestamp) {
+        RosTime.setStamp(marker.getHeader().getStamp(), timestamp);
+        marker.setId(plane.id);
+        marker.getPose().getPosition().setX(plane.center[0]);
+        marker.getPose().getPosition().setY(plane.center[1]);
+        marker.getPose().getPosition().setZ(plane.center[2]);
+        marker.getPose().getOrientation().setX(plane.orientation[0]);
+        marker.getPose().getOrientation().setY(plane.orientation[1]);
+        marker.getPose().getOrientation().setZ(plane.orientation[2]);
+        marker.getPose().getOrientation().setW(plane.orientation[3]);
+        marker.getScale().setX(Math.max(plane.width, THICKNESS));
+        marker.getScale().setY(Math.max(plane.length, THICKNESS));
+        switch (plane.type) {
+            case FLOOR:
+                setColor(marker, 0.2f, 0.8f, 0.2f);
+                break;
+            case CEILING:
+                setColor(marker, 0.6f, 0.6f, 0.6f);
+                break;
+            case WALL:
+                setColor(marker, 0.2f, 0.4f, 0.9f);
+                break;
+            default:
+                setColor(marker, 0.9f, 0.6f, 0.1f);
+                break;
+        }
+    }
+
+    private static void setColor(Marker marker, float r, float g, float b) {
+        marker.getColor().setR(r);
+        marker.getColor().setG(g);
+        marker.getColor().setB(b);
+    }
+}
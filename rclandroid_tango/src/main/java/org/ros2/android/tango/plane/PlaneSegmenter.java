@@ -0,0 +1,623 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.plane;
+
+import org.ros2.android.tango.pointcloud.CovarianceMath;
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+import org.ros2.android.tango.pose.PoseMath;
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts the dominant planes of depth clouds, floor, walls and ceiling, and tracks them across
+ * frames in START_OF_SERVICE.
+ * <p>
+ * Each frame is subsampled to at most maxSamples points, turned into START_OF_SERVICE. The planes
+ * tracked so far are re-fitted first, from the points near their previous position, so a static
+ * scene needs no search at all. The points left are searched with RANSAC: hypotheses from three
+ * random points are scored in parallel on a {@link WorkerPool}, and the search stops as soon as
+ * enough hypotheses were tried to find the best plane with CONFIDENCE, given the best inlier ratio
+ * so far. Planes are refined by least squares on their inliers, with {@link CovarianceMath}.
+ * Planes not found for MAX_FRAMES_MISSED frames are dropped.
+ * <p>
+ * Working memory and planes are allocated once. Not thread safe.
+ */
+public class PlaneSegmenter {
+    public static final int DEFAULT_MAX_SAMPLES = 8192;
+    public static final int DEFAULT_MAX_PLANES = 8;
+    public static final float DEFAULT_DISTANCE_THRESHOLD = 0.03f;
+    public static final float DEFAULT_MIN_INLIER_RATIO = 0.05f;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+    private static final int UNASSIGNED = -1;
+    private static final int MAX_ITERATIONS = 256;
+    private static final int MIN_SLICE_ITERATIONS = 16;
+    private static final double CONFIDENCE = 0.99;
+    // Least squares passes, each one gathering the inliers of the previous fit.
+    private static final int REFINE_PASSES = 2;
+    private static final int MIN_PLANE_POINTS = 50;
+    private static final int MAX_FRAMES_MISSED = 10;
+    // A new plane closer than this to a tracked one is the same surface.
+    private static final double SAME_PLANE_COS = Math.cos(Math.toRadians(10));
+    // Normal within 10 degrees of up for floors and ceilings, of horizontal for walls.
+    private static final double HORIZONTAL_COS = Math.cos(Math.toRadians(10));
+    private static final double VERTICAL_COS = Math.sin(Math.toRadians(10));
+
+    private final WorkerPool workerPool;
+    private final int maxSamples;
+    private final float distanceThreshold;
+    private final float minInlierRatio;
+
+    // Sampled points in START_OF_SERVICE, the plane owning each, and the unowned ones.
+    private final float[] samples;
+    private final int[] labels;
+    private final int[] remaining;
+    private int numSamples;
+    private int numRemaining;
+
+    // Tracked planes first, then free ones.
+    private final Plane[] planes;
+    private int numPlanes;
+    private int nextId;
+    private final double[] sensorPosition = new double[3];
+
+    // RANSAC state shared by the slices of a search.
+    private final AtomicInteger iterations = new AtomicInteger();
+    private final AtomicInteger requiredIterations = new AtomicInteger();
+    private final AtomicInteger bestInliers = new AtomicInteger();
+    private int minInliers;
+    // Per slice: random state, best hypothesis {nx, ny, nz, offset} and its inliers.
+    private final long[] randomStates;
+    private final double[][] slicePlanes;
+    private final int[] sliceInliers;
+
+    // Working arrays of the fits.
+    private final double[] fitPlane = new double[4];
+    private final double[] fitNormal = new double[3];
+    private final double[] axisX = new double[3];
+    private final double[] axisY = new double[3];
+
+    private final WorkerPool.Task ransacTask = new WorkerPool.Task() {
+        @Override
+        public void run(int slice, int start, int end) {
+            PlaneSegmenter.this.searchPlanes(slice, end - start);
+        }
+    };
+
+    public PlaneSegmenter(WorkerPool workerPool) {
+        this(workerPool, DEFAULT_MAX_SAMPLES, DEFAULT_MAX_PLANES, DEFAULT_DISTANCE_THRESHOLD,
+                DEFAULT_MIN_INLIER_RATIO);
+    }
+
+    /**
+     * @param maxSamples        Points of a frame used at most.
+     * @param maxPlanes         Planes tracked at most.
+     * @param distanceThreshold Largest distance of an inlier to its plane, in meters.
+     * @param minInlierRatio    Smallest share of the sampled points a plane must have.
+     */
+    public PlaneSegmenter(WorkerPool workerPool, int maxSamples, int maxPlanes,
+            float distanceThreshold, float minInlierRatio) {
+        if (maxSamples < MIN_PLANE_POINTS || maxPlanes <= 0 || !(distanceThreshold > 0)) {
+            throw new IllegalArgumentException(String.format(
+                    "maxSamples = %d, maxPlanes = %d, distanceThreshold = %f out of range",
+                    maxSamples, maxPlanes, distanceThreshold));
+        }
+        this.workerPool = workerPool;
+        this.maxSamples = maxSamples;
+        this.distanceThreshold = distanceThreshold;
+        this.minInlierRatio = minInlierRatio;
+        this.samples = new float[maxSamples * 3];
+        this.labels = new int[maxSamples];
+        this.remaining = new int[maxSamples];
+        this.planes = new Plane[maxPlanes];
+        for (int i = 0; i < maxPlanes; i++) {
+            this.planes[i] = new Plane();
+        }
+        int parallelism = workerPool.getParallelism();
+        this.randomStates = new long[parallelism];
+        for (int slice = 0; slice < parallelism; slice++) {
+            this.randomStates[slice] = 0x9E3779B97F4A7C15L * (slice + 1);
+        }
+        this.slicePlanes = new double[parallelism][4];
+        this.sliceInliers = new int[parallelism];
+    }
+
+    public int getNumPlanes() {
+        return this.numPlanes;
+    }
+
+    /**
+     * Tracked plane, valid until the next frame. Planes missed by the last frame are included,
+     * see {@link Plane#framesMissed}.
+     */
+    public Plane getPlane(int index) {
+        return this.planes[index];
+    }
+
+    /**
+     * Height of the lowest floor tracked, in START_OF_SERVICE, or NaN.
+     */
+    public double getFloorHeight() {
+        double height = Double.NaN;
+        for (int i = 0; i < this.numPlanes; i++) {
+            Plane plane = this.planes[i];
+            if (plane.type == Plane.Type.FLOOR && !(plane.center[2] >= height)) {
+                height = plane.center[2];
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Forget the tracked planes, e.g. when START_OF_SERVICE restarts.
+     */
+    public void clear() {
+        this.numPlanes = 0;
+    }
+
+    /**
+     * Find the planes of a cloud.
+     *
+     * @param translation Position {x, y, z} of the cloud frame in START_OF_SERVICE.
+     * @param rotation    Orientation {x, y, z, w} of the cloud frame in START_OF_SERVICE.
+     * @return Number of planes found in this cloud.
+     */
+    public int segment(FloatBuffer cloud, int numPoints, double[] translation, double[] rotation) {
+        this.sample(cloud, numPoints, translation, rotation);
+        System.arraycopy(translation, 0, this.sensorPosition, 0, 3);
+        Arrays.fill(this.labels, 0, this.numSamples, UNASSIGNED);
+        this.minInliers = Math.max(MIN_PLANE_POINTS, (int) (this.minInlierRatio * this.numSamples));
+
+        // Tracked planes, biggest first so they win the points they share.
+        this.sortPlanes();
+        int found = 0;
+        for (int i = 0; i < this.numPlanes; i++) {
+            Plane plane = this.planes[i];
+            this.fitPlane[0] = plane.normal[0];
+            this.fitPlane[1] = plane.normal[1];
+            this.fitPlane[2] = plane.normal[2];
+            this.fitPlane[3] = plane.offset;
+            if (this.refine(this.fitPlane) >= this.minInliers) {
+                this.claim(plane, i, this.fitPlane);
+                plane.framesSeen++;
+                plane.framesMissed = 0;
+                found++;
+            } else {
+                plane.framesMissed++;
+            }
+        }
+
+        // New planes in what is left.
+        while (found < this.planes.length) {
+            this.collectRemaining();
+            if (this.numRemaining < this.minInliers || !this.search(this.fitPlane)
+                    || this.refine(this.fitPlane) < this.minInliers) {
+                break;
+            }
+            int index = this.findTracked(this.fitPlane);
+            if (index >= 0 && this.planes[index].framesMissed == 0) {
+                // Another part of a plane found in this frame, only remove its points.
+                this.claim(null, index, this.fitPlane);
+                continue;
+            }
+            if (index < 0) {
+                index = this.allocatePlane();
+                if (index < 0) {
+                    break;
+                }
+                this.planes[index].id = this.nextId++;
+                this.planes[index].framesSeen = 0;
+            }
+            Plane plane = this.planes[index];
+            this.claim(plane, index, this.fitPlane);
+            plane.framesSeen++;
+            plane.framesMissed = 0;
+            found++;
+        }
+
+        this.dropMissedPlanes();
+        return found;
+    }
+
+    /**
+     * Every stride point of the cloud, turned into START_OF_SERVICE.
+     */
+    private void sample(FloatBuffer cloud, int numPoints, double[] translation, double[] rotation) {
+        double qx = rotation[0];
+        double qy = rotation[1];
+        double qz = rotation[2];
+        double qw = rotation[3];
+        float r00 = (float) (1 - 2 * (qy * qy + qz * qz));
+        float r01 = (float) (2 * (qx * qy - qz * qw));
+        float r02 = (float) (2 * (qx * qz + qy * qw));
+        float r10 = (float) (2 * (qx * qy + qz * qw));
+        float r11 = (float) (1 - 2 * (qx * qx + qz * qz));
+        float r12 = (float) (2 * (qy * qz - qx * qw));
+        float r20 = (float) (2 * (qx * qz - qy * qw));
+        float r21 = (float) (2 * (qy * qz + qx * qw));
+        float r22 = (float) (1 - 2 * (qx * qx + qy * qy));
+        float tx = (float) translation[0];
+        float ty = (float) translation[1];
+        float tz = (float) translation[2];
+
+        int stride = (numPoints + this.maxSamples - 1) / this.maxSamples;
+        float[] samples = this.samples;
+        int n = 0;
+        for (int i = 0; i < numPoints; i += stride) {
+            int offset = i * FLOATS_PER_POINT;
+            float x = cloud.get(offset);
+            float y = cloud.get(offset + 1);
+            float z = cloud.get(offset + 2);
+            samples[n * 3] = r00 * x + r01 * y + r02 * z + tx;
+            samples[n * 3 + 1] = r10 * x + r11 * y + r12 * z + ty;
+            samples[n * 3 + 2] = r20 * x + r21 * y + r22 * z + tz;
+            n++;
+        }
+        this.numSamples = n;
+    }
+
+    private void collectRemaining() {
+        int n = 0;
+        for (int i = 0; i < this.numSamples; i++) {
+            if (this.labels[i] == UNASSIGNED) {
+                this.remaining[n++] = i;
+            }
+        }
+        this.numRemaining = n;
+    }
+
+    /**
+     * Best RANSAC hypothesis among the remaining points into plane.
+     *
+     * @return False when no hypothesis reached minInliers.
+     */
+    private boolean search(double[] plane) {
+        this.iterations.set(0);
+        this.requiredIterations.set(MAX_ITERATIONS);
+        this.bestInliers.set(0);
+        int numSlices = this.workerPool.run(MAX_ITERATIONS, MIN_SLICE_ITERATIONS, this.ransacTask);
+
+        int best = -1;
+        for (int slice = 0; slice < numSlices; slice++) {
+            if (this.sliceInliers[slice] >= this.minInliers
+                    && (best < 0 || this.sliceInliers[slice] > this.sliceInliers[best])) {
+                best = slice;
+            }
+        }
+        if (best < 0) {
+            return false;
+        }
+        System.arraycopy(this.slicePlanes[best], 0, plane, 0, 4);
+        return true;
+    }
+
+    private void searchPlanes(int slice, int maxIterations) {
+        float[] samples = this.samples;
+        int[] remaining = this.remaining;
+        int numRemaining = this.numRemaining;
+        float threshold = this.distanceThreshold;
+        double[] slicePlane = this.slicePlanes[slice];
+        long random = this.randomStates[slice];
+        this.sliceInliers[slice] = 0;
+
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            // Early termination, shared by the slices.
+            if (this.iterations.getAndIncrement() >= this.requiredIterations.get()) {
+                break;
+            }
+            random = next(random);
+            int a = remaining[(int) ((random >>> 1) % numRemaining)] * 3;
+            random = next(random);
+            int b = remaining[(int) ((random >>> 1) % numRemaining)] * 3;
+            random = next(random);
+            int c = remaining[(int) ((random >>> 1) % numRemaining)] * 3;
+            float abx = samples[b] - samples[a];
+            float aby = samples[b + 1] - samples[a + 1];
+            float abz = samples[b + 2] - samples[a + 2];
+            float acx = samples[c] - samples[a];
+            float acy = samples[c + 1] - samples[a + 1];
+            float acz = samples[c + 2] - samples[a + 2];
+            float nx = aby * acz - abz * acy;
+            float ny = abz * acx - abx * acz;
+            float nz = abx * acy - aby * acx;
+            float norm = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (!(norm > 1e-6f)) {
+                // Same or aligned points.
+                continue;
+            }
+            nx /= norm;
+            ny /= norm;
+            nz /= norm;
+            float offset = -(nx * samples[a] + ny * samples[a + 1] + nz * samples[a + 2]);
+
+            int inliers = 0;
+            for (int i = 0; i < numRemaining; i++) {
+                int p = remaining[i] * 3;
+                float distance = nx * samples[p] + ny * samples[p + 1] + nz * samples[p + 2] + offset;
+                if (distance < threshold && distance > -threshold) {
+                    inliers++;
+                }
+            }
+            if (inliers <= this.sliceInliers[slice]) {
+                continue;
+            }
+            this.sliceInliers[slice] = inliers;
+            slicePlane[0] = nx;
+            slicePlane[1] = ny;
+            slicePlane[2] = nz;
+            slicePlane[3] = offset;
+            this.updateBest(inliers, numRemaining);
+        }
+        this.randomStates[slice] = random;
+    }
+
+    /**
+     * Raise the best inlier count, and lower the iterations needed to reach CONFIDENCE with it.
+     */
+    private void updateBest(int inliers, int numPoints) {
+        int best;
+        do {
+            best = this.bestInliers.get();
+            if (inliers <= best) {
+                return;
+            }
+        } while (!this.bestInliers.compareAndSet(best, inliers));
+
+        double ratio = (double) inliers / numPoints;
+        double allInliers = ratio * ratio * ratio;
+        int needed = allInliers >= 1 ? 1
+                : (int) Math.ceil(Math.log(1 - CONFIDENCE) / Math.log(1 - allInliers));
+        int required;
+        do {
+            required = this.requiredIterations.get();
+            if (needed >= required) {
+                return;
+            }
+        } while (!this.requiredIterations.compareAndSet(required, needed));
+    }
+
+    /**
+     * Least squares fit of a plane {nx, ny, nz, offset} to the unowned points near it, in place,
+     * the normal facing the sensor.
+     *
+     * @return Inliers of the last fit.
+     */
+    private int refine(double[] plane) {
+        float[] samples = this.samples;
+        int inliers = 0;
+        for (int pass = 0; pass < REFINE_PASSES; pass++) {
+            double nx = plane[0];
+            double ny = plane[1];
+            double nz = plane[2];
+            double offset = plane[3];
+            // Moments relative to the first inlier, for precision.
+            int count = 0;
+            double ox = 0, oy = 0, oz = 0;
+            double sx = 0, sy = 0, sz = 0;
+            double sxx = 0, sxy = 0, sxz = 0, syy = 0, syz = 0, szz = 0;
+            for (int i = 0; i < this.numSamples; i++) {
+                if (this.labels[i] != UNASSIGNED) {
+                    continue;
+                }
+                float x = samples[i * 3];
+                float y = samples[i * 3 + 1];
+                float z = samples[i * 3 + 2];
+                if (Math.abs(nx * x + ny * y + nz * z + offset) >= this.distanceThreshold) {
+                    continue;
+                }
+                if (count == 0) {
+                    ox = x;
+                    oy = y;
+                    oz = z;
+                }
+                double dx = x - ox;
+                double dy = y - oy;
+                double dz = z - oz;
+                count++;
+                sx += dx;
+                sy += dy;
+                sz += dz;
+                sxx += dx * dx;
+                sxy += dx * dy;
+                sxz += dx * dz;
+                syy += dy * dy;
+                syz += dy * dz;
+                szz += dz * dz;
+            }
+            inliers = count;
+            if (count < MIN_PLANE_POINTS) {
+                return count;
+            }
+            double mx = sx / count;
+            double my = sy / count;
+            double mz = sz / count;
+            double smallest = CovarianceMath.smallestEigenvector(sxx / count - mx * mx,
+                    sxy / count - mx * my, sxz / count - mx * mz, syy / count - my * my,
+                    syz / count - my * mz, szz / count - mz * mz, this.fitNormal);
+            if (Double.isNaN(smallest)) {
+                return count;
+            }
+            double cx = ox + mx;
+            double cy = oy + my;
+            double cz = oz + mz;
+            double[] normal = this.fitNormal;
+            double sign = normal[0] * (this.sensorPosition[0] - cx)
+                    + normal[1] * (this.sensorPosition[1] - cy)
+                    + normal[2] * (this.sensorPosition[2] - cz) < 0 ? -1 : 1;
+            plane[0] = normal[0] * sign;
+            plane[1] = normal[1] * sign;
+            plane[2] = normal[2] * sign;
+            plane[3] = -(plane[0] * cx + plane[1] * cy + plane[2] * cz);
+        }
+        return inliers;
+    }
+
+    /**
+     * Give the unowned points near a plane {nx, ny, nz, offset} to the plane at index, and update
+     * its equation, bounding rectangle and type unless target is null.
+     */
+    private void claim(Plane target, int index, double[] plane) {
+        double nx = plane[0];
+        double ny = plane[1];
+        double nz = plane[2];
+        double offset = plane[3];
+        // In plane axes, x horizontal when possible.
+        double[] axisX = this.axisX;
+        double[] axisY = this.axisY;
+        if (Math.abs(nz) < HORIZONTAL_COS) {
+            cross(0, 0, 1, nx, ny, nz, axisX);
+        } else {
+            cross(0, 1, 0, nx, ny, nz, axisX);
+        }
+        cross(nx, ny, nz, axisX[0], axisX[1], axisX[2], axisY);
+
+        float[] samples = this.samples;
+        int inliers = 0;
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.numSamples; i++) {
+            if (this.labels[i] != UNASSIGNED) {
+                continue;
+            }
+            float x = samples[i * 3];
+            float y = samples[i * 3 + 1];
+            float z = samples[i * 3 + 2];
+            if (Math.abs(nx * x + ny * y + nz * z + offset) >= this.distanceThreshold) {
+                continue;
+            }
+            this.labels[i] = index;
+            inliers++;
+            double u = axisX[0] * x + axisX[1] * y + axisX[2] * z;
+            double v = axisY[0] * x + axisY[1] * y + axisY[2] * z;
+            minX = Math.min(minX, u);
+            maxX = Math.max(maxX, u);
+            minY = Math.min(minY, v);
+            maxY = Math.max(maxY, v);
+        }
+        if (target == null) {
+            return;
+        }
+
+        target.normal[0] = nx;
+        target.normal[1] = ny;
+        target.normal[2] = nz;
+        target.offset = offset;
+        target.numInliers = inliers;
+        double u = (minX + maxX) / 2;
+        double v = (minY + maxY) / 2;
+        for (int axis = 0; axis < 3; axis++) {
+            target.center[axis] = axisX[axis] * u + axisY[axis] * v - plane[axis] * offset;
+        }
+        target.width = maxX - minX;
+        target.length = maxY - minY;
+        PoseMath.fromAxes(axisX, axisY, target.normal, target.orientation);
+        if (nz >= HORIZONTAL_COS) {
+            target.type = Plane.Type.FLOOR;
+        } else if (nz <= -HORIZONTAL_COS) {
+            target.type = Plane.Type.CEILING;
+        } else if (Math.abs(nz) <= VERTICAL_COS) {
+            target.type = Plane.Type.WALL;
+        } else {
+            target.type = Plane.Type.OTHER;
+        }
+    }
+
+    /**
+     * @return Index of the tracked plane matching {nx, ny, nz, offset}, or -1.
+     */
+    private int findTracked(double[] plane) {
+        for (int i = 0; i < this.numPlanes; i++) {
+            Plane tracked = this.planes[i];
+            double cos = tracked.normal[0] * plane[0] + tracked.normal[1] * plane[1]
+                    + tracked.normal[2] * plane[2];
+            if (cos >= SAME_PLANE_COS
+                    && Math.abs(tracked.offset - plane[3]) < 2 * this.distanceThreshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A free plane, or the one missed for the most frames.
+     *
+     * @return Index of the plane, or -1 when every plane was found in this frame.
+     */
+    private int allocatePlane() {
+        if (this.numPlanes < this.planes.length) {
+            return this.numPlanes++;
+        }
+        int oldest = -1;
+        for (int i = 0; i < this.numPlanes; i++) {
+            int missed = this.planes[i].framesMissed;
+            if (missed > 0 && (oldest < 0 || missed > this.planes[oldest].framesMissed)) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    private void dropMissedPlanes() {
+        int kept = 0;
+        for (int i = 0; i < this.numPlanes; i++) {
+            Plane plane = this.planes[i];
+            if (plane.framesMissed > MAX_FRAMES_MISSED) {
+                continue;
+            }
+            // Swap, so dropped instances are reused.
+            this.planes[i] = this.planes[kept];
+            this.planes[kept++] = plane;
+        }
+        this.numPlanes = kept;
+    }
+
+    // Insertion sort by inliers, decreasing. Labels are reset before use.
+    private void sortPlanes() {
+        for (int i = 1; i < this.numPlanes; i++) {
+            Plane plane = this.planes[i];
+            int j = i - 1;
+            while (j >= 0 && this.planes[j].numInliers < plane.numInliers) {
+                this.planes[j + 1] = this.planes[j];
+                j--;
+            }
+            this.planes[j + 1] = plane;
+        }
+    }
+
+    // Normalized a x b.
+    private static void cross(double ax, double ay, double az, double bx, double by, double bz,
+            double[] out) {
+        double x = ay * bz - az * by;
+        double y = az * bx - ax * bz;
+        double z = ax * by - ay * bx;
+        double inverseNorm = 1 / Math.sqrt(x * x + y * y + z * z);
+        out[0] = x * inverseNorm;
+        out[1] = y * inverseNorm;
+        out[2] = z * inverseNorm;
+    }
+
+    // xorshift64.
+    private static long next(long x) {
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        return x;
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+/**
+ * Closed form eigen solver for the 3 x 3 covariance of a point neighborhood, used to fit planes.
+ * Results are written into caller arrays, nothing is allocated.
+ */
+public final class CovarianceMath {
+    private static final double TWO_THIRDS_PI = 2 * Math.PI / 3;
+
+    private CovarianceMath() { }
+
+    /**
+     * Eigenvector of the smallest eigenvalue of a symmetric matrix, the normal of the best fitting
+     * plane for a covariance. Eigenvalues come from the trigonometric solution of the
+     * characteristic cubic, the eigenvector from the cross products of the rows of
+     * (A - lambda I).
+     *
+     * @param normal Unit eigenvector {x, y, z}, of arbitrary sign.
+     * @return Smallest eigenvalue, or NaN when the direction is undetermined, for an isotropic or
+     *         linear spread. The normal is left untouched then.
+     */
+    public static double smallestEigenvector(double a00, double a01, double a02, double a11,
+            double a12, double a22, double[] normal) {
+        double q = (a00 + a11 + a22) / 3;
+        double b00 = a00 - q;
+        double b11 = a11 - q;
+        double b22 = a22 - q;
+        double p1 = a01 * a01 + a02 * a02 + a12 * a12;
+        double p = Math.sqrt((b00 * b00 + b11 * b11 + b22 * b22 + 2 * p1) / 6);
+        if (!(p > 0)) {
+            return Double.NaN;
+        }
+        double determinant = b00 * (b11 * b22 - a12 * a12) - a01 * (a01 * b22 - a12 * a02)
+                + a02 * (a01 * a12 - b11 * a02);
+        double r = determinant / (2 * p * p * p);
+        double phi = r <= -1 ? Math.PI / 3 : r >= 1 ? 0 : Math.acos(r) / 3;
+        double smallest = q + 2 * p * Math.cos(phi + TWO_THIRDS_PI);
+
+        // Rows of A - smallest * I, the eigenvector is orthogonal to all of them.
+        double m00 = a00 - smallest;
+        double m11 = a11 - smallest;
+        double m22 = a22 - smallest;
+        double c0x = a01 * a12 - a02 * m11;
+        double c0y = a02 * a01 - m00 * a12;
+        double c0z = m00 * m11 - a01 * a01;
+        double c1x = a01 * m22 - a02 * a12;
+        double c1y = a02 * a02 - m00 * m22;
+        double c1z = m00 * a12 - a01 * a02;
+        double c2x = m11 * m22 - a12 * a12;
+        double c2y = a12 * a02 - a01 * m22;
+        double c2z = a01 * a12 - m11 * a02;
+        double d0 = c0x * c0x + c0y * c0y + c0z * c0z;
+        double d1 = c1x * c1x + c1y * c1y + c1z * c1z;
+        double d2 = c2x * c2x + c2y * c2y + c2z * c2z;
+        double nx;
+        double ny;
+        double nz;
+        double d;
+        if (d0 >= d1 && d0 >= d2) {
+            nx = c0x;
+            ny = c0y;
+            nz = c0z;
+            d = d0;
+        } else if (d1 >= d2) {
+            nx = c1x;
+            ny = c1y;
+            nz = c1z;
+            d = d1;
+        } else {
+            nx = c2x;
+            ny = c2y;
+            nz = c2z;
+            d = d2;
+        }
+        if (!(d > 0)) {
+            return Double.NaN;
+        }
+        double scale = 1 / Math.sqrt(d);
+        normal[0] = nx * scale;
+        normal[1] = ny * scale;
+        normal[2] = nz * scale;
+        return smallest;
+    }
+}
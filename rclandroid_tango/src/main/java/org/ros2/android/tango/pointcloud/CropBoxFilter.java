@@ -0,0 +1,59 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Keeps the points inside an axis aligned box, bounds included.
+ * Stateless, an instance can be shared between threads.
+ */
+public class CropBoxFilter implements PointCloudFilter {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private final float minX;
+    private final float minY;
+    private final float minZ;
+    private final float maxX;
+    private final float maxY;
+    private final float maxZ;
+
+    public CropBoxFilter(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    @Override
+    public int filter(FloatBuffer points, int numPoints) {
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        int kept = 0;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = points.get(i);
+            float y = points.get(i + 1);
+            float z = points.get(i + 2);
+            if (x >= this.minX && x <= this.maxX
+                    && y >= this.minY && y <= this.maxY
+                    && z >= this.minZ && z <= this.maxZ) {
+                PointCloudFilters.move(points, i, kept);
+                kept += FLOATS_PER_POINT;
+            }
+        }
+        return kept / FLOATS_PER_POINT;
+    }
+}
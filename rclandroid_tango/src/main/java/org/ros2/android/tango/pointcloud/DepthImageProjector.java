@@ -0,0 +1,216 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.util.ByteArrayList;
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Projects depth clouds through the depth camera intrinsics into a 16UC1 depth image, depth in
+ * millimeters, 0 where no point fell. The nearest point wins when several fall on a pixel.
+ * <p>
+ * Runs in two data parallel passes on a {@link WorkerPool}: points are projected to a pixel and
+ * a depth over slices of the cloud, then each thread z-buffers a band of image rows from the
+ * projected points, so no pixel is written by two threads. Buffers are allocated once and the
+ * image payload is reused between frames. Pinhole model, distortion is ignored. Not thread safe.
+ */
+public class DepthImageProjector {
+    public static final String ENCODING = "16UC1";
+    public static final int BYTES_PER_PIXEL = 2;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+    private static final float METERS_TO_MILLIMETERS = 1000f;
+    private static final int MAX_DEPTH = 0xFFFF;
+    private static final int NO_PIXEL = -1;
+    // Under these sizes, a slice is not worth waking a thread.
+    private static final int MIN_SLICE_POINTS = 4096;
+    private static final int MIN_SLICE_ROWS = 16;
+
+    private final WorkerPool workerPool;
+    private final int width;
+    private final int height;
+    private final float fx;
+    private final float fy;
+    private final float cx;
+    private final float cy;
+
+    // Per point: pixel index or NO_PIXEL, and depth in millimeters.
+    private int[] pixels = new int[0];
+    private char[] depths = new char[0];
+    private final char[] zBuffer;
+    private final ByteArrayList data;
+    // Valid pixels per band.
+    private final int[] bandPixels;
+
+    // Frame being projected, read by the slices.
+    private FloatBuffer points;
+    private int numPoints;
+
+    private final WorkerPool.Task projectTask = new WorkerPool.Task() {
+        @Override
+        public void run(int slice, int start, int end) {
+            DepthImageProjector.this.projectPoints(start, end);
+        }
+    };
+    private final WorkerPool.Task rasterTask = new WorkerPool.Task() {
+        @Override
+        public void run(int slice, int start, int end) {
+            DepthImageProjector.this.bandPixels[slice] =
+                    DepthImageProjector.this.rasterRows(start, end);
+        }
+    };
+
+    /**
+     * @param width  Image width, in pixels.
+     * @param height Image height, in pixels.
+     * @param fx     Focal length, in pixels.
+     * @param cx     Principal point, in pixels from the center of the first pixel.
+     */
+    public DepthImageProjector(WorkerPool workerPool, int width, int height,
+            double fx, double fy, double cx, double cy) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("width = %d, height = %d must be positive", width, height));
+        }
+        this.workerPool = workerPool;
+        this.width = width;
+        this.height = height;
+        this.fx = (float) fx;
+        this.fy = (float) fy;
+        this.cx = (float) cx;
+        this.cy = (float) cy;
+        this.zBuffer = new char[width * height];
+        this.data = new ByteArrayList(width * height * BYTES_PER_PIXEL);
+        this.data.setSize(width * height * BYTES_PER_PIXEL);
+        this.bandPixels = new int[workerPool.getParallelism()];
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public double getFx() {
+        return this.fx;
+    }
+
+    public double getFy() {
+        return this.fy;
+    }
+
+    public double getCx() {
+        return this.cx;
+    }
+
+    public double getCy() {
+        return this.cy;
+    }
+
+    /**
+     * Little endian image rows, valid until the next projection.
+     */
+    public ByteArrayList getData() {
+        return this.data;
+    }
+
+    /**
+     * Project a cloud in the depth camera frame into the image.
+     *
+     * @return Number of pixels with a depth.
+     */
+    public int project(FloatBuffer points, int numPoints) {
+        if (this.pixels.length < numPoints) {
+            this.pixels = new int[numPoints];
+            this.depths = new char[numPoints];
+        }
+        this.points = points;
+        this.numPoints = numPoints;
+
+        this.workerPool.run(numPoints, MIN_SLICE_POINTS, this.projectTask);
+        int numBands = this.workerPool.run(this.height, MIN_SLICE_ROWS, this.rasterTask);
+
+        this.points = null;
+        int validPixels = 0;
+        for (int band = 0; band < numBands; band++) {
+            validPixels += this.bandPixels[band];
+        }
+        return validPixels;
+    }
+
+    private void projectPoints(int start, int end) {
+        FloatBuffer points = this.points;
+        int[] pixels = this.pixels;
+        char[] depths = this.depths;
+        for (int i = start; i < end; i++) {
+            int offset = i * FLOATS_PER_POINT;
+            float z = points.get(offset + 2);
+            pixels[i] = NO_PIXEL;
+            if (!(z > 0)) {
+                continue;
+            }
+            int depth = (int) (z * METERS_TO_MILLIMETERS + 0.5f);
+            if (depth == 0 || depth > MAX_DEPTH) {
+                continue;
+            }
+            float inverseZ = 1 / z;
+            // Pixel centers are at integer coordinates.
+            float u = this.fx * points.get(offset) * inverseZ + this.cx + 0.5f;
+            float v = this.fy * points.get(offset + 1) * inverseZ + this.cy + 0.5f;
+            if (u >= 0 && u < this.width && v >= 0 && v < this.height) {
+                pixels[i] = (int) v * this.width + (int) u;
+                depths[i] = (char) depth;
+            }
+        }
+    }
+
+    private int rasterRows(int startRow, int endRow) {
+        int first = startRow * this.width;
+        int last = endRow * this.width;
+        char[] zBuffer = this.zBuffer;
+        for (int pixel = first; pixel < last; pixel++) {
+            zBuffer[pixel] = 0;
+        }
+
+        int[] pixels = this.pixels;
+        char[] depths = this.depths;
+        for (int i = 0; i < this.numPoints; i++) {
+            int pixel = pixels[i];
+            if (pixel >= first && pixel < last) {
+                char depth = depths[i];
+                char current = zBuffer[pixel];
+                if (current == 0 || depth < current) {
+                    zBuffer[pixel] = depth;
+                }
+            }
+        }
+
+        byte[] bytes = this.data.array();
+        int validPixels = 0;
+        for (int pixel = first; pixel < last; pixel++) {
+            char depth = zBuffer[pixel];
+            bytes[pixel * BYTES_PER_PIXEL] = (byte) depth;
+            bytes[pixel * BYTES_PER_PIXEL + 1] = (byte) (depth >> 8);
+            if (depth != 0) {
+                validPixels++;
+            }
+        }
+        return validPixels;
+    }
+}
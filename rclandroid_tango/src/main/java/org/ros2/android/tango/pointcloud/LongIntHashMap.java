@@ -0,0 +1,161 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative long keys to int values, with linear probing.
+ * No boxing and no per-entry object. Slots touched since the last {@link #clear()} are recorded,
+ * so clearing costs the number of entries instead of the table size and the map can be reused
+ * every frame. Removal shifts the following entries back, no tombstone is left behind.
+ */
+public class LongIntHashMap {
+    public static final int NO_VALUE = -1;
+
+    private static final long EMPTY = -1L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int[] usedSlots;
+    // Index of each used slot in usedSlots, to remove entries from the list.
+    private int[] usedPositions;
+    private int size;
+    private int mask;
+
+    public LongIntHashMap(int expectedSize) {
+        this.allocate(expectedSize);
+    }
+
+    /**
+     * @return Value of the key, or {@link #NO_VALUE}.
+     */
+    public int get(long key) {
+        int slot = hash(key) & this.mask;
+        while (true) {
+            long current = this.keys[slot];
+            if (current == key) {
+                return this.values[slot];
+            }
+            if (current == EMPTY) {
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * Return the value of the key, inserting value when the key is absent.
+     * The map must have been sized for the number of keys, see {@link #ensureCapacity(int)}.
+     *
+     * @return Value already mapped to the key, or {@link #NO_VALUE} if value was inserted.
+     */
+    public int putIfAbsent(long key, int value) {
+        int slot = hash(key) & this.mask;
+        while (true) {
+            long current = this.keys[slot];
+            if (current == key) {
+                return this.values[slot];
+            }
+            if (current == EMPTY) {
+                this.keys[slot] = key;
+                this.values[slot] = value;
+                this.usedPositions[slot] = this.size;
+                this.usedSlots[this.size++] = slot;
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    /**
+     * @return Value removed, or {@link #NO_VALUE} if the key was absent.
+     */
+    public int remove(long key) {
+        int slot = hash(key) & this.mask;
+        while (this.keys[slot] != key) {
+            if (this.keys[slot] == EMPTY) {
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        int value = this.values[slot];
+
+        int position = this.usedPositions[slot];
+        int last = this.usedSlots[--this.size];
+        this.usedSlots[position] = last;
+        this.usedPositions[last] = position;
+
+        // Move back the entries of the probe sequence which can no longer be reached past the hole.
+        int hole = slot;
+        int next = (hole + 1) & this.mask;
+        while (this.keys[next] != EMPTY) {
+            int home = hash(this.keys[next]) & this.mask;
+            if (((next - home) & this.mask) >= ((next - hole) & this.mask)) {
+                this.keys[hole] = this.keys[next];
+                this.values[hole] = this.values[next];
+                int moved = this.usedPositions[next];
+                this.usedSlots[moved] = hole;
+                this.usedPositions[hole] = moved;
+                hole = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        this.keys[hole] = EMPTY;
+        return value;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.keys[this.usedSlots[i]] = EMPTY;
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Make room for expectedSize keys. Content is dropped when the table has to grow.
+     */
+    public void ensureCapacity(int expectedSize) {
+        if (expectedSize > this.usedSlots.length) {
+            this.allocate(expectedSize);
+        }
+    }
+
+    private void allocate(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new int[capacity];
+        this.usedSlots = new int[expectedSize];
+        this.usedPositions = new int[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    // Murmur3 finalizer, spreads packed voxel coordinates over the low bits.
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,347 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.util.ByteArrayList;
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Estimates the surface normal of every point of a cloud, from the covariance of its neighbors
+ * within a radius, into the payload of a PointCloud2 with x, y, z, normal_x, normal_y, normal_z
+ * and curvature fields.
+ * <p>
+ * Points are bucketed in a spatial hash grid of one radius wide cells, packed like the
+ * {@link VoxelGridFilter} keys and sorted by cell, so a neighbor search reads the 27 cells around
+ * the point from contiguous memory, looked up once per cell. The search stops after maxNeighbors
+ * points, the own cell first. The normal is the eigenvector of the smallest eigenvalue of the
+ * 3 x 3 covariance, solved in closed form by {@link CovarianceMath}, and faces the sensor at the
+ * origin of the cloud frame. Curvature is the smallest eigenvalue over their sum. Points with too
+ * few neighbors get NaN normals.
+ * <p>
+ * The grid is built on the calling thread, the normals are computed over slices of the points on
+ * a {@link WorkerPool}. Working memory and payload are kept between frames. Not thread safe.
+ */
+public class NormalEstimator {
+    public static final String[] FIELD_NAMES =
+            { "x", "y", "z", "normal_x", "normal_y", "normal_z", "curvature" };
+    public static final int FLOATS_PER_OUTPUT_POINT = FIELD_NAMES.length;
+    public static final int POINT_STEP = FLOATS_PER_OUTPUT_POINT * PointCloud2Packer.BYTES_PER_FLOAT;
+    public static final int DEFAULT_MAX_NEIGHBORS = 32;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+    private static final int BITS_PER_AXIS = 21;
+    private static final int AXIS_OFFSET = 1 << (BITS_PER_AXIS - 1);
+    private static final int AXIS_MAX = (1 << BITS_PER_AXIS) - 1;
+    // Fewer neighbors, the point itself included, leave the plane undetermined.
+    private static final int MIN_NEIGHBORS = 4;
+    private static final int MIN_SLICE_POINTS = 2048;
+
+    private final WorkerPool workerPool;
+    private final float radius;
+    private final float inverseCellSize;
+    private final int maxNeighbors;
+
+    private final LongIntHashMap cells;
+    // Per cell: range of its points in sortedPoints. Ends are point counts, then fill positions
+    // while sorting.
+    private int[] cellStarts = new int[0];
+    private int[] cellEnds = new int[0];
+    // Per point: its cell, then XYZ and cell sorted by cell.
+    private int[] pointCells = new int[0];
+    private float[] sortedPoints = new float[0];
+    private int[] sortedCells = new int[0];
+    // Per slice: the cells around the cell being searched, own cell first.
+    private final int[][] neighborCells;
+    private final double[][] normals;
+
+    private final ByteArrayList data = new ByteArrayList();
+    private FloatBuffer dataAsFloats;
+    private int numPoints;
+
+    private final WorkerPool.Task normalTask = new WorkerPool.Task() {
+        @Override
+        public void run(int slice, int start, int end) {
+            NormalEstimator.this.estimateNormals(start, end,
+                    NormalEstimator.this.neighborCells[slice], NormalEstimator.this.normals[slice]);
+        }
+    };
+
+    public NormalEstimator(WorkerPool workerPool, float radius) {
+        this(workerPool, radius, DEFAULT_MAX_NEIGHBORS, 0);
+    }
+
+    /**
+     * @param radius       Neighborhood radius, in meters.
+     * @param maxNeighbors Neighbors used at most per point, the point itself included.
+     * @param maxPoints    Points preallocated for.
+     */
+    public NormalEstimator(WorkerPool workerPool, float radius, int maxNeighbors, int maxPoints) {
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("radius must be positive: " + radius);
+        }
+        if (maxNeighbors < MIN_NEIGHBORS) {
+            throw new IllegalArgumentException(String.format(
+                    "maxNeighbors = %d must be at least %d", maxNeighbors, MIN_NEIGHBORS));
+        }
+        this.workerPool = workerPool;
+        this.radius = radius;
+        this.inverseCellSize = 1f / radius;
+        this.maxNeighbors = maxNeighbors;
+        this.cells = new LongIntHashMap(maxPoints);
+        this.neighborCells = new int[workerPool.getParallelism()][27];
+        this.normals = new double[workerPool.getParallelism()][3];
+        this.ensureCapacity(maxPoints);
+    }
+
+    public float getRadius() {
+        return this.radius;
+    }
+
+    public int getMaxNeighbors() {
+        return this.maxNeighbors;
+    }
+
+    /**
+     * Points of the last estimation, in cell order.
+     */
+    public int getNumPoints() {
+        return this.numPoints;
+    }
+
+    /**
+     * Payload of the last estimation, to be given to PointCloud2.setData().
+     */
+    public ByteArrayList getData() {
+        return this.data;
+    }
+
+    /**
+     * Estimate the normals of an XYZC cloud into the payload.
+     *
+     * @return Number of points with a normal.
+     */
+    public int estimate(FloatBuffer points, int numPoints) {
+        this.ensureCapacity(numPoints);
+        this.buildGrid(points, numPoints);
+        this.data.setSize(numPoints * POINT_STEP);
+        this.numPoints = numPoints;
+
+        this.workerPool.run(numPoints, MIN_SLICE_POINTS, this.normalTask);
+
+        int validPoints = 0;
+        FloatBuffer out = this.dataAsFloats;
+        for (int i = 0; i < numPoints; i++) {
+            if (!Float.isNaN(out.get(i * FLOATS_PER_OUTPUT_POINT + 3))) {
+                validPoints++;
+            }
+        }
+        return validPoints;
+    }
+
+    /**
+     * Counting sort of the points by cell.
+     */
+    private void buildGrid(FloatBuffer points, int numPoints) {
+        LongIntHashMap cells = this.cells;
+        cells.clear();
+        int[] pointCells = this.pointCells;
+        int numCells = 0;
+        for (int i = 0; i < numPoints; i++) {
+            int offset = i * FLOATS_PER_POINT;
+            long key = this.key(this.index(points.get(offset)), this.index(points.get(offset + 1)),
+                    this.index(points.get(offset + 2)));
+            int cell = cells.putIfAbsent(key, numCells);
+            if (cell == LongIntHashMap.NO_VALUE) {
+                cell = numCells++;
+                this.cellEnds[cell] = 0;
+            }
+            pointCells[i] = cell;
+            this.cellEnds[cell]++;
+        }
+
+        int[] cellStarts = this.cellStarts;
+        int[] cellEnds = this.cellEnds;
+        int start = 0;
+        for (int cell = 0; cell < numCells; cell++) {
+            cellStarts[cell] = start;
+            start += cellEnds[cell];
+            cellEnds[cell] = cellStarts[cell];
+        }
+
+        float[] sortedPoints = this.sortedPoints;
+        int[] sortedCells = this.sortedCells;
+        for (int i = 0; i < numPoints; i++) {
+            int offset = i * FLOATS_PER_POINT;
+            int cell = pointCells[i];
+            int position = cellEnds[cell]++;
+            sortedCells[position] = cell;
+            sortedPoints[position * 3] = points.get(offset);
+            sortedPoints[position * 3 + 1] = points.get(offset + 1);
+            sortedPoints[position * 3 + 2] = points.get(offset + 2);
+        }
+    }
+
+    private void estimateNormals(int start, int end, int[] neighbors, double[] normal) {
+        float[] points = this.sortedPoints;
+        int[] cellStarts = this.cellStarts;
+        int[] cellEnds = this.cellEnds;
+        FloatBuffer out = this.dataAsFloats;
+        float radiusSquared = this.radius * this.radius;
+        int maxNeighbors = this.maxNeighbors;
+        int numNeighbors = 0;
+        int neighborsOf = -1;
+
+        for (int i = start; i < end; i++) {
+            float px = points[i * 3];
+            float py = points[i * 3 + 1];
+            float pz = points[i * 3 + 2];
+            // Points are sorted by cell, the neighbor cells are looked up once per cell.
+            int ownCell = this.sortedCells[i];
+            if (ownCell != neighborsOf) {
+                numNeighbors = this.findNeighborCells(px, py, pz, ownCell, neighbors);
+                neighborsOf = ownCell;
+            }
+
+            // Moments of the neighbors relative to the point, for float precision.
+            int count = 0;
+            float sx = 0, sy = 0, sz = 0;
+            float sxx = 0, sxy = 0, sxz = 0, syy = 0, syz = 0, szz = 0;
+            for (int n = 0; n < numNeighbors && count < maxNeighbors; n++) {
+                int cell = neighbors[n];
+                int cellEnd = cellEnds[cell] * 3;
+                for (int j = cellStarts[cell] * 3; j < cellEnd; j += 3) {
+                    float dx = points[j] - px;
+                    float dy = points[j + 1] - py;
+                    float dz = points[j + 2] - pz;
+                    if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                        continue;
+                    }
+                    count++;
+                    sx += dx;
+                    sy += dy;
+                    sz += dz;
+                    sxx += dx * dx;
+                    sxy += dx * dy;
+                    sxz += dx * dz;
+                    syy += dy * dy;
+                    syz += dy * dz;
+                    szz += dz * dz;
+                    if (count == maxNeighbors) {
+                        break;
+                    }
+                }
+            }
+
+            int offset = i * FLOATS_PER_OUTPUT_POINT;
+            out.put(offset, px);
+            out.put(offset + 1, py);
+            out.put(offset + 2, pz);
+            if (count < MIN_NEIGHBORS) {
+                writeNoNormal(out, offset);
+                continue;
+            }
+            double inverseCount = 1.0 / count;
+            double mx = sx * inverseCount;
+            double my = sy * inverseCount;
+            double mz = sz * inverseCount;
+            writeNormal(out, offset, px, py, pz,
+                    sxx * inverseCount - mx * mx, sxy * inverseCount - mx * my,
+                    sxz * inverseCount - mx * mz, syy * inverseCount - my * my,
+                    syz * inverseCount - my * mz, szz * inverseCount - mz * mz, normal);
+        }
+    }
+
+    /**
+     * Occupied cells of the 3 x 3 x 3 block around the cell of a point, own cell first.
+     *
+     * @return Number of cells written.
+     */
+    private int findNeighborCells(float px, float py, float pz, int ownCell, int[] neighbors) {
+        int ix = this.index(px);
+        int iy = this.index(py);
+        int iz = this.index(pz);
+        neighbors[0] = ownCell;
+        int numNeighbors = 1;
+        for (int cx = ix - 1; cx <= ix + 1; cx++) {
+            for (int cy = iy - 1; cy <= iy + 1; cy++) {
+                for (int cz = iz - 1; cz <= iz + 1; cz++) {
+                    if (cx < 0 || cy < 0 || cz < 0 || cx > AXIS_MAX || cy > AXIS_MAX || cz > AXIS_MAX) {
+                        continue;
+                    }
+                    int cell = this.cells.get(this.key(cx, cy, cz));
+                    if (cell != LongIntHashMap.NO_VALUE && cell != ownCell) {
+                        neighbors[numNeighbors++] = cell;
+                    }
+                }
+            }
+        }
+        return numNeighbors;
+    }
+
+    private static void writeNormal(FloatBuffer out, int offset, float px, float py, float pz,
+            double a00, double a01, double a02, double a11, double a12, double a22,
+            double[] normal) {
+        double smallest = CovarianceMath.smallestEigenvector(a00, a01, a02, a11, a12, a22, normal);
+        if (Double.isNaN(smallest)) {
+            writeNoNormal(out, offset);
+            return;
+        }
+        // Face the sensor, at the origin of the cloud frame.
+        double sign = normal[0] * px + normal[1] * py + normal[2] * pz > 0 ? -1 : 1;
+        out.put(offset + 3, (float) (normal[0] * sign));
+        out.put(offset + 4, (float) (normal[1] * sign));
+        out.put(offset + 5, (float) (normal[2] * sign));
+        out.put(offset + 6, (float) (Math.max(smallest, 0) / (a00 + a11 + a22)));
+    }
+
+    private static void writeNoNormal(FloatBuffer out, int offset) {
+        out.put(offset + 3, Float.NaN);
+        out.put(offset + 4, Float.NaN);
+        out.put(offset + 5, Float.NaN);
+        out.put(offset + 6, Float.NaN);
+    }
+
+    private long key(long ix, long iy, long iz) {
+        return (ix << (2 * BITS_PER_AXIS)) | (iy << BITS_PER_AXIS) | iz;
+    }
+
+    // Cell index on one axis, biased to be positive and clamped to BITS_PER_AXIS bits.
+    private int index(float value) {
+        int index = (int) Math.floor(value * this.inverseCellSize) + AXIS_OFFSET;
+        return Math.min(Math.max(index, 0), AXIS_MAX);
+    }
+
+    private void ensureCapacity(int numPoints) {
+        if (this.pointCells.length < numPoints) {
+            this.pointCells = new int[numPoints];
+            this.cellStarts = new int[numPoints];
+            this.cellEnds = new int[numPoints];
+            this.sortedPoints = new float[numPoints * 3];
+            this.sortedCells = new int[numPoints];
+        }
+        this.cells.ensureCapacity(numPoints);
+        int numBytes = numPoints * POINT_STEP;
+        if (this.dataAsFloats == null || this.data.array().length < numBytes) {
+            this.data.ensureCapacity(numBytes);
+            this.dataAsFloats = ByteBuffer.wrap(this.data.array())
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+    }
+}
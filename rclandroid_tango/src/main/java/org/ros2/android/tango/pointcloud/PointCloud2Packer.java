@@ -0,0 +1,95 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.util.ByteArrayList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Packs a Tango XYZC point buffer into the byte payload of a sensor_msgs/PointCloud2.
+ * The backing array is reused between frames and only grows, so packing a frame costs a bulk
+ * copy and no per-point allocation.
+ */
+public class PointCloud2Packer {
+    // Tango point cloud layout: X, Y, Z and confidence as 32 bits floats.
+    public static final int FLOATS_PER_POINT = 4;
+    public static final int BYTES_PER_FLOAT = 4;
+    public static final int POINT_STEP = FLOATS_PER_POINT * BYTES_PER_FLOAT;
+
+    public static final String[] FIELD_NAMES = { "x", "y", "z", "confidence" };
+
+    private final ByteArrayList data;
+    private FloatBuffer dataAsFloats;
+    private int numPoints;
+
+    public PointCloud2Packer() {
+        this(0);
+    }
+
+    public PointCloud2Packer(int maxPoints) {
+        this.data = new ByteArrayList(maxPoints * POINT_STEP);
+        this.wrap();
+    }
+
+    /**
+     * Copy the numPoints first points of an XYZC buffer into the payload.
+     * The position and limit of the given buffer are left untouched.
+     *
+     * @return Number of bytes of the payload.
+     */
+    public int pack(FloatBuffer points, int numPoints) {
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        int numBytes = numFloats * BYTES_PER_FLOAT;
+        if (this.data.array().length < numBytes) {
+            this.data.ensureCapacity(numBytes);
+            this.wrap();
+        }
+
+        // Work on a view so concurrent readers of the Tango buffer are not disturbed.
+        FloatBuffer source = points.duplicate();
+        source.position(0);
+        source.limit(numFloats);
+        this.dataAsFloats.clear();
+        this.dataAsFloats.put(source);
+
+        this.data.setSize(numBytes);
+        this.numPoints = numPoints;
+        return numBytes;
+    }
+
+    /**
+     * Payload of the last packed frame, to be given to PointCloud2.setData().
+     */
+    public ByteArrayList getData() {
+        return this.data;
+    }
+
+    public int getNumPoints() {
+        return this.numPoints;
+    }
+
+    public static boolean isBigEndian() {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+    }
+
+    private void wrap() {
+        this.dataAsFloats = ByteBuffer.wrap(this.data.array())
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
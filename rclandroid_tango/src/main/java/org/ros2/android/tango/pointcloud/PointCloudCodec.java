@@ -0,0 +1,380 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.util.ByteArrayList;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossy compression of XYZC point clouds, for links where the 16 bytes per point of PointCloud2
+ * do not fit.
+ * <p>
+ * Coordinates are quantized to 16 bits over the cloud bounding box, with a step of at least the
+ * requested precision, and confidences to 8 bits. Points are sorted along a Morton curve, so
+ * neighbours in space are neighbours in the stream, and stored as the varint coded differences
+ * between consecutive Morton codes followed by the confidences. The whole is then Huffman coded
+ * with Deflater: string matching finds next to nothing in this data and is skipped for speed.
+ * Point order is not kept.
+ * <p>
+ * Layout, little endian: magic, number of points, origin x y z, step (floats), body length, then
+ * the deflated body. Pure Java, the same class decodes the messages on the desktop side.
+ * Not thread safe, buffers are reused between clouds.
+ */
+public class PointCloudCodec {
+    /** Format of the sensor_msgs/CompressedImage carrying the clouds. */
+    public static final String FORMAT = "tango_xyzc_morton16";
+    public static final float DEFAULT_PRECISION = 0.001f;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+    private static final int MAGIC = 0x31435054; // "TPC1"
+    private static final int HEADER_BYTES = 28;
+    private static final int MAX_QUANTIZED = 0xFFFF;
+    private static final int CONFIDENCE_BITS = 8;
+    private static final int MAX_CONFIDENCE = (1 << CONFIDENCE_BITS) - 1;
+    private static final int MORTON_BITS = 48;
+    // Worst case of a varint coded 48 bits difference, and of the confidence.
+    private static final int MAX_BYTES_PER_POINT = 7 + 1;
+    private static final int RADIX_BITS = 8;
+
+    private float precision;
+    private Deflater deflater;
+    private Inflater inflater;
+
+    // Reused between clouds.
+    private final ByteArrayList data = new ByteArrayList();
+    private long[] keys = new long[0];
+    private long[] sortScratch = new long[0];
+    private final int[] counts = new int[1 << RADIX_BITS];
+    private byte[] body = new byte[0];
+
+    public PointCloudCodec() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision Largest quantization step, in meters. Clouds wider than 65536 steps get a
+     *                  coarser step.
+     */
+    public PointCloudCodec(float precision) {
+        this.precision = precision;
+    }
+
+    public void setPrecision(float precision) {
+        this.precision = precision;
+    }
+
+    public float getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Compress the numPoints first points of an XYZC buffer, skipping the non finite ones.
+     * The position and limit of the buffer are left untouched.
+     *
+     * @return Number of bytes of the encoded cloud, see {@link #getData()}.
+     */
+    public int encode(FloatBuffer points, int numPoints) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = points.get(i);
+            float y = points.get(i + 1);
+            float z = points.get(i + 2);
+            if (isFinite(x) && isFinite(y) && isFinite(z)) {
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                minZ = Math.min(minZ, z);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+            }
+        }
+        if (minX > maxX) {
+            minX = minY = minZ = maxX = maxY = maxZ = 0;
+        }
+        float extent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+        float step = Math.max(this.precision, extent / MAX_QUANTIZED);
+        float inverseStep = 1 / step;
+
+        if (this.keys.length < numPoints) {
+            this.keys = new long[numPoints];
+            this.sortScratch = new long[numPoints];
+        }
+        long[] keys = this.keys;
+        int count = 0;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = points.get(i);
+            float y = points.get(i + 1);
+            float z = points.get(i + 2);
+            if (!isFinite(x) || !isFinite(y) || !isFinite(z)) {
+                continue;
+            }
+            long morton = spread(quantize((x - minX) * inverseStep))
+                    | spread(quantize((y - minY) * inverseStep)) << 1
+                    | spread(quantize((z - minZ) * inverseStep)) << 2;
+            float confidence = points.get(i + 3);
+            int c = confidence > 0 ? (int) (Math.min(confidence, 1f) * MAX_CONFIDENCE + 0.5f) : 0;
+            keys[count++] = morton << CONFIDENCE_BITS | c;
+        }
+        // Sorting swaps the key and scratch arrays.
+        this.sort(count, CONFIDENCE_BITS + MORTON_BITS);
+        keys = this.keys;
+
+        // Body: Morton code differences, then confidences.
+        if (this.body.length < count * MAX_BYTES_PER_POINT) {
+            this.body = new byte[count * MAX_BYTES_PER_POINT];
+        }
+        byte[] body = this.body;
+        int length = 0;
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long morton = keys[i] >>> CONFIDENCE_BITS;
+            long delta = morton - previous;
+            previous = morton;
+            while (delta >= 0x80) {
+                body[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            body[length++] = (byte) delta;
+        }
+        for (int i = 0; i < count; i++) {
+            body[length++] = (byte) keys[i];
+        }
+
+        // Deflate adds at most 5 bytes per stored block of 16 KB when it can not compress.
+        byte[] out = this.data.ensureCapacity(HEADER_BYTES + length + (length >> 8) + 64);
+        writeInt(out, 0, MAGIC);
+        writeInt(out, 4, count);
+        writeInt(out, 8, Float.floatToIntBits(minX));
+        writeInt(out, 12, Float.floatToIntBits(minY));
+        writeInt(out, 16, Float.floatToIntBits(minZ));
+        writeInt(out, 20, Float.floatToIntBits(step));
+        writeInt(out, 24, length);
+
+        if (this.deflater == null) {
+            this.deflater = new Deflater(Deflater.BEST_SPEED);
+            this.deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        }
+        this.deflater.reset();
+        this.deflater.setInput(body, 0, length);
+        this.deflater.finish();
+        int size = HEADER_BYTES;
+        while (!this.deflater.finished()) {
+            if (size == out.length) {
+                // Past the bound above: grow rather than cut the stream.
+                out = this.data.growCapacity(size + 1);
+            }
+            size += this.deflater.deflate(out, size, out.length - size);
+        }
+        this.data.setSize(size);
+        return size;
+    }
+
+    /**
+     * Last encoded cloud, to be given to CompressedImage.setData().
+     */
+    public ByteArrayList getData() {
+        return this.data;
+    }
+
+    /**
+     * Number of points of an encoded cloud, to size the decoding output.
+     */
+    public static int getNumPoints(byte[] data, int offset) {
+        checkMagic(data, offset);
+        return readInt(data, offset + 4);
+    }
+
+    /**
+     * Decode a cloud into XYZC floats.
+     *
+     * @param out Room for at least {@link #getNumPoints(byte[], int)} points.
+     * @return Number of decoded points.
+     * @throws IllegalArgumentException When the data is not a valid encoded cloud.
+     */
+    public int decode(byte[] data, int offset, int length, float[] out) {
+        if (offset < 0 || length < HEADER_BYTES || offset > data.length - length) {
+            throw new IllegalArgumentException("Truncated cloud of " + length + " bytes");
+        }
+        checkMagic(data, offset);
+        int count = readInt(data, offset + 4);
+        float originX = Float.intBitsToFloat(readInt(data, offset + 8));
+        float originY = Float.intBitsToFloat(readInt(data, offset + 12));
+        float originZ = Float.intBitsToFloat(readInt(data, offset + 16));
+        float step = Float.intBitsToFloat(readInt(data, offset + 20));
+        int bodyLength = readInt(data, offset + 24);
+        // Bounded by the header only, the data may come from anywhere.
+        if (count < 0 || bodyLength < count
+                || bodyLength > (long) count * MAX_BYTES_PER_POINT
+                || out.length < (long) count * FLOATS_PER_POINT) {
+            throw new IllegalArgumentException("Invalid cloud of " + count + " points in "
+                    + bodyLength + " bytes");
+        }
+
+        if (this.body.length < bodyLength) {
+            this.body = new byte[bodyLength];
+        }
+        byte[] body = this.body;
+        if (this.inflater == null) {
+            this.inflater = new Inflater();
+        }
+        this.inflater.reset();
+        this.inflater.setInput(data, offset + HEADER_BYTES, length - HEADER_BYTES);
+        try {
+            int inflated = 0;
+            while (inflated < bodyLength && !this.inflater.finished()) {
+                int read = this.inflater.inflate(body, inflated, bodyLength - inflated);
+                if (read == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += read;
+            }
+            if (inflated != bodyLength) {
+                throw new IllegalArgumentException("Truncated cloud");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted cloud", e);
+        }
+
+        int position = 0;
+        int confidences = bodyLength - count;
+        long morton = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= confidences) {
+                    throw new IllegalArgumentException("Corrupted cloud");
+                }
+                b = body[position++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            morton += delta;
+
+            int o = i * FLOATS_PER_POINT;
+            out[o] = originX + compact(morton) * step;
+            out[o + 1] = originY + compact(morton >>> 1) * step;
+            out[o + 2] = originZ + compact(morton >>> 2) * step;
+            out[o + 3] = (body[confidences + i] & MAX_CONFIDENCE) / (float) MAX_CONFIDENCE;
+        }
+        return count;
+    }
+
+    /**
+     * Free the native compression buffers, the codec can still be used afterwards.
+     */
+    public void release() {
+        if (this.deflater != null) {
+            this.deflater.end();
+            this.deflater = null;
+        }
+        if (this.inflater != null) {
+            this.inflater.end();
+            this.inflater = null;
+        }
+    }
+
+    // LSD radix sort of the keys, skipping the digits all keys share.
+    private void sort(int count, int bits) {
+        long[] keys = this.keys;
+        long[] scratch = this.sortScratch;
+        int[] counts = this.counts;
+        int mask = counts.length - 1;
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                counts[(int) (keys[i] >>> shift) & mask]++;
+            }
+            if (count == 0 || counts[(int) (keys[0] >>> shift) & mask] == count) {
+                continue;
+            }
+            int sum = 0;
+            for (int digit = 0; digit <= mask; digit++) {
+                int digitCount = counts[digit];
+                counts[digit] = sum;
+                sum += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                long key = keys[i];
+                scratch[counts[(int) (key >>> shift) & mask]++] = key;
+            }
+            long[] swap = keys;
+            keys = scratch;
+            scratch = swap;
+        }
+        this.keys = keys;
+        this.sortScratch = scratch;
+    }
+
+    private static int quantize(float value) {
+        int quantized = (int) (value + 0.5f);
+        return quantized < MAX_QUANTIZED ? quantized : MAX_QUANTIZED;
+    }
+
+    // Spread the 16 bits of a value, two zero bits between each.
+    private static long spread(long value) {
+        long x = value & 0xFFFFL;
+        x = (x | x << 16) & 0x0000FF0000FFL;
+        x = (x | x << 8) & 0x00F00F00F00FL;
+        x = (x | x << 4) & 0x0C30C30C30C3L;
+        x = (x | x << 2) & 0x249249249249L;
+        return x;
+    }
+
+    private static int compact(long value) {
+        long x = value & 0x249249249249L;
+        x = (x | x >>> 2) & 0x0C30C30C30C3L;
+        x = (x | x >>> 4) & 0x00F00F00F00FL;
+        x = (x | x >>> 8) & 0x0000FF0000FFL;
+        x = (x | x >>> 16) & 0xFFFFL;
+        return (int) x;
+    }
+
+    private static boolean isFinite(float value) {
+        return value - value == 0;
+    }
+
+    private static void checkMagic(byte[] data, int offset) {
+        if (data.length - offset < HEADER_BYTES || readInt(data, offset) != MAGIC) {
+            throw new IllegalArgumentException("Not a " + FORMAT + " cloud");
+        }
+    }
+
+    private static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,31 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A processing stage working in place over an XYZC point buffer.
+ */
+public interface PointCloudFilter {
+
+    /**
+     * Filter the numPoints first points of the buffer. Kept points are compacted at the start
+     * of the buffer.
+     *
+     * @return Number of points left in the buffer.
+     */
+    int filter(FloatBuffer points, int numPoints);
+}
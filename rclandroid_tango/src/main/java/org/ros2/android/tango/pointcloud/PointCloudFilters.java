@@ -0,0 +1,55 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Composes filters into a single stage, run in the order they were added.
+ * Stops as soon as a stage leaves no point.
+ */
+public class PointCloudFilters implements PointCloudFilter {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private PointCloudFilter[] stages = new PointCloudFilter[0];
+
+    public PointCloudFilters add(PointCloudFilter stage) {
+        PointCloudFilter[] stages = new PointCloudFilter[this.stages.length + 1];
+        System.arraycopy(this.stages, 0, stages, 0, this.stages.length);
+        stages[this.stages.length] = stage;
+        this.stages = stages;
+        return this;
+    }
+
+    @Override
+    public int filter(FloatBuffer points, int numPoints) {
+        PointCloudFilter[] stages = this.stages;
+        for (int i = 0; i < stages.length && numPoints > 0; i++) {
+            numPoints = stages[i].filter(points, numPoints);
+        }
+        return numPoints;
+    }
+
+    /**
+     * Move the point starting at float index from to float index to, used to compact kept points.
+     */
+    static void move(FloatBuffer points, int from, int to) {
+        if (from != to) {
+            for (int i = 0; i < FLOATS_PER_POINT; i++) {
+                points.put(to + i, points.get(from + i));
+            }
+        }
+    }
+}
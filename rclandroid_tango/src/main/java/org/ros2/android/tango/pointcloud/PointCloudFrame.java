@@ -0,0 +1,71 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A point cloud owned by the pipeline, in the Tango XYZC layout.
+ * Frames are preallocated and recycled, the buffer only grows when a bigger cloud comes in.
+ */
+public class PointCloudFrame {
+    public static final int FLOATS_PER_POINT = 4;
+
+    public double timestamp;
+    public int numPoints;
+    /** {@link System#nanoTime()} when the cloud was copied into the frame. */
+    public long receivedNanos;
+    public FloatBuffer points;
+
+    public PointCloudFrame(int maxPoints) {
+        this.points = allocate(maxPoints);
+    }
+
+    /**
+     * Copy a cloud into this frame. The position and limit of the source buffer are left untouched.
+     */
+    public void set(double timestamp, FloatBuffer source, int numPoints) {
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        this.ensureCapacity(numPoints);
+
+        FloatBuffer view = source.duplicate();
+        view.position(0);
+        view.limit(numFloats);
+        this.points.clear();
+        this.points.put(view);
+        this.points.rewind();
+
+        this.timestamp = timestamp;
+        this.numPoints = numPoints;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    /**
+     * Grow the buffer to hold at least numPoints, the content is lost when it grows.
+     */
+    public void ensureCapacity(int numPoints) {
+        if (this.points.capacity() < numPoints * FLOATS_PER_POINT) {
+            this.points = allocate(numPoints);
+        }
+    }
+
+    private static FloatBuffer allocate(int maxPoints) {
+        return ByteBuffer.allocateDirect(maxPoints * FLOATS_PER_POINT * Float.SIZE / 8)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
@@ -0,0 +1,200 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.util.RosTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import geometry_msgs.msg.Point32;
+import sensor_msgs.msg.CameraInfo;
+import sensor_msgs.msg.CompressedImage;
+import sensor_msgs.msg.Image;
+import sensor_msgs.msg.PointCloud;
+import sensor_msgs.msg.PointCloud2;
+import sensor_msgs.msg.PointField;
+
+/**
+ * Builds the ROS messages published for a point cloud frame.
+ * Kept free of Android and rcljava types, so the message building can be benchmarked on a JVM.
+ */
+public final class PointCloudMessages {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private PointCloudMessages() { }
+
+    /**
+     * Legacy sensor_msgs/PointCloud, one Point32 per point.
+     */
+    public static PointCloud toPointCloud(PointCloudFrame pointsBuffer) {
+        PointCloud pc = new PointCloud();
+        Collection<Point32> points = new ArrayList<>(pointsBuffer.numPoints);
+
+        int numFloats = pointsBuffer.numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < numFloats; i = i + FLOATS_PER_POINT) {
+            Point32 point = new Point32();
+            point.setX(pointsBuffer.points.get(i));
+            point.setY(pointsBuffer.points.get(i+1));
+            point.setZ(pointsBuffer.points.get(i+2));
+            points.add(point);
+        }
+        pc.setPoints(points);
+        return pc;
+    }
+
+    /**
+     * An unorganized PointCloud2 with x, y, z and confidence fields, ready for
+     * {@link #fillPointCloud2(PointCloud2, PointCloud2Packer, PointCloudFrame)}.
+     */
+    public static PointCloud2 createPointCloud2(String frameId) {
+        PointCloud2 pc = new PointCloud2();
+        pc.getHeader().setFrameId(frameId);
+        pc.setHeight(1);
+        pc.setFields(createFloatFields(PointCloud2Packer.FIELD_NAMES));
+        pc.setIsBigendian(PointCloud2Packer.isBigEndian());
+        pc.setPointStep(PointCloud2Packer.POINT_STEP);
+        pc.setIsDense(true);
+        return pc;
+    }
+
+    /**
+     * Update a PointCloud2 in place with a frame. The payload is the packer buffer, so the
+     * message must be published before the packer is reused.
+     */
+    public static void fillPointCloud2(PointCloud2 pointCloud2, PointCloud2Packer packer,
+            PointCloudFrame pointsBuffer) {
+        packer.pack(pointsBuffer.points, pointsBuffer.numPoints);
+
+        RosTime.setStamp(pointCloud2.getHeader().getStamp(), pointsBuffer.timestamp);
+        pointCloud2.setWidth(pointsBuffer.numPoints);
+        pointCloud2.setRowStep(pointsBuffer.numPoints * PointCloud2Packer.POINT_STEP);
+        pointCloud2.setData(packer.getData());
+    }
+
+    /**
+     * An empty PointCloud2 with the fields of {@link NormalEstimator}, ready for
+     * {@link #fillNormalCloud(PointCloud2, NormalEstimator, double)}. Not dense, points without a
+     * normal have NaN normals.
+     */
+    public static PointCloud2 createNormalCloud(String frameId) {
+        PointCloud2 pc = new PointCloud2();
+        pc.getHeader().setFrameId(frameId);
+        pc.setHeight(1);
+        pc.setFields(createFloatFields(NormalEstimator.FIELD_NAMES));
+        pc.setIsBigendian(PointCloud2Packer.isBigEndian());
+        pc.setPointStep(NormalEstimator.POINT_STEP);
+        pc.setIsDense(false);
+        return pc;
+    }
+
+    /**
+     * Update a PointCloud2 in place with the last estimation. The payload is the estimator buffer,
+     * so the message must be published before the estimator is reused.
+     */
+    public static void fillNormalCloud(PointCloud2 pointCloud2, NormalEstimator estimator,
+            double timestamp) {
+        RosTime.setStamp(pointCloud2.getHeader().getStamp(), timestamp);
+        pointCloud2.setWidth(estimator.getNumPoints());
+        pointCloud2.setRowStep(estimator.getNumPoints() * NormalEstimator.POINT_STEP);
+        pointCloud2.setData(estimator.getData());
+    }
+
+    /**
+     * A CompressedImage carrying clouds encoded by {@link PointCloudCodec}, ready for
+     * {@link #fillCompressedCloud(CompressedImage, PointCloudCodec, PointCloudFrame)}.
+     */
+    public static CompressedImage createCompressedCloud(String frameId) {
+        CompressedImage compressed = new CompressedImage();
+        compressed.getHeader().setFrameId(frameId);
+        compressed.setFormat(PointCloudCodec.FORMAT);
+        return compressed;
+    }
+
+    /**
+     * Update a compressed cloud in place with a frame. The payload is the codec buffer, so the
+     * message must be published before the codec is reused.
+     */
+    public static void fillCompressedCloud(CompressedImage compressed, PointCloudCodec codec,
+            PointCloudFrame pointsBuffer) {
+        codec.encode(pointsBuffer.points, pointsBuffer.numPoints);
+
+        RosTime.setStamp(compressed.getHeader().getStamp(), pointsBuffer.timestamp);
+        compressed.setData(codec.getData());
+    }
+
+    /**
+     * A 16UC1 depth image, ready for
+     * {@link #fillDepthImage(Image, DepthImageProjector, PointCloudFrame)}.
+     */
+    public static Image createDepthImage(String frameId) {
+        Image image = new Image();
+        image.getHeader().setFrameId(frameId);
+        image.setEncoding(DepthImageProjector.ENCODING);
+        image.setIsBigendian((byte) 0);
+        return image;
+    }
+
+    /**
+     * Project a frame into a depth image. The payload is the projector buffer, so the message
+     * must be published before the projector is reused.
+     */
+    public static void fillDepthImage(Image image, DepthImageProjector projector,
+            PointCloudFrame pointsBuffer) {
+        projector.project(pointsBuffer.points, pointsBuffer.numPoints);
+
+        RosTime.setStamp(image.getHeader().getStamp(), pointsBuffer.timestamp);
+        image.setWidth(projector.getWidth());
+        image.setHeight(projector.getHeight());
+        image.setStep(projector.getWidth() * DepthImageProjector.BYTES_PER_PIXEL);
+        image.setData(projector.getData());
+    }
+
+    /**
+     * Camera info of the depth images of a projector, only the stamp changes between frames.
+     */
+    public static CameraInfo createDepthCameraInfo(String frameId, DepthImageProjector projector) {
+        double fx = projector.getFx();
+        double fy = projector.getFy();
+        double cx = projector.getCx();
+        double cy = projector.getCy();
+
+        CameraInfo info = new CameraInfo();
+        info.getHeader().setFrameId(frameId);
+        info.setWidth(projector.getWidth());
+        info.setHeight(projector.getHeight());
+        info.setDistortionModel("plumb_bob");
+        info.setD(Arrays.asList(0d, 0d, 0d, 0d, 0d));
+        info.setK(Arrays.asList(fx, 0d, cx, 0d, fy, cy, 0d, 0d, 1d));
+        info.setR(Arrays.asList(1d, 0d, 0d, 0d, 1d, 0d, 0d, 0d, 1d));
+        info.setP(Arrays.asList(fx, 0d, cx, 0d, 0d, fy, cy, 0d, 0d, 0d, 1d, 0d));
+        return info;
+    }
+
+    private static List<PointField> createFloatFields(String[] names) {
+        List<PointField> fields = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            PointField field = new PointField();
+            field.setName(names[i]);
+            field.setOffset(i * PointCloud2Packer.BYTES_PER_FLOAT);
+            field.setDatatype(PointField.FLOAT32);
+            field.setCount(1);
+            fields.add(field);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import android.util.Log;
+
+import org.ros2.android.tango.metrics.MetricsRegistry;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands point clouds from the Tango callback thread to a dedicated processing thread.
+ * <p>
+ * The handoff is a single slot triple buffer: the producer always owns one frame, the consumer
+ * another, and the last published frame waits in the middle slot. A new cloud arriving before the
+ * previous one was taken replaces it (drop-oldest), so the Tango thread never blocks and the
+ * consumer always processes the freshest data. Every frame is processed at most once.
+ */
+public class PointCloudPipeline {
+    private static final String TAG = "PointCloudPipeline";
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int DIRTY = 0x4;
+
+    /**
+     * Called on the pipeline thread for each new frame. The frame is only valid until the
+     * callback returns.
+     */
+    public interface Callback {
+        void onPointCloud(PointCloudFrame frame);
+    }
+
+    private final PointCloudFrame[] frames = new PointCloudFrame[3];
+    // Index of the frame in the middle slot, with the DIRTY flag when it holds an unread frame.
+    private final AtomicInteger middle = new AtomicInteger(1);
+    // Owned by the producer thread.
+    private int back = 0;
+    // Owned by the pipeline thread.
+    private int front = 2;
+    private double lastTimestamp = Double.NaN;
+
+    private final Callback callback;
+    private volatile boolean running;
+    // Read by offer() on the producer thread, without the lock.
+    private volatile Thread thread;
+
+    private final AtomicLong receivedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong duplicateFrames = new AtomicLong();
+    private final AtomicLong processedFrames = new AtomicLong();
+
+    public PointCloudPipeline(int maxPoints, Callback callback) {
+        for (int i = 0; i < this.frames.length; i++) {
+            this.frames[i] = new PointCloudFrame(maxPoints);
+        }
+        this.callback = callback;
+    }
+
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PointCloudPipeline.this.loop();
+            }
+        }, TAG);
+        this.thread.start();
+    }
+
+    public synchronized void stop() {
+        if (this.thread == null) {
+            return;
+        }
+        this.running = false;
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    /**
+     * Push a new cloud. Called from the Tango callback thread, never blocks.
+     */
+    public void offer(double timestamp, FloatBuffer points, int numPoints) {
+        this.frames[this.back].set(timestamp, points, numPoints);
+        this.receivedFrames.incrementAndGet();
+
+        int previous = this.middle.getAndSet(this.back | DIRTY);
+        this.back = previous & INDEX_MASK;
+        if ((previous & DIRTY) != 0) {
+            this.droppedFrames.incrementAndGet();
+        }
+
+        Thread consumer = this.thread;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void loop() {
+        while (this.running) {
+            if ((this.middle.get() & DIRTY) == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            this.front = this.middle.getAndSet(this.front) & INDEX_MASK;
+            PointCloudFrame frame = this.frames[this.front];
+            if (frame.timestamp == this.lastTimestamp) {
+                this.duplicateFrames.incrementAndGet();
+                continue;
+            }
+            this.lastTimestamp = frame.timestamp;
+
+            try {
+                this.callback.onPointCloud(frame);
+                this.processedFrames.incrementAndGet();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not process point cloud", e);
+            }
+        }
+    }
+
+    /**
+     * List the frame counters in a registry, as pipeline/received, dropped, duplicates and
+     * processed.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.register("pipeline/received", this.receivedFrames);
+        registry.register("pipeline/dropped", this.droppedFrames);
+        registry.register("pipeline/duplicates", this.duplicateFrames);
+        registry.register("pipeline/processed", this.processedFrames);
+    }
+
+    /** Frames pushed by the Tango callback. */
+    public long getReceivedFrames() {
+        return this.receivedFrames.get();
+    }
+
+    /** Frames replaced by a newer one before the pipeline thread could take them. */
+    public long getDroppedFrames() {
+        return this.droppedFrames.get();
+    }
+
+    /** Frames skipped because they carried the timestamp of the last processed frame. */
+    public long getDuplicateFrames() {
+        return this.duplicateFrames.get();
+    }
+
+    /** Frames given to the callback. */
+    public long getProcessedFrames() {
+        return this.processedFrames.get();
+    }
+}
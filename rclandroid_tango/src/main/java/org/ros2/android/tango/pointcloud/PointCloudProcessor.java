@@ -0,0 +1,592 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.map.OccupancyGridMapper;
+import org.ros2.android.tango.map.PointMap;
+import org.ros2.android.tango.metrics.LatencyHistogram;
+import org.ros2.android.tango.metrics.MetricsRegistry;
+import org.ros2.android.tango.metrics.TopicMetrics;
+import org.ros2.android.tango.plane.PlaneSegmenter;
+import org.ros2.android.tango.pose.PoseHistory;
+import org.ros2.android.tango.pose.PoseMath;
+import org.ros2.android.tango.scan.LaserScanProjector;
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.util.concurrent.locks.LockSupport;
+
+import sensor_msgs.msg.CameraInfo;
+import sensor_msgs.msg.CompressedImage;
+import sensor_msgs.msg.Image;
+import sensor_msgs.msg.PointCloud;
+import sensor_msgs.msg.PointCloud2;
+
+/**
+ * Stages run on each depth cloud of the pipeline thread: filters, depth image, cloud messages,
+ * normals, then, with the depth pose at the cloud time, world cloud, laser scan, planes, point
+ * map and occupancy grid. The results go to an {@link Output}, which publishes them.
+ * <p>
+ * Optional stages are off by default and switched from any thread. No Android dependency, the
+ * load test runs the same chain on a plain JVM.
+ */
+public class PointCloudProcessor implements PointCloudPipeline.Callback {
+    /**
+     * Results of a cloud, called on the pipeline thread. Messages are reused by the next cloud.
+     */
+    public interface Output {
+        /** /cloud in the legacy format. */
+        void publishCloud(PointCloud cloud);
+
+        /** /cloud in the packed format. */
+        void publishCloud2(PointCloud2 cloud);
+
+        void publishCompressedCloud(CompressedImage cloud);
+
+        void publishDepthImage(Image image, CameraInfo cameraInfo);
+
+        void publishNormalCloud(PointCloud2 cloud);
+
+        void publishWorldCloud(PointCloud2 cloud);
+
+        /**
+         * @param translation Position of the depth camera in the map frame.
+         */
+        void publishLaserScan(LaserScanProjector projector, double timestamp, double[] translation);
+
+        void publishPlanes(PlaneSegmenter segmenter, double timestamp);
+
+        void publishOccupancyGrid(OccupancyGridMapper grid, double timestamp);
+
+        void publishPointMap(PointCloud2 cloud, PointMap pointMap);
+    }
+
+    // About 2.5 s of poses at the Tango rate of 100 Hz.
+    private static final int POSE_HISTORY_CAPACITY = 256;
+    private static final double POSE_HISTORY_MAX_GAP = 0.1;
+    // Depth frames may arrive before the pose at their timestamp, wait for it up to 50 ms.
+    private static final long POSE_WAIT_NANOS = 10000000L;
+    private static final int POSE_WAIT_RETRIES = 5;
+    // Point map: 20 cm leaves of up to 64 points, one per 2.5 cm cell.
+    public static final float MAP_LEAF_SIZE = 0.2f;
+    private static final int MAP_LEAF_RESOLUTION = 8;
+    private static final int MAP_POINTS_PER_LEAF = 64;
+    private static final long DEFAULT_MAP_MEMORY_BUDGET = 32L * 1024 * 1024;
+    private static final int MAX_MAP_POINTS = 200000;
+    private static final double MAP_PUBLISH_PERIOD = 1.0;
+    // Occupancy grid: 5 cm cells over a 51.2 m rolling window, filled up to the depth sensor range.
+    private static final float GRID_RESOLUTION = 0.05f;
+    private static final float GRID_SIZE = 50f;
+    private static final float GRID_MAX_RANGE = 4f;
+    // Obstacle heights relative to the device at the start of service.
+    private static final float DEFAULT_OBSTACLE_MIN_HEIGHT = -1.1f;
+    private static final float DEFAULT_OBSTACLE_MAX_HEIGHT = 0.5f;
+    // Virtual scan: 0.5 degree bins over 90 degrees, wider than the depth camera either way up.
+    private static final float SCAN_ANGLE_MAX = (float) (Math.PI / 4);
+    private static final float SCAN_ANGLE_INCREMENT = (float) Math.toRadians(0.5);
+    private static final float SCAN_RANGE_MIN = 0.2f;
+    // Bytes of a geometry_msgs/Point32.
+    private static final int POINT32_BYTES = 12;
+
+    /** Voxel size for {@link #setVoxelLeafSize(float)} keeping room scale details, in meters. */
+    public static final float DEFAULT_VOXEL_LEAF_SIZE = 0.02f;
+    /** Neighborhood for {@link #setNormalRadius(float)} at the depth camera density, in meters. */
+    public static final float DEFAULT_NORMAL_RADIUS = 0.05f;
+
+    private final int maxPoints;
+    private final Output output;
+
+    // Threads shared by the data parallel stages.
+    private final WorkerPool workerPool = new WorkerPool(WorkerPool.getDefaultParallelism());
+    private final PoseHistory poseHistory =
+            new PoseHistory(POSE_HISTORY_CAPACITY, POSE_HISTORY_MAX_GAP);
+
+    // Reused between frames, see publishPointCloud().
+    private final PointCloud2Packer pointCloudPacker = new PointCloud2Packer();
+    // Null for the legacy format.
+    private final PointCloud2 pointCloud2;
+    private final CompressedImage compressedCloud;
+    // Null when the compressed cloud is disabled, the default.
+    private volatile PointCloudCodec pointCloudCodec;
+
+    // Null until the depth camera intrinsics are known.
+    private volatile DepthImageProjector depthImageProjector;
+    private final Image depthImage;
+    // Owned by the pipeline thread, rebuilt when the projector changes.
+    private final String depthFrameId;
+    private CameraInfo depthCameraInfo;
+    private DepthImageProjector depthCameraInfoProjector;
+
+    // Clouds transformed to the map frame, owned by the pipeline thread.
+    private volatile boolean worldCloudEnabled;
+    private final PointCloudTransformer worldTransformer =
+            new PointCloudTransformer(this.workerPool);
+    private final PointCloudFrame worldFrame;
+    private final PointCloud2Packer worldPacker = new PointCloud2Packer();
+    private final PointCloud2 worldCloud2;
+
+    // Normals of the published clouds, null when disabled.
+    private volatile NormalEstimator normalEstimator;
+    private final PointCloud2 normalCloud;
+
+    // Floor, walls and ceiling, null when disabled.
+    private volatile PlaneSegmenter planeSegmenter;
+    private volatile boolean planesReset;
+
+    // Virtual laser scan, null when disabled.
+    private volatile LaserScanProjector laserScanProjector;
+
+    // Optional stages run on published clouds, null when disabled.
+    private volatile PointCloudFilter pointCloudFilter;
+    private volatile VoxelGridFilter voxelGridFilter;
+
+    // Clouds accumulated in the map frame, null when disabled.
+    private volatile PointMap pointMap;
+    // 2D occupancy for navigation, null when disabled.
+    private volatile OccupancyGridMapper occupancyGrid;
+    // Set when tracking is lost, the map frame restarts and the maps are no longer valid.
+    private volatile boolean mapsReset;
+    private volatile boolean hasExtrinsics;
+    private final double[] deviceTdepthTranslation = new double[3];
+    private final double[] deviceTdepthRotation = new double[4];
+    // Owned by the pipeline thread.
+    private final double[] mapTranslation = new double[3];
+    private final double[] mapRotation = new double[4];
+    // Allocated with the first map published, 3.2 MB the node only needs with the map on.
+    private PointCloudFrame mapFrame;
+    private final PointCloud2Packer mapPacker = new PointCloud2Packer();
+    private final PointCloud2 mapCloud2;
+    private double lastMapTimestamp = Double.NEGATIVE_INFINITY;
+
+    // Where the time goes from the copy into the pipeline to the end of the publish calls.
+    private final LatencyHistogram handoffLatency;
+    private final LatencyHistogram pipelineLatency;
+    private final LatencyHistogram fillCloudLatency;
+    // From the copy into the pipeline to the end of the /cloud publish call.
+    private final LatencyHistogram cloudLatency;
+    private final TopicMetrics cloudTopic;
+    private final TopicMetrics compressedCloudTopic;
+    private final TopicMetrics depthImageTopic;
+    private final TopicMetrics normalCloudTopic;
+    private final TopicMetrics worldCloudTopic;
+    private final TopicMetrics scanTopic;
+
+    /**
+     * @param maxPoints    Largest cloud of the pipeline.
+     * @param pointCloud2  Whether /cloud is the packed sensor_msgs/PointCloud2, else the legacy
+     *                     sensor_msgs/PointCloud.
+     * @param depthFrameId Frame of the depth camera.
+     * @param mapFrameId   Frame of the poses, where the world cloud and the maps are built.
+     * @param metrics      Registry of the stage latencies and topic rates.
+     */
+    public PointCloudProcessor(int maxPoints, boolean pointCloud2, String depthFrameId,
+            String mapFrameId, MetricsRegistry metrics, Output output) {
+        this.maxPoints = maxPoints;
+        this.output = output;
+        this.depthFrameId = depthFrameId;
+        this.pointCloud2 = pointCloud2 ? PointCloudMessages.createPointCloud2(depthFrameId) : null;
+        this.compressedCloud = PointCloudMessages.createCompressedCloud(depthFrameId);
+        this.depthImage = PointCloudMessages.createDepthImage(depthFrameId);
+        this.normalCloud = PointCloudMessages.createNormalCloud(depthFrameId);
+        this.worldFrame = new PointCloudFrame(maxPoints);
+        this.worldCloud2 = PointCloudMessages.createPointCloud2(mapFrameId);
+        this.mapCloud2 = PointCloudMessages.createPointCloud2(mapFrameId);
+
+        this.handoffLatency = metrics.histogram("stage/pipeline_handoff");
+        this.pipelineLatency = metrics.histogram("stage/pipeline");
+        this.fillCloudLatency = metrics.histogram("stage/fill_cloud");
+        this.cloudLatency = metrics.histogram("cloud/latency");
+        this.cloudTopic = new TopicMetrics(metrics, "cloud");
+        this.compressedCloudTopic = new TopicMetrics(metrics, "cloud/compressed");
+        this.depthImageTopic = new TopicMetrics(metrics, "depth/image_raw");
+        this.normalCloudTopic = new TopicMetrics(metrics, "cloud_normals");
+        this.worldCloudTopic = new TopicMetrics(metrics, "cloud_world");
+        this.scanTopic = new TopicMetrics(metrics, "scan");
+    }
+
+    /**
+     * Recent map to device poses, to look up the device pose at a sensor timestamp.
+     */
+    public PoseHistory getPoseHistory() {
+        return this.poseHistory;
+    }
+
+    /**
+     * Add a pose to the history. An invalid pose means tracking is lost: the history, planes and
+     * maps restart.
+     */
+    public void onPoseAvailable(double timestamp, boolean valid, double[] translation,
+            double[] rotation) {
+        if (valid) {
+            this.poseHistory.add(timestamp, translation, rotation);
+        } else {
+            this.poseHistory.clear();
+            this.mapsReset = true;
+            this.planesReset = true;
+        }
+    }
+
+    /**
+     * Pose of the depth camera on the device, needed by the stages in the map frame.
+     */
+    public void setDepthCameraExtrinsics(double[] translation, double[] rotation) {
+        System.arraycopy(translation, 0, this.deviceTdepthTranslation, 0, 3);
+        System.arraycopy(rotation, 0, this.deviceTdepthRotation, 0, 4);
+        this.hasExtrinsics = true;
+    }
+
+    /**
+     * Depth camera intrinsics, needed by the depth image.
+     */
+    public void setDepthCameraIntrinsics(int width, int height, double fx, double fy, double cx,
+            double cy) {
+        this.depthImageProjector = new DepthImageProjector(this.workerPool, width, height,
+                fx, fy, cx, cy);
+    }
+
+    /**
+     * Filter published clouds, e.g. by confidence or range, before any downsampling.
+     * Null disables filtering.
+     */
+    public void setPointCloudFilter(PointCloudFilter filter) {
+        this.pointCloudFilter = filter;
+    }
+
+    /**
+     * Downsample published clouds to one point per voxel of the given size, in meters.
+     * A size of zero or less disables downsampling.
+     */
+    public void setVoxelLeafSize(float leafSize) {
+        this.voxelGridFilter = leafSize > 0 ? new VoxelGridFilter(leafSize, this.maxPoints) : null;
+    }
+
+    /**
+     * Also publish the clouds in the map frame, transformed with the depth camera pose at the
+     * cloud timestamp. Clouds without a pose are not published there.
+     */
+    public void setWorldCloudEnabled(boolean enabled) {
+        this.worldCloudEnabled = enabled;
+    }
+
+    /**
+     * Also publish the clouds with their surface normals, estimated from the neighbors within the
+     * given radius, in meters. A radius of zero or less disables it.
+     */
+    public void setNormalRadius(float radius) {
+        this.normalEstimator = radius > 0
+                ? new NormalEstimator(this.workerPool, radius,
+                        NormalEstimator.DEFAULT_MAX_NEIGHBORS, this.maxPoints)
+                : null;
+    }
+
+    /**
+     * Find the floor, walls and ceiling in the clouds.
+     */
+    public void setPlaneSegmentation(boolean enabled) {
+        this.planeSegmenter = enabled ? new PlaneSegmenter(this.workerPool) : null;
+    }
+
+    /**
+     * Quantization step of the compressed clouds, in meters, see {@link PointCloudCodec}, e.g.
+     * {@link PointCloudCodec#DEFAULT_PRECISION}. Zero or less stops publishing them, the default.
+     */
+    public void setCompressedCloudPrecision(float precision) {
+        this.pointCloudCodec = precision > 0 ? new PointCloudCodec(precision) : null;
+    }
+
+    /**
+     * Memory the accumulated point map may use, in bytes. Least recently observed parts of the map
+     * are dropped to stay under it. Zero disables the map. The current map is discarded.
+     */
+    public void setPointMapMemoryBudget(long bytes) {
+        this.pointMap = bytes > 0
+                ? new PointMap(MAP_LEAF_SIZE, MAP_LEAF_RESOLUTION, MAP_POINTS_PER_LEAF, bytes)
+                : null;
+    }
+
+    /**
+     * Accumulate the clouds in a point map with the default memory budget, or stop. Off by
+     * default: the map waits for the depth pose of every cloud on the pipeline thread.
+     */
+    public void setPointMapEnabled(boolean enabled) {
+        this.setPointMapMemoryBudget(enabled ? DEFAULT_MAP_MEMORY_BUDGET : 0);
+    }
+
+    /**
+     * Heights of the obstacles marked in the occupancy grid, in meters in the map frame, Z up
+     * from the device position when the service started. Enables the grid, the current one is
+     * discarded.
+     */
+    public void setObstacleHeightBand(float minHeight, float maxHeight) {
+        this.occupancyGrid = createOccupancyGrid(minHeight, maxHeight);
+    }
+
+    /**
+     * Build the occupancy grid with the default height band, or stop. Off by default: the grid
+     * waits for the depth pose of every cloud on the pipeline thread.
+     */
+    public void setOccupancyGridEnabled(boolean enabled) {
+        this.occupancyGrid = enabled
+                ? createOccupancyGrid(DEFAULT_OBSTACLE_MIN_HEIGHT, DEFAULT_OBSTACLE_MAX_HEIGHT)
+                : null;
+    }
+
+    /**
+     * Heights of the points seen by the virtual laser scan, in meters in the map frame like
+     * {@link #setObstacleHeightBand(float, float)}. Enables the scan.
+     */
+    public void setLaserScanHeightBand(float minHeight, float maxHeight) {
+        this.laserScanProjector = createLaserScan(minHeight, maxHeight);
+    }
+
+    /**
+     * Build the virtual laser scan with the default height band, or stop. Off by default: the
+     * scan waits for the depth pose of every cloud on the pipeline thread.
+     */
+    public void setLaserScanEnabled(boolean enabled) {
+        this.laserScanProjector = enabled
+                ? createLaserScan(DEFAULT_OBSTACLE_MIN_HEIGHT, DEFAULT_OBSTACLE_MAX_HEIGHT)
+                : null;
+    }
+
+    private static LaserScanProjector createLaserScan(float minHeight, float maxHeight) {
+        LaserScanProjector projector = new LaserScanProjector(-SCAN_ANGLE_MAX, SCAN_ANGLE_MAX,
+                SCAN_ANGLE_INCREMENT, SCAN_RANGE_MIN, GRID_MAX_RANGE);
+        projector.setHeightBand(minHeight, maxHeight);
+        return projector;
+    }
+
+    private static OccupancyGridMapper createOccupancyGrid(float minHeight, float maxHeight) {
+        OccupancyGridMapper grid =
+                new OccupancyGridMapper(GRID_RESOLUTION, GRID_SIZE, GRID_MAX_RANGE);
+        grid.setHeightBand(minHeight, maxHeight);
+        return grid;
+    }
+
+    /**
+     * Stop the worker threads and free the native compressor. Call once the pipeline is stopped.
+     */
+    public void release() {
+        PointCloudCodec codec = this.pointCloudCodec;
+        if (codec != null) {
+            codec.release();
+        }
+        this.workerPool.shutdown();
+    }
+
+    /**
+     * Called on the point cloud pipeline thread as soon as a new cloud arrives.
+     */
+    @Override
+    public void onPointCloud(PointCloudFrame frame) {
+        long start = System.nanoTime();
+        this.handoffLatency.record(start - frame.receivedNanos);
+        PointCloudFilter pointCloudFilter = this.pointCloudFilter;
+        if (pointCloudFilter != null) {
+            frame.numPoints = pointCloudFilter.filter(frame.points, frame.numPoints);
+        }
+        // Before the voxel grid, which would leave holes in the image.
+        this.publishDepthImage(frame);
+        VoxelGridFilter voxelGridFilter = this.voxelGridFilter;
+        if (voxelGridFilter != null) {
+            frame.numPoints = voxelGridFilter.filter(frame.points, frame.numPoints);
+        }
+        this.publishPointCloud(frame);
+        this.publishCompressedCloud(frame);
+        NormalEstimator normalEstimator = this.normalEstimator;
+        if (normalEstimator != null) {
+            normalEstimator.estimate(frame.points, frame.numPoints);
+            PointCloudMessages.fillNormalCloud(this.normalCloud, normalEstimator, frame.timestamp);
+            long publishStart = System.nanoTime();
+            this.output.publishNormalCloud(this.normalCloud);
+            this.normalCloudTopic.onPublished(publishStart, this.normalCloud.getData().size());
+        }
+
+        // Map to depth camera, looked up once for the world cloud, scan and maps.
+        PlaneSegmenter planeSegmenter = this.planeSegmenter;
+        LaserScanProjector laserScanProjector = this.laserScanProjector;
+        boolean needsPose = this.worldCloudEnabled || planeSegmenter != null
+                || laserScanProjector != null || this.pointMap != null
+                || this.occupancyGrid != null;
+        boolean hasPose = needsPose && this.hasExtrinsics && this.lookupDepthPose(frame.timestamp);
+        if (hasPose && this.worldCloudEnabled) {
+            this.publishWorldCloud(frame);
+        }
+        if (hasPose && laserScanProjector != null) {
+            laserScanProjector.project(frame.points, frame.numPoints, this.mapTranslation,
+                    this.mapRotation);
+            long publishStart = System.nanoTime();
+            this.output.publishLaserScan(laserScanProjector, frame.timestamp, this.mapTranslation);
+            this.scanTopic.onPublished(publishStart,
+                    (long) laserScanProjector.getRanges().size() * (Float.SIZE / 8));
+        }
+        if (planeSegmenter != null) {
+            this.updatePlanes(planeSegmenter, frame, hasPose);
+        }
+        this.updateMaps(frame, hasPose);
+        this.pipelineLatency.recordSince(start);
+    }
+
+    private void publishPointCloud(PointCloudFrame frame) {
+        long start = System.nanoTime();
+        if (this.pointCloud2 != null) {
+            // The message, its fields and its payload are allocated once and reused.
+            PointCloudMessages.fillPointCloud2(this.pointCloud2, this.pointCloudPacker, frame);
+            long publishStart = System.nanoTime();
+            this.fillCloudLatency.record(publishStart - start);
+            this.output.publishCloud2(this.pointCloud2);
+            this.cloudTopic.onPublished(publishStart, this.pointCloud2.getData().size());
+        } else {
+            PointCloud pointCloud = PointCloudMessages.toPointCloud(frame);
+            long publishStart = System.nanoTime();
+            this.fillCloudLatency.record(publishStart - start);
+            this.output.publishCloud(pointCloud);
+            this.cloudTopic.onPublished(publishStart, (long) frame.numPoints * POINT32_BYTES);
+        }
+        this.cloudLatency.recordSince(frame.receivedNanos);
+    }
+
+    private void publishCompressedCloud(PointCloudFrame frame) {
+        PointCloudCodec codec = this.pointCloudCodec;
+        if (codec != null) {
+            PointCloudMessages.fillCompressedCloud(this.compressedCloud, codec, frame);
+            long start = System.nanoTime();
+            this.output.publishCompressedCloud(this.compressedCloud);
+            this.compressedCloudTopic.onPublished(start, this.compressedCloud.getData().size());
+        }
+    }
+
+    private void publishDepthImage(PointCloudFrame frame) {
+        DepthImageProjector projector = this.depthImageProjector;
+        if (projector == null) {
+            return;
+        }
+        if (projector != this.depthCameraInfoProjector) {
+            this.depthCameraInfo = PointCloudMessages.createDepthCameraInfo(this.depthFrameId,
+                    projector);
+            this.depthCameraInfoProjector = projector;
+        }
+        PointCloudMessages.fillDepthImage(this.depthImage, projector, frame);
+        RosTime.setStamp(this.depthCameraInfo.getHeader().getStamp(), frame.timestamp);
+        long start = System.nanoTime();
+        this.output.publishDepthImage(this.depthImage, this.depthCameraInfo);
+        this.depthImageTopic.onPublished(start, this.depthImage.getData().size());
+    }
+
+    /**
+     * Track the planes of a frame and publish them.
+     */
+    private void updatePlanes(PlaneSegmenter planeSegmenter, PointCloudFrame frame,
+            boolean hasPose) {
+        if (this.planesReset) {
+            this.planesReset = false;
+            planeSegmenter.clear();
+        }
+        if (!hasPose) {
+            return;
+        }
+        planeSegmenter.segment(frame.points, frame.numPoints, this.mapTranslation,
+                this.mapRotation);
+        this.output.publishPlanes(planeSegmenter, frame.timestamp);
+    }
+
+    /**
+     * Publish a frame transformed with the pose in mapTranslation and mapRotation.
+     */
+    private void publishWorldCloud(PointCloudFrame frame) {
+        PointCloudFrame worldFrame = this.worldFrame;
+        worldFrame.ensureCapacity(frame.numPoints);
+        this.worldTransformer.transform(frame.points, worldFrame.points, frame.numPoints,
+                this.mapTranslation, this.mapRotation);
+        worldFrame.timestamp = frame.timestamp;
+        worldFrame.numPoints = frame.numPoints;
+        PointCloudMessages.fillPointCloud2(this.worldCloud2, this.worldPacker, worldFrame);
+        long start = System.nanoTime();
+        this.output.publishWorldCloud(this.worldCloud2);
+        this.worldCloudTopic.onPublished(start, this.worldCloud2.getData().size());
+    }
+
+    /**
+     * Fuse a frame in the point map and the occupancy grid, and publish them every
+     * MAP_PUBLISH_PERIOD.
+     *
+     * @param hasPose Whether mapTranslation and mapRotation hold the depth pose of the frame.
+     */
+    private void updateMaps(PointCloudFrame frame, boolean hasPose) {
+        PointMap pointMap = this.pointMap;
+        OccupancyGridMapper occupancyGrid = this.occupancyGrid;
+        if (pointMap == null && occupancyGrid == null) {
+            return;
+        }
+        if (this.mapsReset) {
+            this.mapsReset = false;
+            if (pointMap != null) {
+                pointMap.clear();
+            }
+            if (occupancyGrid != null) {
+                occupancyGrid.clear();
+            }
+        }
+        if (!hasPose) {
+            return;
+        }
+        if (pointMap != null) {
+            pointMap.insert(frame.points, frame.numPoints, this.mapTranslation, this.mapRotation);
+        }
+        if (occupancyGrid != null) {
+            occupancyGrid.insert(frame.points, frame.numPoints, this.mapTranslation,
+                    this.mapRotation);
+        }
+
+        if (Math.abs(frame.timestamp - this.lastMapTimestamp) < MAP_PUBLISH_PERIOD) {
+            return;
+        }
+        this.lastMapTimestamp = frame.timestamp;
+        if (occupancyGrid != null) {
+            this.output.publishOccupancyGrid(occupancyGrid, frame.timestamp);
+        }
+        if (pointMap != null) {
+            this.publishPointMap(pointMap, frame.timestamp);
+        }
+    }
+
+    private void publishPointMap(PointMap pointMap, double timestamp) {
+        if (this.mapFrame == null) {
+            this.mapFrame = new PointCloudFrame(MAX_MAP_POINTS);
+        }
+        this.mapFrame.timestamp = timestamp;
+        this.mapFrame.numPoints = pointMap.copyPoints(this.mapFrame.points, MAX_MAP_POINTS);
+        PointCloudMessages.fillPointCloud2(this.mapCloud2, this.mapPacker, this.mapFrame);
+        this.output.publishPointMap(this.mapCloud2, pointMap);
+    }
+
+    /**
+     * Map to depth camera pose at the given time, into mapTranslation and mapRotation.
+     */
+    private boolean lookupDepthPose(double timestamp) {
+        for (int retry = 0; !this.poseHistory.getPoseAtTime(timestamp, this.mapTranslation,
+                this.mapRotation); retry++) {
+            if (retry == POSE_WAIT_RETRIES
+                    || !(this.poseHistory.getLatestTimestamp() < timestamp)) {
+                return false;
+            }
+            LockSupport.parkNanos(POSE_WAIT_NANOS);
+        }
+        PoseMath.compose(this.mapTranslation, this.mapRotation,
+                this.deviceTdepthTranslation, this.deviceTdepthRotation,
+                this.mapTranslation, this.mapRotation);
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Applies a rigid transform to XYZC clouds, e.g. from the depth camera frame to
+ * START_OF_SERVICE. Confidence is copied unchanged.
+ * <p>
+ * The pose is turned into a 3 x 4 float matrix once per frame, and the kernel is unrolled by two
+ * points with absolute gets and puts. Big clouds are split over the threads of a
+ * {@link WorkerPool}, small ones run on the caller. Nothing is allocated per frame. Not thread
+ * safe.
+ */
+public class PointCloudTransformer {
+    // Under this size, a slice is not worth waking a thread.
+    public static final int DEFAULT_MIN_SLICE_POINTS = 16384;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private final WorkerPool workerPool;
+    private final int minSlicePoints;
+
+    // Transform of the frame being processed, read by the slices.
+    private float r00, r01, r02, tx;
+    private float r10, r11, r12, ty;
+    private float r20, r21, r22, tz;
+    private FloatBuffer source;
+    private FloatBuffer target;
+
+    private final WorkerPool.Task transformTask = new WorkerPool.Task() {
+        @Override
+        public void run(int slice, int start, int end) {
+            PointCloudTransformer.this.transformPoints(start, end);
+        }
+    };
+
+    public PointCloudTransformer(WorkerPool workerPool) {
+        this(workerPool, DEFAULT_MIN_SLICE_POINTS);
+    }
+
+    /**
+     * @param minSlicePoints Smallest number of points handed to a thread.
+     */
+    public PointCloudTransformer(WorkerPool workerPool, int minSlicePoints) {
+        if (minSlicePoints <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("minSlicePoints = %d must be positive", minSlicePoints));
+        }
+        this.workerPool = workerPool;
+        this.minSlicePoints = minSlicePoints;
+    }
+
+    /**
+     * Transform a cloud, the target may be the source.
+     *
+     * @param translation Position {x, y, z} of the cloud frame in the target frame.
+     * @param rotation    Orientation {x, y, z, w} of the cloud frame in the target frame.
+     * @return Number of slices the cloud was split in.
+     */
+    public int transform(FloatBuffer source, FloatBuffer target, int numPoints,
+            double[] translation, double[] rotation) {
+        if (target.capacity() < numPoints * FLOATS_PER_POINT) {
+            throw new IllegalArgumentException(String.format(
+                    "target holds %d floats, %d points do not fit", target.capacity(), numPoints));
+        }
+        double qx = rotation[0];
+        double qy = rotation[1];
+        double qz = rotation[2];
+        double qw = rotation[3];
+        this.r00 = (float) (1 - 2 * (qy * qy + qz * qz));
+        this.r01 = (float) (2 * (qx * qy - qz * qw));
+        this.r02 = (float) (2 * (qx * qz + qy * qw));
+        this.r10 = (float) (2 * (qx * qy + qz * qw));
+        this.r11 = (float) (1 - 2 * (qx * qx + qz * qz));
+        this.r12 = (float) (2 * (qy * qz - qx * qw));
+        this.r20 = (float) (2 * (qx * qz - qy * qw));
+        this.r21 = (float) (2 * (qy * qz + qx * qw));
+        this.r22 = (float) (1 - 2 * (qx * qx + qy * qy));
+        this.tx = (float) translation[0];
+        this.ty = (float) translation[1];
+        this.tz = (float) translation[2];
+        this.source = source;
+        this.target = target;
+
+        int numSlices = this.workerPool.run(numPoints, this.minSlicePoints, this.transformTask);
+
+        this.source = null;
+        this.target = null;
+        return numSlices;
+    }
+
+    private void transformPoints(int start, int end) {
+        FloatBuffer in = this.source;
+        FloatBuffer out = this.target;
+        // Locals, so the JIT keeps the matrix in registers.
+        float r00 = this.r00, r01 = this.r01, r02 = this.r02, tx = this.tx;
+        float r10 = this.r10, r11 = this.r11, r12 = this.r12, ty = this.ty;
+        float r20 = this.r20, r21 = this.r21, r22 = this.r22, tz = this.tz;
+
+        int i = start * FLOATS_PER_POINT;
+        int pairsEnd = i + ((end - start) & ~1) * FLOATS_PER_POINT;
+        for (; i < pairsEnd; i += 2 * FLOATS_PER_POINT) {
+            float x0 = in.get(i);
+            float y0 = in.get(i + 1);
+            float z0 = in.get(i + 2);
+            float c0 = in.get(i + 3);
+            float x1 = in.get(i + 4);
+            float y1 = in.get(i + 5);
+            float z1 = in.get(i + 6);
+            float c1 = in.get(i + 7);
+            out.put(i, r00 * x0 + r01 * y0 + r02 * z0 + tx);
+            out.put(i + 1, r10 * x0 + r11 * y0 + r12 * z0 + ty);
+            out.put(i + 2, r20 * x0 + r21 * y0 + r22 * z0 + tz);
+            out.put(i + 3, c0);
+            out.put(i + 4, r00 * x1 + r01 * y1 + r02 * z1 + tx);
+            out.put(i + 5, r10 * x1 + r11 * y1 + r12 * z1 + ty);
+            out.put(i + 6, r20 * x1 + r21 * y1 + r22 * z1 + tz);
+            out.put(i + 7, c1);
+        }
+        if (i < end * FLOATS_PER_POINT) {
+            float x = in.get(i);
+            float y = in.get(i + 1);
+            float z = in.get(i + 2);
+            float c = in.get(i + 3);
+            out.put(i, r00 * x + r01 * y + r02 * z + tx);
+            out.put(i + 1, r10 * x + r11 * y + r12 * z + ty);
+            out.put(i + 2, r20 * x + r21 * y + r22 * z + tz);
+            out.put(i + 3, c);
+        }
+    }
+}
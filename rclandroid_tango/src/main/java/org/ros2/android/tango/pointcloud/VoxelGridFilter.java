@@ -0,0 +1,130 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Downsamples a cloud to one point per occupied voxel, placed at the centroid of the voxel points.
+ * Confidence is averaged the same way.
+ * <p>
+ * Voxel coordinates are packed in a long (21 bits per axis) and indexed in a primitive hash map.
+ * All the working memory is kept between frames, so filtering a frame allocates nothing once the
+ * biggest cloud has been seen.
+ */
+public class VoxelGridFilter implements PointCloudFilter {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+
+    private static final int BITS_PER_AXIS = 21;
+    private static final int AXIS_OFFSET = 1 << (BITS_PER_AXIS - 1);
+    private static final int AXIS_MAX = (1 << BITS_PER_AXIS) - 1;
+
+    private final float leafSize;
+    private final float inverseLeafSize;
+
+    private final LongIntHashMap voxels;
+    private float[] sums;
+    private int[] counts;
+
+    public VoxelGridFilter(float leafSize) {
+        this(leafSize, 0);
+    }
+
+    public VoxelGridFilter(float leafSize, int maxPoints) {
+        if (!(leafSize > 0)) {
+            throw new IllegalArgumentException("leafSize must be positive: " + leafSize);
+        }
+        this.leafSize = leafSize;
+        this.inverseLeafSize = 1f / leafSize;
+        this.voxels = new LongIntHashMap(maxPoints);
+        this.sums = new float[maxPoints * FLOATS_PER_POINT];
+        this.counts = new int[maxPoints];
+    }
+
+    public float getLeafSize() {
+        return this.leafSize;
+    }
+
+    @Override
+    public int filter(FloatBuffer points, int numPoints) {
+        this.ensureCapacity(numPoints);
+        this.voxels.clear();
+
+        final float[] sums = this.sums;
+        final int[] counts = this.counts;
+        int numVoxels = 0;
+
+        // Accumulate every point in its voxel.
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = points.get(i);
+            float y = points.get(i + 1);
+            float z = points.get(i + 2);
+            float c = points.get(i + 3);
+
+            long key = this.key(x, y, z);
+            int voxel = this.voxels.putIfAbsent(key, numVoxels);
+            int offset;
+            if (voxel == LongIntHashMap.NO_VALUE) {
+                voxel = numVoxels++;
+                offset = voxel * FLOATS_PER_POINT;
+                sums[offset] = x;
+                sums[offset + 1] = y;
+                sums[offset + 2] = z;
+                sums[offset + 3] = c;
+                counts[voxel] = 1;
+            } else {
+                offset = voxel * FLOATS_PER_POINT;
+                sums[offset] += x;
+                sums[offset + 1] += y;
+                sums[offset + 2] += z;
+                sums[offset + 3] += c;
+                counts[voxel]++;
+            }
+        }
+
+        // Every point has been read, write the centroids back over the input.
+        for (int voxel = 0; voxel < numVoxels; voxel++) {
+            int offset = voxel * FLOATS_PER_POINT;
+            float inverseCount = 1f / counts[voxel];
+            points.put(offset, sums[offset] * inverseCount);
+            points.put(offset + 1, sums[offset + 1] * inverseCount);
+            points.put(offset + 2, sums[offset + 2] * inverseCount);
+            points.put(offset + 3, sums[offset + 3] * inverseCount);
+        }
+        return numVoxels;
+    }
+
+    private long key(float x, float y, float z) {
+        long ix = this.index(x);
+        long iy = this.index(y);
+        long iz = this.index(z);
+        return (ix << (2 * BITS_PER_AXIS)) | (iy << BITS_PER_AXIS) | iz;
+    }
+
+    // Voxel index on one axis, biased to be positive and clamped to BITS_PER_AXIS bits.
+    private int index(float value) {
+        int index = (int) Math.floor(value * this.inverseLeafSize) + AXIS_OFFSET;
+        return Math.min(Math.max(index, 0), AXIS_MAX);
+    }
+
+    private void ensureCapacity(int numPoints) {
+        if (this.counts.length < numPoints) {
+            this.sums = new float[numPoints * FLOATS_PER_POINT];
+            this.counts = new int[numPoints];
+        }
+        this.voxels.ensureCapacity(numPoints);
+    }
+}
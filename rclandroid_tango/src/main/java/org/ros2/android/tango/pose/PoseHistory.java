@@ -0,0 +1,268 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pose;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Recent history of a pose stream, looked up at arbitrary timestamps without locks or JNI.
+ * <p>
+ * A fixed capacity ring of primitive values (timestamp, translation and rotation quaternion per
+ * entry) written by a single thread and read by any number of threads. Every slot carries a
+ * sequence number, odd while the writer updates it, so readers detect a concurrent overwrite and
+ * retry, seqlock style. Values are stored as raw long bits in atomic arrays: Android has no
+ * explicit load fence, and ordered reads are what makes the sequence check valid.
+ * <p>
+ * Lookups interpolate linearly the translation and spherically the rotation between the two
+ * entries around the requested time. Timestamps must be increasing. No Android dependency.
+ */
+public class PoseHistory {
+    private static final int TIMESTAMP = 0;
+    private static final int TRANSLATION = 1;
+    private static final int ROTATION = 4;
+    private static final int VALUES_PER_POSE = 8;
+
+    private static final int MAX_RETRIES = 16;
+    // Under this angle cosine, quaternions are close enough to interpolate linearly.
+    private static final double SLERP_THRESHOLD = 0.9995;
+
+    private final int capacity;
+    private final int mask;
+    private final double maxGap;
+
+    private final AtomicLongArray values;
+    private final AtomicLongArray sequences;
+    // Number of entries written so far, the newest is count - 1.
+    private final AtomicLong count = new AtomicLong();
+    // First entry still readable, moved forward by clear().
+    private volatile long start;
+
+    /**
+     * @param capacity Number of poses kept, rounded up to a power of two.
+     * @param maxGap   Longest time between two poses to interpolate between them, in seconds.
+     */
+    public PoseHistory(int capacity, double maxGap) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.maxGap = maxGap;
+        this.values = new AtomicLongArray(this.capacity * VALUES_PER_POSE);
+        this.sequences = new AtomicLongArray(this.capacity);
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Append a pose. Only one thread may write.
+     *
+     * @param translation {x, y, z}
+     * @param rotation    {x, y, z, w}
+     */
+    public void add(double timestamp, double[] translation, double[] rotation) {
+        long index = this.count.get();
+        int slot = (int) index & this.mask;
+        int base = slot * VALUES_PER_POSE;
+
+        this.sequences.set(slot, 2 * index + 1);
+        this.values.lazySet(base + TIMESTAMP, Double.doubleToRawLongBits(timestamp));
+        for (int i = 0; i < 3; i++) {
+            this.values.lazySet(base + TRANSLATION + i, Double.doubleToRawLongBits(translation[i]));
+        }
+        for (int i = 0; i < 4; i++) {
+            this.values.lazySet(base + ROTATION + i, Double.doubleToRawLongBits(rotation[i]));
+        }
+        this.sequences.set(slot, 2 * index + 2);
+        this.count.set(index + 1);
+    }
+
+    /**
+     * Forget every pose, e.g. when tracking is lost. Only the writer thread may call it.
+     */
+    public void clear() {
+        // Entries stay in the ring but are out of the readable window.
+        this.start = this.count.get();
+    }
+
+    /**
+     * @return Timestamp of the newest pose, NaN when empty.
+     */
+    public double getLatestTimestamp() {
+        for (int retry = 0; retry < MAX_RETRIES; retry++) {
+            long newest = this.count.get() - 1;
+            if (newest < this.start) {
+                return Double.NaN;
+            }
+            double timestamp = this.timestamp(newest);
+            if (this.isStable(newest)) {
+                return timestamp;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Copy the newest pose.
+     *
+     * @return Its timestamp, NaN when empty.
+     */
+    public double getLatestPose(double[] outTranslation, double[] outRotation) {
+        for (int retry = 0; retry < MAX_RETRIES; retry++) {
+            long newest = this.count.get() - 1;
+            if (newest < this.start) {
+                return Double.NaN;
+            }
+            double timestamp = this.timestamp(newest);
+            this.read(newest, outTranslation, outRotation);
+            if (this.isStable(newest)) {
+                return timestamp;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Pose at a given time, interpolated between the surrounding entries.
+     *
+     * @return False when the time is outside of the history or falls in a gap.
+     */
+    public boolean getPoseAtTime(double timestamp, double[] outTranslation, double[] outRotation) {
+        for (int retry = 0; retry < MAX_RETRIES; retry++) {
+            long newest = this.count.get() - 1;
+            // Keep one slot of margin, the writer may be overwriting the oldest one.
+            long oldest = Math.max(this.start, newest - this.capacity + 2);
+            if (newest < oldest) {
+                return false;
+            }
+
+            double newestTimestamp = this.timestamp(newest);
+            double oldestTimestamp = this.timestamp(oldest);
+            // Also rejects NaN.
+            if (!(timestamp >= oldestTimestamp && timestamp <= newestTimestamp)) {
+                if (this.isStable(newest) && this.isStable(oldest)) {
+                    return false;
+                }
+                continue;
+            }
+
+            // Last entry at or before the requested time.
+            long low = oldest;
+            long high = newest;
+            while (low < high) {
+                long middle = (low + high + 1) >>> 1;
+                if (this.timestamp(middle) <= timestamp) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            long before = low;
+            long after = Math.min(before + 1, newest);
+            double t0 = this.timestamp(before);
+            double t1 = this.timestamp(after);
+            double tx0 = this.value(before, TRANSLATION);
+            double ty0 = this.value(before, TRANSLATION + 1);
+            double tz0 = this.value(before, TRANSLATION + 2);
+            double qx0 = this.value(before, ROTATION);
+            double qy0 = this.value(before, ROTATION + 1);
+            double qz0 = this.value(before, ROTATION + 2);
+            double qw0 = this.value(before, ROTATION + 3);
+            double tx1 = this.value(after, TRANSLATION);
+            double ty1 = this.value(after, TRANSLATION + 1);
+            double tz1 = this.value(after, TRANSLATION + 2);
+            double qx1 = this.value(after, ROTATION);
+            double qy1 = this.value(after, ROTATION + 1);
+            double qz1 = this.value(after, ROTATION + 2);
+            double qw1 = this.value(after, ROTATION + 3);
+            // Entries read during the search may have been overwritten, check the bracket.
+            if (!this.isStable(before) || !this.isStable(after)
+                    || timestamp < t0 || (after != before && timestamp > t1)) {
+                continue;
+            }
+
+            if (t1 - t0 > this.maxGap) {
+                return false;
+            }
+            double ratio = t1 > t0 ? (timestamp - t0) / (t1 - t0) : 0;
+
+            outTranslation[PoseMath.X] = tx0 + ratio * (tx1 - tx0);
+            outTranslation[PoseMath.Y] = ty0 + ratio * (ty1 - ty0);
+            outTranslation[PoseMath.Z] = tz0 + ratio * (tz1 - tz0);
+            slerp(qx0, qy0, qz0, qw0, qx1, qy1, qz1, qw1, ratio, outRotation);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions, along the shortest path.
+     */
+    static void slerp(double x0, double y0, double z0, double w0,
+            double x1, double y1, double z1, double w1, double ratio, double[] out) {
+        double cos = x0 * x1 + y0 * y1 + z0 * z1 + w0 * w1;
+        if (cos < 0) {
+            cos = -cos;
+            x1 = -x1;
+            y1 = -y1;
+            z1 = -z1;
+            w1 = -w1;
+        }
+
+        double scale0;
+        double scale1;
+        if (cos > SLERP_THRESHOLD) {
+            scale0 = 1 - ratio;
+            scale1 = ratio;
+        } else {
+            double angle = Math.acos(cos);
+            double inverseSin = 1 / Math.sin(angle);
+            scale0 = Math.sin((1 - ratio) * angle) * inverseSin;
+            scale1 = Math.sin(ratio * angle) * inverseSin;
+        }
+
+        out[PoseMath.X] = scale0 * x0 + scale1 * x1;
+        out[PoseMath.Y] = scale0 * y0 + scale1 * y1;
+        out[PoseMath.Z] = scale0 * z0 + scale1 * z1;
+        out[PoseMath.W] = scale0 * w0 + scale1 * w1;
+        if (cos > SLERP_THRESHOLD) {
+            PoseMath.normalize(out);
+        }
+    }
+
+    private void read(long index, double[] outTranslation, double[] outRotation) {
+        for (int i = 0; i < 3; i++) {
+            outTranslation[i] = this.value(index, TRANSLATION + i);
+        }
+        for (int i = 0; i < 4; i++) {
+            outRotation[i] = this.value(index, ROTATION + i);
+        }
+    }
+
+    private double timestamp(long index) {
+        return this.value(index, TIMESTAMP);
+    }
+
+    private double value(long index, int offset) {
+        return Double.longBitsToDouble(
+                this.values.get(((int) index & this.mask) * VALUES_PER_POSE + offset));
+    }
+
+    // True when the slot still holds the entry index, fully written.
+    private boolean isStable(long index) {
+        return this.sequences.get((int) index & this.mask) == 2 * index + 2;
+    }
+}
@@ -0,0 +1,138 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pose;
+
+/**
+ * Rigid transform helpers over primitive arrays, in the Tango layout: translation {x, y, z} and
+ * rotation quaternion {x, y, z, w}. Results are written into caller arrays, nothing is allocated.
+ * Output arrays may be the same as input arrays.
+ */
+public final class PoseMath {
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int Z = 2;
+    public static final int W = 3;
+
+    private PoseMath() { }
+
+    /**
+     * out = q1 * q2.
+     */
+    public static void multiply(double[] q1, double[] q2, double[] out) {
+        double x = q1[W] * q2[X] + q1[X] * q2[W] + q1[Y] * q2[Z] - q1[Z] * q2[Y];
+        double y = q1[W] * q2[Y] - q1[X] * q2[Z] + q1[Y] * q2[W] + q1[Z] * q2[X];
+        double z = q1[W] * q2[Z] + q1[X] * q2[Y] - q1[Y] * q2[X] + q1[Z] * q2[W];
+        double w = q1[W] * q2[W] - q1[X] * q2[X] - q1[Y] * q2[Y] - q1[Z] * q2[Z];
+        out[X] = x;
+        out[Y] = y;
+        out[Z] = z;
+        out[W] = w;
+    }
+
+    /**
+     * out = q * v * conjugate(q), for a unit quaternion.
+     */
+    public static void rotate(double[] q, double[] v, double[] out) {
+        // t = 2 * cross(q.xyz, v); out = v + w * t + cross(q.xyz, t)
+        double tx = 2 * (q[Y] * v[Z] - q[Z] * v[Y]);
+        double ty = 2 * (q[Z] * v[X] - q[X] * v[Z]);
+        double tz = 2 * (q[X] * v[Y] - q[Y] * v[X]);
+        double x = v[X] + q[W] * tx + (q[Y] * tz - q[Z] * ty);
+        double y = v[Y] + q[W] * ty + (q[Z] * tx - q[X] * tz);
+        double z = v[Z] + q[W] * tz + (q[X] * ty - q[Y] * tx);
+        out[X] = x;
+        out[Y] = y;
+        out[Z] = z;
+    }
+
+    public static void conjugate(double[] q, double[] out) {
+        out[X] = -q[X];
+        out[Y] = -q[Y];
+        out[Z] = -q[Z];
+        out[W] = q[W];
+    }
+
+    /**
+     * (outT, outQ) = (t1, q1) * (t2, q2), the transform t2 expressed in the frame of t1.
+     */
+    public static void compose(double[] t1, double[] q1, double[] t2, double[] q2,
+            double[] outT, double[] outQ) {
+        double tx = t1[X];
+        double ty = t1[Y];
+        double tz = t1[Z];
+        rotate(q1, t2, outT);
+        outT[X] += tx;
+        outT[Y] += ty;
+        outT[Z] += tz;
+        multiply(q1, q2, outQ);
+    }
+
+    /**
+     * (outT, outQ) = inverse of (t, q).
+     */
+    public static void invert(double[] t, double[] q, double[] outT, double[] outQ) {
+        conjugate(q, outQ);
+        rotate(outQ, t, outT);
+        outT[X] = -outT[X];
+        outT[Y] = -outT[Y];
+        outT[Z] = -outT[Z];
+    }
+
+    public static void normalize(double[] q) {
+        double norm = Math.sqrt(q[X] * q[X] + q[Y] * q[Y] + q[Z] * q[Z] + q[W] * q[W]);
+        if (norm > 0) {
+            double inverse = 1 / norm;
+            q[X] *= inverse;
+            q[Y] *= inverse;
+            q[Z] *= inverse;
+            q[W] *= inverse;
+        }
+    }
+
+    /**
+     * Rotation whose columns are the given orthonormal, right handed axes.
+     */
+    public static void fromAxes(double[] xAxis, double[] yAxis, double[] zAxis, double[] out) {
+        double m00 = xAxis[X];
+        double m11 = yAxis[Y];
+        double m22 = zAxis[Z];
+        double trace = m00 + m11 + m22;
+        if (trace > 0) {
+            double s = 2 * Math.sqrt(trace + 1);
+            out[W] = s / 4;
+            out[X] = (yAxis[Z] - zAxis[Y]) / s;
+            out[Y] = (zAxis[X] - xAxis[Z]) / s;
+            out[Z] = (xAxis[Y] - yAxis[X]) / s;
+        } else if (m00 > m11 && m00 > m22) {
+            double s = 2 * Math.sqrt(1 + m00 - m11 - m22);
+            out[W] = (yAxis[Z] - zAxis[Y]) / s;
+            out[X] = s / 4;
+            out[Y] = (yAxis[X] + xAxis[Y]) / s;
+            out[Z] = (zAxis[X] + xAxis[Z]) / s;
+        } else if (m11 > m22) {
+            double s = 2 * Math.sqrt(1 + m11 - m00 - m22);
+            out[W] = (zAxis[X] - xAxis[Z]) / s;
+            out[X] = (yAxis[X] + xAxis[Y]) / s;
+            out[Y] = s / 4;
+            out[Z] = (zAxis[Y] + yAxis[Z]) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + m22 - m00 - m11);
+            out[W] = (xAxis[Y] - yAxis[X]) / s;
+            out[X] = (zAxis[X] + xAxis[Z]) / s;
+            out[Y] = (zAxis[Y] + yAxis[Z]) / s;
+            out[Z] = s / 4;
+        }
+    }
+}
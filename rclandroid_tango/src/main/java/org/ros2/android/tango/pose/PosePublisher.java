@@ -0,0 +1,201 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pose;
+
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geometry_msgs.msg.Quaternion;
+import geometry_msgs.msg.TransformStamped;
+import geometry_msgs.msg.Vector3;
+import nav_msgs.msg.Odometry;
+import tf2_msgs.msg.TFMessage;
+
+/**
+ * Publishes the device motion tracking as /tf and nav_msgs/Odometry, and the depth camera
+ * extrinsics as a static transform.
+ * <p>
+ * Messages are built once and updated in place from the primitive pose arrays, so a pose costs
+ * no allocation. Called from the pose thread of the sensor source.
+ */
+public class PosePublisher {
+    private static final int COVARIANCE_SIZE = 36;
+    // No transient local durability, the static transforms are repeated for late subscribers.
+    private static final double STATIC_PERIOD = 1.0;
+
+    private final Publisher<TFMessage> tfPublisher;
+    private final Publisher<TFMessage> tfStaticPublisher;
+    private final Publisher<Odometry> odomPublisher;
+
+    private final TFMessage tf;
+    private final TransformStamped baseTdevice;
+    private final TFMessage tfStatic;
+    private final TransformStamped deviceTdepth;
+    private final Odometry odometry;
+
+    private boolean hasExtrinsics;
+    private double lastStaticTimestamp = Double.NEGATIVE_INFINITY;
+
+    // Previous pose, to derive the twist.
+    private boolean hasPrevious;
+    private double previousTimestamp;
+    private final double[] previousTranslation = new double[3];
+    private final double[] previousRotation = new double[4];
+    // Scratch.
+    private final double[] vector = new double[3];
+    private final double[] quaternion = new double[4];
+
+    public PosePublisher(Publisher<TFMessage> tfPublisher, Publisher<TFMessage> tfStaticPublisher,
+            Publisher<Odometry> odomPublisher, String baseFrame, String deviceFrame,
+            String depthFrame) {
+        this.tfPublisher = tfPublisher;
+        this.tfStaticPublisher = tfStaticPublisher;
+        this.odomPublisher = odomPublisher;
+
+        this.baseTdevice = createTransform(baseFrame, deviceFrame);
+        this.tf = new TFMessage();
+        this.tf.setTransforms(Collections.singletonList(this.baseTdevice));
+
+        this.deviceTdepth = createTransform(deviceFrame, depthFrame);
+        this.tfStatic = new TFMessage();
+        this.tfStatic.setTransforms(Collections.singletonList(this.deviceTdepth));
+
+        this.odometry = new Odometry();
+        this.odometry.getHeader().setFrameId(baseFrame);
+        this.odometry.setChildFrameId(deviceFrame);
+        this.odometry.getPose().setCovariance(zeros(COVARIANCE_SIZE));
+        this.odometry.getTwist().setCovariance(zeros(COVARIANCE_SIZE));
+    }
+
+    /**
+     * Set the depth camera pose in the device frame.
+     */
+    public synchronized void setDepthCameraExtrinsics(double[] translation, double[] rotation) {
+        setTransform(this.deviceTdepth, translation, rotation);
+        this.hasExtrinsics = true;
+        this.lastStaticTimestamp = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Publish a START_OF_SERVICE to DEVICE pose.
+     *
+     * @param valid       False when tracking is lost, nothing is published.
+     * @param translation {x, y, z}
+     * @param rotation    {x, y, z, w}
+     */
+    public synchronized void onPoseAvailable(double timestamp, boolean valid,
+            double[] translation, double[] rotation) {
+        if (!valid) {
+            this.hasPrevious = false;
+            return;
+        }
+
+        RosTime.setStamp(this.baseTdevice.getHeader().getStamp(), timestamp);
+        setTransform(this.baseTdevice, translation, rotation);
+        this.tfPublisher.publish(this.tf);
+
+        this.publishOdometry(timestamp, translation, rotation);
+
+        if (this.hasExtrinsics && timestamp - this.lastStaticTimestamp >= STATIC_PERIOD) {
+            this.lastStaticTimestamp = timestamp;
+            RosTime.setStamp(this.deviceTdepth.getHeader().getStamp(), timestamp);
+            this.tfStaticPublisher.publish(this.tfStatic);
+        }
+    }
+
+    private void publishOdometry(double timestamp, double[] t, double[] q) {
+        RosTime.setStamp(this.odometry.getHeader().getStamp(), timestamp);
+        geometry_msgs.msg.Pose odomPose = this.odometry.getPose().getPose();
+        odomPose.getPosition().setX(t[PoseMath.X]);
+        odomPose.getPosition().setY(t[PoseMath.Y]);
+        odomPose.getPosition().setZ(t[PoseMath.Z]);
+        setQuaternion(odomPose.getOrientation(), q);
+
+        double dt = timestamp - this.previousTimestamp;
+        Vector3 linear = this.odometry.getTwist().getTwist().getLinear();
+        Vector3 angular = this.odometry.getTwist().getTwist().getAngular();
+        if (this.hasPrevious && dt > 0) {
+            // Linear velocity, expressed in the device frame.
+            this.vector[PoseMath.X] = (t[PoseMath.X] - this.previousTranslation[PoseMath.X]) / dt;
+            this.vector[PoseMath.Y] = (t[PoseMath.Y] - this.previousTranslation[PoseMath.Y]) / dt;
+            this.vector[PoseMath.Z] = (t[PoseMath.Z] - this.previousTranslation[PoseMath.Z]) / dt;
+            PoseMath.conjugate(q, this.quaternion);
+            PoseMath.rotate(this.quaternion, this.vector, this.vector);
+            setVector(linear, this.vector);
+
+            // Angular velocity from the rotation between the two poses, in the device frame.
+            PoseMath.conjugate(this.previousRotation, this.quaternion);
+            PoseMath.multiply(this.quaternion, q, this.quaternion);
+            if (this.quaternion[PoseMath.W] < 0) {
+                this.quaternion[PoseMath.X] = -this.quaternion[PoseMath.X];
+                this.quaternion[PoseMath.Y] = -this.quaternion[PoseMath.Y];
+                this.quaternion[PoseMath.Z] = -this.quaternion[PoseMath.Z];
+                this.quaternion[PoseMath.W] = -this.quaternion[PoseMath.W];
+            }
+            double sinHalf = Math.sqrt(this.quaternion[PoseMath.X] * this.quaternion[PoseMath.X]
+                    + this.quaternion[PoseMath.Y] * this.quaternion[PoseMath.Y]
+                    + this.quaternion[PoseMath.Z] * this.quaternion[PoseMath.Z]);
+            double scale = sinHalf > 1e-9
+                    ? 2 * Math.atan2(sinHalf, this.quaternion[PoseMath.W]) / sinHalf
+                    : 2;
+            this.vector[PoseMath.X] = this.quaternion[PoseMath.X] * scale / dt;
+            this.vector[PoseMath.Y] = this.quaternion[PoseMath.Y] * scale / dt;
+            this.vector[PoseMath.Z] = this.quaternion[PoseMath.Z] * scale / dt;
+            setVector(angular, this.vector);
+        }
+
+        this.hasPrevious = true;
+        this.previousTimestamp = timestamp;
+        System.arraycopy(t, 0, this.previousTranslation, 0, 3);
+        System.arraycopy(q, 0, this.previousRotation, 0, 4);
+
+        this.odomPublisher.publish(this.odometry);
+    }
+
+    private static TransformStamped createTransform(String parent, String child) {
+        TransformStamped transform = new TransformStamped();
+        transform.getHeader().setFrameId(parent);
+        transform.setChildFrameId(child);
+        transform.getTransform().getRotation().setW(1);
+        return transform;
+    }
+
+    private static void setTransform(TransformStamped transform, double[] translation,
+            double[] rotation) {
+        setVector(transform.getTransform().getTranslation(), translation);
+        setQuaternion(transform.getTransform().getRotation(), rotation);
+    }
+
+    private static void setVector(Vector3 vector, double[] values) {
+        vector.setX(values[PoseMath.X]);
+        vector.setY(values[PoseMath.Y]);
+        vector.setZ(values[PoseMath.Z]);
+    }
+
+    private static void setQuaternion(Quaternion quaternion, double[] values) {
+        quaternion.setX(values[PoseMath.X]);
+        quaternion.setY(values[PoseMath.Y]);
+        quaternion.setZ(values[PoseMath.Z]);
+        quaternion.setW(values[PoseMath.W]);
+    }
+
+    private static List<Double> zeros(int size) {
+        return new ArrayList<>(Collections.nCopies(size, 0d));
+    }
+}
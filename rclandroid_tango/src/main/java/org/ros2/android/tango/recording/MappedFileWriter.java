@@ -0,0 +1,169 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Append only file written through memory mapped chunks.
+ * <p>
+ * The next chunk is mapped, and its pages touched, on the mapping thread while the current one
+ * fills, so appending is a copy into memory: no system call and no page fault on the writer
+ * thread. Full chunks are forced to storage on the mapping thread. When it is late, reserve()
+ * fails instead of waiting. Records are 8 bytes aligned and never cross chunks, the end of a
+ * chunk may be left unused. Only one thread may write.
+ */
+class MappedFileWriter {
+    private static final int PAGE_SIZE = 4096;
+    private static final int ALIGNMENT = 8;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final Executor mapper;
+
+    // Owned by the writer thread.
+    private MappedByteBuffer chunk;
+    private FloatBuffer chunkFloats;
+    private long chunkStart;
+    private int position;
+    private int recordPosition;
+
+    // Handed over by the mapping thread.
+    private volatile MappedByteBuffer nextChunk;
+    private volatile IOException error;
+
+    /**
+     * @param chunkSize Bytes mapped at once, a multiple of the page size.
+     * @param mapper    Single thread executor mapping and forcing the chunks.
+     */
+    MappedFileWriter(File path, int chunkSize, Executor mapper) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.chunkSize = chunkSize;
+        this.mapper = mapper;
+        this.mapAhead(0);
+    }
+
+    /**
+     * Reserve room for a record.
+     *
+     * @return Buffer of the chunk holding the record at {@link #getRecordPosition()}, null when
+     *         the next chunk is not mapped yet or the record is larger than a chunk.
+     */
+    ByteBuffer reserve(int size) {
+        if (this.chunk == null || this.position + size > this.chunkSize) {
+            MappedByteBuffer next = this.nextChunk;
+            if (next == null || size > this.chunkSize) {
+                return null;
+            }
+            this.nextChunk = null;
+            if (this.chunk != null) {
+                this.force(this.chunk);
+                this.chunkStart += this.chunkSize;
+            }
+            this.chunk = next;
+            this.chunkFloats = null;
+            this.position = 0;
+            this.mapAhead(this.chunkStart + this.chunkSize);
+        }
+        this.recordPosition = this.position;
+        this.position += (size + ALIGNMENT - 1) & -ALIGNMENT;
+        return this.chunk;
+    }
+
+    /** Position of the last reserved record in its chunk buffer. */
+    int getRecordPosition() {
+        return this.recordPosition;
+    }
+
+    /** Position of the last reserved record in the file. */
+    long getRecordOffset() {
+        return this.chunkStart + this.recordPosition;
+    }
+
+    /**
+     * Float view of the current chunk, for bulk copies of float buffers. Its position is free to
+     * use, index i is at byte 4 * i of the chunk.
+     */
+    FloatBuffer getChunkFloats() {
+        if (this.chunkFloats == null) {
+            this.chunkFloats = this.chunk.asFloatBuffer();
+        }
+        return this.chunkFloats;
+    }
+
+    /**
+     * Force the written data and cut the file to its length. The mapping thread must be done.
+     *
+     * @throws IOException When writing failed, including a failed mapping during the recording.
+     */
+    void close() throws IOException {
+        try {
+            if (this.chunk != null) {
+                this.chunk.force();
+            }
+            this.channel.truncate(this.chunkStart + this.position);
+        } finally {
+            this.chunk = null;
+            this.nextChunk = null;
+            this.file.close();
+        }
+        if (this.error != null) {
+            throw this.error;
+        }
+    }
+
+    private void mapAhead(final long start) {
+        this.mapper.execute(new Runnable() {
+            @Override
+            public void run() {
+                MappedFileWriter.this.map(start);
+            }
+        });
+    }
+
+    private void map(long start) {
+        try {
+            MappedByteBuffer next = this.channel.map(FileChannel.MapMode.READ_WRITE, start,
+                    this.chunkSize);
+            next.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < this.chunkSize; i += PAGE_SIZE) {
+                next.put(i, (byte) 0);
+            }
+            this.nextChunk = next;
+        } catch (IOException e) {
+            this.error = e;
+        }
+    }
+
+    private void force(final MappedByteBuffer full) {
+        this.mapper.execute(new Runnable() {
+            @Override
+            public void run() {
+                full.force();
+            }
+        });
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.recording;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a recording of {@link SessionRecorder}, on the device or on the desktop.
+ * <p>
+ * Indexes are mapped, records are read on demand, so recordings larger than memory open
+ * instantly. Records of a stream are in timestamp order, {@link #findCloud(double)} and its
+ * siblings binary search the index. A recording cut by a crash is readable up to its last
+ * indexed record. Not thread safe.
+ */
+public class SessionReader implements Closeable {
+    /** A recorded TangoPoseData. */
+    public static class Pose {
+        public double timestamp;
+        public int baseFrame;
+        public int targetFrame;
+        public int statusCode;
+        public int confidence;
+        public float accuracy;
+        public final double[] translation = new double[3];
+        public final double[] rotation = new double[4];
+    }
+
+    /** A recorded TangoEvent. */
+    public static class Event {
+        public double timestamp;
+        public int type;
+        public String key;
+        public String value;
+    }
+
+    private final Stream clouds;
+    private final Stream poses;
+    private final Stream events;
+    private ByteBuffer buffer = allocate(SessionRecorder.POSE_BYTES);
+
+    private static class Stream {
+        final RandomAccessFile data;
+        final RandomAccessFile index;
+        final ByteBuffer entries;
+        final int count;
+
+        Stream(File directory, String name) throws IOException {
+            this.data = new RandomAccessFile(
+                    new File(directory, name + SessionRecorder.DATA_EXTENSION), "r");
+            this.index = new RandomAccessFile(
+                    new File(directory, name + SessionRecorder.INDEX_EXTENSION), "r");
+            FileChannel channel = this.index.getChannel();
+            this.entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            // After a crash, the index ends with the zeros of its last mapped chunk.
+            int count = this.entries.capacity() / SessionRecorder.INDEX_ENTRY_BYTES;
+            while (count > 0 && this.timestamp(count - 1) == 0 && this.offset(count - 1) == 0) {
+                count--;
+            }
+            this.count = count;
+        }
+
+        double timestamp(int record) {
+            return this.entries.getDouble(record * SessionRecorder.INDEX_ENTRY_BYTES);
+        }
+
+        long offset(int record) {
+            return this.entries.getLong(record * SessionRecorder.INDEX_ENTRY_BYTES + 8);
+        }
+
+        // Last record at or before the timestamp, -1 when there is none.
+        int find(double timestamp) {
+            int low = 0;
+            int high = this.count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (this.timestamp(middle) <= timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        void close() throws IOException {
+            try {
+                this.data.close();
+            } finally {
+                this.index.close();
+            }
+        }
+    }
+
+    public SessionReader(File directory) throws IOException {
+        this.clouds = new Stream(directory, SessionRecorder.CLOUDS);
+        this.poses = new Stream(directory, SessionRecorder.POSES);
+        this.events = new Stream(directory, SessionRecorder.EVENTS);
+    }
+
+    public int getCloudCount() {
+        return this.clouds.count;
+    }
+
+    public double getCloudTimestamp(int cloud) {
+        return this.clouds.timestamp(cloud);
+    }
+
+    /** Last cloud at or before a timestamp, -1 when there is none. */
+    public int findCloud(double timestamp) {
+        return this.clouds.find(timestamp);
+    }
+
+    /** Number of points of a cloud, to size the buffer of {@link #readCloud(int, FloatBuffer)}. */
+    public int getCloudSize(int cloud) throws IOException {
+        this.read(this.clouds, cloud, SessionRecorder.CLOUD_HEADER_BYTES);
+        return this.buffer.getInt(8);
+    }
+
+    /**
+     * Copy a cloud as XYZC floats at the start of a buffer, its position is left untouched.
+     *
+     * @return Number of points.
+     */
+    public int readCloud(int cloud, FloatBuffer out) throws IOException {
+        int numPoints = this.getCloudSize(cloud);
+        this.read(this.clouds, cloud, SessionRecorder.CLOUD_HEADER_BYTES + numPoints * 16);
+        this.buffer.position(SessionRecorder.CLOUD_HEADER_BYTES);
+        FloatBuffer destination = out.duplicate();
+        destination.position(0);
+        destination.put(this.buffer.asFloatBuffer());
+        return numPoints;
+    }
+
+    public int getPoseCount() {
+        return this.poses.count;
+    }
+
+    public double getPoseTimestamp(int pose) {
+        return this.poses.timestamp(pose);
+    }
+
+    /** Last pose at or before a timestamp, -1 when there is none. */
+    public int findPose(double timestamp) {
+        return this.poses.find(timestamp);
+    }
+
+    public void readPose(int pose, Pose out) throws IOException {
+        this.read(this.poses, pose, SessionRecorder.POSE_BYTES);
+        ByteBuffer buffer = this.buffer;
+        out.timestamp = buffer.getDouble(0);
+        out.baseFrame = buffer.getInt(8);
+        out.targetFrame = buffer.getInt(12);
+        out.statusCode = buffer.getInt(16);
+        out.confidence = buffer.getInt(20);
+        out.accuracy = buffer.getFloat(24);
+        for (int i = 0; i < 3; i++) {
+            out.translation[i] = buffer.getDouble(32 + 8 * i);
+        }
+        for (int i = 0; i < 4; i++) {
+            out.rotation[i] = buffer.getDouble(56 + 8 * i);
+        }
+    }
+
+    public int getEventCount() {
+        return this.events.count;
+    }
+
+    public double getEventTimestamp(int event) {
+        return this.events.timestamp(event);
+    }
+
+    /** Last event at or before a timestamp, -1 when there is none. */
+    public int findEvent(double timestamp) {
+        return this.events.find(timestamp);
+    }
+
+    public Event readEvent(int event) throws IOException {
+        this.read(this.events, event, SessionRecorder.EVENT_HEADER_BYTES);
+        int keyLength = this.buffer.getShort(12) & SessionRecorder.MAX_STRING_BYTES;
+        int valueLength = this.buffer.getShort(14) & SessionRecorder.MAX_STRING_BYTES;
+        this.read(this.events, event,
+                SessionRecorder.EVENT_HEADER_BYTES + keyLength + valueLength);
+
+        Event out = new Event();
+        out.timestamp = this.buffer.getDouble(0);
+        out.type = this.buffer.getInt(8);
+        byte[] bytes = new byte[keyLength + valueLength];
+        this.buffer.position(SessionRecorder.EVENT_HEADER_BYTES);
+        this.buffer.get(bytes);
+        out.key = new String(bytes, 0, keyLength, SessionRecorder.UTF_8);
+        out.value = new String(bytes, keyLength, valueLength, SessionRecorder.UTF_8);
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.clouds.close();
+        } finally {
+            try {
+                this.poses.close();
+            } finally {
+                this.events.close();
+            }
+        }
+    }
+
+    // Read the first bytes of a record into the buffer, from position 0.
+    private void read(Stream stream, int record, int size) throws IOException {
+        if (record < 0 || record >= stream.count) {
+            throw new IndexOutOfBoundsException(
+                    String.format("record = %d, count = %d", record, stream.count));
+        }
+        if (this.buffer.capacity() < size) {
+            this.buffer = allocate(size);
+        }
+        this.buffer.clear();
+        this.buffer.limit(size);
+        FileChannel channel = stream.data.getChannel();
+        long offset = stream.offset(record);
+        while (this.buffer.hasRemaining()) {
+            if (channel.read(this.buffer, offset + this.buffer.position()) < 0) {
+                throw new EOFException("Record " + record + " is truncated");
+            }
+        }
+        this.buffer.flip();
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
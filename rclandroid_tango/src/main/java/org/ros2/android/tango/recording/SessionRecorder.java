@@ -0,0 +1,310 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records what the Tango service delivers, depth clouds, poses and events, for offline replay
+ * with {@link SessionReader}.
+ * <p>
+ * Each stream is a data file of records and an index file of (timestamp, offset) entries, both
+ * appended through memory mapped chunks (see {@link MappedFileWriter}). Recording a cloud copies
+ * the Tango buffer straight into the mapped file, recording never does I/O nor waits on the
+ * calling thread: when storage can not keep up records are dropped and counted. Streams have
+ * their own lock, so a cloud copy does not hold back a pose.
+ * <p>
+ * Little endian layouts, records 8 bytes aligned:
+ * <ul>
+ * <li>index entry: timestamp (double), record offset in the data file (long);</li>
+ * <li>cloud: timestamp (double), number of points (int), padding (int), XYZC floats;</li>
+ * <li>pose: timestamp (double), base frame, target frame, status code, confidence (ints),
+ * accuracy (float), padding (int), translation x y z, rotation x y z w (doubles);</li>
+ * <li>event: timestamp (double), type (int), key and value lengths (unsigned shorts), UTF-8 key
+ * and value.</li>
+ * </ul>
+ * No Android dependency.
+ */
+public class SessionRecorder implements Closeable {
+    public static final String CLOUDS = "clouds";
+    public static final String POSES = "poses";
+    public static final String EVENTS = "events";
+    public static final String DATA_EXTENSION = ".bin";
+    public static final String INDEX_EXTENSION = ".idx";
+
+    static final int INDEX_ENTRY_BYTES = 16;
+    static final int CLOUD_HEADER_BYTES = 16;
+    static final int POSE_BYTES = 88;
+    static final int EVENT_HEADER_BYTES = 16;
+    static final int MAX_STRING_BYTES = 0xFFFF;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Cloud chunks hold a few seconds of depth at 5 Hz, the others minutes.
+    private static final int CLOUD_CHUNK_SIZE = 32 << 20;
+    private static final int POSE_CHUNK_SIZE = 1 << 20;
+    private static final int EVENT_CHUNK_SIZE = 64 << 10;
+    private static final int INDEX_CHUNK_SIZE = 64 << 10;
+    private static final int FLOATS_PER_POINT = 4;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService mapper;
+    private final Stream clouds;
+    private final Stream poses;
+    private final Stream events;
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    /** A data file with its index, written under the stream lock. */
+    private static class Stream {
+        final MappedFileWriter data;
+        final MappedFileWriter index;
+        long count;
+        boolean closed;
+        private ByteBuffer entry;
+
+        Stream(File directory, String name, int chunkSize, ExecutorService mapper)
+                throws IOException {
+            this.data = new MappedFileWriter(new File(directory, name + DATA_EXTENSION), chunkSize,
+                    mapper);
+            this.index = new MappedFileWriter(new File(directory, name + INDEX_EXTENSION),
+                    INDEX_CHUNK_SIZE, mapper);
+        }
+
+        /**
+         * Reserve a record and its index entry.
+         *
+         * @return Buffer of the record at data.getRecordPosition(), null to drop the record.
+         */
+        ByteBuffer begin(int size) {
+            if (this.closed) {
+                return null;
+            }
+            ByteBuffer buffer = this.data.reserve(size);
+            if (buffer == null) {
+                return null;
+            }
+            // A failure here leaves a hole in the data file, only reachable through the index.
+            this.entry = this.index.reserve(INDEX_ENTRY_BYTES);
+            return this.entry != null ? buffer : null;
+        }
+
+        /** Index the record once written. */
+        void commit(double timestamp) {
+            int position = this.index.getRecordPosition();
+            this.entry.putDouble(position, timestamp);
+            this.entry.putLong(position + 8, this.data.getRecordOffset());
+            this.count++;
+        }
+
+        void close() throws IOException {
+            try {
+                this.data.close();
+            } finally {
+                this.index.close();
+            }
+        }
+    }
+
+    /**
+     * Start a recording in a directory, created if needed. Files of a previous recording are
+     * overwritten.
+     */
+    public SessionRecorder(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.mapper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SessionRecorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.clouds = new Stream(directory, CLOUDS, CLOUD_CHUNK_SIZE, this.mapper);
+        this.poses = new Stream(directory, POSES, POSE_CHUNK_SIZE, this.mapper);
+        this.events = new Stream(directory, EVENTS, EVENT_CHUNK_SIZE, this.mapper);
+    }
+
+    /**
+     * Record an XYZC cloud. The position and limit of the buffer are left untouched.
+     *
+     * @return False when the record was dropped.
+     */
+    public boolean recordPointCloud(double timestamp, FloatBuffer points, int numPoints) {
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        synchronized (this.clouds) {
+            ByteBuffer buffer = this.clouds.begin(CLOUD_HEADER_BYTES + numFloats * 4);
+            if (buffer == null) {
+                this.droppedRecords.incrementAndGet();
+                return false;
+            }
+            int position = this.clouds.data.getRecordPosition();
+            buffer.putDouble(position, timestamp);
+            buffer.putInt(position + 8, numPoints);
+
+            // Work on a view so concurrent readers of the Tango buffer are not disturbed.
+            FloatBuffer source = points.duplicate();
+            source.position(0);
+            source.limit(numFloats);
+            FloatBuffer floats = this.clouds.data.getChunkFloats();
+            floats.position((position + CLOUD_HEADER_BYTES) / 4);
+            floats.put(source);
+            this.clouds.commit(timestamp);
+            return true;
+        }
+    }
+
+    /**
+     * Record a pose, fields as in TangoPoseData.
+     *
+     * @return False when the record was dropped.
+     */
+    public boolean recordPose(double timestamp, int baseFrame, int targetFrame, int statusCode,
+            int confidence, float accuracy, double[] translation, double[] rotation) {
+        synchronized (this.poses) {
+            ByteBuffer buffer = this.poses.begin(POSE_BYTES);
+            if (buffer == null) {
+                this.droppedRecords.incrementAndGet();
+                return false;
+            }
+            int position = this.poses.data.getRecordPosition();
+            buffer.putDouble(position, timestamp);
+            buffer.putInt(position + 8, baseFrame);
+            buffer.putInt(position + 12, targetFrame);
+            buffer.putInt(position + 16, statusCode);
+            buffer.putInt(position + 20, confidence);
+            buffer.putFloat(position + 24, accuracy);
+            for (int i = 0; i < 3; i++) {
+                buffer.putDouble(position + 32 + 8 * i, translation[i]);
+            }
+            for (int i = 0; i < 4; i++) {
+                buffer.putDouble(position + 56 + 8 * i, rotation[i]);
+            }
+            this.poses.commit(timestamp);
+            return true;
+        }
+    }
+
+    /**
+     * Record an event, fields as in TangoEvent. Key and value are cut to 65535 bytes.
+     *
+     * @return False when the record was dropped.
+     */
+    public boolean recordEvent(double timestamp, int type, String key, String value) {
+        // Events are rare, encoding them may allocate.
+        byte[] keyBytes = encode(key);
+        byte[] valueBytes = encode(value);
+        synchronized (this.events) {
+            ByteBuffer buffer = this.events.begin(
+                    EVENT_HEADER_BYTES + keyBytes.length + valueBytes.length);
+            if (buffer == null) {
+                this.droppedRecords.incrementAndGet();
+                return false;
+            }
+            int position = this.events.data.getRecordPosition();
+            buffer.putDouble(position, timestamp);
+            buffer.putInt(position + 8, type);
+            buffer.putShort(position + 12, (short) keyBytes.length);
+            buffer.putShort(position + 14, (short) valueBytes.length);
+            int offset = position + EVENT_HEADER_BYTES;
+            for (byte b : keyBytes) {
+                buffer.put(offset++, b);
+            }
+            for (byte b : valueBytes) {
+                buffer.put(offset++, b);
+            }
+            this.events.commit(timestamp);
+            return true;
+        }
+    }
+
+    public long getRecordedClouds() {
+        synchronized (this.clouds) {
+            return this.clouds.count;
+        }
+    }
+
+    public long getRecordedPoses() {
+        synchronized (this.poses) {
+            return this.poses.count;
+        }
+    }
+
+    public long getRecordedEvents() {
+        synchronized (this.events) {
+            return this.events.count;
+        }
+    }
+
+    /** Records lost because storage could not keep up. */
+    public long getDroppedRecords() {
+        return this.droppedRecords.get();
+    }
+
+    /**
+     * Stop recording and flush the files. Records arriving afterwards are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.clouds) {
+            this.clouds.closed = true;
+        }
+        synchronized (this.poses) {
+            this.poses.closed = true;
+        }
+        synchronized (this.events) {
+            this.events.closed = true;
+        }
+
+        this.mapper.shutdown();
+        try {
+            this.mapper.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.clouds.close();
+        } finally {
+            try {
+                this.poses.close();
+            } finally {
+                this.events.close();
+            }
+        }
+    }
+
+    private static byte[] encode(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            byte[] cut = new byte[MAX_STRING_BYTES];
+            System.arraycopy(bytes, 0, cut, 0, MAX_STRING_BYTES);
+            return cut;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,226 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.scan;
+
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+import org.ros2.android.tango.util.FloatArrayList;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Virtual planar laser scan of the points of a depth cloud within a height band, for consumers
+ * that only take sensor_msgs/LaserScan, like 2D SLAM and obstacle avoidance.
+ * <p>
+ * The scan plane is horizontal, at the sensor position, and faces the horizontal direction of
+ * the sensor view, or of its up axis when it looks straight up or down. Each point is rotated
+ * into that plane and binned by bearing in a single pass, keeping the closest range per bin.
+ * Bearings use a polynomial arctangent, accurate to 2e-6 rad, well under a bin. Bins
+ * without points are +Inf, as a laser without return. Ranges live in a reused array, so a scan
+ * costs no allocation. Not thread safe. No Android dependency.
+ */
+public class LaserScanProjector {
+    /** Largest error of {@link #atan2(float, float)}, in radians, 1.97e-6 measured. */
+    public static final double ATAN2_MAX_ERROR = 2e-6;
+
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+    private static final float HALF_PI = (float) (Math.PI / 2);
+    private static final float PI = (float) Math.PI;
+    // Below, the view direction is too close to vertical to give the heading.
+    private static final double MIN_HEADING_NORM = 0.3;
+
+    private final float angleMin;
+    private final float angleIncrement;
+    private final float inverseIncrement;
+    private final int numRanges;
+    private final float rangeMin;
+    private final float rangeMax;
+    private float minHeight = Float.NEGATIVE_INFINITY;
+    private float maxHeight = Float.POSITIVE_INFINITY;
+
+    private final FloatArrayList ranges;
+    private double yaw;
+
+    /**
+     * @param angleMin       Bearing of the first range, in radians, counterclockwise from the
+     *                       sensor heading.
+     * @param angleMax       Bearing of the last range, included when on a bin, in radians.
+     * @param angleIncrement Bin width, in radians.
+     * @param rangeMin       Points closer to the sensor are ignored, in meters.
+     * @param rangeMax       Points further from the sensor are ignored, in meters.
+     */
+    public LaserScanProjector(float angleMin, float angleMax, float angleIncrement,
+            float rangeMin, float rangeMax) {
+        if (!(angleIncrement > 0) || !(angleMax >= angleMin) || !(rangeMin > 0)
+                || !(rangeMax > rangeMin)) {
+            throw new IllegalArgumentException(String.format(
+                    "invalid scan: angles [%f, %f] by %f, ranges [%f, %f]",
+                    angleMin, angleMax, angleIncrement, rangeMin, rangeMax));
+        }
+        this.angleMin = angleMin;
+        this.angleIncrement = angleIncrement;
+        this.inverseIncrement = 1f / angleIncrement;
+        this.numRanges = (int) Math.floor((angleMax - angleMin) / angleIncrement) + 1;
+        this.rangeMin = rangeMin;
+        this.rangeMax = rangeMax;
+        this.ranges = new FloatArrayList(this.numRanges);
+        this.ranges.setSize(this.numRanges);
+    }
+
+    /**
+     * Heights, in the map frame, between which points are seen by the scan.
+     */
+    public void setHeightBand(float minHeight, float maxHeight) {
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Scan a cloud.
+     *
+     * @param cloud       Points in the XYZC layout, read with absolute gets.
+     * @param translation Position {x, y, z} of the sensor in the map frame, Z up.
+     * @param rotation    Orientation {x, y, z, w} of the sensor in the map frame.
+     */
+    public void project(FloatBuffer cloud, int numPoints, double[] translation, double[] rotation) {
+        double qx = rotation[0];
+        double qy = rotation[1];
+        double qz = rotation[2];
+        double qw = rotation[3];
+        double m00 = 1 - 2 * (qy * qy + qz * qz);
+        double m01 = 2 * (qx * qy - qz * qw);
+        double m02 = 2 * (qx * qz + qy * qw);
+        double m10 = 2 * (qx * qy + qz * qw);
+        double m11 = 1 - 2 * (qx * qx + qz * qz);
+        double m12 = 2 * (qy * qz - qx * qw);
+
+        // Sensor Z axis on the floor, else its -Y axis, which is up in the sensor images.
+        double headingX = m02;
+        double headingY = m12;
+        if (Math.hypot(headingX, headingY) < MIN_HEADING_NORM) {
+            headingX = -m01;
+            headingY = -m11;
+        }
+        this.yaw = Math.atan2(headingY, headingX);
+        double cos = Math.cos(this.yaw);
+        double sin = Math.sin(this.yaw);
+
+        // Map rotation, then the yaw back to the scan frame.
+        float r00 = (float) (cos * m00 + sin * m10);
+        float r01 = (float) (cos * m01 + sin * m11);
+        float r02 = (float) (cos * m02 + sin * m12);
+        float r10 = (float) (cos * m10 - sin * m00);
+        float r11 = (float) (cos * m11 - sin * m01);
+        float r12 = (float) (cos * m12 - sin * m02);
+        float r20 = (float) (2 * (qx * qz - qy * qw));
+        float r21 = (float) (2 * (qy * qz + qx * qw));
+        float r22 = (float) (1 - 2 * (qx * qx + qy * qy));
+        float tz = (float) translation[2];
+
+        float minHeight = this.minHeight;
+        float maxHeight = this.maxHeight;
+        float minRangeSquared = this.rangeMin * this.rangeMin;
+        float maxRangeSquared = this.rangeMax * this.rangeMax;
+        float angleMin = this.angleMin;
+        float inverseIncrement = this.inverseIncrement;
+        int numRanges = this.numRanges;
+        // Squared ranges until the end of the pass.
+        float[] ranges = this.ranges.array();
+        Arrays.fill(ranges, 0, numRanges, Float.POSITIVE_INFINITY);
+
+        int numFloats = numPoints * FLOATS_PER_POINT;
+        for (int i = 0; i < numFloats; i += FLOATS_PER_POINT) {
+            float x = cloud.get(i);
+            float y = cloud.get(i + 1);
+            float z = cloud.get(i + 2);
+            float height = r20 * x + r21 * y + r22 * z + tz;
+            // Also skips NaN.
+            if (!(height >= minHeight && height <= maxHeight)) {
+                continue;
+            }
+            float scanX = r00 * x + r01 * y + r02 * z;
+            float scanY = r10 * x + r11 * y + r12 * z;
+            float rangeSquared = scanX * scanX + scanY * scanY;
+            if (!(rangeSquared >= minRangeSquared && rangeSquared <= maxRangeSquared)) {
+                continue;
+            }
+            // Nearest bin center.
+            float bin = (atan2(scanY, scanX) - angleMin) * inverseIncrement + 0.5f;
+            if (!(bin >= 0 && bin < numRanges)) {
+                continue;
+            }
+            int index = (int) bin;
+            if (rangeSquared < ranges[index]) {
+                ranges[index] = rangeSquared;
+            }
+        }
+
+        for (int index = 0; index < numRanges; index++) {
+            // Stays +Inf without points.
+            ranges[index] = (float) Math.sqrt(ranges[index]);
+        }
+    }
+
+    /**
+     * Polynomial {@link Math#atan2(double, double)}, within {@link #ATAN2_MAX_ERROR}. Math.atan2
+     * is a native call on Android, too slow per point.
+     */
+    public static float atan2(float y, float x) {
+        float absX = Math.abs(x);
+        float absY = Math.abs(y);
+        float ratio = Math.min(absX, absY) / Math.max(absX, absY);
+        float s = ratio * ratio;
+        float angle = ratio * (0.99997726f + s * (-0.33262347f + s * (0.19354346f
+                + s * (-0.11643287f + s * (0.05265332f + s * -0.01172120f)))));
+        if (absY > absX) {
+            angle = HALF_PI - angle;
+        }
+        if (x < 0) {
+            angle = PI - angle;
+        }
+        return y < 0 ? -angle : angle;
+    }
+
+    /** Ranges of the last scan, in meters, from angleMin by angleIncrement. */
+    public FloatArrayList getRanges() {
+        return this.ranges;
+    }
+
+    /** Heading of the last scan around Z, in radians in the map frame. */
+    public double getYaw() {
+        return this.yaw;
+    }
+
+    public float getAngleMin() {
+        return this.angleMin;
+    }
+
+    /** Bearing of the last range, in radians. */
+    public float getAngleMax() {
+        return this.angleMin + (this.numRanges - 1) * this.angleIncrement;
+    }
+
+    public float getAngleIncrement() {
+        return this.angleIncrement;
+    }
+
+    public float getRangeMin() {
+        return this.rangeMin;
+    }
+
+    public float getRangeMax() {
+        return this.rangeMax;
+    }
+}
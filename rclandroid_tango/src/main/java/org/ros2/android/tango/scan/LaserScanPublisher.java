@@ -0,0 +1,85 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.scan;
+
+import org.ros2.android.tango.util.RosTime;
+import org.ros2.rcljava.node.topic.Publisher;
+
+import java.util.Collections;
+
+import geometry_msgs.msg.Transform;
+import geometry_msgs.msg.TransformStamped;
+import sensor_msgs.msg.LaserScan;
+import tf2_msgs.msg.TFMessage;
+
+/**
+ * Publishes the scans of a {@link LaserScanProjector} as sensor_msgs/LaserScan, with the
+ * transform of their horizontal frame on /tf at the same stamp. The ranges are the projector
+ * array, so a scan must be published before the projector is reused.
+ * Messages are allocated once and reused.
+ */
+public class LaserScanPublisher {
+    private final Publisher<LaserScan> scanPublisher;
+    private final Publisher<TFMessage> tfPublisher;
+    private final LaserScan scan = new LaserScan();
+    private final TFMessage tf = new TFMessage();
+    private final TransformStamped mapTscan = new TransformStamped();
+    private double lastTimestamp = Double.NaN;
+
+    public LaserScanPublisher(Publisher<LaserScan> scanPublisher, Publisher<TFMessage> tfPublisher,
+            String mapFrame, String scanFrame) {
+        this.scanPublisher = scanPublisher;
+        this.tfPublisher = tfPublisher;
+        this.scan.getHeader().setFrameId(scanFrame);
+        this.scan.setIntensities(Collections.<Float>emptyList());
+        this.mapTscan.getHeader().setFrameId(mapFrame);
+        this.mapTscan.setChildFrameId(scanFrame);
+        this.tf.setTransforms(Collections.singletonList(this.mapTscan));
+    }
+
+    /**
+     * Send the last scan of a projector.
+     *
+     * @param translation Position {x, y, z} of the sensor in the map frame, as given to the
+     *                    projector.
+     */
+    public void publish(LaserScanProjector projector, double timestamp, double[] translation) {
+        RosTime.setStamp(this.mapTscan.getHeader().getStamp(), timestamp);
+        Transform transform = this.mapTscan.getTransform();
+        transform.getTranslation().setX(translation[0]);
+        transform.getTranslation().setY(translation[1]);
+        transform.getTranslation().setZ(translation[2]);
+        double halfYaw = projector.getYaw() / 2;
+        transform.getRotation().setX(0);
+        transform.getRotation().setY(0);
+        transform.getRotation().setZ(Math.sin(halfYaw));
+        transform.getRotation().setW(Math.cos(halfYaw));
+        this.tfPublisher.publish(this.tf);
+
+        RosTime.setStamp(this.scan.getHeader().getStamp(), timestamp);
+        this.scan.setAngleMin(projector.getAngleMin());
+        this.scan.setAngleMax(projector.getAngleMax());
+        this.scan.setAngleIncrement(projector.getAngleIncrement());
+        // All points of a cloud share its timestamp.
+        this.scan.setTimeIncrement(0);
+        double period = timestamp - this.lastTimestamp;
+        this.scan.setScanTime(period > 0 ? (float) period : 0);
+        this.lastTimestamp = timestamp;
+        this.scan.setRangeMin(projector.getRangeMin());
+        this.scan.setRangeMax(projector.getRangeMax());
+        this.scan.setRanges(projector.getRanges());
+        this.scanPublisher.publish(this.scan);
+    }
+}
@@ -0,0 +1,67 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.sensor;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Where device poses and depth clouds come from: the Tango service, or a stand-in such as
+ * {@link SyntheticDepthSource} to run without a Tango device. No Android dependency.
+ */
+public interface SensorSource {
+    /**
+     * Receives the sensor data. Calls of a stream never overlap, but streams may be delivered on
+     * different threads. Callbacks must not block.
+     */
+    interface Listener {
+        /**
+         * DEVICE to CAMERA_DEPTH transform, called before the first cloud.
+         *
+         * @param translation {x, y, z}
+         * @param rotation    {x, y, z, w}
+         */
+        void onDepthCameraExtrinsics(double[] translation, double[] rotation);
+
+        /**
+         * Pinhole model of the depth camera, called before the first cloud. Pixel centers are at
+         * integer coordinates.
+         *
+         * @param fx Focal length, in pixels.
+         * @param cx Principal point, in pixels.
+         */
+        void onDepthCameraIntrinsics(int width, int height, double fx, double fy, double cx,
+                double cy);
+
+        /**
+         * START_OF_SERVICE to DEVICE pose. Arrays are only valid during the call.
+         *
+         * @param valid False when tracking is lost, START_OF_SERVICE then restarts.
+         */
+        void onPoseAvailable(double timestamp, boolean valid, double[] translation,
+                double[] rotation);
+
+        /**
+         * XYZC cloud in the CAMERA_DEPTH frame, the buffer is only valid during the call.
+         */
+        void onPointCloudAvailable(double timestamp, FloatBuffer points, int numPoints);
+    }
+
+    void start(Listener listener);
+
+    /**
+     * Stop delivering data, no callback runs once this returns.
+     */
+    void stop();
+}
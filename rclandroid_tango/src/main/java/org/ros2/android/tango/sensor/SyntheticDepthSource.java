@@ -0,0 +1,396 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.sensor;
+
+import org.ros2.android.tango.pose.PoseMath;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for the Tango service, to run and load test the node without a device.
+ * <p>
+ * The device walks a circle in a closed room furnished with pillars and boxes, looking along its
+ * path. Poses follow the trajectory at the pose rate, and depth clouds are ray cast from the
+ * depth camera at the depth rate: an image ordered grid of rays over a Tango like field of view,
+ * every ray hitting something, with range noise and a confidence falling with depth. Each stream
+ * runs on its own thread at a fixed rate. Clouds which can not be cast in time are skipped and
+ * counted, the rate is never caught up in bursts. Timestamps are seconds since start.
+ * No Android dependency.
+ */
+public class SyntheticDepthSource implements SensorSource {
+    private static final String TAG = "SyntheticDepthSource";
+    private static final double NANOSECS_TO_SECS = 1e-9;
+    private static final int FLOATS_PER_POINT = 4;
+
+    public static final double DEFAULT_DEPTH_RATE = 5;
+    public static final double DEFAULT_POSE_RATE = 100;
+
+    // Depth camera: 4:3 image, 65 by 50 degrees, on the back of the device looking away from the
+    // user (180 degrees around the device X axis).
+    private static final double ASPECT_RATIO = 4.0 / 3.0;
+    private static final double TAN_HALF_HORIZONTAL_FOV = Math.tan(Math.toRadians(65) / 2);
+    private static final double TAN_HALF_VERTICAL_FOV = Math.tan(Math.toRadians(50) / 2);
+    private static final double[] DEPTH_TRANSLATION = { 0, 0, 0 };
+    private static final double[] DEPTH_ROTATION = { 1, 0, 0, 0 };
+    // Device held upright in START_OF_SERVICE, 90 degrees around X.
+    private static final double[] UPRIGHT_ROTATION = { Math.sqrt(0.5), 0, 0, Math.sqrt(0.5) };
+    private static final double RANGE_NOISE = 0.005;
+    private static final double MAX_CONFIDENT_DEPTH = 8;
+
+    // Room of 8 by 6 m, the floor 1.3 m under the device and the ceiling 2.6 m above the floor.
+    private static final double ROOM_HALF_X = 4;
+    private static final double ROOM_HALF_Y = 3;
+    private static final double FLOOR = -1.3;
+    private static final double CEILING = 1.3;
+    private static final int NUM_PILLARS = 6;
+    private static final int NUM_BOXES = 4;
+    // Trajectory: circle around the room center at walking speed, the device bobbing a little.
+    private static final double TRAJECTORY_RADIUS = 1.5;
+    private static final double CLEARANCE = 0.5;
+    private static final double SPEED = 0.5;
+    private static final double BOB_AMPLITUDE = 0.02;
+    private static final double BOB_FREQUENCY = 2;
+
+    private final int numPoints;
+    private final double depthRate;
+    private final double poseRate;
+    private final int width;
+    private final int height;
+
+    // Ray directions at depth 1, per column and row.
+    private final float[] rayX;
+    private final float[] rayY;
+    // Scene, placed once from the seed.
+    private final double[] pillars = new double[NUM_PILLARS * 3];
+    private final double[] boxes = new double[NUM_BOXES * 6];
+
+    private volatile Listener listener;
+    private volatile boolean running;
+    private Thread poseThread;
+    private Thread depthThread;
+    private long startNanos;
+
+    // Owned by the pose thread.
+    private final double[] poseTranslation = new double[3];
+    private final double[] poseRotation = new double[4];
+    // Owned by the depth thread.
+    private final FloatBuffer points;
+    private final double[] depthTranslation = new double[3];
+    private final double[] depthRotation = new double[4];
+    private long noiseState;
+
+    private final AtomicLong generatedClouds = new AtomicLong();
+    private final AtomicLong skippedClouds = new AtomicLong();
+
+    public SyntheticDepthSource(int numPoints) {
+        this(numPoints, DEFAULT_DEPTH_RATE, DEFAULT_POSE_RATE, 0);
+    }
+
+    /**
+     * @param numPoints Points per cloud, Tango devices give up to 60k.
+     * @param depthRate Clouds per second.
+     * @param poseRate  Poses per second.
+     * @param seed      Placement of the furniture and range noise.
+     */
+    public SyntheticDepthSource(int numPoints, double depthRate, double poseRate, long seed) {
+        if (numPoints <= 0 || !(depthRate > 0) || !(poseRate > 0)) {
+            throw new IllegalArgumentException(String.format(
+                    "numPoints = %d, depthRate = %f, poseRate = %f must be positive",
+                    numPoints, depthRate, poseRate));
+        }
+        this.numPoints = numPoints;
+        this.depthRate = depthRate;
+        this.poseRate = poseRate;
+
+        this.width = (int) Math.ceil(Math.sqrt(numPoints * ASPECT_RATIO));
+        this.height = (numPoints + this.width - 1) / this.width;
+        this.rayX = new float[this.width];
+        this.rayY = new float[this.height];
+        for (int u = 0; u < this.width; u++) {
+            this.rayX[u] = (float) (TAN_HALF_HORIZONTAL_FOV * ((u + 0.5) * 2 / this.width - 1));
+        }
+        // Image rows go down, as the depth camera Y axis.
+        for (int v = 0; v < this.height; v++) {
+            this.rayY[v] = (float) (TAN_HALF_VERTICAL_FOV * ((v + 0.5) * 2 / this.height - 1));
+        }
+
+        this.points = ByteBuffer.allocateDirect(numPoints * FLOATS_PER_POINT * Float.SIZE / 8)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        this.noiseState = seed * 0x9E3779B97F4A7C15L + 1;
+        this.placeFurniture(new Random(seed));
+    }
+
+    public int getNumPoints() {
+        return this.numPoints;
+    }
+
+    public double getDepthRate() {
+        return this.depthRate;
+    }
+
+    public double getPoseRate() {
+        return this.poseRate;
+    }
+
+    public long getGeneratedClouds() {
+        return this.generatedClouds.get();
+    }
+
+    /** Clouds not delivered because casting the previous one took longer than the period. */
+    public long getSkippedClouds() {
+        return this.skippedClouds.get();
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (this.running) {
+            return;
+        }
+        this.listener = listener;
+        listener.onDepthCameraExtrinsics(DEPTH_TRANSLATION, DEPTH_ROTATION);
+        // Rays go through the pixel centers of the grid.
+        listener.onDepthCameraIntrinsics(this.width, this.height,
+                this.width / (2 * TAN_HALF_HORIZONTAL_FOV),
+                this.height / (2 * TAN_HALF_VERTICAL_FOV),
+                (this.width - 1) / 2.0, (this.height - 1) / 2.0);
+
+        this.running = true;
+        this.startNanos = System.nanoTime();
+        this.poseThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SyntheticDepthSource.this.loop(SyntheticDepthSource.this.poseRate, false);
+            }
+        }, TAG + "Pose");
+        this.depthThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SyntheticDepthSource.this.loop(SyntheticDepthSource.this.depthRate, true);
+            }
+        }, TAG + "Depth");
+        this.poseThread.start();
+        this.depthThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        for (Thread thread : new Thread[] { this.poseThread, this.depthThread }) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.poseThread = null;
+        this.depthThread = null;
+        this.listener = null;
+    }
+
+    private void loop(double rate, boolean depth) {
+        long period = (long) (1e9 / rate);
+        long next = this.startNanos;
+        while (this.running) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(this, next - now);
+                continue;
+            }
+            if (depth && now - next >= period) {
+                // Too late for this one, go on with the next period.
+                long late = (now - next) / period;
+                this.skippedClouds.addAndGet(late);
+                next += late * period;
+            }
+
+            double timestamp = (next - this.startNanos) * NANOSECS_TO_SECS;
+            if (depth) {
+                this.castCloud(timestamp);
+                this.listener.onPointCloudAvailable(timestamp, this.points, this.numPoints);
+                this.generatedClouds.incrementAndGet();
+            } else {
+                devicePose(timestamp, this.poseTranslation, this.poseRotation);
+                this.listener.onPoseAvailable(timestamp, true, this.poseTranslation,
+                        this.poseRotation);
+            }
+            next += period;
+        }
+    }
+
+    /**
+     * START_OF_SERVICE to DEVICE pose at a time of the trajectory.
+     */
+    static void devicePose(double timestamp, double[] translation, double[] rotation) {
+        double angle = SPEED / TRAJECTORY_RADIUS * timestamp;
+        translation[PoseMath.X] = TRAJECTORY_RADIUS * Math.cos(angle);
+        translation[PoseMath.Y] = TRAJECTORY_RADIUS * Math.sin(angle);
+        translation[PoseMath.Z] = BOB_AMPLITUDE * Math.sin(2 * Math.PI * BOB_FREQUENCY * timestamp);
+
+        // Held upright, then turned to look along the circle tangent.
+        rotation[PoseMath.X] = 0;
+        rotation[PoseMath.Y] = 0;
+        rotation[PoseMath.Z] = Math.sin(angle / 2);
+        rotation[PoseMath.W] = Math.cos(angle / 2);
+        PoseMath.multiply(rotation, UPRIGHT_ROTATION, rotation);
+    }
+
+    private void castCloud(double timestamp) {
+        devicePose(timestamp, this.depthTranslation, this.depthRotation);
+        PoseMath.multiply(this.depthRotation, DEPTH_ROTATION, this.depthRotation);
+
+        // Rotation matrix of the depth camera in START_OF_SERVICE.
+        double x = this.depthRotation[PoseMath.X];
+        double y = this.depthRotation[PoseMath.Y];
+        double z = this.depthRotation[PoseMath.Z];
+        double w = this.depthRotation[PoseMath.W];
+        double m00 = 1 - 2 * (y * y + z * z);
+        double m01 = 2 * (x * y - z * w);
+        double m02 = 2 * (x * z + y * w);
+        double m10 = 2 * (x * y + z * w);
+        double m11 = 1 - 2 * (x * x + z * z);
+        double m12 = 2 * (y * z - x * w);
+        double m20 = 2 * (x * z - y * w);
+        double m21 = 2 * (y * z + x * w);
+        double m22 = 1 - 2 * (x * x + y * y);
+        double ox = this.depthTranslation[PoseMath.X];
+        double oy = this.depthTranslation[PoseMath.Y];
+        double oz = this.depthTranslation[PoseMath.Z];
+
+        FloatBuffer points = this.points;
+        int index = 0;
+        for (int v = 0; index < this.numPoints; v++) {
+            float cy = this.rayY[v];
+            for (int u = 0; u < this.width && index < this.numPoints; u++) {
+                float cx = this.rayX[u];
+                // Ray at depth 1 in the camera, in START_OF_SERVICE.
+                double dx = m00 * cx + m01 * cy + m02;
+                double dy = m10 * cx + m11 * cy + m12;
+                double dz = m20 * cx + m21 * cy + m22;
+                double depth = this.castRay(ox, oy, oz, dx, dy, dz);
+                depth *= 1 + RANGE_NOISE * this.noise();
+
+                int offset = index * FLOATS_PER_POINT;
+                points.put(offset, (float) (cx * depth));
+                points.put(offset + 1, (float) (cy * depth));
+                points.put(offset + 2, (float) depth);
+                points.put(offset + 3, (float) Math.max(0, 1 - depth / MAX_CONFIDENT_DEPTH));
+                index++;
+            }
+        }
+    }
+
+    // Distance to the first hit along the ray, in multiples of the direction.
+    private double castRay(double ox, double oy, double oz, double dx, double dy, double dz) {
+        // The room walls, from the inside.
+        double hit = Double.POSITIVE_INFINITY;
+        if (dx != 0) {
+            hit = Math.min(hit, ((dx > 0 ? ROOM_HALF_X : -ROOM_HALF_X) - ox) / dx);
+        }
+        if (dy != 0) {
+            hit = Math.min(hit, ((dy > 0 ? ROOM_HALF_Y : -ROOM_HALF_Y) - oy) / dy);
+        }
+        if (dz != 0) {
+            hit = Math.min(hit, ((dz > 0 ? CEILING : FLOOR) - oz) / dz);
+        }
+
+        // Pillars from floor to ceiling: vertical cylinders.
+        double a = dx * dx + dy * dy;
+        if (a > 0) {
+            for (int i = 0; i < this.pillars.length; i += 3) {
+                double px = ox - this.pillars[i];
+                double py = oy - this.pillars[i + 1];
+                double radius = this.pillars[i + 2];
+                double b = px * dx + py * dy;
+                double c = px * px + py * py - radius * radius;
+                double discriminant = b * b - a * c;
+                if (discriminant > 0) {
+                    double t = (-b - Math.sqrt(discriminant)) / a;
+                    if (t > 0 && t < hit) {
+                        hit = t;
+                    }
+                }
+            }
+        }
+
+        // Boxes on the floor, slab test.
+        for (int i = 0; i < this.boxes.length; i += 6) {
+            double near = 0;
+            double far = hit;
+            near = Math.max(near, Math.min((this.boxes[i] - ox) / dx, (this.boxes[i + 3] - ox) / dx));
+            far = Math.min(far, Math.max((this.boxes[i] - ox) / dx, (this.boxes[i + 3] - ox) / dx));
+            near = Math.max(near, Math.min((this.boxes[i + 1] - oy) / dy, (this.boxes[i + 4] - oy) / dy));
+            far = Math.min(far, Math.max((this.boxes[i + 1] - oy) / dy, (this.boxes[i + 4] - oy) / dy));
+            near = Math.max(near, Math.min((this.boxes[i + 2] - oz) / dz, (this.boxes[i + 5] - oz) / dz));
+            far = Math.min(far, Math.max((this.boxes[i + 2] - oz) / dz, (this.boxes[i + 5] - oz) / dz));
+            if (near > 0 && near <= far) {
+                hit = near;
+            }
+        }
+        return hit;
+    }
+
+    // Triangular noise in [-1, 1], from a xorshift generator.
+    private double noise() {
+        long state = this.noiseState;
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        this.noiseState = state;
+        return ((state >>> 40) + ((state >>> 16) & 0xFFFFFF)) / (double) (1 << 24) - 1;
+    }
+
+    // Pillars and boxes anywhere in the room but on the trajectory.
+    private void placeFurniture(Random random) {
+        for (int i = 0; i < this.pillars.length; i += 3) {
+            double radius = 0.1 + 0.2 * random.nextDouble();
+            this.placeOffTrajectory(random, radius, this.pillars, i);
+            this.pillars[i + 2] = radius;
+        }
+        double[] center = new double[2];
+        for (int i = 0; i < this.boxes.length; i += 6) {
+            double halfSize = 0.2 + 0.3 * random.nextDouble();
+            this.placeOffTrajectory(random, halfSize * Math.sqrt(2), center, 0);
+            this.boxes[i] = center[0] - halfSize;
+            this.boxes[i + 1] = center[1] - halfSize;
+            this.boxes[i + 2] = FLOOR;
+            this.boxes[i + 3] = center[0] + halfSize;
+            this.boxes[i + 4] = center[1] + halfSize;
+            this.boxes[i + 5] = FLOOR + 0.3 + 0.9 * random.nextDouble();
+        }
+    }
+
+    private void placeOffTrajectory(Random random, double radius, double[] out, int offset) {
+        double x;
+        double y;
+        double distance;
+        do {
+            x = (2 * random.nextDouble() - 1) * (ROOM_HALF_X - radius);
+            y = (2 * random.nextDouble() - 1) * (ROOM_HALF_Y - radius);
+            distance = Math.abs(Math.sqrt(x * x + y * y) - TRAJECTORY_RADIUS);
+        } while (distance < radius + CLEARANCE);
+        out[offset] = x;
+        out[offset + 1] = y;
+    }
+}
@@ -0,0 +1,91 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@link java.util.List} view over a reusable byte array.
+ * Used to hand large uint8[] payloads to ROS messages without boxing a new list every frame:
+ * {@link Byte#valueOf(byte)} is served from the JVM cache, so reading the list allocates nothing.
+ */
+public class ByteArrayList extends AbstractList<Byte> implements RandomAccess {
+
+    private byte[] array;
+    private int size;
+
+    public ByteArrayList() {
+        this(0);
+    }
+
+    public ByteArrayList(int capacity) {
+        this.array = new byte[capacity];
+    }
+
+    /**
+     * Make sure the backing array can hold at least capacity bytes.
+     * The array is only reallocated when it grows, previous content is not kept.
+     *
+     * @return Backing array.
+     */
+    public byte[] ensureCapacity(int capacity) {
+        if (this.array.length < capacity) {
+            this.array = new byte[capacity];
+        }
+        return this.array;
+    }
+
+    /**
+     * Like {@link #ensureCapacity(int)}, but keeps the content, for buffers filled incrementally.
+     * Grows by at least half of the current capacity.
+     *
+     * @return Backing array.
+     */
+    public byte[] growCapacity(int capacity) {
+        if (this.array.length < capacity) {
+            this.array = Arrays.copyOf(this.array,
+                    Math.max(capacity, this.array.length + (this.array.length >> 1)));
+        }
+        return this.array;
+    }
+
+    public byte[] array() {
+        return this.array;
+    }
+
+    public void setSize(int size) {
+        if (size < 0 || size > this.array.length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("size = %d exceeds capacity = %d", size, this.array.length));
+        }
+        this.size = size;
+    }
+
+    @Override
+    public Byte get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException(
+                    String.format("index = %d exceeds size = %d", index, this.size));
+        }
+        return Byte.valueOf(this.array[index]);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+}
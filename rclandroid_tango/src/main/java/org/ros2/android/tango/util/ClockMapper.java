@@ -0,0 +1,77 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.util;
+
+/**
+ * Estimates the offset between the clock stamping some data and a local reference clock.
+ * <p>
+ * Each sample is stamped by its source, then received later on the reference clock, so
+ * (arrival - stamp) is the clock offset plus a positive delivery latency. The estimate keeps the
+ * minimum seen, which converges on the offset, and relaxes slowly so clock drift is followed.
+ * <p>
+ * One thread updates, any thread reads.
+ */
+public class ClockMapper {
+    // Allowed drift between the clocks, in seconds per second.
+    private static final double DEFAULT_RELAXATION = 1e-4;
+
+    private final double relaxation;
+    private volatile double offset = Double.NaN;
+    private double lastArrival;
+
+    public ClockMapper() {
+        this(DEFAULT_RELAXATION);
+    }
+
+    public ClockMapper(double relaxation) {
+        this.relaxation = relaxation;
+    }
+
+    /**
+     * Record a sample stamped at sourceTime by its clock, received at arrivalTime on the
+     * reference clock. Both in seconds.
+     */
+    public void update(double sourceTime, double arrivalTime) {
+        double candidate = arrivalTime - sourceTime;
+        double current = this.offset;
+        if (Double.isNaN(current)) {
+            this.offset = candidate;
+        } else {
+            current += this.relaxation * Math.max(0, arrivalTime - this.lastArrival);
+            this.offset = Math.min(current, candidate);
+        }
+        this.lastArrival = arrivalTime;
+    }
+
+    public boolean isValid() {
+        return !Double.isNaN(this.offset);
+    }
+
+    /**
+     * @return Offset to add to a source time to get a reference time, 0 until the first update.
+     */
+    public double getOffset() {
+        double offset = this.offset;
+        return Double.isNaN(offset) ? 0 : offset;
+    }
+
+    public double toReference(double sourceTime) {
+        return sourceTime + this.getOffset();
+    }
+
+    public double toSource(double referenceTime) {
+        return referenceTime - this.getOffset();
+    }
+}
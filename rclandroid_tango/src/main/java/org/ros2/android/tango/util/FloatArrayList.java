@@ -0,0 +1,76 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.util;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@link java.util.List} view over a reusable float array, the float32[] counterpart
+ * of {@link ByteArrayList}. Only the values read are boxed, when the message is serialized; the
+ * list itself is not rebuilt every frame.
+ */
+public class FloatArrayList extends AbstractList<Float> implements RandomAccess {
+
+    private float[] array;
+    private int size;
+
+    public FloatArrayList() {
+        this(0);
+    }
+
+    public FloatArrayList(int capacity) {
+        this.array = new float[capacity];
+    }
+
+    /**
+     * Make sure the backing array can hold at least capacity floats.
+     * The array is only reallocated when it grows, previous content is not kept.
+     *
+     * @return Backing array.
+     */
+    public float[] ensureCapacity(int capacity) {
+        if (this.array.length < capacity) {
+            this.array = new float[capacity];
+        }
+        return this.array;
+    }
+
+    public float[] array() {
+        return this.array;
+    }
+
+    public void setSize(int size) {
+        if (size < 0 || size > this.array.length) {
+            throw new IndexOutOfBoundsException(
+                    String.format("size = %d exceeds capacity = %d", size, this.array.length));
+        }
+        this.size = size;
+    }
+
+    @Override
+    public Float get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException(
+                    String.format("index = %d exceeds size = %d", index, this.size));
+        }
+        return Float.valueOf(this.array[index]);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+}
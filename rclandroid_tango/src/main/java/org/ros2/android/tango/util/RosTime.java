@@ -0,0 +1,41 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.util;
+
+import builtin_interfaces.msg.Time;
+
+/**
+ * Conversions between Tango timestamps (seconds as double) and ROS stamps.
+ */
+public final class RosTime {
+
+    private static final double SECS_TO_NANOSECS = 1e9;
+
+    private RosTime() { }
+
+    /**
+     * Fill an existing stamp from a Tango timestamp, without allocating.
+     */
+    public static void setStamp(Time stamp, double seconds) {
+        int sec = (int) Math.floor(seconds);
+        int nanosec = (int) Math.round((seconds - sec) * SECS_TO_NANOSECS);
+        if (nanosec >= SECS_TO_NANOSECS) {
+            sec++;
+            nanosec = 0;
+        }
+        stamp.setSec(sec);
+        stamp.setNanosec(nanosec);
+    }
+}
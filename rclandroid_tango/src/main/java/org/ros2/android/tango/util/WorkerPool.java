@@ -0,0 +1,191 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed set of threads running data parallel loops, shared by the processing stages.
+ * <p>
+ * Fork/join over an index range: the range is split in one contiguous slice per thread, the
+ * calling thread runs the first slice and waits for the others. Workers stay parked between
+ * loops, and nothing is allocated per loop. Loops run one at a time, concurrent callers wait
+ * their turn. java.util.concurrent.ForkJoinPool needs API 21. No Android dependency.
+ */
+public class WorkerPool {
+    private static final String TAG = "WorkerPool";
+
+    /**
+     * Body of a loop, called once per slice. Slices of a loop run concurrently.
+     */
+    public interface Task {
+        /**
+         * @param slice Slice index, from 0 to the number of slices of the loop.
+         * @param start First index of the slice.
+         * @param end   Index after the last one of the slice.
+         */
+        void run(int slice, int start, int end);
+    }
+
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    // Current loop, written by the caller before the generation is incremented.
+    private Task task;
+    private int count;
+    private int numSlices;
+    private Thread caller;
+    private volatile int generation;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Throwable failure;
+
+    /**
+     * @param parallelism Number of threads running a loop, the calling thread included.
+     */
+    public WorkerPool(int parallelism) {
+        this.workers = new Thread[Math.max(1, parallelism) - 1];
+        for (int i = 0; i < this.workers.length; i++) {
+            final int slice = i + 1;
+            this.workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    WorkerPool.this.work(slice);
+                }
+            }, TAG + slice);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * One thread per core.
+     */
+    public static int getDefaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getParallelism() {
+        return this.workers.length + 1;
+    }
+
+    /**
+     * Number of slices a loop over count indexes is split in.
+     *
+     * @param minSliceSize Smallest slice worth a thread.
+     */
+    public int getNumSlices(int count, int minSliceSize) {
+        return Math.max(1, Math.min(this.getParallelism(), count / Math.max(1, minSliceSize)));
+    }
+
+    /**
+     * Run a task over [0, count) and wait for every slice.
+     *
+     * @param minSliceSize Smallest slice worth a thread, small loops run on the caller only.
+     * @return Number of slices the loop was split in.
+     */
+    public synchronized int run(int count, int minSliceSize, Task task) {
+        int numSlices = this.getNumSlices(count, minSliceSize);
+        if (numSlices == 1 || !this.running) {
+            task.run(0, 0, count);
+            return 1;
+        }
+
+        this.task = task;
+        this.count = count;
+        this.numSlices = numSlices;
+        this.caller = Thread.currentThread();
+        this.pending.set(this.workers.length);
+        this.generation++;
+        for (Thread worker : this.workers) {
+            LockSupport.unpark(worker);
+        }
+
+        // The workers must be done before anything propagates, even an Error.
+        Throwable error = null;
+        try {
+            task.run(0, 0, sliceStart(count, numSlices, 1));
+        } catch (Throwable e) {
+            error = e;
+        }
+        while (this.pending.get() != 0) {
+            LockSupport.park(this);
+        }
+
+        this.task = null;
+        this.caller = null;
+        if (error == null) {
+            error = this.failure;
+        }
+        this.failure = null;
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return numSlices;
+    }
+
+    /**
+     * Stop the workers. Loops run afterwards execute on the calling thread.
+     * Synchronized with run(), so a loop is either finished or never seen by the workers.
+     */
+    public synchronized void shutdown() {
+        this.running = false;
+        for (Thread worker : this.workers) {
+            LockSupport.unpark(worker);
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void work(int slice) {
+        int seen = 0;
+        while (true) {
+            int generation = this.generation;
+            if (generation == seen) {
+                // A published loop is always run first, its caller waits for it.
+                if (!this.running) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            seen = generation;
+
+            Thread caller = this.caller;
+            try {
+                if (slice < this.numSlices) {
+                    this.task.run(slice, sliceStart(this.count, this.numSlices, slice),
+                            sliceStart(this.count, this.numSlices, slice + 1));
+                }
+            } catch (Throwable e) {
+                this.failure = e;
+            } finally {
+                if (this.pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+
+    private static int sliceStart(int count, int numSlices, int slice) {
+        return (int) ((long) count * slice / numSlices);
+    }
+}
@@ -18,6 +18,12 @@ import android.view.MotionEvent;
 
 import com.google.tango.support.TangoPointCloudManager;
 
+import org.ros2.android.tango.map.PointChunk;
+import org.ros2.android.tango.pointcloud.PointCloudFilter;
+import org.ros2.android.tango.pose.PoseHistory;
+
+import java.util.List;
+
 public interface TangoPointCloudRenderer {
     TangoPointCloudManager getPointCloudManager();
 
@@ -34,4 +40,26 @@ public interface TangoPointCloudRenderer {
     void setConnected(boolean value);
 
     void setupRenderer();
+
+    /**
+     * Filter the rendered depth clouds, null to disable. Renderers which do not draw the depth
+     * cloud, like the OpenGL one, ignore it; filter the published clouds with
+     * TangoNode.setPointCloudFilter instead.
+     */
+    void setPointCloudFilter(PointCloudFilter filter);
+
+    void setPoseHistory(PoseHistory poseHistory);
+
+    void setDepthCameraExtrinsics(double[] translation, double[] rotation);
+
+    /**
+     * Show the accumulated map, as the chunks changed since the last call, empty ones being
+     * removed. Points are XYZC in the START_OF_SERVICE frame.
+     */
+    void updateMapChunks(List<PointChunk> chunks);
+
+    /**
+     * Height of the detected floor in START_OF_SERVICE, z up, to lay the ground grid on.
+     */
+    void setFloorHeight(double height);
 }
@@ -66,6 +66,13 @@ public class OpenGlCameraPreview {
         mMesh.setTextureCoords(textureCoords);
     }
 
+    /**
+     * Texture coordinates of the quad corners: bottom right, bottom left, top right, top left.
+     */
+    public void setTextureCoords(float[] textureCoords) {
+        mMesh.setTextureCoords(textureCoords);
+    }
+
     public void setUpProgramAndBuffers() {
         createTextures();
         mMesh.createVbos();
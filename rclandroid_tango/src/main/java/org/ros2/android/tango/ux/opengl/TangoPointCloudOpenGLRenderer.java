@@ -27,8 +27,13 @@ import com.google.atap.tangoservice.TangoPoseData;
 import com.google.tango.support.TangoPointCloudManager;
 import com.google.tango.support.TangoSupport;
 
+import org.ros2.android.tango.map.PointChunk;
+import org.ros2.android.tango.pointcloud.PointCloudFilter;
+import org.ros2.android.tango.pose.PoseHistory;
 import org.ros2.android.tango.ux.TangoPointCloudRenderer;
 
+import java.util.List;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -217,6 +222,34 @@ public class TangoPointCloudOpenGLRenderer implements GLSurfaceView.Renderer, Ta
 
     }
 
+    /**
+     * Unsupported, this renderer does not draw the depth cloud.
+     */
+    @Override
+    public void setPointCloudFilter(PointCloudFilter filter) {
+
+    }
+
+    @Override
+    public void setPoseHistory(PoseHistory poseHistory) {
+
+    }
+
+    @Override
+    public void setDepthCameraExtrinsics(double[] translation, double[] rotation) {
+
+    }
+
+    @Override
+    public void updateMapChunks(List<PointChunk> chunks) {
+
+    }
+
+    @Override
+    public void setFloorHeight(double height) {
+
+    }
+
 
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
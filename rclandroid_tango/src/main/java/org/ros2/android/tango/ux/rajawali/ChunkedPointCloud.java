@@ -0,0 +1,210 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.ux.rajawali;
+
+import org.rajawali3d.Object3D;
+import org.rajawali3d.cameras.Camera;
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.math.Quaternion;
+import org.ros2.android.tango.map.PointChunk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Large point sets rendered as independent chunks, each in its own vertex buffer.
+ * <p>
+ * Only changed chunks are uploaded. Every frame, chunks outside of the camera frustum are hidden,
+ * and visible ones draw a prefix of their points sized on their projection on screen: chunks
+ * sorted by level of detail (see {@link PointChunk}) give an evenly spread subset, so far chunks
+ * cost a fraction of their points without any upload. All chunks share one material which colors
+ * the points by their Z. Must be used from the OpenGL thread.
+ */
+public class ChunkedPointCloud extends Object3D {
+    private static final int FLOATS_PER_POINT = 4;
+    private static final int MIN_CAPACITY = 1024;
+    // Points drawn per point sized square of the chunk projection, about two surfaces through it.
+    private static final double POINTS_PER_SQUARE = 2;
+
+    private static class Chunk {
+        Points points;
+        int index;
+        int numPoints;
+        float[] bounds;
+        int[] levelEnds;
+    }
+
+    private final Map<Long, Chunk> mChunks = new HashMap<>();
+    // Same chunks, iterated every frame without allocation.
+    private final List<Chunk> mChunkList = new ArrayList<>();
+    private final Material mMaterial = new DepthColorMaterial(Points.POINT_SIZE);
+    private final ViewFrustum mFrustum = new ViewFrustum();
+    // Transform of the cloud in the scene, column major.
+    private final double[] mModel = new double[16];
+    private FloatBuffer mStaging;
+
+    private int mNumPoints;
+    private int mDrawnPoints;
+    private int mVisibleChunks;
+
+    /**
+     * @param rotation Orientation {x, y, z, w} of the chunk frame in the scene.
+     */
+    public ChunkedPointCloud(double[] rotation) {
+        double x = rotation[0];
+        double y = rotation[1];
+        double z = rotation[2];
+        double w = rotation[3];
+        this.mModel[0] = 1 - 2 * (y * y + z * z);
+        this.mModel[1] = 2 * (x * y + z * w);
+        this.mModel[2] = 2 * (x * z - y * w);
+        this.mModel[4] = 2 * (x * y - z * w);
+        this.mModel[5] = 1 - 2 * (x * x + z * z);
+        this.mModel[6] = 2 * (y * z + x * w);
+        this.mModel[8] = 2 * (x * z + y * w);
+        this.mModel[9] = 2 * (y * z - x * w);
+        this.mModel[10] = 1 - 2 * (x * x + y * y);
+        this.mModel[15] = 1;
+        // Conjugating the Quaternion is needed because Rajawali uses left-handed convention.
+        this.setOrientation(new Quaternion(w, x, y, z).conjugate());
+    }
+
+    /**
+     * Upload changed chunks, and drop removed ones.
+     */
+    public void updateChunks(List<PointChunk> updates) {
+        for (int i = 0; i < updates.size(); i++) {
+            PointChunk update = updates.get(i);
+            Chunk chunk = this.mChunks.get(update.key);
+            if (chunk != null && (update.numPoints == 0
+                    || chunk.points.getMaxNumberOfPoints() < update.numPoints)) {
+                this.removeChunk(update.key, chunk);
+                chunk = null;
+            }
+            if (update.numPoints == 0) {
+                continue;
+            }
+            if (chunk == null) {
+                chunk = this.addChunk(update.key, update.numPoints);
+            }
+
+            int numFloats = update.numPoints * FLOATS_PER_POINT;
+            if (this.mStaging == null || this.mStaging.capacity() < numFloats) {
+                this.mStaging = ByteBuffer.allocateDirect(numFloats * Float.SIZE / 8)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+            }
+            this.mStaging.clear();
+            this.mStaging.put(update.points, 0, numFloats);
+            this.mStaging.rewind();
+            chunk.points.updatePoints(update.numPoints, this.mStaging);
+
+            this.mNumPoints += update.numPoints - chunk.numPoints;
+            chunk.numPoints = update.numPoints;
+            chunk.bounds = update.bounds;
+            chunk.levelEnds = update.levelEnds;
+        }
+    }
+
+    /**
+     * Cull the chunks and pick their level of detail for the current camera.
+     */
+    public void updateLevelOfDetail(Camera camera, int viewportHeight) {
+        this.mFrustum.set(camera.getProjectionMatrix().getDoubleValues(),
+                camera.getViewMatrix().getDoubleValues(), this.mModel, viewportHeight);
+        double pointsPerUnit = this.mFrustum.getPixelsPerUnit() / Points.POINT_SIZE;
+
+        this.mDrawnPoints = 0;
+        this.mVisibleChunks = 0;
+        for (int i = 0; i < this.mChunkList.size(); i++) {
+            Chunk chunk = this.mChunkList.get(i);
+            float[] b = chunk.bounds;
+            if (!this.mFrustum.intersects(b[0], b[1], b[2], b[3], b[4], b[5])) {
+                chunk.points.setVisible(false);
+                continue;
+            }
+
+            double sizeX = b[3] - b[0];
+            double sizeY = b[4] - b[1];
+            double sizeZ = b[5] - b[2];
+            double radius = 0.5 * Math.sqrt(sizeX * sizeX + sizeY * sizeY + sizeZ * sizeZ);
+            double depth = this.mFrustum.depth(b[0] + 0.5 * sizeX, b[1] + 0.5 * sizeY,
+                    b[2] + 0.5 * sizeZ);
+            int drawn = chunk.numPoints;
+            // All points when the camera is close or inside.
+            if (depth > radius) {
+                double size = 2 * radius * pointsPerUnit / depth;
+                double wanted = POINTS_PER_SQUARE * size * size;
+                for (int end : chunk.levelEnds) {
+                    if (end >= wanted) {
+                        drawn = end;
+                        break;
+                    }
+                }
+            }
+            chunk.points.setDrawnPointCount(drawn);
+            chunk.points.setVisible(true);
+            this.mDrawnPoints += drawn;
+            this.mVisibleChunks++;
+        }
+    }
+
+    public int getNumChunks() {
+        return this.mChunkList.size();
+    }
+
+    public int getNumPoints() {
+        return this.mNumPoints;
+    }
+
+    /** Points drawn in the last frame, after culling and level of detail. */
+    public int getDrawnPoints() {
+        return this.mDrawnPoints;
+    }
+
+    public int getVisibleChunks() {
+        return this.mVisibleChunks;
+    }
+
+    private Chunk addChunk(long key, int numPoints) {
+        // Room to grow, chunks are only recreated when their size doubles.
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(numPoints - 1) << 1);
+        Chunk chunk = new Chunk();
+        chunk.points = new Points(capacity, FLOATS_PER_POINT, false);
+        chunk.points.setMaterial(this.mMaterial);
+        chunk.index = this.mChunkList.size();
+        this.mChunkList.add(chunk);
+        this.mChunks.put(key, chunk);
+        this.addChild(chunk.points);
+        return chunk;
+    }
+
+    private void removeChunk(long key, Chunk chunk) {
+        this.mChunks.remove(key);
+        Chunk last = this.mChunkList.remove(this.mChunkList.size() - 1);
+        if (last != chunk) {
+            last.index = chunk.index;
+            this.mChunkList.set(chunk.index, last);
+        }
+        this.removeChild(chunk.points);
+        chunk.points.destroy();
+        this.mNumPoints -= chunk.numPoints;
+    }
+}
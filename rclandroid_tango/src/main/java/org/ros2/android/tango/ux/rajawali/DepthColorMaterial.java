@@ -0,0 +1,104 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.ux.rajawali;
+
+import android.opengl.GLES20;
+
+import org.rajawali3d.materials.Material;
+import org.rajawali3d.materials.shaders.FragmentShader;
+import org.rajawali3d.materials.shaders.VertexShader;
+
+/**
+ * Colors XYZC points by depth on the GPU, with the palette of {@link PointCloud}: the hue goes
+ * from {@link PointCloud#HUE_BEGIN} to {@link PointCloud#HUE_END} over 0 to
+ * {@link PointCloud#CLOUD_MAX_Z} meters. The confidence channel scales the point size, from half
+ * to full size. Only the vertex buffer is needed, no color buffer is uploaded.
+ */
+public class DepthColorMaterial extends Material {
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n"
+            + "uniform float uPointSize;\n"
+            // Hue begin and range in turns, inverse of the maximum depth.
+            + "uniform vec3 uDepthPalette;\n"
+            + "attribute vec4 aPosition;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "    gl_Position = uMVPMatrix * vec4(aPosition.xyz, 1.0);\n"
+            + "    float depth = clamp(aPosition.z * uDepthPalette.z, 0.0, 1.0);\n"
+            + "    float hue = uDepthPalette.x + depth * uDepthPalette.y;\n"
+            // HSV to RGB with full saturation and value.
+            + "    vec3 rgb = clamp(abs(mod(hue * 6.0 + vec3(0.0, 4.0, 2.0), 6.0) - 3.0) - 1.0, 0.0, 1.0);\n"
+            + "    vColor = vec4(rgb, 1.0);\n"
+            + "    gl_PointSize = uPointSize * (0.5 + 0.5 * clamp(aPosition.w, 0.0, 1.0));\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = vColor;\n"
+            + "}\n";
+
+    private static final int FLOATS_PER_POINT = 4;
+    private static final float DEGREES_PER_TURN = 360;
+
+    public DepthColorMaterial(float pointSize) {
+        super(new DepthVertexShader(pointSize), new FragmentShader(FRAGMENT_SHADER));
+    }
+
+    private static class DepthVertexShader extends VertexShader {
+        private final float mPointSize;
+        private int mPointSizeHandle;
+        private int mDepthPaletteHandle;
+        private int mPositionHandle;
+
+        DepthVertexShader(float pointSize) {
+            super(VERTEX_SHADER);
+            this.mPointSize = pointSize;
+        }
+
+        @Override
+        public void setLocations(int programHandle) {
+            super.setLocations(programHandle);
+            this.mPointSizeHandle = GLES20.glGetUniformLocation(programHandle, "uPointSize");
+            this.mDepthPaletteHandle = GLES20.glGetUniformLocation(programHandle, "uDepthPalette");
+            this.mPositionHandle = GLES20.glGetAttribLocation(programHandle, "aPosition");
+        }
+
+        @Override
+        public void applyParams() {
+            super.applyParams();
+            GLES20.glUniform1f(this.mPointSizeHandle, this.mPointSize);
+            GLES20.glUniform3f(this.mDepthPaletteHandle,
+                    PointCloud.HUE_BEGIN / DEGREES_PER_TURN,
+                    (PointCloud.HUE_END - PointCloud.HUE_BEGIN) / DEGREES_PER_TURN,
+                    1 / PointCloud.CLOUD_MAX_Z);
+        }
+
+        /**
+         * Bind the four components of each point, the default binding skips the confidence.
+         */
+        @Override
+        public void setVertices(int vertexBufferHandle, int type, int stride, int offset) {
+            if (this.mPositionHandle < 0) {
+                return;
+            }
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle);
+            GLES20.glVertexAttribPointer(this.mPositionHandle, FLOATS_PER_POINT, type, false, stride,
+                    offset);
+            GLES20.glEnableVertexAttribArray(this.mPositionHandle);
+        }
+    }
+}
@@ -17,75 +17,122 @@ package org.ros2.android.tango.ux.rajawali;
 import android.graphics.Color;
 
 import org.rajawali3d.materials.Material;
+import org.ros2.android.tango.pointcloud.PointCloudFilter;
 
 import java.nio.FloatBuffer;
 
 /**
  * Renders a point cloud using colors to indicate distance to the depth sensor.
  * Coloring is based on the light spectrum: closest points are in red, farthest in violet.
+ * Colors are computed on the CPU and uploaded as a second buffer, or by the shaders of
+ * {@link DepthColorMaterial} from the vertex buffer alone.
  */
 public class PointCloud extends Points {
     // Maximum depth range used to calculate coloring (min = 0).
     public static final float CLOUD_MAX_Z = 5;
 
     private float[] mColorArray;
-    private final int[] mPalette;
     public static final int PALETTE_SIZE = 360;
     public static final float HUE_BEGIN = 0;
     public static final float HUE_END = 320;
+    // Depth to palette index, as a multiply.
+    private static final float PALETTE_SCALE = PALETTE_SIZE / CLOUD_MAX_Z;
+    // Palette colors as RGBA floats in [0, 1], 4 floats per entry.
+    private final float[] mPaletteRgba;
+
+    private PointCloudFilter mFilter;
+    private final boolean mShaderColors;
 
     public PointCloud(int maxPoints, int floatsPerPoint) {
-        super(maxPoints, floatsPerPoint, true);
-        this.mPalette = createPalette();
+        this(maxPoints, floatsPerPoint, false);
+    }
+
+    /**
+     * @param shaderColors Compute colors in the shaders, points must be in XYZC format.
+     */
+    public PointCloud(int maxPoints, int floatsPerPoint, boolean shaderColors) {
+        super(maxPoints, floatsPerPoint, !shaderColors);
+        this.mShaderColors = shaderColors;
+        if (shaderColors) {
+            this.mPaletteRgba = null;
+            this.setMaterial(new DepthColorMaterial(POINT_SIZE));
+            return;
+        }
+
+        this.mPaletteRgba = createPalette();
         this.mColorArray = new float[maxPoints * 4];
         Material m = new Material();
         m.useVertexColors(true);
         this.setMaterial(m);
     }
 
+    /**
+     * Filter applied in place to the clouds before coloring and upload, null to disable.
+     */
+    public void setFilter(PointCloudFilter filter) {
+        this.mFilter = filter;
+    }
+
     /**
      * Update the points and colors in the point cloud.
+     * When a filter is set, the buffer is compacted in place.
+     *
+     * @return Number of points left in the buffer.
      */
-    public void updateCloud(int pointCount, FloatBuffer pointBuffer) {
-        this.calculateColors(pointCount, pointBuffer);
-        this.updatePoints(pointCount, pointBuffer, mColorArray);
+    public int updateCloud(int pointCount, FloatBuffer pointBuffer) {
+        if (this.mFilter != null) {
+            pointCount = this.mFilter.filter(pointBuffer, pointCount);
+        }
+        if (this.mShaderColors) {
+            this.updatePoints(pointCount, pointBuffer);
+        } else {
+            this.calculateColors(pointCount, pointBuffer);
+            this.updatePoints(pointCount, pointBuffer, mColorArray);
+        }
+        return pointCount;
     }
 
     /**
-     * Pre-calculate a palette to be used to translate between point distance and RGB color.
+     * Pre-calculate a palette to be used to translate between point distance and RGBA color.
      */
-    private int[] createPalette() {
-        int[] palette = new int[PALETTE_SIZE];
+    private float[] createPalette() {
+        float[] palette = new float[PALETTE_SIZE * 4];
         float[] hsv = new float[3];
         hsv[1] = hsv[2] = 1;
         for (int i = 0; i < PALETTE_SIZE; i++) {
             hsv[0] = (HUE_END - HUE_BEGIN) * i / PALETTE_SIZE + HUE_BEGIN;
-            palette[i] = Color.HSVToColor(hsv);
+            int color = Color.HSVToColor(hsv);
+            palette[i * 4] = Color.red(color) / 255f;
+            palette[i * 4 + 1] = Color.green(color) / 255f;
+            palette[i * 4 + 2] = Color.blue(color) / 255f;
+            palette[i * 4 + 3] = Color.alpha(color) / 255f;
         }
         return palette;
     }
 
     /**
      * Calculate the right color for each point in the point cloud.
+     * Package private for the benchmarks.
      */
-    private void calculateColors(int pointCount, FloatBuffer pointCloudBuffer) {
-        float[] points = new float[pointCount * 4];
-        pointCloudBuffer.rewind();
-        pointCloudBuffer.get(points);
-        pointCloudBuffer.rewind();
-
-        int color;
+    void calculateColors(int pointCount, FloatBuffer pointCloudBuffer) {
+        // Absolute reads straight from the buffer and a copy from the float palette, no garbage.
+        float[] palette = this.mPaletteRgba;
+        float[] colors = this.mColorArray;
+        int floatsPerPoint = this.mFloatsPerPoint;
         int colorIndex;
-        float z;
+        int paletteIndex;
         for (int i = 0; i < pointCount; i++) {
-            z = points[i * mFloatsPerPoint + 2];
-            colorIndex = (int) Math.min(z / CLOUD_MAX_Z * mPalette.length, mPalette.length - 1);
-            colorIndex = Math.max(colorIndex, 0);
-            color = this.mPalette[colorIndex];
-            this.mColorArray[i * 4] = Color.red(color) / 255f;
-            this.mColorArray[i * 4 + 1] = Color.green(color) / 255f;
-            this.mColorArray[i * 4 + 2] = Color.blue(color) / 255f;
-            this.mColorArray[i * 4 + 3] = Color.alpha(color) / 255f;
+            colorIndex = (int) (pointCloudBuffer.get(i * floatsPerPoint + 2) * PALETTE_SCALE);
+            if (colorIndex < 0) {
+                colorIndex = 0;
+            } else if (colorIndex >= PALETTE_SIZE) {
+                colorIndex = PALETTE_SIZE - 1;
+            }
+            paletteIndex = colorIndex * 4;
+            colors[i * 4] = palette[paletteIndex];
+            colors[i * 4 + 1] = palette[paletteIndex + 1];
+            colors[i * 4 + 2] = palette[paletteIndex + 2];
+            colors[i * 4 + 3] = palette[paletteIndex + 3];
         }
     }
 }
\ No newline at end of file
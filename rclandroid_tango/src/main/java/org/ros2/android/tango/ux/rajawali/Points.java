@@ -17,6 +17,7 @@ package org.ros2.android.tango.ux.rajawali;
 import android.opengl.GLES10;
 import android.opengl.GLES20;
 
+import org.rajawali3d.BufferInfo;
 import org.rajawali3d.Object3D;
 
 import java.nio.FloatBuffer;
@@ -24,9 +25,15 @@ import java.nio.FloatBuffer;
 /**
  * A Point primitive for Rajawali.
  * Intended to be contributed and PR'ed to Rajawali.
+ * <p>
+ * Clouds are streamed to the GPU: the buffer storage is orphaned before each upload, so the
+ * driver hands out a fresh one instead of waiting for draws still reading the previous cloud.
  */
 public class Points extends Object3D {
     private static final int BYTES_PER_FLOAT = 4;
+    protected static final float POINT_SIZE = 5.0f;
+    // Weight of the last frame in the average upload time.
+    private static final double UPLOAD_TIME_SMOOTHING = 0.05;
 
     private int mMaxNumberOfVertices;
     // Float values per point to expect in points FloatBuffer. XYZ format = 3, XYZC format = 4.
@@ -34,8 +41,16 @@ public class Points extends Object3D {
     // Float values per color = 4 (RGBA).
     protected int mFloatsPerColor = 4;
 
+    private boolean mStreaming = true;
+    // Points of the last upload.
+    private int mPointCount;
+    private long mUploadTimeNs;
+    private double mAverageUploadTimeNs;
+
     public Points(int numberOfPoints, int floatsPerPoint, boolean isCreateColors) {
         super();
+        // Lets the number of drawn points follow the cloud size.
+        this.mGeometry = new RetroGeometry3D();
         this.mMaxNumberOfVertices = numberOfPoints;
         this.mFloatsPerPoint = floatsPerPoint;
         this.init(true, isCreateColors);
@@ -58,19 +73,31 @@ public class Points extends Object3D {
         this.setData(vertices, null, null, colors, indices, true);
     }
 
+    /**
+     * Stream uploads through orphaned buffers (default), or go through the Rajawali geometry
+     * which resizes the buffers synchronously, for comparison.
+     */
+    public void setStreaming(boolean streaming) {
+        this.mStreaming = streaming;
+    }
+
     /**
      * Update the geometry of the points based on the provided points float buffer.
      */
     public void updatePoints(int pointCount, FloatBuffer pointCloudBuffer) {
-        // this.mGeometry.setNumIndices(pointCount);
-        RetroGeometry3D retroGeometry3D = new RetroGeometry3D();
-        retroGeometry3D.copyFromGeometry3D(this.mGeometry);
-        retroGeometry3D.setNumIndices(pointCount);
-
-        this.mGeometry.copyFromGeometry3D(retroGeometry3D);
-        this.mGeometry.setVertices(pointCloudBuffer);
-        this.mGeometry.changeBufferData(this.mGeometry.getVertexBufferInfo(), this.mGeometry.getVertices(), 0,
-                pointCount * this.mFloatsPerPoint);
+        this.checkPointCount(pointCount);
+        long start = System.nanoTime();
+
+        if (!this.stream(this.mGeometry.getVertexBufferInfo(), pointCloudBuffer,
+                pointCount * this.mFloatsPerPoint, this.mMaxNumberOfVertices * this.mFloatsPerPoint)) {
+            this.mGeometry.setVertices(pointCloudBuffer);
+            this.mGeometry.changeBufferData(this.mGeometry.getVertexBufferInfo(), this.mGeometry.getVertices(), 0,
+                    pointCount * this.mFloatsPerPoint);
+        }
+        ((RetroGeometry3D) this.mGeometry).setNumIndices(pointCount);
+        this.mPointCount = pointCount;
+
+        this.updateUploadTime(start);
     }
 
     /**
@@ -78,30 +105,98 @@ public class Points extends Object3D {
      * colors based on the provided float array.
      */
     public void updatePoints(int pointCount, FloatBuffer points, float[] colors) {
+        this.checkPointCount(pointCount);
+        long start = System.nanoTime();
+
+        int numFloats = pointCount * this.mFloatsPerPoint;
+        int numColorFloats = pointCount * this.mFloatsPerColor;
+        if (this.stream(this.mGeometry.getVertexBufferInfo(), points, numFloats,
+                this.mMaxNumberOfVertices * this.mFloatsPerPoint)) {
+            // Only the colors in use are staged in the geometry buffer.
+            FloatBuffer staging = this.mGeometry.getColors();
+            staging.clear();
+            staging.put(colors, 0, numColorFloats);
+            this.stream(this.mGeometry.getColorBufferInfo(), staging, numColorFloats,
+                    this.mMaxNumberOfVertices * this.mFloatsPerColor);
+        } else {
+            this.mGeometry.setVertices(points);
+            this.mGeometry.changeBufferData(this.mGeometry.getVertexBufferInfo(), this.mGeometry.getVertices(), 0,
+                    numFloats, true);
+            this.mGeometry.setColors(colors);
+            this.mGeometry.changeBufferData(this.mGeometry.getColorBufferInfo(), this.mGeometry.getColors(), 0,
+                    numColorFloats, true);
+        }
+        ((RetroGeometry3D) this.mGeometry).setNumIndices(pointCount);
+        this.mPointCount = pointCount;
+
+        this.updateUploadTime(start);
+    }
+
+    public int getMaxNumberOfPoints() {
+        return this.mMaxNumberOfVertices;
+    }
+
+    public int getPointCount() {
+        return this.mPointCount;
+    }
+
+    /**
+     * Draw only the first points of the last upload, for a coarser level of detail.
+     */
+    public void setDrawnPointCount(int drawnPointCount) {
+        ((RetroGeometry3D) this.mGeometry).setNumIndices(Math.min(drawnPointCount, this.mPointCount));
+    }
+
+    /**
+     * Orphan the buffer storage, then upload the first numFloats values of data.
+     *
+     * @return False when streaming is off or the buffer object does not exist yet.
+     */
+    private boolean stream(BufferInfo bufferInfo, FloatBuffer data, int numFloats, int capacityFloats) {
+        if (!this.mStreaming || bufferInfo.bufferHandle == 0) {
+            return false;
+        }
+        data.rewind();
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferInfo.bufferHandle);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, capacityFloats * BYTES_PER_FLOAT, null,
+                GLES20.GL_STREAM_DRAW);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, numFloats * BYTES_PER_FLOAT, data);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        return true;
+    }
+
+    private void checkPointCount(int pointCount) {
         if (pointCount > this.mMaxNumberOfVertices) {
             throw new RuntimeException(
                     String.format("pointClount = %d exceeds maximum number of points = %d",
                             pointCount, this.mMaxNumberOfVertices));
         }
-        /*
-        RetroGeometry3D retroGeometry3D = new RetroGeometry3D();
-        retroGeometry3D.copyFromGeometry3D(this.mGeometry);
-        retroGeometry3D.setNumIndices(pointCount);
-
-        this.mGeometry.copyFromGeometry3D(retroGeometry3D);
-        */
-        this.mGeometry.setVertices(points);
-        this.mGeometry.changeBufferData(this.mGeometry.getVertexBufferInfo(), this.mGeometry.getVertices(), 0,
-                pointCount * this.mFloatsPerPoint, true);
-        this.mGeometry.setColors(colors);
-        this.mGeometry.changeBufferData(this.mGeometry.getColorBufferInfo(), this.mGeometry.getColors(), 0,
-                pointCount * this.mFloatsPerColor, true);
+    }
+
+    private void updateUploadTime(long start) {
+        this.mUploadTimeNs = System.nanoTime() - start;
+        this.mAverageUploadTimeNs = this.mAverageUploadTimeNs == 0
+                ? this.mUploadTimeNs
+                : this.mAverageUploadTimeNs + UPLOAD_TIME_SMOOTHING * (this.mUploadTimeNs - this.mAverageUploadTimeNs);
+    }
+
+    /**
+     * CPU time spent in the GL calls of the last upload, in nanoseconds. Stalls on buffers still
+     * in use by the GPU show up here.
+     */
+    public long getUploadTimeNs() {
+        return this.mUploadTimeNs;
+    }
+
+    /** Exponential moving average of {@link #getUploadTimeNs()}. */
+    public double getAverageUploadTimeNs() {
+        return this.mAverageUploadTimeNs;
     }
 
     @Override
     public void preRender() {
         super.preRender();
         setDrawingMode(GLES20.GL_POINTS);
-        GLES10.glPointSize(5.0f);
+        GLES10.glPointSize(POINT_SIZE);
     }
-}
\ No newline at end of file
+}
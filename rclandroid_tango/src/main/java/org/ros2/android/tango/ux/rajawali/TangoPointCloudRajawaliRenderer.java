@@ -22,6 +22,7 @@ import com.google.tango.support.TangoSupport;
 
 import android.content.Context;
 import android.graphics.Color;
+import android.util.Log;
 import android.view.MotionEvent;
 
 import org.rajawali3d.math.Matrix4;
@@ -33,16 +34,30 @@ import org.rajawali3d.scene.ASceneFrameCallback;
 //import org.rajawali3d.view.SurfaceView; // 1.1
 import org.rajawali3d.surface.RajawaliSurfaceView; // 1.0
 
+import org.ros2.android.tango.map.PointChunk;
+import org.ros2.android.tango.pointcloud.PointCloudFilter;
+import org.ros2.android.tango.pose.PoseHistory;
+import org.ros2.android.tango.pose.PoseMath;
 import org.ros2.android.tango.ux.TangoPointCloudRenderer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Renderer for Point Cloud data.
  */
 public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements TangoPointCloudRenderer {
+    private static final String TAG = TangoPointCloudRajawaliRenderer.class.getSimpleName();
 
     private static final float CAMERA_NEAR = 0.01f;
     private static final float CAMERA_FAR = 200f;
     private static final int MAX_NUMBER_OF_POINTS = 60000;
+    private static final double DEFAULT_FLOOR_HEIGHT = -1.3;
+    // Log the cloud upload time every this many clouds.
+    private static final int UPLOAD_LOG_PERIOD = 100;
+    // Start of service (Z up) to OpenGL world (Y up), -90 degrees around X.
+    private static final double[] OPENGL_T_SOS_TRANSLATION = {0, 0, 0};
+    private static final double[] OPENGL_T_SOS_ROTATION = {-Math.sqrt(0.5), 0, 0, Math.sqrt(0.5)};
 
     private int displayRotation = 0;
     private TouchViewHandler mTouchViewHandler;
@@ -51,12 +66,50 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
 
     // Objects rendered in the scene.
     private PointCloud mPointCloud;
+    private ChunkedPointCloud mMapCloud;
     private FrustumAxes mFrustumAxes;
     private Grid mGrid;
+    // Until a floor is detected, the usual height of a handheld device.
+    private volatile double mFloorHeight = DEFAULT_FLOOR_HEIGHT;
     private boolean mIsConnected;
+    // Set from the UI thread, handed to the point cloud on the GL thread.
+    private volatile PointCloudFilter mPointCloudFilter;
+    private final boolean mShaderColors;
+    private int mUploadCount;
+
+    // Poses are looked up in the history when available, saving the TangoSupport JNI calls.
+    private volatile PoseHistory mPoseHistory;
+    private boolean mHasExtrinsics;
+    private final double[] mDeviceTdepthTranslation = new double[3];
+    private final double[] mDeviceTdepthRotation = new double[4];
+    private final double[] mTranslation = new double[3];
+    private final double[] mRotation = new double[4];
+    private final double[] mDisplayRotation = new double[4];
+
+    // Timestamp of the cloud on the GPU. The depth sensor is much slower than the display, frames
+    // without a new cloud skip the transform and the upload.
+    private double mLastCloudTimestamp = Double.NaN;
+    // Reused between frames.
+    private final Matrix4 mCloudMatrix = new Matrix4();
+    private final Quaternion mCloudOrientation = new Quaternion();
+    private final Vector3 mCameraPosition = new Vector3();
+    private final Quaternion mCameraOrientation = new Quaternion();
+
+    // Map chunks handed by updateMapChunks(), uploaded on the next frame.
+    private final List<PointChunk> mPendingChunks = new ArrayList<>();
 
     public TangoPointCloudRajawaliRenderer(Context context, RajawaliSurfaceView surfaceView) {
+        this(context, surfaceView, false);
+    }
+
+    /**
+     * @param shaderColors Color the points by depth in the shaders instead of uploading a color
+     *                     buffer every frame.
+     */
+    public TangoPointCloudRajawaliRenderer(Context context, RajawaliSurfaceView surfaceView,
+            boolean shaderColors) {
         super(context);
+        this.mShaderColors = shaderColors;
         this.tangoPointCloudManager = new TangoPointCloudManager();
         this.mTouchViewHandler = new TouchViewHandler(mContext, getCurrentCamera());
         this.surfaceView = surfaceView;
@@ -65,7 +118,7 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
     @Override
     protected void initScene() {
         mGrid = new Grid(100, 1, 1, 0xFFCCCCCC);
-        mGrid.setPosition(0, -1.3f, 0);
+        mGrid.setPosition(0, mFloorHeight, 0);
         getCurrentScene().addChild(mGrid);
 
         mFrustumAxes = new FrustumAxes(3);
@@ -73,8 +126,13 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
 
         // Indicate four floats per point since the point cloud data comes
         // in XYZC format.
-        mPointCloud = new PointCloud(MAX_NUMBER_OF_POINTS, 4);
+        mPointCloud = new PointCloud(MAX_NUMBER_OF_POINTS, 4, mShaderColors);
+        mPointCloud.setFilter(mPointCloudFilter);
         getCurrentScene().addChild(mPointCloud);
+
+        // Map points are in the start of service frame, only turned into the OpenGL world.
+        mMapCloud = new ChunkedPointCloud(OPENGL_T_SOS_ROTATION);
+        getCurrentScene().addChild(mMapCloud);
         getCurrentScene().setBackgroundColor(Color.WHITE);
         getCurrentCamera().setNearPlane(CAMERA_NEAR);
         getCurrentCamera().setFarPlane(CAMERA_FAR);
@@ -101,7 +159,13 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
                     }
 
                     updatePointCloud();
+                    updateMapCloud();
+                    // Up is y in the OpenGL world.
+                    if (mGrid.getY() != mFloorHeight) {
+                        mGrid.setY(mFloorHeight);
+                    }
                     updateCamera(displayRotation);
+                    mMapCloud.updateLevelOfDetail(getCurrentCamera(), getViewportHeight());
                 }
             }
 
@@ -130,11 +194,16 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
      * NOTE: This needs to be called from the OpenGL rendering thread.
      */
     private void updatePointCloud(TangoPointCloudData pointCloudData, float[] openGlTdepth) {
-        mPointCloud.updateCloud(pointCloudData.numPoints, pointCloudData.points);
-        Matrix4 openGlTdepthMatrix = new Matrix4(openGlTdepth);
-        mPointCloud.setPosition(openGlTdepthMatrix.getTranslation());
+        mPointCloud.setFilter(mPointCloudFilter);
+        // The render buffer of the point cloud manager is compacted in place by the filter, keep its
+        // size in sync so the next frames do not read past the kept points.
+        pointCloudData.numPoints = mPointCloud.updateCloud(pointCloudData.numPoints, pointCloudData.points);
+        this.logUploadTime();
+        // Column major, the translation is in the last column.
+        mPointCloud.setPosition(openGlTdepth[12], openGlTdepth[13], openGlTdepth[14]);
         // Conjugating the Quaternion is needed because Rajawali uses left-handed convention.
-        mPointCloud.setOrientation(new Quaternion().fromMatrix(openGlTdepthMatrix).conjugate());
+        mCloudMatrix.setAll(openGlTdepth);
+        mPointCloud.setOrientation(mCloudOrientation.fromMatrix(mCloudMatrix).conjugate());
     }
 
     /**
@@ -142,17 +211,26 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
      * NOTE: This needs to be called from the OpenGL rendering thread.
      */
     private void updateCameraPose(TangoPoseData cameraPose) {
-        float[] rotation = cameraPose.getRotationAsFloats();
-        float[] translation = cameraPose.getTranslationAsFloats();
-        Quaternion quaternion = new Quaternion(rotation[3], rotation[0], rotation[1], rotation[2]);
+        this.updateCameraPose(cameraPose.translation, cameraPose.rotation);
+    }
+
+    private void updateCameraPose(double[] translation, double[] rotation) {
+        Quaternion quaternion = mCameraOrientation.setAll(rotation[3], rotation[0], rotation[1], rotation[2]);
         mFrustumAxes.setPosition(translation[0], translation[1], translation[2]);
         // Conjugating the Quaternion is needed because Rajawali uses left-handed convention for
         // quaternions.
         mFrustumAxes.setOrientation(quaternion.conjugate());
-        this.mTouchViewHandler.updateCamera(new Vector3(translation[0], translation[1], translation[2]),
+        this.mTouchViewHandler.updateCamera(mCameraPosition.setAll(translation[0], translation[1], translation[2]),
                 quaternion);
     }
 
+    private void logUploadTime() {
+        if (++this.mUploadCount % UPLOAD_LOG_PERIOD == 0) {
+            Log.d(TAG, String.format("Point cloud upload: last %.3f ms, average %.3f ms",
+                    mPointCloud.getUploadTimeNs() * 1e-6, mPointCloud.getAverageUploadTimeNs() * 1e-6));
+        }
+    }
+
     @Override
     public void onOffsetsChanged(float v, float v1, float v2, float v3, int i, int i1) {
     }
@@ -175,6 +253,20 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
     }
 
     private void updateCamera(final int displayRotation) {
+        PoseHistory poseHistory = this.mPoseHistory;
+        if (poseHistory != null && !Double.isNaN(poseHistory.getLatestPose(mTranslation, mRotation))) {
+            // The device frame matches the OpenGL camera convention in the natural orientation,
+            // other orientations turn it around its Z axis.
+            PoseMath.compose(OPENGL_T_SOS_TRANSLATION, OPENGL_T_SOS_ROTATION,
+                    mTranslation, mRotation, mTranslation, mRotation);
+            double halfAngle = -displayRotation * Math.PI / 4;
+            mDisplayRotation[PoseMath.Z] = Math.sin(halfAngle);
+            mDisplayRotation[PoseMath.W] = Math.cos(halfAngle);
+            PoseMath.multiply(mRotation, mDisplayRotation, mRotation);
+            this.updateCameraPose(mTranslation, mRotation);
+            return;
+        }
+
         // Update current camera pose.
         try {
             // Calculate the device pose. This transform is used to display
@@ -199,7 +291,26 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
         // Update point cloud data.
         TangoPointCloudData pointCloud = this.tangoPointCloudManager.getLatestPointCloud();
 
-        if (pointCloud != null) {
+        if (pointCloud != null && pointCloud.timestamp != mLastCloudTimestamp) {
+            PoseHistory poseHistory = this.mPoseHistory;
+            if (this.mHasExtrinsics && poseHistory != null
+                    && poseHistory.getPoseAtTime(pointCloud.timestamp, mTranslation, mRotation)) {
+                // openGlTdepth = openGlTsos * sosTdevice * deviceTdepth
+                PoseMath.compose(mTranslation, mRotation,
+                        mDeviceTdepthTranslation, mDeviceTdepthRotation, mTranslation, mRotation);
+                PoseMath.compose(OPENGL_T_SOS_TRANSLATION, OPENGL_T_SOS_ROTATION,
+                        mTranslation, mRotation, mTranslation, mRotation);
+                mPointCloud.setFilter(mPointCloudFilter);
+                pointCloud.numPoints = mPointCloud.updateCloud(pointCloud.numPoints, pointCloud.points);
+                this.logUploadTime();
+                mPointCloud.setPosition(mTranslation[PoseMath.X], mTranslation[PoseMath.Y],
+                        mTranslation[PoseMath.Z]);
+                mPointCloud.setOrientation(mCloudOrientation.setAll(mRotation[PoseMath.W], mRotation[PoseMath.X],
+                        mRotation[PoseMath.Y], mRotation[PoseMath.Z]).conjugate());
+                mLastCloudTimestamp = pointCloud.timestamp;
+                return;
+            }
+
             // Calculate the depth camera pose at the last point cloud update.
             TangoSupport.MatrixTransformData transform =
                     TangoSupport.getMatrixTransformAtTime(pointCloud.timestamp,
@@ -211,10 +322,18 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
 
             if (transform.statusCode == TangoPoseData.POSE_VALID) {
                 this.updatePointCloud(pointCloud, transform.matrix);
+                mLastCloudTimestamp = pointCloud.timestamp;
             }
         }
     }
 
+    private void updateMapCloud() {
+        if (!mPendingChunks.isEmpty()) {
+            mMapCloud.updateChunks(mPendingChunks);
+            mPendingChunks.clear();
+        }
+    }
+
     @Override
     public TangoPointCloudManager getPointCloudManager() {
         return this.tangoPointCloudManager;
@@ -225,7 +344,35 @@ public class TangoPointCloudRajawaliRenderer extends RajawaliRenderer implements
     }
 
     @Override
-    public void setConnected(boolean value) {
+    public synchronized void setConnected(boolean value) {
         this.mIsConnected = value;
+        this.mLastCloudTimestamp = Double.NaN;
+    }
+
+    @Override
+    public void setPoseHistory(PoseHistory poseHistory) {
+        this.mPoseHistory = poseHistory;
+    }
+
+    @Override
+    public synchronized void setDepthCameraExtrinsics(double[] translation, double[] rotation) {
+        System.arraycopy(translation, 0, mDeviceTdepthTranslation, 0, 3);
+        System.arraycopy(rotation, 0, mDeviceTdepthRotation, 0, 4);
+        this.mHasExtrinsics = true;
+    }
+
+    @Override
+    public synchronized void updateMapChunks(List<PointChunk> chunks) {
+        mPendingChunks.addAll(chunks);
+    }
+
+    @Override
+    public void setFloorHeight(double height) {
+        this.mFloorHeight = height;
+    }
+
+    @Override
+    public void setPointCloudFilter(PointCloudFilter filter) {
+        this.mPointCloudFilter = filter;
     }
 }
\ No newline at end of file
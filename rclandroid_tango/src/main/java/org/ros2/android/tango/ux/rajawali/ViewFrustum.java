@@ -0,0 +1,98 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.ux.rajawali;
+
+/**
+ * View frustum of a camera in the frame of a model, to cull bounding boxes and estimate their
+ * size on screen. Matrices are column major double[16], as returned by Rajawali
+ * Matrix4.getDoubleValues(). Allocation free.
+ */
+public class ViewFrustum {
+    private static final int NUM_PLANES = 6;
+
+    // projection * view * model.
+    private final double[] matrix = new double[16];
+    private final double[] modelView = new double[16];
+    // a, b, c, d of each plane, normals towards the inside.
+    private final double[] planes = new double[NUM_PLANES * 4];
+    private double pixelsPerUnit;
+
+    /**
+     * @param viewportHeight Height of the viewport, in pixels.
+     */
+    public void set(double[] projection, double[] view, double[] model, int viewportHeight) {
+        multiply(view, model, this.modelView);
+        multiply(projection, this.modelView, this.matrix);
+        // Perspective projection, the Y scale is the cotangent of half the field of view.
+        this.pixelsPerUnit = projection[5] * viewportHeight / 2;
+
+        // Gribb-Hartmann: planes are the sums and differences of the last row with the others.
+        double[] m = this.matrix;
+        for (int row = 0; row < 3; row++) {
+            for (int side = 0; side < 2; side++) {
+                int plane = (2 * row + side) * 4;
+                double sign = side == 0 ? 1 : -1;
+                for (int column = 0; column < 4; column++) {
+                    this.planes[plane + column] = m[column * 4 + 3] + sign * m[column * 4 + row];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return False when the box is fully outside of the frustum. Boxes crossing the corners of
+     * the frustum may be reported as intersecting.
+     */
+    public boolean intersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        for (int plane = 0; plane < NUM_PLANES * 4; plane += 4) {
+            double a = this.planes[plane];
+            double b = this.planes[plane + 1];
+            double c = this.planes[plane + 2];
+            // Corner the furthest along the plane normal.
+            double distance = a * (a >= 0 ? maxX : minX) + b * (b >= 0 ? maxY : minY)
+                    + c * (c >= 0 ? maxZ : minZ) + this.planes[plane + 3];
+            if (distance < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Distance of a point along the viewing direction, negative behind the camera.
+     */
+    public double depth(double x, double y, double z) {
+        return this.matrix[3] * x + this.matrix[7] * y + this.matrix[11] * z + this.matrix[15];
+    }
+
+    /**
+     * Pixels covered by one unit at a depth of one unit, divide by the depth for further objects.
+     */
+    public double getPixelsPerUnit() {
+        return this.pixelsPerUnit;
+    }
+
+    // out = a * b, column major.
+    private static void multiply(double[] a, double[] b, double[] out) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                out[column * 4 + row] = a[row] * b[column * 4]
+                        + a[4 + row] * b[column * 4 + 1]
+                        + a[8 + row] * b[column * 4 + 2]
+                        + a[12 + row] * b[column * 4 + 3];
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.scan.LaserScanProjector;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Virtual laser scan for /scan from a 57.6k points scan of a room corner, 181 bins of 0.5 degree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaserScanProjectorBenchmark {
+    private static final int SCAN_WIDTH = 320;
+    private static final int SCAN_HEIGHT = 180;
+    private static final float ANGLE_MAX = (float) (Math.PI / 4);
+
+    private FloatBuffer cloud;
+    private LaserScanProjector projector;
+    private final double[] translation = new double[3];
+    // Depth camera looking along Y, camera Y down is world -Z.
+    private final double[] rotation = { -Math.sqrt(0.5), 0, 0, Math.sqrt(0.5) };
+
+    @Setup
+    public void setup() {
+        checkAtan2();
+        this.cloud = PointClouds.createRoomXyzc(SCAN_WIDTH, SCAN_HEIGHT, 42);
+        this.projector = new LaserScanProjector(-ANGLE_MAX, ANGLE_MAX, (float) Math.toRadians(0.5),
+                0.2f, 4f);
+        // The floor, 1.2 m below, is left out.
+        this.projector.setHeightBand(-1.1f, 0.5f);
+    }
+
+    // Sweeps the circle, the bearings would be off by more than the documented error.
+    private static void checkAtan2() {
+        int steps = 1 << 20;
+        for (int i = 0; i < steps; i++) {
+            double angle = 2 * Math.PI * i / steps - Math.PI;
+            float y = (float) Math.sin(angle);
+            float x = (float) Math.cos(angle);
+            double error = Math.abs(LaserScanProjector.atan2(y, x) - Math.atan2(y, x));
+            // The same bearing on both sides of the cut.
+            error = Math.min(error, 2 * Math.PI - error);
+            if (!(error <= LaserScanProjector.ATAN2_MAX_ERROR)) {
+                throw new IllegalStateException(String.format(
+                        "atan2 error %g rad at %f rad", error, angle));
+            }
+        }
+    }
+
+    @Benchmark
+    public float project() {
+        this.projector.project(this.cloud, SCAN_WIDTH * SCAN_HEIGHT, this.translation, this.rotation);
+        return this.projector.getRanges().array()[0];
+    }
+}
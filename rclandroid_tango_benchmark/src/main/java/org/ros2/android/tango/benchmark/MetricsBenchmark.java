@@ -0,0 +1,79 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.metrics.LatencyHistogram;
+import org.ros2.android.tango.metrics.MetricsRegistry;
+import org.ros2.android.tango.metrics.TopicMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot path cost of the metrics reported on /diagnostics: a histogram sample, the same timed with
+ * System.nanoTime(), a counter increment and a topic publish record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private LatencyHistogram histogram;
+    private AtomicLong counter;
+    private TopicMetrics topic;
+    private long value;
+
+    @Setup
+    public void setup() {
+        MetricsRegistry registry = new MetricsRegistry();
+        this.histogram = registry.histogram("stage");
+        this.counter = registry.counter("frames");
+        this.topic = new TopicMetrics(registry, "cloud");
+    }
+
+    @Benchmark
+    public void record() {
+        // Spread over the buckets from 1 us to 1 s.
+        this.value = (this.value * 6364136223846793005L + 1442695040888963407L);
+        this.histogram.record((this.value >>> 34) & 0x3fffffffL);
+    }
+
+    @Benchmark
+    public void recordSince() {
+        this.histogram.recordSince(System.nanoTime());
+    }
+
+    @Benchmark
+    public long increment() {
+        return this.counter.incrementAndGet();
+    }
+
+    @Benchmark
+    public void onPublished() {
+        this.topic.onPublished(System.nanoTime(), 960000);
+    }
+}
@@ -0,0 +1,75 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.map.OccupancyGridMapper;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Occupancy grid update from a 60k points frame, rays included. Scores are points per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OccupancyGridBenchmark {
+    private static final float RESOLUTION = 0.05f;
+    private static final float SIZE = 50f;
+    private static final float MAX_RANGE = 4f;
+
+    private FloatBuffer points;
+    private OccupancyGridMapper grid;
+    private final double[] translation = new double[3];
+    // Depth camera looking along X, 90 degrees around Y.
+    private final double[] rotation = { 0, Math.sqrt(0.5), 0, Math.sqrt(0.5) };
+    private byte[] tile;
+
+    @Setup
+    public void setup() {
+        this.points = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.grid = new OccupancyGridMapper(RESOLUTION, SIZE, MAX_RANGE);
+        this.grid.setHeightBand(-1f, 1f);
+        this.tile = new byte[this.grid.getTileSize() * this.grid.getTileSize()];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PointClouds.MAX_NUMBER_OF_POINTS)
+    public int insert() {
+        this.grid.insert(this.points, PointClouds.MAX_NUMBER_OF_POINTS, this.translation, this.rotation);
+        return this.grid.getOriginVersion();
+    }
+
+    @Benchmark
+    public byte copyTile() {
+        int center = this.grid.getTilesPerSide() / 2;
+        this.grid.copyTile(center, center, this.tile, 0, this.grid.getTileSize());
+        return this.tile[0];
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.plane.PlaneSegmenter;
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PlaneSegmenter on a 57.6k points scan of a room corner, as for /planes: the steady state where
+ * the planes of the previous frame are re-fitted, and a search from scratch. Threads is the
+ * WorkerPool parallelism of the RANSAC hypotheses, the calling thread included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaneSegmenterBenchmark {
+    private static final int SCAN_WIDTH = 320;
+    private static final int SCAN_HEIGHT = 180;
+    // Depth camera 1.2 m above the floor, looking along y: camera y down is world -z.
+    private static final double[] TRANSLATION = { 0, 0, 0 };
+    private static final double[] ROTATION = { -Math.sqrt(0.5), 0, 0, Math.sqrt(0.5) };
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    private FloatBuffer cloud;
+    private WorkerPool workerPool;
+    private PlaneSegmenter segmenter;
+
+    @Setup
+    public void setup() {
+        this.cloud = PointClouds.createRoomXyzc(SCAN_WIDTH, SCAN_HEIGHT, 42);
+        this.workerPool = new WorkerPool(this.threads);
+        this.segmenter = new PlaneSegmenter(this.workerPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.workerPool.shutdown();
+    }
+
+    @Benchmark
+    public int tracked() {
+        return this.segmenter.segment(this.cloud, SCAN_WIDTH * SCAN_HEIGHT, TRANSLATION, ROTATION);
+    }
+
+    @Benchmark
+    public int fromScratch() {
+        this.segmenter.clear();
+        return this.segmenter.segment(this.cloud, SCAN_WIDTH * SCAN_HEIGHT, TRANSLATION, ROTATION);
+    }
+}
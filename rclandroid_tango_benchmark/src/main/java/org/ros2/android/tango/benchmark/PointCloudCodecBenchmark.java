@@ -0,0 +1,106 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.pointcloud.PointCloud2Packer;
+import org.ros2.android.tango.pointcloud.PointCloudCodec;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compressed cloud of /cloud/compressed against the raw PointCloud2 payload of /cloud, on a 60k
+ * points frame. Scores are bytes of raw payload per second, so MB/s compare directly. The
+ * outputBytes counter is the payload produced per second: raw throughput over it gives the
+ * compression ratio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCloudCodecBenchmark {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 180;
+    private static final int NUM_POINTS = WIDTH * HEIGHT;
+    private static final int RAW_BYTES = NUM_POINTS * PointCloud2Packer.POINT_STEP;
+
+    /** Surfaces of a room scan, or the random volume of the other benchmarks. */
+    @Param({ "room", "volume" })
+    public String cloud;
+
+    @Param({ "0.001", "0.005" })
+    public float precision;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Output {
+        public long outputBytes;
+    }
+
+    private FloatBuffer points;
+    private final PointCloud2Packer packer = new PointCloud2Packer();
+    private PointCloudCodec codec;
+    private byte[] encoded;
+    private int encodedLength;
+    private float[] decoded;
+
+    @Setup
+    public void setup() {
+        this.points = "room".equals(this.cloud)
+                ? PointClouds.createRoomXyzc(WIDTH, HEIGHT, 42)
+                : PointClouds.createXyzc(NUM_POINTS, 42);
+        this.codec = new PointCloudCodec(this.precision);
+        this.encodedLength = this.codec.encode(this.points, NUM_POINTS);
+        this.encoded = this.codec.getData().array().clone();
+        this.decoded = new float[NUM_POINTS * PointClouds.FLOATS_PER_POINT];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAW_BYTES)
+    public int pack(Output output) {
+        int length = this.packer.pack(this.points, NUM_POINTS);
+        output.outputBytes += length;
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAW_BYTES)
+    public int encode(Output output) {
+        int length = this.codec.encode(this.points, NUM_POINTS);
+        output.outputBytes += length;
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAW_BYTES)
+    public int decode() {
+        return this.codec.decode(this.encoded, 0, this.encodedLength, this.decoded);
+    }
+}
@@ -0,0 +1,76 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.pointcloud.PointCloudTransformer;
+import org.ros2.android.tango.util.WorkerPool;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PointCloudTransformer on a 60k points frame, as for /cloud_world. Threads is the WorkerPool
+ * parallelism, the calling thread included: speedups need as many cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCloudTransformerBenchmark {
+    // Depth camera pose in START_OF_SERVICE, 1.2 m high and looking sideways.
+    private static final double[] TRANSLATION = { 0.4, -1.1, 1.2 };
+    private static final double[] ROTATION = { 0.5, -0.5, 0.5, 0.5 };
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    private FloatBuffer cloud;
+    private FloatBuffer transformed;
+    private WorkerPool workerPool;
+    private PointCloudTransformer transformer;
+
+    @Setup
+    public void setup() {
+        this.cloud = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.transformed = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 0);
+        this.workerPool = new WorkerPool(this.threads);
+        this.transformer = new PointCloudTransformer(this.workerPool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.workerPool.shutdown();
+    }
+
+    @Benchmark
+    public int transform() {
+        return this.transformer.transform(this.cloud, this.transformed,
+                PointClouds.MAX_NUMBER_OF_POINTS, TRANSLATION, ROTATION);
+    }
+}
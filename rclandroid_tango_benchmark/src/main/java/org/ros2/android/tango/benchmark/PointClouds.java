@@ -0,0 +1,97 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic Tango like clouds for the benchmarks.
+ */
+public final class PointClouds {
+    public static final int FLOATS_PER_POINT = 4;
+    // Same cap as the renderer and the node.
+    public static final int MAX_NUMBER_OF_POINTS = 60000;
+
+    private PointClouds() { }
+
+    /**
+     * A direct XYZC buffer, like TangoPointCloudData.points: points on a noisy wall in front of
+     * the depth camera, 0.5 to 4.5 m away, confidence in [0, 1].
+     */
+    public static FloatBuffer createXyzc(int numPoints, long seed) {
+        FloatBuffer points = ByteBuffer.allocateDirect(numPoints * FLOATS_PER_POINT * Float.SIZE / 8)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        fillXyzc(points, numPoints, seed);
+        return points;
+    }
+
+    public static void fillXyzc(FloatBuffer points, int numPoints, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < numPoints; i++) {
+            float z = 0.5f + 4f * random.nextFloat();
+            points.put(i * FLOATS_PER_POINT, (random.nextFloat() - 0.5f) * z);
+            points.put(i * FLOATS_PER_POINT + 1, (random.nextFloat() - 0.5f) * 0.75f * z);
+            points.put(i * FLOATS_PER_POINT + 2, z);
+            points.put(i * FLOATS_PER_POINT + 3, random.nextFloat());
+        }
+        points.rewind();
+    }
+
+    /**
+     * A direct XYZC buffer as seen by a depth camera in the corner of a room: a wall 4 m in front,
+     * a side wall and the floor, one point per pixel of a width x height image with 0.5% range
+     * noise. Unlike {@link #createXyzc(int, long)}, points lie on surfaces like real scans.
+     */
+    public static FloatBuffer createRoomXyzc(int width, int height, long seed) {
+        FloatBuffer points = ByteBuffer.allocateDirect(width * height * FLOATS_PER_POINT * Float.SIZE / 8)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        Random random = new Random(seed);
+        for (int v = 0; v < height; v++) {
+            for (int u = 0; u < width; u++) {
+                // Ray direction at z = 1, about 80 by 60 degrees of field of view.
+                float dx = (u - width / 2f) / (width / 2f) * 0.85f;
+                float dy = (v - height / 2f) / (height / 2f) * 0.6f;
+                float range = 4f;
+                if (dy > 0) {
+                    range = Math.min(range, 1.2f / dy);
+                }
+                if (dx > 0) {
+                    range = Math.min(range, 2f / dx);
+                }
+                float z = range * (1 + 0.005f * (float) random.nextGaussian());
+                points.put(dx * z).put(dy * z).put(z).put(0.5f + 0.5f * random.nextFloat());
+            }
+        }
+        points.rewind();
+        return points;
+    }
+
+    /**
+     * Copy of a cloud, for benchmarks of stages which modify their input.
+     */
+    public static void copy(FloatBuffer source, FloatBuffer destination, int numPoints) {
+        FloatBuffer view = source.duplicate();
+        view.position(0);
+        view.limit(numPoints * FLOATS_PER_POINT);
+        destination.clear();
+        destination.put(view);
+        destination.rewind();
+    }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.map.PointMap;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fusion of 60k points frames in the point map, the device walking along X so new leaves keep
+ * appearing and, with the small budget, old ones are evicted. Scores are points per second, a
+ * 5 Hz depth stream needs 300k.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointMapBenchmark {
+    private static final float LEAF_SIZE = 0.2f;
+    private static final int LEAF_RESOLUTION = 8;
+    private static final int POINTS_PER_LEAF = 64;
+    private static final int MAX_MAP_POINTS = 200000;
+    private static final double STEP = 0.05;
+
+    @Param({ "4", "32" })
+    public int budgetMegabytes;
+
+    private FloatBuffer points;
+    private FloatBuffer mapPoints;
+    private PointMap map;
+    private final double[] translation = new double[3];
+    // Depth camera looking forward, 90 degrees around X.
+    private final double[] rotation = { Math.sqrt(0.5), 0, 0, Math.sqrt(0.5) };
+
+    @Setup
+    public void setup() {
+        this.points = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.mapPoints = PointClouds.createXyzc(MAX_MAP_POINTS, 42);
+        this.map = new PointMap(LEAF_SIZE, LEAF_RESOLUTION, POINTS_PER_LEAF,
+                this.budgetMegabytes * 1024L * 1024L);
+        for (int i = 0; i < 100; i++) {
+            this.insert();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PointClouds.MAX_NUMBER_OF_POINTS)
+    public int insert() {
+        this.translation[0] += STEP;
+        this.map.insert(this.points, PointClouds.MAX_NUMBER_OF_POINTS, this.translation, this.rotation);
+        return this.map.getNumPoints();
+    }
+
+    @Benchmark
+    public int copyPoints() {
+        return this.map.copyPoints(this.mapPoints, MAX_MAP_POINTS);
+    }
+}
@@ -0,0 +1,116 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.map.PointChunk;
+import org.ros2.android.tango.map.PointMap;
+import org.ros2.android.tango.map.PointMapChunker;
+import org.ros2.android.tango.ux.rajawali.ViewFrustum;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunking of the point map for the renderer after each new frame, the device walking along X,
+ * and frustum culling of the chunk bounds as done every rendered frame. Scores are updates and
+ * culled maps per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointMapChunkerBenchmark {
+    private static final float LEAF_SIZE = 0.2f;
+    private static final int LEAF_RESOLUTION = 8;
+    private static final int POINTS_PER_LEAF = 64;
+    private static final long MEMORY_BUDGET = 32L * 1024 * 1024;
+    private static final int CHUNK_LEVELS = 3;
+    private static final int LOD_LEVELS = 4;
+    private static final double STEP = 0.05;
+
+    private FloatBuffer points;
+    private PointMap map;
+    private PointMapChunker chunker;
+    private final List<PointChunk> chunks = new ArrayList<>();
+    private final double[] translation = new double[3];
+    // Depth camera looking forward, 90 degrees around X.
+    private final double[] rotation = { Math.sqrt(0.5), 0, 0, Math.sqrt(0.5) };
+
+    // Every chunk of the map, for culling.
+    private final List<PointChunk> allChunks = new ArrayList<>();
+    private final ViewFrustum frustum = new ViewFrustum();
+
+    @Setup
+    public void setup() {
+        this.points = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.map = new PointMap(LEAF_SIZE, LEAF_RESOLUTION, POINTS_PER_LEAF, MEMORY_BUDGET);
+        this.chunker = new PointMapChunker(LEAF_SIZE, CHUNK_LEVELS, LOD_LEVELS);
+        for (int i = 0; i < 100; i++) {
+            this.insert();
+        }
+        this.chunker.update(this.map, this.allChunks);
+
+        // 37.5 degrees field of view, looking down -Z from the origin.
+        double f = 1 / Math.tan(Math.toRadians(37.5 / 2));
+        double near = 0.1;
+        double far = 100;
+        double[] projection = {
+                f, 0, 0, 0,
+                0, f, 0, 0,
+                0, 0, (far + near) / (near - far), -1,
+                0, 0, 2 * far * near / (near - far), 0 };
+        double[] identity = { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+        this.frustum.set(projection, identity, identity, 1080);
+    }
+
+    private void insert() {
+        this.translation[0] += STEP;
+        this.map.insert(this.points, PointClouds.MAX_NUMBER_OF_POINTS, this.translation, this.rotation);
+    }
+
+    @Benchmark
+    public int update() {
+        this.insert();
+        this.chunks.clear();
+        this.chunker.update(this.map, this.chunks);
+        return this.chunks.size();
+    }
+
+    @Benchmark
+    public int cull() {
+        int visible = 0;
+        for (int i = 0; i < this.allChunks.size(); i++) {
+            float[] b = this.allChunks.get(i).bounds;
+            if (this.frustum.intersects(b[0], b[1], b[2], b[3], b[4], b[5])) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+}
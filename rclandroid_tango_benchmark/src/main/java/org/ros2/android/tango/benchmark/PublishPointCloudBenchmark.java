@@ -0,0 +1,74 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.pointcloud.PointCloud2Packer;
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+import org.ros2.android.tango.pointcloud.PointCloudMessages;
+
+import java.util.concurrent.TimeUnit;
+
+import sensor_msgs.msg.PointCloud;
+import sensor_msgs.msg.PointCloud2;
+
+/**
+ * Message building of PointCloudProcessor.publishPointCloud, for both cloud formats.
+ * Scores are frames per second, serialization by rcljava is not included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishPointCloudBenchmark {
+
+    @Param({ "1000", "10000", "30000", "60000" })
+    public int numPoints;
+
+    private PointCloudFrame frame;
+    private PointCloud2Packer packer;
+    private PointCloud2 pointCloud2;
+
+    @Setup
+    public void setup() {
+        this.frame = new PointCloudFrame(PointClouds.MAX_NUMBER_OF_POINTS);
+        this.frame.set(1.0, PointClouds.createXyzc(this.numPoints, 42), this.numPoints);
+        this.packer = new PointCloud2Packer();
+        this.pointCloud2 = PointCloudMessages.createPointCloud2("camera_depth");
+    }
+
+    @Benchmark
+    public PointCloud pointCloud() {
+        return PointCloudMessages.toPointCloud(this.frame);
+    }
+
+    @Benchmark
+    public PointCloud2 pointCloud2() {
+        PointCloudMessages.fillPointCloud2(this.pointCloud2, this.packer, this.frame);
+        return this.pointCloud2;
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.recording.SessionRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording on the Tango callback threads: a 60k points cloud, or 1000 poses. Every
+ * iteration writes a new recording in the temporary directory, then deletes it. Calls are paced
+ * by a short pause, out of the measure, as the sensors would: in a tight loop the writes outrun
+ * storage and records are dropped. The dropped counter must stay at zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRecorderBenchmark {
+    private static final long PAUSE_MILLIS = 2;
+    private static final int POSES_PER_CLOUD = 1000;
+    // Depth at 5 Hz, poses at 100 Hz.
+    private static final double CLOUD_PERIOD = 0.2;
+    private static final double POSE_PERIOD = 0.01;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Dropped {
+        public long dropped;
+    }
+
+    private FloatBuffer points;
+    private File directory;
+    private SessionRecorder recorder;
+    private double timestamp;
+    private final double[] translation = new double[3];
+    private final double[] rotation = { 0, 0, 0, 1 };
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        this.points = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException, InterruptedException {
+        this.directory = Files.createTempDirectory("session").toFile();
+        this.recorder = new SessionRecorder(this.directory);
+        // Let the first chunks be mapped.
+        Thread.sleep(100);
+    }
+
+    @Setup(Level.Invocation)
+    public void pause() throws InterruptedException {
+        Thread.sleep(PAUSE_MILLIS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown(Dropped dropped) throws IOException {
+        this.recorder.close();
+        dropped.dropped += this.recorder.getDroppedRecords();
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(this.directory.toPath());
+    }
+
+    @Benchmark
+    public boolean recordPointCloud() {
+        this.timestamp += CLOUD_PERIOD;
+        return this.recorder.recordPointCloud(this.timestamp, this.points,
+                PointClouds.MAX_NUMBER_OF_POINTS);
+    }
+
+    @Benchmark
+    public boolean recordPoses() {
+        boolean recorded = true;
+        for (int i = 0; i < POSES_PER_CLOUD; i++) {
+            this.timestamp += POSE_PERIOD;
+            this.translation[0] = this.timestamp;
+            recorded &= this.recorder.recordPose(this.timestamp, 1, 4, 1, 0, 0f,
+                    this.translation, this.rotation);
+        }
+        return recorded;
+    }
+}
@@ -0,0 +1,221 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.ros2.android.tango.map.OccupancyGridMapper;
+import org.ros2.android.tango.map.PointMap;
+import org.ros2.android.tango.metrics.MetricsRegistry;
+import org.ros2.android.tango.plane.PlaneSegmenter;
+import org.ros2.android.tango.pointcloud.ConfidenceFilter;
+import org.ros2.android.tango.pointcloud.DepthFilter;
+import org.ros2.android.tango.pointcloud.PointCloudCodec;
+import org.ros2.android.tango.pointcloud.PointCloudFilters;
+import org.ros2.android.tango.pointcloud.PointCloudFrame;
+import org.ros2.android.tango.pointcloud.PointCloudPipeline;
+import org.ros2.android.tango.pointcloud.PointCloudProcessor;
+import org.ros2.android.tango.scan.LaserScanProjector;
+import org.ros2.android.tango.sensor.SensorSource;
+import org.ros2.android.tango.sensor.SyntheticDepthSource;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sensor_msgs.msg.CameraInfo;
+import sensor_msgs.msg.CompressedImage;
+import sensor_msgs.msg.Image;
+import sensor_msgs.msg.PointCloud;
+import sensor_msgs.msg.PointCloud2;
+
+/**
+ * Load test of the depth path of TangoNode, fed by a SyntheticDepthSource: the pipeline handoff
+ * and the node's own PointCloudProcessor with every stage on, /cloud as PointCloud2. Poses are
+ * looked up at the cloud time, waiting for them like on a device. ROS serialization is not
+ * included.
+ * <p>
+ * For each cloud size, the depth rate is raised step by step while the node keeps up. A rate is
+ * sustained when less than 1% of the clouds are lost, either dropped by the pipeline or skipped
+ * by the generator. Both run on this JVM and share the CPU, as Tango and the node on a device.
+ * <p>
+ * Run with: gradle loadTest [-PloadTest.seconds=3]
+ */
+public final class SyntheticLoadTest {
+    private static final int[] POINT_COUNTS = { 1000, 10000, 60000, 100000, 200000 };
+    private static final double[] DEPTH_RATES = { 5, 10, 15, 20, 30, 45, 60, 90, 120 };
+    private static final double POSE_RATE = 100;
+    private static final double MAX_LOSS = 0.01;
+    private static final double DEFAULT_SECONDS = 3;
+    private static final double NANOSECS_TO_MILLISECS = 1e-6;
+
+    private SyntheticLoadTest() { }
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_SECONDS;
+
+        // Warm up the JIT on the largest Tango clouds.
+        new Run(60000, 5).measure(seconds);
+
+        System.out.println(String.format("%8s %6s %10s %10s %8s %8s %10s %10s",
+                "points", "rate", "generated", "processed", "dropped", "skipped",
+                "mean ms", "max ms"));
+        StringBuilder summary = new StringBuilder();
+        for (int numPoints : POINT_COUNTS) {
+            double sustained = 0;
+            for (double rate : DEPTH_RATES) {
+                Run run = new Run(numPoints, rate);
+                run.measure(seconds);
+                System.out.println(run);
+                if (run.getLoss() > MAX_LOSS) {
+                    break;
+                }
+                sustained = rate;
+            }
+            summary.append(String.format("%8d points: %s%n", numPoints,
+                    sustained > 0 ? String.format("%.0f Hz", sustained) : "under 5 Hz"));
+        }
+        System.out.println();
+        System.out.println("Max sustained depth rate");
+        System.out.print(summary);
+    }
+
+    /**
+     * One source, pipeline and processor at a given load.
+     */
+    private static final class Run implements SensorSource.Listener, PointCloudPipeline.Callback {
+        private final SyntheticDepthSource source;
+        private final PointCloudPipeline pipeline;
+        private final PointCloudProcessor processor;
+
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private double elapsed;
+
+        Run(int numPoints, double rate) {
+            this.source = new SyntheticDepthSource(numPoints, rate, POSE_RATE, 42);
+            this.processor = new PointCloudProcessor(numPoints, true, "camera_depth",
+                    "start_of_service", new MetricsRegistry(), new DiscardOutput());
+            // The node takes its filter from the application, as MainActivity does.
+            this.processor.setPointCloudFilter(new PointCloudFilters()
+                    .add(new ConfidenceFilter(0.2f))
+                    .add(new DepthFilter(0.3f, 6f)));
+            this.processor.setVoxelLeafSize(PointCloudProcessor.DEFAULT_VOXEL_LEAF_SIZE);
+            this.processor.setCompressedCloudPrecision(PointCloudCodec.DEFAULT_PRECISION);
+            this.processor.setNormalRadius(PointCloudProcessor.DEFAULT_NORMAL_RADIUS);
+            this.processor.setWorldCloudEnabled(true);
+            this.processor.setPlaneSegmentation(true);
+            this.processor.setLaserScanEnabled(true);
+            this.processor.setPointMapEnabled(true);
+            this.processor.setOccupancyGridEnabled(true);
+            this.pipeline = new PointCloudPipeline(numPoints, this);
+        }
+
+        void measure(double seconds) throws InterruptedException {
+            long start = System.nanoTime();
+            this.pipeline.start();
+            this.source.start(this);
+            Thread.sleep((long) (seconds * 1000));
+            this.source.stop();
+            this.pipeline.stop();
+            this.elapsed = (System.nanoTime() - start) * 1e-9;
+            this.processor.release();
+        }
+
+        /** Part of the scheduled clouds never processed. */
+        double getLoss() {
+            double scheduled = this.source.getGeneratedClouds() + this.source.getSkippedClouds();
+            double lost = this.pipeline.getDroppedFrames() + this.source.getSkippedClouds();
+            return scheduled > 0 ? lost / scheduled : 1;
+        }
+
+        @Override
+        public void onDepthCameraExtrinsics(double[] translation, double[] rotation) {
+            this.processor.setDepthCameraExtrinsics(translation, rotation);
+        }
+
+        @Override
+        public void onDepthCameraIntrinsics(int width, int height, double fx, double fy,
+                double cx, double cy) {
+            this.processor.setDepthCameraIntrinsics(width, height, fx, fy, cx, cy);
+        }
+
+        @Override
+        public void onPoseAvailable(double timestamp, boolean valid, double[] translation,
+                double[] rotation) {
+            this.processor.onPoseAvailable(timestamp, valid, translation, rotation);
+        }
+
+        @Override
+        public void onPointCloudAvailable(double timestamp, FloatBuffer points, int numPoints) {
+            this.pipeline.offer(timestamp, points, numPoints);
+        }
+
+        @Override
+        public void onPointCloud(PointCloudFrame frame) {
+            long start = System.nanoTime();
+            this.processor.onPointCloud(frame);
+            long duration = System.nanoTime() - start;
+            this.totalNanos.addAndGet(duration);
+            if (duration > this.maxNanos.get()) {
+                this.maxNanos.set(duration);
+            }
+        }
+        @Override
+        public String toString() {
+            long processed = this.pipeline.getProcessedFrames();
+            double received = this.pipeline.getReceivedFrames();
+            return String.format("%8d %6.0f %10.1f %10.1f %7.1f%% %8d %10.2f %10.2f",
+                    this.source.getNumPoints(), this.source.getDepthRate(),
+                    this.source.getGeneratedClouds() / this.elapsed, processed / this.elapsed,
+                    received > 0 ? 100 * this.pipeline.getDroppedFrames() / received : 0,
+                    this.source.getSkippedClouds(),
+                    processed > 0 ? this.totalNanos.get() * NANOSECS_TO_MILLISECS / processed : 0,
+                    this.maxNanos.get() * NANOSECS_TO_MILLISECS);
+        }
+    }
+
+    /**
+     * Drops the messages, ROS serialization is not measured.
+     */
+    private static final class DiscardOutput implements PointCloudProcessor.Output {
+        @Override
+        public void publishCloud(PointCloud cloud) { }
+
+        @Override
+        public void publishCloud2(PointCloud2 cloud) { }
+
+        @Override
+        public void publishCompressedCloud(CompressedImage cloud) { }
+
+        @Override
+        public void publishDepthImage(Image image, CameraInfo cameraInfo) { }
+
+        @Override
+        public void publishNormalCloud(PointCloud2 cloud) { }
+
+        @Override
+        public void publishWorldCloud(PointCloud2 cloud) { }
+
+        @Override
+        public void publishLaserScan(LaserScanProjector projector, double timestamp,
+                double[] translation) { }
+
+        @Override
+        public void publishPlanes(PlaneSegmenter segmenter, double timestamp) { }
+
+        @Override
+        public void publishOccupancyGrid(OccupancyGridMapper grid, double timestamp) { }
+
+        @Override
+        public void publishPointMap(PointCloud2 cloud, PointMap pointMap) { }
+    }
+}
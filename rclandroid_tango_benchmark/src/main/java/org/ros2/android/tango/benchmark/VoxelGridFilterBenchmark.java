@@ -0,0 +1,66 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.pointcloud.VoxelGridFilter;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Voxel grid downsampling of a full 60k points frame. Scores are points per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoxelGridFilterBenchmark {
+
+    @Param({ "0.01", "0.05", "0.2" })
+    public float leafSize;
+
+    private FloatBuffer source;
+    private FloatBuffer points;
+    private VoxelGridFilter filter;
+
+    @Setup
+    public void setup() {
+        this.source = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.points = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.filter = new VoxelGridFilter(this.leafSize, PointClouds.MAX_NUMBER_OF_POINTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PointClouds.MAX_NUMBER_OF_POINTS)
+    public int filter() {
+        // The filter works in place, start every frame from the raw cloud.
+        PointClouds.copy(this.source, this.points, PointClouds.MAX_NUMBER_OF_POINTS);
+        return this.filter.filter(this.points, PointClouds.MAX_NUMBER_OF_POINTS);
+    }
+}
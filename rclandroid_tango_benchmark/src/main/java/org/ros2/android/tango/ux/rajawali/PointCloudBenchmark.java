@@ -0,0 +1,91 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.ux.rajawali;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros2.android.tango.benchmark.PointClouds;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per frame work of the Rajawali point cloud on the render thread, GL calls excluded. The legacy
+ * variant goes through the Rajawali geometry instead of streaming the buffers.
+ * Scores are frames per second. In this package to reach the coloring step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCloudBenchmark {
+
+    @Param({ "1000", "10000", "30000", "60000" })
+    public int numPoints;
+
+    private FloatBuffer points;
+    private float[] colors;
+    private PointCloud pointCloud;
+    private PointCloud legacyPointCloud;
+    private PointCloud shaderColorsPointCloud;
+
+    @Setup
+    public void setup() {
+        // Same buffer size as the Tango point cloud manager, whatever the number of points.
+        this.points = PointClouds.createXyzc(PointClouds.MAX_NUMBER_OF_POINTS, 42);
+        this.colors = new float[PointClouds.MAX_NUMBER_OF_POINTS * 4];
+        this.pointCloud = new PointCloud(PointClouds.MAX_NUMBER_OF_POINTS, PointClouds.FLOATS_PER_POINT);
+        this.legacyPointCloud = new PointCloud(PointClouds.MAX_NUMBER_OF_POINTS, PointClouds.FLOATS_PER_POINT);
+        this.legacyPointCloud.setStreaming(false);
+        this.shaderColorsPointCloud = new PointCloud(PointClouds.MAX_NUMBER_OF_POINTS,
+                PointClouds.FLOATS_PER_POINT, true);
+    }
+
+    @Benchmark
+    public void calculateColors() {
+        this.pointCloud.calculateColors(this.numPoints, this.points);
+    }
+
+    @Benchmark
+    public void updatePoints() {
+        this.pointCloud.updatePoints(this.numPoints, this.points, this.colors);
+    }
+
+    @Benchmark
+    public void updatePointsLegacy() {
+        this.legacyPointCloud.updatePoints(this.numPoints, this.points, this.colors);
+    }
+
+    @Benchmark
+    public int updateCloud() {
+        return this.pointCloud.updateCloud(this.numPoints, this.points);
+    }
+
+    @Benchmark
+    public int updateCloudShaderColors() {
+        return this.shaderColorsPointCloud.updateCloud(this.numPoints, this.points);
+    }
+}
@@ -0,0 +1,58 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * No-op JVM stand-in, GL work is not part of the benchmarks.
+ */
+public class GLES20 {
+    public static final int GL_POINTS = 0x0000;
+    public static final int GL_ARRAY_BUFFER = 0x8892;
+    public static final int GL_DYNAMIC_DRAW = 0x88E8;
+    public static final int GL_STREAM_DRAW = 0x88E0;
+    public static final int GL_FLOAT = 0x1406;
+
+    public static void glBindBuffer(int target, int buffer) {
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage) {
+    }
+
+    public static void glBufferSubData(int target, int offset, int size, Buffer data) {
+    }
+
+    public static int glGetUniformLocation(int program, String name) {
+        return -1;
+    }
+
+    public static int glGetAttribLocation(int program, String name) {
+        return -1;
+    }
+
+    public static void glUniform1f(int location, float x) {
+    }
+
+    public static void glUniform3f(int location, float x, float y, float z) {
+    }
+
+    public static void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+    }
+
+    public static void glEnableVertexAttribArray(int index) {
+    }
+}
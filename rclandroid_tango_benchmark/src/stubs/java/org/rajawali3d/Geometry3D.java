@@ -0,0 +1,139 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.rajawali3d;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * JVM stand-in for the Rajawali 1.0 geometry. The buffer handling on the Java side is kept,
+ * including its copies and allocations, so the benchmarks measure what the renderer pays before
+ * reaching the driver. GL calls are no-ops.
+ */
+public class Geometry3D {
+    private static final int FLOAT_SIZE_BYTES = 4;
+
+    protected int mNumIndices;
+    protected int mNumVertices;
+    protected BufferInfo mVertexBufferInfo = createBufferInfo();
+    protected BufferInfo mColorBufferInfo = createBufferInfo();
+
+    public void setData(float[] vertices, float[] normals, float[] textureCoords, float[] colors,
+            int[] indices, boolean createVBOs) {
+        this.setVertices(vertices, true);
+        if (colors != null) {
+            this.setColors(colors, true);
+        }
+        this.mNumIndices = indices.length;
+        if (createVBOs) {
+            // Buffer objects as created by Rajawali on the GL thread.
+            this.mVertexBufferInfo.bufferHandle = 1;
+            this.mColorBufferInfo.bufferHandle = 2;
+        }
+    }
+
+    public void copyFromGeometry3D(Geometry3D geometry) {
+        this.mNumIndices = geometry.mNumIndices;
+        this.mNumVertices = geometry.mNumVertices;
+        this.mVertexBufferInfo = geometry.mVertexBufferInfo;
+        this.mColorBufferInfo = geometry.mColorBufferInfo;
+    }
+
+    public void setVertices(FloatBuffer vertices) {
+        vertices.position(0);
+        float[] v = new float[vertices.capacity()];
+        vertices.get(v);
+        this.setVertices(v);
+    }
+
+    public void setVertices(float[] vertices) {
+        this.setVertices(vertices, false);
+    }
+
+    public void setVertices(float[] vertices, boolean override) {
+        this.mVertexBufferInfo.buffer = put(this.mVertexBufferInfo.buffer, vertices, override);
+        this.mNumVertices = vertices.length / 3;
+    }
+
+    public FloatBuffer getVertices() {
+        return (FloatBuffer) this.mVertexBufferInfo.buffer;
+    }
+
+    public void setColors(float[] colors) {
+        this.setColors(colors, false);
+    }
+
+    public void setColors(float[] colors, boolean override) {
+        this.mColorBufferInfo.buffer = put(this.mColorBufferInfo.buffer, colors, override);
+    }
+
+    public FloatBuffer getColors() {
+        return (FloatBuffer) this.mColorBufferInfo.buffer;
+    }
+
+    public BufferInfo getVertexBufferInfo() {
+        return this.mVertexBufferInfo;
+    }
+
+    public BufferInfo getColorBufferInfo() {
+        return this.mColorBufferInfo;
+    }
+
+    public int getNumIndices() {
+        return this.mNumIndices;
+    }
+
+    public void changeBufferData(BufferInfo bufferInfo, Buffer newData, int index, int size) {
+        this.changeBufferData(bufferInfo, newData, index, size, false);
+    }
+
+    public void changeBufferData(BufferInfo bufferInfo, Buffer newData, int index, int size,
+            boolean resizeBuffer) {
+        newData.rewind();
+        GLES20.glBindBuffer(bufferInfo.target, bufferInfo.bufferHandle);
+        if (resizeBuffer) {
+            bufferInfo.buffer = newData;
+            GLES20.glBufferData(bufferInfo.target, size * bufferInfo.byteSize, newData, bufferInfo.usage);
+        } else {
+            GLES20.glBufferSubData(bufferInfo.target, index * bufferInfo.byteSize,
+                    size * bufferInfo.byteSize, newData);
+        }
+        GLES20.glBindBuffer(bufferInfo.target, 0);
+    }
+
+    private static FloatBuffer put(Buffer buffer, float[] values, boolean override) {
+        FloatBuffer floats = (FloatBuffer) buffer;
+        if (floats == null || override) {
+            floats = ByteBuffer.allocateDirect(values.length * FLOAT_SIZE_BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        floats.position(0);
+        floats.put(values);
+        floats.position(0);
+        return floats;
+    }
+
+    private static BufferInfo createBufferInfo() {
+        BufferInfo info = new BufferInfo();
+        info.target = GLES20.GL_ARRAY_BUFFER;
+        info.usage = GLES20.GL_DYNAMIC_DRAW;
+        return info;
+    }
+}
@@ -0,0 +1,46 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.rajawali3d;
+
+import org.rajawali3d.materials.Material;
+
+/**
+ * JVM stand-in for the Rajawali 1.0 scene object, geometry only.
+ */
+public class Object3D {
+    protected Geometry3D mGeometry = new Geometry3D();
+    protected Material mMaterial;
+    protected int mDrawingMode;
+
+    public void setData(float[] vertices, float[] normals, float[] textureCoords, float[] colors,
+            int[] indices, boolean createVBOs) {
+        this.mGeometry.setData(vertices, normals, textureCoords, colors, indices, createVBOs);
+    }
+
+    public Geometry3D getGeometry() {
+        return this.mGeometry;
+    }
+
+    public void setMaterial(Material material) {
+        this.mMaterial = material;
+    }
+
+    public void setDrawingMode(int drawingMode) {
+        this.mDrawingMode = drawingMode;
+    }
+
+    public void preRender() {
+    }
+}
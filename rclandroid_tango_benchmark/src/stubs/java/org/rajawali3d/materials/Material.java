@@ -0,0 +1,36 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.rajawali3d.materials;
+
+import org.rajawali3d.materials.shaders.FragmentShader;
+import org.rajawali3d.materials.shaders.VertexShader;
+
+public class Material {
+    private boolean mUseVertexColors;
+    private VertexShader mCustomVertexShader;
+    private FragmentShader mCustomFragmentShader;
+
+    public Material() {
+    }
+
+    public Material(VertexShader vertexShader, FragmentShader fragmentShader) {
+        this.mCustomVertexShader = vertexShader;
+        this.mCustomFragmentShader = fragmentShader;
+    }
+
+    public void useVertexColors(boolean value) {
+        this.mUseVertexColors = value;
+    }
+}
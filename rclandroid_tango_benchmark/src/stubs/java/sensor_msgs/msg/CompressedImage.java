@@ -0,0 +1,46 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sensor_msgs.msg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import std_msgs.msg.Header;
+
+public class CompressedImage {
+    private Header header = new Header();
+    private String format = "";
+    private List<Byte> data = new ArrayList<>();
+
+    public Header getHeader() {
+        return this.header;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public String getFormat() {
+        return this.format;
+    }
+
+    public void setData(List<Byte> data) {
+        this.data = data;
+    }
+
+    public List<Byte> getData() {
+        return this.data;
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sensor_msgs.msg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import std_msgs.msg.Header;
+
+/**
+ * JVM stand-in for the generated message. Serialization by rcljava is not part of the benchmarks.
+ */
+public class Image {
+    private Header header = new Header();
+    private int height;
+    private int width;
+    private String encoding = "";
+    private byte isBigendian;
+    private int step;
+    private Collection<Byte> data = new ArrayList<>();
+
+    public Header getHeader() {
+        return this.header;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public void setIsBigendian(byte isBigendian) {
+        this.isBigendian = isBigendian;
+    }
+
+    public void setStep(int step) {
+        this.step = step;
+    }
+
+    public void setData(Collection<Byte> data) {
+        this.data = data;
+    }
+
+    public Collection<Byte> getData() {
+        return this.data;
+    }
+}
@@ -0,0 +1,34 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sensor_msgs.msg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import geometry_msgs.msg.Point32;
+import std_msgs.msg.Header;
+
+public class PointCloud {
+    private Header header = new Header();
+    private Collection<Point32> points = new ArrayList<>();
+
+    public Header getHeader() {
+        return this.header;
+    }
+
+    public void setPoints(Collection<Point32> points) {
+        this.points = points;
+    }
+}
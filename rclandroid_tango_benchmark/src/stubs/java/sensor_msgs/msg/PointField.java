@@ -0,0 +1,40 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package sensor_msgs.msg;
+
+public class PointField {
+    public static final byte FLOAT32 = 7;
+
+    private String name = "";
+    private int offset;
+    private byte datatype;
+    private int count;
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public void setDatatype(byte datatype) {
+        this.datatype = datatype;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package std_msgs.msg;
+
+import builtin_interfaces.msg.Time;
+
+public class Header {
+    private Time stamp = new Time();
+    private String frameId = "";
+
+    public Time getStamp() {
+        return this.stamp;
+    }
+
+    public void setFrameId(String frameId) {
+        this.frameId = frameId;
+    }
+}
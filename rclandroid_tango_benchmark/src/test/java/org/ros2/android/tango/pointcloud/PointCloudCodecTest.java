@@ -0,0 +1,193 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pointcloud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PointCloudCodecTest {
+    private static final int FLOATS_PER_POINT = PointCloudFrame.FLOATS_PER_POINT;
+    private static final float PRECISION = 0.001f;
+
+    private final PointCloudCodec codec = new PointCloudCodec(PRECISION);
+
+    @Test
+    public void roundTripIsWithinPrecision() {
+        int numPoints = 500;
+        FloatBuffer points = createCloud(numPoints, 42);
+        byte[] data = this.encode(points, numPoints);
+        assertEquals(numPoints, PointCloudCodec.getNumPoints(data, 0));
+
+        float[] decoded = new float[numPoints * FLOATS_PER_POINT];
+        assertEquals(numPoints, this.codec.decode(data, 0, data.length, decoded));
+
+        // Point order is not kept: match each decoded point with the closest original one.
+        float maxError = PRECISION / 2 * (float) Math.sqrt(3) + 1e-6f;
+        for (int i = 0; i < numPoints; i++) {
+            int o = i * FLOATS_PER_POINT;
+            float best = Float.POSITIVE_INFINITY;
+            float bestConfidence = 0;
+            for (int j = 0; j < numPoints; j++) {
+                float dx = decoded[o] - points.get(j * FLOATS_PER_POINT);
+                float dy = decoded[o + 1] - points.get(j * FLOATS_PER_POINT + 1);
+                float dz = decoded[o + 2] - points.get(j * FLOATS_PER_POINT + 2);
+                float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                if (distance < best) {
+                    best = distance;
+                    bestConfidence = points.get(j * FLOATS_PER_POINT + 3);
+                }
+            }
+            assertTrue("point " + i + " off by " + best, best <= maxError);
+            assertEquals(bestConfidence, decoded[o + 3], 0.5f / 255 + 1e-6f);
+        }
+    }
+
+    @Test
+    public void nonFinitePointsAreSkipped() {
+        FloatBuffer points = createCloud(4, 1);
+        points.put(1 * FLOATS_PER_POINT, Float.NaN);
+        points.put(2 * FLOATS_PER_POINT + 2, Float.POSITIVE_INFINITY);
+        byte[] data = this.encode(points, 4);
+
+        float[] decoded = new float[4 * FLOATS_PER_POINT];
+        assertEquals(2, this.codec.decode(data, 0, data.length, decoded));
+    }
+
+    @Test
+    public void emptyCloudRoundTrips() {
+        byte[] data = this.encode(FloatBuffer.allocate(0), 0);
+        assertEquals(0, this.codec.decode(data, 0, data.length, new float[0]));
+    }
+
+    @Test
+    public void decodesAtAnOffset() {
+        FloatBuffer points = createCloud(10, 3);
+        byte[] encoded = this.encode(points, 10);
+        byte[] data = new byte[encoded.length + 7];
+        System.arraycopy(encoded, 0, data, 5, encoded.length);
+        assertEquals(10, this.codec.decode(data, 5, encoded.length, new float[40]));
+    }
+
+    @Test
+    public void rejectsShortInput() {
+        byte[] data = this.encode(createCloud(10, 3), 10);
+        this.assertRejected(data, 0, 27, new float[40]);
+        this.assertRejected(new byte[0], 0, 0, new float[40]);
+        this.assertRejected(data, 0, data.length / 2, new float[40]);
+    }
+
+    @Test
+    public void rejectsRangeOutsideTheArray() {
+        byte[] data = this.encode(createCloud(10, 3), 10);
+        this.assertRejected(data, -1, data.length, new float[40]);
+        this.assertRejected(data, 1, data.length, new float[40]);
+        this.assertRejected(data, data.length, 28, new float[40]);
+    }
+
+    @Test
+    public void rejectsWrongMagic() {
+        byte[] data = this.encode(createCloud(10, 3), 10);
+        data[0] ^= 1;
+        this.assertRejected(data, 0, data.length, new float[40]);
+    }
+
+    @Test
+    public void rejectsOutputTooSmall() {
+        byte[] data = this.encode(createCloud(10, 3), 10);
+        this.assertRejected(data, 0, data.length, new float[39]);
+    }
+
+    @Test
+    public void rejectsOverflowingPointCount() {
+        byte[] data = this.encode(createCloud(10, 3), 10);
+        // 0x40000000 points of 4 floats wrap to 0 in int arithmetic, with a plausible body.
+        writeInt(data, 4, 0x40000000);
+        writeInt(data, 24, 0x40000000);
+        this.assertRejected(data, 0, data.length, new float[40]);
+        writeInt(data, 4, -1);
+        this.assertRejected(data, 0, data.length, new float[40]);
+    }
+
+    @Test
+    public void rejectsBodyLengthOutOfBounds() {
+        byte[] data = this.encode(createCloud(10, 3), 10);
+        // More than the worst case of 8 bytes per point, the decoder must not allocate it.
+        writeInt(data, 24, Integer.MAX_VALUE);
+        this.assertRejected(data, 0, data.length, new float[40]);
+        writeInt(data, 24, 10 * 8 + 1);
+        this.assertRejected(data, 0, data.length, new float[40]);
+        // Less than one confidence byte per point.
+        writeInt(data, 24, 9);
+        this.assertRejected(data, 0, data.length, new float[40]);
+    }
+
+    @Test
+    public void rejectsCorruptedBody() {
+        byte[] data = this.encode(createCloud(100, 3), 100);
+        Random random = new Random(7);
+        for (int trial = 0; trial < 100; trial++) {
+            byte[] corrupted = data.clone();
+            for (int i = 28; i < corrupted.length; i++) {
+                corrupted[i] = (byte) random.nextInt();
+            }
+            try {
+                this.codec.decode(corrupted, 0, corrupted.length, new float[400]);
+            } catch (IllegalArgumentException e) {
+                // Expected, the only failure allowed.
+            }
+        }
+    }
+
+    private byte[] encode(FloatBuffer points, int numPoints) {
+        int size = this.codec.encode(points, numPoints);
+        return Arrays.copyOf(this.codec.getData().array(), size);
+    }
+
+    private void assertRejected(byte[] data, int offset, int length, float[] out) {
+        try {
+            this.codec.decode(data, offset, length, out);
+            fail("decoded " + length + " bytes at " + offset);
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static FloatBuffer createCloud(int numPoints, long seed) {
+        Random random = new Random(seed);
+        FloatBuffer points = FloatBuffer.allocate(numPoints * FLOATS_PER_POINT);
+        for (int i = 0; i < numPoints; i++) {
+            points.put(random.nextFloat() * 4 - 2);
+            points.put(random.nextFloat() * 3 - 1.5f);
+            points.put(0.5f + random.nextFloat() * 4);
+            points.put(random.nextFloat());
+        }
+        points.clear();
+        return points;
+    }
+
+    private static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+}
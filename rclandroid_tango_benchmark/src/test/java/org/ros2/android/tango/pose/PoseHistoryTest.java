@@ -0,0 +1,239 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.pose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PoseHistoryTest {
+    private static final double EPSILON = 1e-9;
+    private static final double[] IDENTITY = { 0, 0, 0, 1 };
+
+    private final double[] translation = new double[3];
+    private final double[] rotation = new double[4];
+
+    @Test
+    public void roundsCapacityToPowerOfTwo() {
+        assertEquals(4, new PoseHistory(4, 1).getCapacity());
+        assertEquals(8, new PoseHistory(5, 1).getCapacity());
+        assertEquals(2, new PoseHistory(0, 1).getCapacity());
+    }
+
+    @Test
+    public void emptyHistoryHasNoPose() {
+        PoseHistory history = new PoseHistory(8, 1);
+        assertFalse(history.getPoseAtTime(0, this.translation, this.rotation));
+        assertTrue(Double.isNaN(history.getLatestTimestamp()));
+        assertTrue(Double.isNaN(history.getLatestPose(this.translation, this.rotation)));
+    }
+
+    @Test
+    public void exactTimestampReturnsStoredPose() {
+        PoseHistory history = new PoseHistory(8, 1);
+        double[] quarterTurn = rotationZ(Math.PI / 2);
+        history.add(1.0, new double[] { 1, 2, 3 }, IDENTITY);
+        history.add(1.1, new double[] { 4, 5, 6 }, quarterTurn);
+        history.add(1.2, new double[] { 7, 8, 9 }, IDENTITY);
+
+        assertTrue(history.getPoseAtTime(1.1, this.translation, this.rotation));
+        assertArrayEquals(new double[] { 4, 5, 6 }, this.translation, EPSILON);
+        assertArrayEquals(quarterTurn, this.rotation, EPSILON);
+
+        // Both ends of the history are inside it.
+        assertTrue(history.getPoseAtTime(1.0, this.translation, this.rotation));
+        assertArrayEquals(new double[] { 1, 2, 3 }, this.translation, EPSILON);
+        assertTrue(history.getPoseAtTime(1.2, this.translation, this.rotation));
+        assertArrayEquals(new double[] { 7, 8, 9 }, this.translation, EPSILON);
+        assertEquals(1.2, history.getLatestPose(this.translation, this.rotation), 0);
+        assertArrayEquals(IDENTITY, this.rotation, 0);
+    }
+
+    @Test
+    public void outOfRangeTimestampHasNoPose() {
+        PoseHistory history = new PoseHistory(8, 1);
+        history.add(1.0, new double[] { 0, 0, 0 }, IDENTITY);
+        history.add(1.1, new double[] { 1, 0, 0 }, IDENTITY);
+
+        assertFalse(history.getPoseAtTime(0.99, this.translation, this.rotation));
+        assertFalse(history.getPoseAtTime(1.11, this.translation, this.rotation));
+        assertFalse(history.getPoseAtTime(Double.NaN, this.translation, this.rotation));
+    }
+
+    @Test
+    public void gapLongerThanMaxGapHasNoPose() {
+        PoseHistory history = new PoseHistory(8, 0.1);
+        history.add(1.0, new double[] { 0, 0, 0 }, IDENTITY);
+        history.add(1.5, new double[] { 1, 0, 0 }, IDENTITY);
+        history.add(1.55, new double[] { 2, 0, 0 }, IDENTITY);
+
+        assertFalse(history.getPoseAtTime(1.2, this.translation, this.rotation));
+        assertTrue(history.getPoseAtTime(1.5, this.translation, this.rotation));
+        assertTrue(history.getPoseAtTime(1.525, this.translation, this.rotation));
+        assertEquals(1.5, this.translation[0], EPSILON);
+    }
+
+    @Test
+    public void interpolatesTranslationLinearly() {
+        PoseHistory history = new PoseHistory(8, 1);
+        history.add(2.0, new double[] { 0, 10, -4 }, IDENTITY);
+        history.add(2.4, new double[] { 4, 10, 0 }, IDENTITY);
+
+        assertTrue(history.getPoseAtTime(2.1, this.translation, this.rotation));
+        assertArrayEquals(new double[] { 1, 10, -3 }, this.translation, EPSILON);
+        assertArrayEquals(IDENTITY, this.rotation, EPSILON);
+    }
+
+    @Test
+    public void interpolatesRotationSpherically() {
+        PoseHistory history = new PoseHistory(8, 1);
+        history.add(0.0, new double[3], IDENTITY);
+        history.add(1.0, new double[3], rotationZ(Math.PI / 2));
+
+        assertTrue(history.getPoseAtTime(0.5, this.translation, this.rotation));
+        assertArrayEquals(rotationZ(Math.PI / 4), this.rotation, EPSILON);
+        assertTrue(history.getPoseAtTime(0.25, this.translation, this.rotation));
+        assertArrayEquals(rotationZ(Math.PI / 8), this.rotation, EPSILON);
+    }
+
+    @Test
+    public void slerpTakesShortestPath() {
+        double[] out = new double[4];
+        // -q is the same rotation as q, the half way point is still a quarter turn.
+        double[] halfTurn = rotationZ(Math.PI);
+        PoseHistory.slerp(0, 0, 0, 1, -halfTurn[0], -halfTurn[1], -halfTurn[2], -halfTurn[3],
+                0.5, out);
+        double[] expected = rotationZ(Math.PI / 2);
+        assertEquals(1, Math.abs(dot(expected, out)), EPSILON);
+    }
+
+    @Test
+    public void slerpOfCloseRotationsIsNormalized() {
+        double[] out = new double[4];
+        double[] small = rotationZ(1e-3);
+        PoseHistory.slerp(0, 0, 0, 1, small[0], small[1], small[2], small[3], 0.5, out);
+        assertArrayEquals(rotationZ(5e-4), out, 1e-7);
+        assertEquals(1, dot(out, out), EPSILON);
+    }
+
+    @Test
+    public void wrapAroundKeepsTheNewestPoses() {
+        PoseHistory history = new PoseHistory(4, 1);
+        for (int i = 0; i < 10; i++) {
+            history.add(i, new double[] { i, 0, 0 }, IDENTITY);
+        }
+
+        // One slot of margin for the writer: the 3 newest of the 4 slots are readable.
+        assertFalse(history.getPoseAtTime(6, this.translation, this.rotation));
+        for (int i = 7; i <= 9; i++) {
+            assertTrue(history.getPoseAtTime(i, this.translation, this.rotation));
+            assertEquals(i, this.translation[0], EPSILON);
+        }
+        assertTrue(history.getPoseAtTime(8.5, this.translation, this.rotation));
+        assertEquals(8.5, this.translation[0], EPSILON);
+        assertEquals(9, history.getLatestTimestamp(), 0);
+    }
+
+    @Test
+    public void clearForgetsEveryPose() {
+        PoseHistory history = new PoseHistory(8, 1);
+        history.add(1, new double[3], IDENTITY);
+        history.add(2, new double[3], IDENTITY);
+        history.clear();
+
+        assertFalse(history.getPoseAtTime(1.5, this.translation, this.rotation));
+        assertTrue(Double.isNaN(history.getLatestTimestamp()));
+
+        history.add(3, new double[] { 5, 0, 0 }, IDENTITY);
+        assertTrue(history.getPoseAtTime(3, this.translation, this.rotation));
+        assertEquals(5, this.translation[0], 0);
+        assertFalse(history.getPoseAtTime(2, this.translation, this.rotation));
+    }
+
+    /**
+     * A reader racing a writer that overwrites the ring must retry, never mix two entries.
+     * Each pose is a function of its timestamp, so a torn read shows as a mismatch.
+     */
+    @Test
+    public void concurrentReadsAreNeverTorn() throws InterruptedException {
+        final PoseHistory history = new PoseHistory(4, 1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                double[] translation = new double[3];
+                double[] rotation = new double[4];
+                for (long i = 1; running.get(); i++) {
+                    double timestamp = i * 1e-3;
+                    translation[0] = timestamp;
+                    translation[1] = 2 * timestamp;
+                    translation[2] = 3 * timestamp;
+                    rotation[2] = timestamp;
+                    rotation[3] = 4 * timestamp;
+                    history.add(timestamp, translation, rotation);
+                }
+            }
+        });
+        final AtomicReference<String> failure = new AtomicReference<>();
+        writer.start();
+        try {
+            long lookups = 0;
+            long hits = 0;
+            long deadline = System.nanoTime() + 500000000L;
+            while (System.nanoTime() < deadline && failure.get() == null) {
+                double latest = history.getLatestTimestamp();
+                if (Double.isNaN(latest)) {
+                    continue;
+                }
+                // Between the two newest entries, the slots the writer overwrites next.
+                double timestamp = latest - 0.5e-3;
+                lookups++;
+                if (!history.getPoseAtTime(timestamp, this.translation, this.rotation)) {
+                    continue;
+                }
+                hits++;
+                // Linear in the timestamp, so the interpolation is exact up to rounding.
+                double x = this.translation[0];
+                if (Math.abs(x - timestamp) > 1e-9
+                        || Math.abs(this.translation[1] - 2 * x) > 1e-9
+                        || Math.abs(this.translation[2] - 3 * x) > 1e-9) {
+                    failure.set(String.format("torn translation at %f: %s", timestamp,
+                            Arrays.toString(this.translation)));
+                }
+            }
+            assertEquals(null, failure.get());
+            assertTrue("lookups " + lookups, lookups > 0);
+            assertTrue("no successful lookup", hits > 0);
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    private static double[] rotationZ(double angle) {
+        return new double[] { 0, 0, Math.sin(angle / 2), Math.cos(angle / 2) };
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    }
+}
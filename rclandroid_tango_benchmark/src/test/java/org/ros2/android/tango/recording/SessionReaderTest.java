@@ -0,0 +1,162 @@
+/* Copyright 2017 Mickael Gaillard <mick.gaillard@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ros2.android.tango.recording;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+public class SessionReaderTest {
+    private static final double[] POSE_TIMESTAMPS = { 1.0, 1.5, 1.5, 2.0, 3.25 };
+    private static final double[] CLOUD_TIMESTAMPS = { 1.2, 1.4 };
+
+    // The first chunk of each file is mapped in the background, records are dropped until then.
+    private static final long MAPPING_TIMEOUT_NANOS = 10000000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findReturnsLastRecordAtOrBefore() throws IOException, InterruptedException {
+        File directory = this.record();
+        SessionReader reader = new SessionReader(directory);
+        try {
+            assertEquals(POSE_TIMESTAMPS.length, reader.getPoseCount());
+            assertEquals(-1, reader.findPose(0.5));
+            assertEquals(-1, reader.findPose(Math.nextDown(1.0)));
+            assertEquals(0, reader.findPose(1.0));
+            assertEquals(0, reader.findPose(1.25));
+            // Equal timestamps: the last one.
+            assertEquals(2, reader.findPose(1.5));
+            assertEquals(3, reader.findPose(2.0));
+            assertEquals(3, reader.findPose(3.0));
+            assertEquals(4, reader.findPose(3.25));
+            assertEquals(4, reader.findPose(100));
+            for (int i = 0; i < POSE_TIMESTAMPS.length; i++) {
+                assertEquals(POSE_TIMESTAMPS[i], reader.getPoseTimestamp(i), 0);
+            }
+
+            assertEquals(-1, reader.findCloud(1.0));
+            assertEquals(0, reader.findCloud(1.3));
+            assertEquals(1, reader.findCloud(1.4));
+            assertEquals(1, reader.findCloud(2.0));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void findInEmptyStreamReturnsNone() throws IOException, InterruptedException {
+        File directory = this.record();
+        SessionReader reader = new SessionReader(directory);
+        try {
+            assertEquals(0, reader.getEventCount());
+            assertEquals(-1, reader.findEvent(0));
+            assertEquals(-1, reader.findEvent(Double.POSITIVE_INFINITY));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void recordsReadBack() throws IOException, InterruptedException {
+        File directory = this.folder.newFolder();
+        SessionRecorder recorder = new SessionRecorder(directory);
+        FloatBuffer points = FloatBuffer.wrap(new float[] { 1, 2, 3, 0.5f, 4, 5, 6, 1 });
+        long deadline = System.nanoTime() + MAPPING_TIMEOUT_NANOS;
+        while (!recorder.recordPointCloud(1.0, points, 2)) {
+            awaitMapping(deadline);
+        }
+        while (!recorder.recordPose(1.1, 1, 2, 3, 4, 0.25f, new double[] { 1, 2, 3 },
+                new double[] { 0, 0, 0.6, 0.8 })) {
+            awaitMapping(deadline);
+        }
+        while (!recorder.recordEvent(1.2, 5, "key", "valeur")) {
+            awaitMapping(deadline);
+        }
+        recorder.close();
+
+        SessionReader reader = new SessionReader(directory);
+        try {
+            assertEquals(2, reader.getCloudSize(0));
+            FloatBuffer cloud = FloatBuffer.allocate(8);
+            assertEquals(2, reader.readCloud(0, cloud));
+            assertArrayEquals(points.array(), cloud.array(), 0);
+
+            SessionReader.Pose pose = new SessionReader.Pose();
+            reader.readPose(0, pose);
+            assertEquals(1.1, pose.timestamp, 0);
+            assertEquals(1, pose.baseFrame);
+            assertEquals(2, pose.targetFrame);
+            assertEquals(3, pose.statusCode);
+            assertEquals(4, pose.confidence);
+            assertEquals(0.25f, pose.accuracy, 0);
+            assertArrayEquals(new double[] { 1, 2, 3 }, pose.translation, 0);
+            assertArrayEquals(new double[] { 0, 0, 0.6, 0.8 }, pose.rotation, 0);
+
+            SessionReader.Event event = reader.readEvent(0);
+            assertEquals(1.2, event.timestamp, 0);
+            assertEquals(5, event.type);
+            assertEquals("key", event.key);
+            assertEquals("valeur", event.value);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readOutOfRangeThrows() throws IOException, InterruptedException {
+        SessionReader reader = new SessionReader(this.record());
+        try {
+            reader.readPose(POSE_TIMESTAMPS.length, new SessionReader.Pose());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File record() throws IOException, InterruptedException {
+        File directory = this.folder.newFolder();
+        SessionRecorder recorder = new SessionRecorder(directory);
+        long deadline = System.nanoTime() + MAPPING_TIMEOUT_NANOS;
+        double[] translation = new double[3];
+        double[] rotation = { 0, 0, 0, 1 };
+        for (double timestamp : POSE_TIMESTAMPS) {
+            while (!recorder.recordPose(timestamp, 0, 0, 0, 0, 0, translation, rotation)) {
+                awaitMapping(deadline);
+            }
+        }
+        FloatBuffer points = FloatBuffer.allocate(4);
+        for (double timestamp : CLOUD_TIMESTAMPS) {
+            while (!recorder.recordPointCloud(timestamp, points, 1)) {
+                awaitMapping(deadline);
+            }
+        }
+        recorder.close();
+        return directory;
+    }
+
+    private static void awaitMapping(long deadline) throws InterruptedException {
+        assertTrue("chunk not mapped in time", System.nanoTime() < deadline);
+        Thread.sleep(1);
+    }
+}